@@ -0,0 +1,409 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile bottom up from tuples that arrive sorted
+ * on the key field, e.g. from an external sort of the table being indexed.
+ * Tuples are packed into leaves up to a fill factor and the internal levels are
+ * built on the fly as their children fill up, so every page is written once, in
+ * about the order of the file, and the loader holds no more than a page and a
+ * half of tuples plus half an internal page worth of child pages per level.
+ * Pages are filled by bytes rather than by slots, so that leaves and internal
+ * pages with compressed string keys hold as many tuples and entries as fit.
+ * <p>
+ * Pages are written straight to the file, around the buffer pool and the log,
+ * so the file must be empty and must not be read before finish() returns.
+ *
+ * @see simpledb.BTreeFileEncoder
+ */
+public class BTreeBulkLoader {
+
+    // the parent pointer is the first int of both leaf and internal pages,
+    // followed on leaf pages by the left and right sibling pointers
+    private static final int PARENT = 0;
+    private static final int LEFT_SIBLING = 4;
+    private static final int RIGHT_SIBLING = 8;
+
+    private final int tableid;
+    private final int keyField;
+    private final TupleDesc td;
+    private final Type[] typeAr;
+    private final RandomAccessFile out;
+
+    // the bytes a page has for tuples or entries, how many of them the fill factor
+    // asks for, and the fewest a page other than the root may use
+    private final int leafCapacity, leafFill, leafMin;
+    private final int internalCapacity, internalFill, internalMin;
+    // the most bytes one entry takes up
+    private final int maxEntrySpace;
+
+    private int numPages = 0;
+    private ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    // the bytes the buffered tuples take up on one leaf
+    private int tupleSpace = 0;
+    private Field lastKey = null;
+    private Field lastLeafKey = null;
+    private BTreePageId leafId = null;
+    private BTreePageId prevLeafId = null;
+    private final ArrayList<Level> levels = new ArrayList<Level>();
+    private BTreePageId rootId = null;
+    private boolean finished = false;
+
+    /**
+     * The internal page being filled at one level of the tree (level 0 holds the
+     * parents of the leaves). The children whose entries fit in the fill are
+     * written as soon as they arrive; the ones after that may end up on the next
+     * page of the level and wait here until their parent is known.
+     */
+    private static class Level {
+        BTreePageId pageId;
+        // the key separating this page from the previous page of the level
+        Field leftKey;
+        ArrayList<BTreePageId> children = new ArrayList<BTreePageId>();
+        // keys.get(i) separates children i and i + 1
+        ArrayList<Field> keys = new ArrayList<Field>();
+        // the bytes the entries for all of the keys take up
+        int space = 0;
+        // the number of children written so far, and the bytes their entries take up
+        int written = 0;
+        int writtenSpace = 0;
+        // the data of the children after those
+        ArrayDeque<byte[]> held = new ArrayDeque<byte[]>();
+    }
+
+    /**
+     * Create a loader for an empty BTreeFile that is registered in the catalog.
+     *
+     * @param bf - the B+ tree file to fill
+     * @param fillFactor - the fraction of each page to fill, in (0, 1]. Leave room
+     * for later inserts with less than 1; pages are never filled below half.
+     * @throws DbException if the file is not empty
+     */
+    public BTreeBulkLoader(BTreeFile bf, double fillFactor) throws IOException, DbException {
+        if(fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        }
+        if(bf.getFile().length() > 0) {
+            throw new DbException("bulk loading needs an empty file");
+        }
+        this.tableid = bf.getId();
+        this.keyField = bf.keyField();
+        this.td = bf.getTupleDesc();
+        this.typeAr = new Type[td.numFields()];
+        for(int i = 0; i < typeAr.length; i++) {
+            typeAr[i] = td.getFieldType(i);
+        }
+
+        BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(tableid, 0, BTreePageId.LEAF),
+                BTreeLeafPage.createEmptyPageData(), keyField);
+        leafCapacity = leaf.getCapacity();
+        leafMin = Math.max(leaf.getMaxItemSpace(), leaf.getMinUsedSpace());
+        leafFill = Math.max(leafMin, (int) (leafCapacity * fillFactor));
+        BTreeInternalPage internal = new BTreeInternalPage(new BTreePageId(tableid, 0, BTreePageId.INTERNAL),
+                BTreeInternalPage.createEmptyPageData(), keyField);
+        internalCapacity = internal.getCapacity();
+        maxEntrySpace = internal.getMaxItemSpace();
+        internalMin = Math.max(maxEntrySpace, internal.getMinUsedSpace());
+        internalFill = Math.max(internalMin, (int) (internalCapacity * fillFactor));
+
+        this.out = new RandomAccessFile(bf.getFile(), "rw");
+    }
+
+    /**
+     * Add the next tuple. Tuples must be added in key order; equal keys may
+     * follow one another.
+     *
+     * @param t - the tuple to add
+     * @throws DbException if t sorts before the previous tuple
+     */
+    public void add(Tuple t) throws IOException, DbException {
+        if(finished) {
+            throw new DbException("bulk load already finished");
+        }
+        Field key = t.getField(keyField);
+        if(lastKey != null && key.compare(Predicate.Op.LESS_THAN, lastKey)) {
+            throw new DbException("tuples must be added in key order");
+        }
+        lastKey = key;
+        tupleSpace += BTreeLeafPage.getSpace(td, keyField, t, 
+                tuples.isEmpty() ? null : tuples.get(tuples.size() - 1));
+        tuples.add(t);
+
+        // hold back enough tuples that the last leaf is at least half full
+        if(tupleSpace >= leafFill + leafMin) {
+            int n = fittingTuples(tuples, leafFill);
+            ArrayList<Tuple> rest = new ArrayList<Tuple>(tuples.subList(n, tuples.size()));
+            tuples.subList(n, tuples.size()).clear();
+            addLeaf(tuples, newPageId(BTreePageId.LEAF), false);
+            tuples = rest;
+            tupleSpace = leafSpace(tuples);
+        }
+    }
+
+    /**
+     * Write out the remaining pages and the root pointer, and close the file.
+     * If no tuples were added the root is an empty leaf.
+     */
+    public void finish() throws IOException, DbException {
+        if(finished) {
+            return;
+        }
+        finished = true;
+        try {
+            // the last one or two leaves, split evenly if they don't fit in one
+            if(tupleSpace <= leafCapacity) {
+                addLeaf(tuples, null, levels.isEmpty());
+            }
+            else {
+                int split = fittingTuples(tuples, tupleSpace / 2);
+                ArrayList<Tuple> right = new ArrayList<Tuple>(tuples.subList(split, tuples.size()));
+                tuples.subList(split, tuples.size()).clear();
+                addLeaf(tuples, newPageId(BTreePageId.LEAF), false);
+                addLeaf(right, null, false);
+            }
+
+            // finishing a level may add a level above it
+            for(int i = 0; i < levels.size(); i++) {
+                finishLevel(i);
+            }
+
+            out.seek(0);
+            out.write(BTreeFileEncoder.convertToRootPtrPage(rootId.pageNumber(), rootId.pgcateg(), 0));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Bulk load a whole iterator, which must return its tuples in key order.
+     *
+     * @param bf - the empty B+ tree file to fill
+     * @param sorted - the tuples to load, sorted on the key field of bf
+     * @param fillFactor - the fraction of each page to fill, in (0, 1]
+     */
+    public static void load(BTreeFile bf, DbIterator sorted, double fillFactor)
+            throws IOException, DbException, TransactionAbortedException {
+        BTreeBulkLoader loader = new BTreeBulkLoader(bf, fillFactor);
+        sorted.open();
+        try {
+            while(sorted.hasNext()) {
+                loader.add(sorted.next());
+            }
+        } finally {
+            sorted.close();
+        }
+        loader.finish();
+    }
+
+    private BTreePageId newPageId(int pgcateg) {
+        numPages++;
+        return new BTreePageId(tableid, numPages, pgcateg);
+    }
+
+    /**
+     * Returns the bytes the given tuples take up on one leaf.
+     */
+    private int leafSpace(List<Tuple> ts) {
+        int space = 0;
+        for(int i = 0; i < ts.size(); i++) {
+            space += BTreeLeafPage.getSpace(td, keyField, ts.get(i), i == 0 ? null : ts.get(i - 1));
+        }
+        return space;
+    }
+
+    /**
+     * Returns how many of the given tuples, from the first, fit in the given number of
+     * bytes on one leaf.
+     */
+    private int fittingTuples(List<Tuple> ts, int space) {
+        int n = 0;
+        while(n < ts.size()) {
+            space -= BTreeLeafPage.getSpace(td, keyField, ts.get(n), n == 0 ? null : ts.get(n - 1));
+            if(space < 0) {
+                break;
+            }
+            n++;
+        }
+        return n;
+    }
+
+    private int entrySpace(Field key) {
+        return BTreeInternalPage.getSpace(typeAr[keyField], key);
+    }
+
+    private void write(BTreePageId id, byte[] data) throws IOException {
+        out.seek(BTreeRootPtrPage.getPageSize() + (long) (id.pageNumber() - 1) * BufferPool.PAGE_SIZE);
+        out.write(data);
+    }
+
+    /**
+     * Lay out the next leaf and hand it to its parent level, or write it as the
+     * root. The id of the leaf after it is reserved by the caller so that the
+     * right sibling pointer can be set now.
+     */
+    private void addLeaf(ArrayList<Tuple> pageTuples, BTreePageId rightId, boolean root)
+            throws IOException, DbException {
+        BTreePageId id = (leafId != null ? leafId : newPageId(BTreePageId.LEAF));
+        byte[] data = BTreeFileEncoder.convertToLeafPage(pageTuples, BufferPool.PAGE_SIZE,
+                typeAr.length, typeAr, keyField);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(LEFT_SIBLING, prevLeafId == null ? 0 : prevLeafId.pageNumber());
+        buf.putInt(RIGHT_SIBLING, rightId == null ? 0 : rightId.pageNumber());
+
+        // "copy up" as much of the first key of every leaf but the first as it
+        // takes to tell it from the last key of the leaf before it
+        Field key = null;
+        if(prevLeafId != null) {
+            key = BTreeFile.separator(lastLeafKey, pageTuples.get(0).getField(keyField));
+        }
+        if(!pageTuples.isEmpty()) {
+            lastLeafKey = pageTuples.get(pageTuples.size() - 1).getField(keyField);
+        }
+        prevLeafId = id;
+        leafId = rightId;
+        if(root) {
+            write(id, data);
+            rootId = id;
+        }
+        else {
+            addChild(0, id, data, key);
+        }
+    }
+
+    /**
+     * Add a child page to the page being filled at a level, and write out that
+     * page once enough children have arrived after it to fill the next one at
+     * least halfway.
+     *
+     * @param level - the level of the parent
+     * @param id - the id of the child
+     * @param data - the data of the child, which has not been written yet
+     * @param key - the key separating the child from the previous child, ignored
+     * for the first child of the level
+     */
+    private void addChild(int level, BTreePageId id, byte[] data, Field key)
+            throws IOException, DbException {
+        if(levels.size() == level) {
+            levels.add(new Level());
+        }
+        Level l = levels.get(level);
+        if(l.children.isEmpty()) {
+            l.pageId = newPageId(BTreePageId.INTERNAL);
+        }
+        else {
+            l.keys.add(key);
+            l.space += entrySpace(key);
+        }
+        l.children.add(id);
+        l.held.add(data);
+        writeFitting(l);
+
+        // the page gets the written children, and the ones after the next key
+        // must take up at least the minimum
+        if(l.space >= internalFill + maxEntrySpace + internalMin) {
+            int entries = l.written - 1;
+            byte[] page = internalPageData(level, l.children.subList(0, entries + 1),
+                    l.keys.subList(0, entries));
+            BTreePageId pageId = l.pageId;
+            Field leftKey = l.leftKey;
+
+            // "push up" the key between this page and the next one
+            l.leftKey = l.keys.get(entries);
+            l.children = new ArrayList<BTreePageId>(l.children.subList(entries + 1, l.children.size()));
+            l.keys = new ArrayList<Field>(l.keys.subList(entries + 1, l.keys.size()));
+            l.space = 0;
+            for(Field k : l.keys) {
+                l.space += entrySpace(k);
+            }
+            l.written = 0;
+            l.writtenSpace = 0;
+            l.pageId = newPageId(BTreePageId.INTERNAL);
+            writeFitting(l);
+            addChild(level + 1, pageId, page, leftKey);
+        }
+    }
+
+    /**
+     * Write out the held children of a level whose entries fit in the fill of its
+     * current page, so that they are sure to end up on it.
+     */
+    private void writeFitting(Level l) throws IOException {
+        while(l.written < l.children.size()) {
+            int space = (l.written == 0 ? 0 : l.writtenSpace + entrySpace(l.keys.get(l.written - 1)));
+            if(space > internalFill) {
+                break;
+            }
+            byte[] data = l.held.removeFirst();
+            ByteBuffer.wrap(data).putInt(PARENT, l.pageId.pageNumber());
+            write(l.children.get(l.written), data);
+            l.written++;
+            l.writtenSpace = space;
+        }
+    }
+
+    /**
+     * Write out the last page of a level, split evenly in two if its children
+     * don't fit in one page, and hand it to the level above. The last page of
+     * the top level is the root.
+     */
+    private void finishLevel(int level) throws IOException, DbException {
+        Level l = levels.get(level);
+        int size = l.children.size();
+        if(l.space <= internalCapacity) {
+            byte[] page = internalPageData(level, l.children, l.keys);
+            writeHeld(l, l.pageId);
+            if(level == levels.size() - 1) {
+                write(l.pageId, page);
+                rootId = l.pageId;
+            }
+            else {
+                addChild(level + 1, l.pageId, page, l.leftKey);
+            }
+        }
+        else {
+            // the left page gets the children before the first entry that would
+            // take it past half of the bytes
+            int split = 1;
+            int leftSpace = 0;
+            while(2 * (leftSpace + entrySpace(l.keys.get(split - 1))) < l.space) {
+                leftSpace += entrySpace(l.keys.get(split - 1));
+                split++;
+            }
+            BTreePageId rightId = newPageId(BTreePageId.INTERNAL);
+            // the written children from split on have the left page as their parent
+            for(int i = split; i < l.written; i++) {
+                out.seek(BTreeRootPtrPage.getPageSize()
+                        + (long) (l.children.get(i).pageNumber() - 1) * BufferPool.PAGE_SIZE + PARENT);
+                out.writeInt(rightId.pageNumber());
+            }
+            writeHeld(l, rightId);
+            byte[] left = internalPageData(level, l.children.subList(0, split), l.keys.subList(0, split - 1));
+            byte[] right = internalPageData(level, l.children.subList(split, size), l.keys.subList(split, size - 1));
+            addChild(level + 1, l.pageId, left, l.leftKey);
+            addChild(level + 1, rightId, right, l.keys.get(split - 1));
+        }
+    }
+
+    private void writeHeld(Level l, BTreePageId parentId) throws IOException {
+        while(!l.held.isEmpty()) {
+            byte[] data = l.held.removeFirst();
+            ByteBuffer.wrap(data).putInt(PARENT, parentId.pageNumber());
+            write(l.children.get(l.written), data);
+            l.written++;
+        }
+    }
+
+    private byte[] internalPageData(int level, List<BTreePageId> children, List<Field> keys)
+            throws IOException {
+        ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+        for(int i = 0; i < keys.size(); i++) {
+            entries.add(new BTreeEntry(keys.get(i), children.get(i), children.get(i + 1)));
+        }
+        int childPageCategory = (level == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+        return BTreeFileEncoder.convertToInternalPage(entries, BufferPool.PAGE_SIZE,
+                typeAr[keyField], childPageCategory);
+    }
+}
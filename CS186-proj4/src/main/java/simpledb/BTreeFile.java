@@ -0,0 +1,2050 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import simpledb.Predicate.Op;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores a B+ tree.
+ * Specifically, it stores a pointer to a root page,
+ * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
+ * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
+ * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * 
+ * @see simpledb.BTreeLeafPage#BTreeLeafPage
+ * @see simpledb.BTreeInternalPage#BTreeInternalPage
+ * @see simpledb.BTreeHeaderPage#BTreeHeaderPage
+ * @see simpledb.BTreeRootPtrPage#BTreeRootPtrPage
+ * @author Becca Taft
+ */
+public class BTreeFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid ;
+    private int keyField;
+    // versions of the root pointer, internal and header pages, bumped whenever a transaction
+    // locks one of them for writing. A search does not keep these pages locked on its way down
+    // and compares their versions once it has locked the leaf page
+    private final ConcurrentHashMap<PageId, Long> versions = new ConcurrentHashMap<PageId, Long>();
+
+    // number of empty pages appended to the file, or claimed from the freed pages, at once
+    static final int PREALLOCATE_PAGES = 16;
+    // how long claiming freed pages waits for a header page that another transaction holds,
+    // in milliseconds, before it appends new pages instead
+    static final long CLAIM_LOCK_TIMEOUT = 10;
+    // page numbers whose slots in the header pages are free, freed by committed transactions.
+    // An entry can be stale if the header pages were read while it was being claimed, so the
+    // slot is checked again when the page is claimed
+    private final TreeSet<Integer> freePages = new TreeSet<Integer>();
+    // whether freePages has been filled from the header pages; after that it is kept up to
+    // date when transactions that free pages commit
+    private boolean freePagesLoaded = false;
+    // empty pages that are marked used in the header pages, or lie past the end of them, and
+    // have not been handed out: claimed from freePages in a batch, handed back by aborted
+    // transactions, or found by reclaimUnusedPages
+    private final ArrayDeque<Integer> reserved = new ArrayDeque<Integer>();
+    // empty pages appended to the end of the file by the last batch and not handed out yet
+    private final ArrayDeque<Integer> appended = new ArrayDeque<Integer>();
+    // pages handed out to and freed by each running transaction, see transactionComplete
+    private final HashMap<TransactionId, ArrayList<Integer>> allocated = new HashMap<TransactionId, ArrayList<Integer>>();
+    private final HashMap<TransactionId, ArrayList<Integer>> freed = new HashMap<TransactionId, ArrayList<Integer>>();
+    // running transactions for which claiming freed pages timed out; they append new pages
+    private final HashSet<TransactionId> claimTimedOut = new HashSet<TransactionId>();
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     * 
+     * @param f - the file that stores the on-disk backing store for this B+ tree
+     *            file.
+     * @param key - the field which index is keyed on
+     * @param td - the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int key, TupleDesc td) {
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /**
+     * Reclaim the pages that were reserved or handed out but never used by a committed
+     * transaction before the file was last closed: pages neither reachable from the root page
+     * nor free in the header pages. Those at the end of the file are truncated, and the others
+     * make up the reserve, so they are handed out before any freed or appended page.
+     * 
+     * This is an offline step that page allocation never takes on its own: the internal pages
+     * and header pages are read directly from the file, so a page that is only referenced by
+     * a page in the BufferPool would be taken for unused. Call it only while no transaction
+     * uses this file and the BufferPool holds none of its pages, e.g. right after opening it.
+     * 
+     * @throws IOException
+     */
+    public synchronized void reclaimUnusedPages() throws IOException {
+        int numPages = numPages();
+        if(numPages <= 1) {
+            return;
+        }
+        reserved.clear();
+        appended.clear();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) readPage(BTreeRootPtrPage.getId(tableid));
+        // pages reachable from the root page, free or header pages; page 1 is the root page
+        // of an empty tree
+        HashSet<Integer> known = new HashSet<Integer>();
+        known.add(1);
+        ArrayList<BTreePageId> internal = new ArrayList<BTreePageId>();
+        if(rootPtr.getRootId() != null) {
+            known.add(rootPtr.getRootId().pageNumber());
+            if(rootPtr.getRootId().pgcateg() == BTreePageId.INTERNAL) {
+                internal.add(rootPtr.getRootId());
+            }
+        }
+        while(!internal.isEmpty()) {
+            BTreeInternalPage page = (BTreeInternalPage) readPage(internal.remove(internal.size() - 1));
+            Iterator<BTreeEntry> it = page.iterator();
+            while(it.hasNext()) {
+                BTreeEntry e = it.next();
+                for(BTreePageId child : new BTreePageId[]{e.getLeftChild(), e.getRightChild()}) {
+                    if(known.add(child.pageNumber()) && child.pgcateg() == BTreePageId.INTERNAL) {
+                        internal.add(child);
+                    }
+                }
+            }
+        }
+        BTreePageId headerId = rootPtr.getHeaderId();
+        for(int headerPageCount = 0; headerId != null; headerPageCount++) {
+            BTreeHeaderPage headerPage = (BTreeHeaderPage) readPage(headerId);
+            for(int slot = 0; slot < BTreeHeaderPage.getNumSlots(); slot++) {
+                if(!headerPage.isSlotUsed(slot)) {
+                    known.add(headerPageCount * BTreeHeaderPage.getNumSlots() + slot);
+                }
+            }
+            known.add(headerId.pageNumber());
+            headerId = headerPage.getNextPageId();
+        }
+        int last = numPages;
+        while(!known.contains(last)) {
+            last--;
+        }
+        if(last < numPages) {
+            RandomAccessFile rf = new RandomAccessFile(f, "rw");
+            rf.setLength(BTreeRootPtrPage.getPageSize() + (long) last * BufferPool.PAGE_SIZE);
+            rf.close();
+        }
+        for(int pageNo = 1; pageNo < last; pageNo++) {
+            if(!known.contains(pageNo)) {
+                reserved.add(pageNo);
+            }
+        }
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile. Implementation note:
+     * you will need to generate this tableid somewhere and ensure that each
+     * BTreeFile has a "unique id," and that you always return the same value for
+     * a particular BTreeFile. We suggest hashing the absolute file name of the
+     * file underlying the BTreeFile, i.e. f.getAbsoluteFile().hashCode().
+     * 
+     * @return an ID uniquely identifying this BTreeFile.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     * 
+     * @return TupleDesc of this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Read a page from the file on disk. This should not be called directly
+     * but should be called from the BufferPool via getPage()
+     * 
+     * @param pid - the id of the page to read from disk
+     * @return the page constructed from the contents on disk
+     */
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        BufferedInputStream bis = null;
+
+        try {
+            bis = new BufferedInputStream(new FileInputStream(f));
+            if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+                byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
+                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+                if (retval == -1) {
+                    throw new IllegalArgumentException("Read past end of table");
+                }
+                if (retval < BTreeRootPtrPage.getPageSize()) {
+                    throw new IllegalArgumentException("Unable to read "
+                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
+                }
+                Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+                BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
+                return p;
+            }
+            else {
+                byte pageBuf[] = new byte[BufferPool.PAGE_SIZE];
+                if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.PAGE_SIZE) !=
+                        BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.PAGE_SIZE) {
+                    throw new IllegalArgumentException(
+                            "Unable to seek to correct place in BTreeFile");
+                }
+                int retval = bis.read(pageBuf, 0, BufferPool.PAGE_SIZE);
+                if (retval == -1) {
+                    throw new IllegalArgumentException("Read past end of table");
+                }
+                if (retval < BufferPool.PAGE_SIZE) {
+                    throw new IllegalArgumentException("Unable to read "
+                            + BufferPool.PAGE_SIZE + " bytes from BTreeFile");
+                }
+                Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+                if(id.pgcateg() == BTreePageId.INTERNAL) {
+                    BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
+                    return p;
+                }
+                else if(id.pgcateg() == BTreePageId.LEAF) {
+                    BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
+                    return p;
+                }
+                else { // id.pgcateg() == BTreePageId.HEADER
+                    BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
+                    return p;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // Close the file on success or error
+            try {
+                if (bis != null)
+                    bis.close();
+            } catch (IOException ioe) {
+                // Ignore failures closing the file
+            }
+        }
+    }
+
+    /**
+     * Write a page to disk.  This should not be called directly but should 
+     * be called from the BufferPool when pages are flushed to disk
+     * 
+     * @param page - the page to write to disk
+     */
+    public void writePage(Page page) throws IOException {
+        BTreePageId id = (BTreePageId) page.getId();
+        
+        byte[] data = page.getPageData();
+        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+            rf.write(data);
+            rf.close();
+        }
+        else {
+            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().pageNumber() - 1) * BufferPool.PAGE_SIZE);
+            rf.write(data);
+            rf.close();
+        }
+    }
+    
+    /**
+     * Returns the number of pages in this BTreeFile.
+     */
+    public int numPages() {
+        // we only ever write full pages
+        return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the index of the field that this B+ tree is keyed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Function which finds and locks the leaf page in the B+ tree corresponding to
+     * the left-most page possibly containing the key field f. It locks the root pointer
+     * page and the internal nodes along the path to the leaf node with READ_ONLY permission
+     * only while reading them, and locks the leaf node with permission perm. Transactions which
+     * split or merge pages therefore only wait for searches that are reading the pages right now,
+     * and a search never waits for the leaf page while it holds a page above it.
+     * 
+     * If one of the pages on the path has been locked for writing by the time the leaf node
+     * is locked, the leaf node may no longer be the one containing f. The leaf node is then
+     * released again, unless the transaction held it before, and the search starts over.
+     * 
+     * If f is null, it finds the left-most leaf page -- used for the iterator
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param perm - the permissions with which to lock the leaf page
+     * @param f - the field to search for
+     * @return the left-most leaf page possibly containing the key field f
+     * 
+     */
+    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+            Field f) 
+                    throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, dirtypages, perm, f, false);
+    }
+
+    /**
+     * Same as {@link #findLeafPage(TransactionId, HashMap, Permissions, Field)}, but if last
+     * is true, finds the right-most leaf page possibly containing a key field less than or
+     * equal to f instead, or the right-most leaf page if f is null -- used by descending scans.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param perm - the permissions with which to lock the leaf page
+     * @param f - the field to search for
+     * @param last - whether to find the right-most leaf page with key fields &lt;= f
+     * @return the leaf page
+     * 
+     * @see BTreeInternalPage#findChild(Field, boolean)
+     */
+    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+            Field f, boolean last) 
+                    throws DbException, TransactionAbortedException {
+        while(true) {
+            HashMap<PageId, Long> path = new HashMap<PageId, Long>();
+            BTreePageId pid = nextOnPath(tid, dirtypages, path, BTreeRootPtrPage.getId(tableid), f, last);
+            while(pid.pgcateg() == BTreePageId.INTERNAL) {
+                pid = nextOnPath(tid, dirtypages, path, pid, f, last);
+            }
+            if(pid.pgcateg() != BTreePageId.LEAF) {
+                throw new DbException("not valid page");
+            }
+            boolean held = holdsLock(tid, dirtypages, pid);
+            BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+            if(unchanged(path)) {
+                return page;
+            }
+            if(!held) {
+                dirtypages.remove(pid);
+                releaseIfLocked(tid, pid);
+            }
+        }
+    }
+
+    /**
+     * Read the next page id on the way down the tree from a root pointer page or internal page:
+     * the root page, or the left child of the first entry with key >= f (> f if last). The page
+     * is locked with READ_ONLY permission only while it is read, unless the transaction held a
+     * lock on it before, and its version is recorded in path.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param path - the versions of the pages read so far
+     * @param pid - the root pointer page or internal page to read
+     * @param f - the field to search for
+     * @param last - whether to follow the path to the right-most leaf with key fields &lt;= f
+     * @return the id of the next page
+     * 
+     * @throws DbException
+     * @throws TransactionAbortedException
+     */
+    private BTreePageId nextOnPath(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMap<PageId, Long> path,
+            BTreePageId pid, Field f, boolean last) throws DbException, TransactionAbortedException {
+        boolean held = holdsLock(tid, dirtypages, pid);
+        Page page = getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+        BTreePageId next;
+        if(pid.pgcateg() == BTreePageId.ROOT_PTR) {
+            next = ((BTreeRootPtrPage) page).getRootId();
+        }
+        else {
+            // binary search for the left child of the first entry with key >= f (> f if last)
+            next = ((BTreeInternalPage) page).findChild(f, last);
+            if(next == null)
+                throw new DbException("No that Entry!");
+        }
+        path.put(pid, version(pid));
+        if(!held) {
+            releaseIfLocked(tid, pid);
+        }
+        return next;
+    }
+
+    private long version(PageId pid) {
+        Long v = versions.get(pid);
+        return v == null ? 0 : v;
+    }
+
+    private boolean unchanged(HashMap<PageId, Long> path) {
+        for(Map.Entry<PageId, Long> e : path.entrySet()) {
+            if(version(e.getKey()) != e.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean holdsLock(TransactionId tid, HashMap<PageId, Page> dirtypages, PageId pid) {
+        return dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+    }
+
+    // snapshot and optimistic transactions read pages without locking them
+    private static void releaseIfLocked(TransactionId tid, PageId pid) {
+        if(Database.getBufferPool().holdsLock(tid, pid)) {
+            Database.getBufferPool().releasePage(tid, pid);
+        }
+    }
+    
+    /**
+     * Count the levels of this tree by following the left-most child pointers from
+     * the root down to a leaf. A tree whose root is a leaf has height 1. Used to
+     * estimate the cost of an index scan.
+     * 
+     * @param tid - the transaction id
+     * @return the number of levels in the tree, including the leaf level
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    public int height(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashMap<PageId, Long> path = new HashMap<PageId, Long>();
+        createIfEmpty();
+        BTreePageId pid = nextOnPath(tid, dirtypages, path, BTreeRootPtrPage.getId(tableid), null, false);
+        int height = 1;
+        while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+            pid = nextOnPath(tid, dirtypages, path, pid, null, false);
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * Convenience method to find a leaf page when there is no dirtypages HashMap.
+     * Used by the BTreeFile iterator.
+     * @see #findLeafPage(TransactionId, HashMap, Permissions, Field)
+     * 
+     * @param tid - the transaction id
+     * @param perm - the permissions with which to lock the leaf page
+     * @param f - the field to search for
+     * @return the left-most leaf page possibly containing the key field f
+     * 
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f) 
+                    throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f);
+    }
+
+    /**
+     * Convenience method to find the right-most leaf page possibly containing a key field
+     * less than or equal to f, or the right-most leaf page if f is null, when there is no
+     * dirtypages HashMap. Used by the descending BTreeFile iterators.
+     * @see #findLeafPage(TransactionId, HashMap, Permissions, Field, boolean)
+     * 
+     * @param tid - the transaction id
+     * @param perm - the permissions with which to lock the leaf page
+     * @param f - the field to search for
+     * @return the right-most leaf page possibly containing a key field &lt;= f
+     * 
+     */
+    BTreeLeafPage findLastLeafPage(TransactionId tid, Permissions perm, Field f) 
+                    throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f, true);
+    }
+
+    /**
+     * Returns the key to separate two neighbouring leaf pages in their parent: the shortest
+     * prefix of the first key of the right page that is greater than the last key of the
+     * left page, so that string keys in internal pages take up as few bytes as possible.
+     * Other keys, and string keys that are equal, are returned as they are.
+     * 
+     * @param left - the last key of the left page
+     * @param right - the first key of the right page
+     * @return a key greater than left and less than or equal to right, or right if they are equal
+     */
+    static Field separator(Field left, Field right) {
+        if(!BTreePage.hasCompressedKeys(right.getType()) || !left.compare(Op.LESS_THAN, right)) {
+            return right;
+        }
+        String key = ((StringField) right).getValue();
+        return new StringField(key.substring(0, BTreePage.sharedPrefix(left, right) + 1), Type.STRING_LEN);
+    }
+
+    /**
+     * Split a leaf page to make room for new tuples and recursively split the parent node
+     * as needed to accommodate a new entry. The new entry should have a key matching the key field
+     * of the first tuple in the right-hand page (the key is "copied up"), and child pointers 
+     * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
+     * pointers as needed.  
+     * 
+     * Return the leaf page into which a new tuple with key field "field" should be inserted.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the leaf page to split
+     * @param field - the key field of the tuple to be inserted after the split is complete. Necessary to know
+     * which of the two pages to return.
+     * @see #getParentWithEmptySlots(TransactionId, HashMap, BTreePageId, Field)
+     * 
+     * @return the leaf page into which the new tuple should be inserted
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    protected BTreeLeafPage splitLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage page, Field field) 
+            throws DbException, IOException, TransactionAbortedException {
+        // some code goes here
+        //
+        // Split the leaf page by adding a new page on the right of the existing
+        // page and moving half of the tuples to the new page.  Copy the middle key up
+        // into the parent page, and recursively split the parent as needed to accommodate
+        // the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
+        // the sibling pointers of all the affected leaf pages.  Return the page into which a
+        // tuple with the given key field should be inserted.
+
+        BTreeLeafPage rightPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+        Iterator<Tuple> tuples = page.reverseIterator();
+
+        // move tuples until both pages take up about as many bytes, which with
+        // fixed-width keys is half of the tuples each
+        Tuple tuple = tuples.next();
+        while(page.getUsedSpace() - rightPage.getUsedSpace() > page.getSpace(tuple))
+        {
+            page.deleteTuple(tuple);
+            rightPage.insertTuple(tuple);
+            tuple = tuples.next();
+        }
+
+        //如果有右邻居，更新它的指针
+        if(page.getRightSiblingId() != null)
+        {
+            BTreePageId oldRightId = page.getRightSiblingId();
+            BTreeLeafPage oldRightPage = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+            oldRightPage.setLeftSiblingId(rightPage.getId());
+        }
+
+        rightPage.setLeftSiblingId(page.getId());
+        rightPage.setRightSiblingId(page.getRightSiblingId());
+        page.setRightSiblingId(rightPage.getId());
+
+        Field index = separator(page.reverseIterator().next().getField(keyField),
+                rightPage.iterator().next().getField(keyField));
+
+        BTreeEntry entry = new BTreeEntry(index, page.getId(), rightPage.getId());
+
+        BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), index);
+        parentPage.insertEntry(entry);
+        // the other children of the parent already point to it; reading them all would wait
+        // for every transaction with a tuple in one of them
+        updateParentPointer(tid, dirtypages, parentPage.getId(), page.getId());
+        updateParentPointer(tid, dirtypages, parentPage.getId(), rightPage.getId());
+
+        return (field.compare(Op.GREATER_THAN_OR_EQ, index)? rightPage:page);
+        
+    }
+    
+    /**
+     * Split an internal page to make room for new entries and recursively split its parent page
+     * as needed to accommodate a new entry. The new entry for the parent should have a key matching 
+     * the middle key in the original internal page being split (this key is "pushed up" to the parent). 
+     * The child pointers of the new parent entry should point to the two internal pages resulting 
+     * from the split. Update parent pointers as needed.
+     * 
+     * Return the internal page into which an entry with key field "field" should be inserted
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the internal page to split
+     * @param field - the key field of the entry to be inserted after the split is complete. Necessary to know
+     * which of the two pages to return.
+     * @see #getParentWithEmptySlots(TransactionId, HashMap, BTreePageId, Field)
+     * @see #updateParentPointers(TransactionId, HashMap, BTreeInternalPage)
+     * 
+     * @return the internal page into which the new entry should be inserted
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    protected BTreeInternalPage splitInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+            BTreeInternalPage page, Field field) 
+                    throws DbException, IOException, TransactionAbortedException {
+        // some code goes here
+        //
+        // Split the internal page by adding a new page on the right of the existing
+        // page and moving half of the entries to the new page.  Push the middle key up
+        // into the parent page, and recursively split the parent as needed to accommodate
+        // the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
+        // the parent pointers of all the children moving to the new page.  updateParentPointers()
+        // will be useful here.  Return the page into which an entry with the given key field
+        // should be inserted.
+
+        BTreeInternalPage rightPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+        Iterator<BTreeEntry> entrys = page.reverseIterator();
+        if(entrys == null || !entrys.hasNext())
+            throw new DbException("Internal Page has no entry!");
+        // move entries until both pages take up about as many bytes
+        BTreeEntry e = entrys.next();
+        while(page.getUsedSpace() - rightPage.getUsedSpace() > page.getSpace(e.getKey()))
+        {
+            page.deleteKeyAndRightChild(e);     //由于在插入时会检查该entry是否在其他页面中存在
+            rightPage.insertEntry(e);           //因此必须先删除后添加
+            e = entrys.next();
+        }
+
+        Field index = e.getKey();
+        page.deleteKeyAndRightChild(e);  //push the key up to the parent page
+
+        BTreeEntry newEntry = new BTreeEntry(index, page.getId(), rightPage.getId());
+        BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), index);
+        parentPage.insertEntry(newEntry);
+
+        updateParentPointer(tid, dirtypages, parentPage.getId(), page.getId());
+        updateParentPointer(tid, dirtypages, parentPage.getId(), rightPage.getId());
+        updateParentPointers(tid, dirtypages, rightPage);
+
+        return field.compare(Op.GREATER_THAN_OR_EQ, index)? rightPage:page;
+    }
+    
+    /**
+     * Method to encapsulate the process of getting a parent page ready to accept new entries.
+     * This may mean creating a page to become the new root of the tree, splitting the existing 
+     * parent page if there are no empty slots, or simply locking and returning the existing parent page.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param parentId - the id of the parent. May be an internal page or the RootPtr page
+     * @param field - the key of the entry which will be inserted. Needed in case the parent must be split
+     * to accommodate the new entry
+     * @return the parent page, guaranteed to have at least one empty slot
+     * @see #splitInternalPage(TransactionId, HashMap, BTreeInternalPage, Field)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private BTreeInternalPage getParentWithEmptySlots(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+            BTreePageId parentId, Field field) throws DbException, IOException, TransactionAbortedException {
+        
+        BTreeInternalPage parent = null;
+        
+        // create a parent node if necessary
+        // this will be the new root of the tree
+        if(parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+            parent = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+            // update the root pointer
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+                    BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+            BTreePageId prevRootId = rootPtr.getRootId(); //save prev id before overwriting.
+            rootPtr.setRootId(parent.getId());
+
+            // update the previous root to now point to this new root.
+            BTreePage prevRootPage = (BTreePage)getPage(tid, dirtypages, prevRootId, Permissions.READ_WRITE);
+            prevRootPage.setParentId(parent.getId());
+        }
+        else { 
+            // lock the parent page
+            parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, 
+                    Permissions.READ_WRITE);
+        }
+
+        // split the parent if needed
+        if(parent.isFull()) {
+            parent = splitInternalPage(tid, dirtypages, parent, field);
+        }
+
+        return parent;
+
+    }
+
+    /**
+     * Helper function to update the parent pointer of a node.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param pid - id of the parent node
+     * @param child - id of the child node to be updated with the parent pointer
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private void updateParentPointer(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, BTreePageId child) 
+            throws DbException, IOException, TransactionAbortedException {
+
+        boolean held = holdsLock(tid, dirtypages, child);
+        BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
+
+        if(!p.getParentId().equals(pid)) {
+            p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
+            p.setParentId(pid);
+        }
+        else if(!held) {
+            // the child was only read
+            releaseIfLocked(tid, child);
+        }
+
+    }
+    
+    /**
+     * Update the parent pointer of every child of the given page so that it correctly points to
+     * the parent
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the parent page
+     * @see #updateParentPointer(TransactionId, HashMap, BTreePageId, BTreePageId)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private void updateParentPointers(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeInternalPage page) 
+            throws DbException, IOException, TransactionAbortedException{
+        Iterator<BTreeEntry> it = page.iterator();
+        BTreePageId pid = page.getId();
+        BTreeEntry e = null;
+        while(it.hasNext()) {
+            e = it.next();
+            updateParentPointer(tid, dirtypages, pid, e.getLeftChild());
+        }
+        if(e != null) {
+            updateParentPointer(tid, dirtypages, pid, e.getRightChild());
+        }
+    }
+    
+    /**
+     * Method to encapsulate the process of locking/fetching a page.  First the method checks the local 
+     * cache ("dirtypages"), and if it can't find the requested page there, it fetches it from the buffer pool.  
+     * It also adds pages to the dirtypages cache if they are fetched with read-write permission, since 
+     * presumably they will soon be dirtied by this transaction, and bumps the version of such pages
+     * unless they are leaf pages.
+     * 
+     * This method is needed to ensure that page updates are not lost if the same pages are
+     * accessed multiple times.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param pid - the id of the requested page
+     * @param perm - the requested permissions on the page
+     * @return the requested page
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        if(dirtypages.containsKey(pid)) {
+            return dirtypages.get(pid);
+        }
+        else {
+            Page p = getPageFromPool(tid, pid, perm);
+            if(perm == Permissions.READ_WRITE) {
+                dirtypages.put(pid, p);
+                if(pid.pgcateg() != BTreePageId.LEAF) {
+                    // searches which read the page before it was locked start over
+                    versions.merge(pid, 1L, Long::sum);
+                }
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Method to lock and retrieve a page through the buffer pool. An interrupted
+     * wait for the page lock aborts the transaction, since it cannot continue
+     * without the page.
+     * 
+     * @param tid - the transaction id
+     * @param pid - the id of the requested page
+     * @param perm - the requested permissions on the page
+     * @return the requested page
+     * 
+     * @throws DbException
+     * @throws TransactionAbortedException
+     */
+    static Page getPageFromPool(TransactionId tid, PageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        try {
+            return Database.getBufferPool().getPage(tid, pid, perm);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
+     * May cause pages to split if the page where tuple t belongs is full.
+     * 
+     * @param tid - the transaction id
+     * @param t - the tuple to insert
+     * @return a list of all pages that were dirtied by this operation. Could include
+     * many pages since parent pointers will need to be updated when an internal node splits.
+     * @see #splitLeafPage(TransactionId, HashMap, BTreeLeafPage, Field)
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        try {
+            // read the root pointer page to locate the root page
+            createIfEmpty();
+            BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+            BTreePageId rootId = nextOnPath(tid, dirtypages, new HashMap<PageId, Long>(), rootPtrId, null, false);
+
+            if(rootId == null) { // the root has just been created, so set the root pointer to point to it      
+                BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+                if(rootPtr.getRootId() == null) {
+                    rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+                }
+            }
+
+            // find and lock the left-most leaf page corresponding to the key field,
+            // and split the leaf page if there are no more slots available
+            BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, t.getField(keyField));
+            if(leafPage.isFull()) {
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));  
+            }
+
+            // insert the tuple into the leaf page
+            leafPage.insertTuple(t);
+        } catch(TransactionAbortedException | DbException e) {
+            // pages may have been changed half way through a split or merge when a lock
+            // wait aborted the transaction or the buffer pool had no room for another page;
+            // mark them dirty so that they stay in the pool and the abort reverts them
+            markDirty(tid, dirtypages);
+            throw e;
+        }
+
+        ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+        dirtyPagesArr.addAll(dirtypages.values());
+        return dirtyPagesArr;
+    }
+    
+    private static void markDirty(TransactionId tid, HashMap<PageId, Page> dirtypages) {
+        for(Page p : dirtypages.values()) {
+            p.markDirty(true, tid);
+        }
+    }
+    
+    /**
+     * Handle the case when a B+ tree page becomes less than half full due to deletions.
+     * If one of its siblings has extra tuples/entries, redistribute those tuples/entries.
+     * Otherwise merge with one of the siblings. Update pointers as needed.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the page which is less than half full
+     * @see #handleMinOccupancyLeafPage(TransactionId, HashMap, BTreeLeafPage, BTreeInternalPage, BTreeEntry, BTreeEntry)
+     * @see #handleMinOccupancyInternalPage(TransactionId, HashMap, BTreeInternalPage, BTreeInternalPage, BTreeEntry, BTreeEntry)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private void handleMinOccupancyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePage page) 
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId parentId = page.getParentId();
+        BTreeEntry leftEntry = null;
+        BTreeEntry rightEntry = null;
+        BTreeInternalPage parent = null;
+
+        // find the left and right siblings through the parent so we make sure they have
+        // the same parent as the page. Find the entries in the parent corresponding to 
+        // the page and siblings
+        if(parentId.pgcateg() != BTreePageId.ROOT_PTR) {
+            parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+            Iterator<BTreeEntry> ite = parent.iterator();
+            while(ite.hasNext()) {
+                BTreeEntry e = ite.next();
+                if(e.getLeftChild().equals(page.getId())) {
+                    rightEntry = e;
+                    break;
+                }
+                else if(e.getRightChild().equals(page.getId())) {
+                    leftEntry = e;
+                }
+            }
+        }
+        
+        if(page.getId().pgcateg() == BTreePageId.LEAF) {
+            handleMinOccupancyLeafPage(tid, dirtypages, (BTreeLeafPage) page, parent, leftEntry, rightEntry);
+        }
+        else { // BTreePageId.INTERNAL
+            handleMinOccupancyInternalPage(tid, dirtypages, (BTreeInternalPage) page, parent, leftEntry, rightEntry);
+        }
+    }
+    
+    /**
+     * Handle the case when a leaf page becomes less than half full due to deletions.
+     * If one of its siblings has extra tuples, redistribute those tuples.
+     * Otherwise merge with one of the siblings. Update pointers as needed.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the leaf page which is less than half full
+     * @param parent - the parent of the leaf page
+     * @param leftEntry - the entry in the parent pointing to the given page and its left-sibling
+     * @param rightEntry - the entry in the parent pointing to the given page and its right-sibling
+     * @see #mergeLeafPages(TransactionId, HashMap, BTreeLeafPage, BTreeLeafPage, BTreeInternalPage, BTreeEntry)
+     * @see #stealFromLeafPage(BTreeLeafPage, BTreeLeafPage, BTreeInternalPage,  BTreeEntry, boolean)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private void handleMinOccupancyLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage page, 
+            BTreeInternalPage parent, BTreeEntry leftEntry, BTreeEntry rightEntry) 
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId leftSiblingId = null;
+        BTreePageId rightSiblingId = null;
+        if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
+        if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
+        
+        if(leftSiblingId != null) {
+            BTreeLeafPage leftSibling = (BTreeLeafPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
+            // if the tuples of both pages fit on one, merge with the left sibling.
+            // Otherwise steal some tuples from it
+            if(page.getUsedSpace() + leftSibling.getUsedSpace() <= page.getCapacity()) {
+                mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
+            }
+            else {
+                stealFromLeafPage(page, leftSibling, parent, leftEntry, false);             
+                splitIfOverfull(tid, dirtypages, parent, leftEntry.getKey());
+            }
+        }
+        else if(rightSiblingId != null) {   
+            BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
+            // if the tuples of both pages fit on one, merge with the right sibling.
+            // Otherwise steal some tuples from it
+            if(page.getUsedSpace() + rightSibling.getUsedSpace() <= page.getCapacity()) {
+                mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
+            }
+            else {
+                stealFromLeafPage(page, rightSibling, parent, rightEntry, true);                
+                splitIfOverfull(tid, dirtypages, parent, rightEntry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Stealing replaces the key of an entry in the parent, and with compressed keys the
+     * new key may take up more bytes than the old one. Split the parent if its entries
+     * no longer fit on the page.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param parent - the parent of the pages that stole from one another
+     * @param key - the new key of the entry in the parent
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private void splitIfOverfull(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+            BTreeInternalPage parent, Field key) throws DbException, IOException, TransactionAbortedException {
+        if(parent.getUsedSpace() > parent.getCapacity()) {
+            splitInternalPage(tid, dirtypages, parent, key);
+        }
+    }
+    
+    /**
+     * Steal tuples from a sibling and copy them to the given page so that both pages are at least
+     * half full.  Update the parent's entry so that the key matches the key field of the first
+     * tuple in the right-hand page.
+     * 
+     * @param page - the leaf page which is less than half full
+     * @param sibling - the sibling which has tuples to spare
+     * @param parent - the parent of the two leaf pages
+     * @param entry - the entry in the parent pointing to the two leaf pages
+     * @param isRightSibling - whether the sibling is a right-sibling
+     * 
+     * @throws DbException
+     */
+    protected void stealFromLeafPage(BTreeLeafPage page, BTreeLeafPage sibling,
+            BTreeInternalPage parent, BTreeEntry entry, boolean isRightSibling) throws DbException {
+        // some code goes here
+        //
+        // Move some of the tuples from the sibling to the page so
+        // that the tuples are evenly distributed. Be sure to update
+        // the corresponding parent entry.
+
+        Iterator<Tuple> moveTuple = isRightSibling? sibling.iterator(): sibling.reverseIterator();
+        if(moveTuple==null || !moveTuple.hasNext())
+            throw new DbException("sibling has no tuple");
+
+        // move tuples until both pages take up about as many bytes
+        Tuple t = moveTuple.next();
+        while(sibling.getUsedSpace() - page.getUsedSpace() > sibling.getSpace(t))
+        {
+            sibling.deleteTuple(t);
+            page.insertTuple(t);
+            t = moveTuple.next();
+        }
+        BTreeLeafPage left = (isRightSibling ? page : sibling);
+        BTreeLeafPage right = (isRightSibling ? sibling : page);
+        entry.setKey(separator(left.reverseIterator().next().getField(keyField),
+                right.iterator().next().getField(keyField)));
+        parent.updateEntry(entry);
+    }
+
+    /**
+     * Handle the case when an internal page becomes less than half full due to deletions.
+     * If one of its siblings has extra entries, redistribute those entries.
+     * Otherwise merge with one of the siblings. Update pointers as needed.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the internal page which is less than half full
+     * @param parent - the parent of the internal page
+     * @param leftEntry - the entry in the parent pointing to the given page and its left-sibling
+     * @param rightEntry - the entry in the parent pointing to the given page and its right-sibling
+     * @see #mergeInternalPages(TransactionId, HashMap, BTreeInternalPage, BTreeInternalPage, BTreeInternalPage, BTreeEntry)
+     * @see #stealFromLeftInternalPage(TransactionId, HashMap, BTreeInternalPage, BTreeInternalPage, BTreeInternalPage, BTreeEntry)
+     * @see #stealFromRightInternalPage(TransactionId, HashMap, BTreeInternalPage, BTreeInternalPage, BTreeInternalPage, BTreeEntry)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private void handleMinOccupancyInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+            BTreeInternalPage page, BTreeInternalPage parent, BTreeEntry leftEntry, BTreeEntry rightEntry) 
+                    throws DbException, IOException, TransactionAbortedException {
+        BTreePageId leftSiblingId = null;
+        BTreePageId rightSiblingId = null;
+        if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
+        if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
+        
+        if(leftSiblingId != null) {
+            BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
+            // if the entries of both pages and the one pulled down from the parent fit
+            // on one page, merge with the left sibling. Otherwise steal some entries from it
+            if(page.getUsedSpace() + leftSibling.getUsedSpace() + page.getSpace(leftEntry.getKey()) 
+                    <= page.getCapacity()) {
+                mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
+            }
+            else {
+                stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+                splitIfOverfull(tid, dirtypages, parent, leftEntry.getKey());
+            }
+        }
+        else if(rightSiblingId != null) {
+            BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
+            // if the entries of both pages and the one pulled down from the parent fit
+            // on one page, merge with the right sibling. Otherwise steal some entries from it
+            if(page.getUsedSpace() + rightSibling.getUsedSpace() + page.getSpace(rightEntry.getKey()) 
+                    <= page.getCapacity()) {
+                mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
+            }
+            else {
+                stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+                splitIfOverfull(tid, dirtypages, parent, rightEntry.getKey());
+            }
+        }
+    }
+    
+    /**
+     * Steal entries from the left sibling and copy them to the given page so that both pages are at least
+     * half full. Keys can be thought of as rotating through the parent entry, so the original key in the 
+     * parent is "pulled down" to the right-hand page, and the last key in the left-hand page is "pushed up"
+     * to the parent.  Update parent pointers as needed.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the internal page which is less than half full
+     * @param leftSibling - the left sibling which has entries to spare
+     * @param parent - the parent of the two internal pages
+     * @param parentEntry - the entry in the parent pointing to the two internal pages
+     * @see #updateParentPointers(TransactionId, HashMap, BTreeInternalPage)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    protected void stealFromLeftInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                             BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
+                                             BTreeEntry parentEntry) throws DbException, IOException, TransactionAbortedException {
+        // some code goes here
+        // Move some of the entries from the left sibling to the page so
+        // that the entries are evenly distributed. Be sure to update
+        // the corresponding parent entry. Be sure to update the parent
+        // pointers of all children in the entries that were moved.
+
+        Iterator<BTreeEntry> moveEntry = leftSibling.reverseIterator();
+
+        // rotate entries through the parent until both pages take up about as many bytes
+        BTreeEntry move = moveEntry.next();
+        do
+        {
+            //将parent的entry移动到page，将sibling的entry移动到parent
+            BTreeEntry center = new BTreeEntry(parentEntry.getKey(), move.getRightChild(), page.iterator().next().getLeftChild());
+            page.insertEntry(center);
+            leftSibling.deleteKeyAndRightChild(move);
+            parentEntry.setKey(move.getKey());
+            parent.updateEntry(parentEntry);
+            move = moveEntry.next();
+        } while(leftSibling.getUsedSpace() - page.getUsedSpace() > leftSibling.getSpace(move.getKey()));
+        updateParentPointers(tid, dirtypages, page);
+    }
+
+    /**
+     * Steal entries from the right sibling and copy them to the given page so that both pages are at least
+     * half full. Keys can be thought of as rotating through the parent entry, so the original key in the
+     * parent is "pulled down" to the left-hand page, and the last key in the right-hand page is "pushed up"
+     * to the parent.  Update parent pointers as needed.
+     *
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param page - the internal page which is less than half full
+     * @param rightSibling - the right sibling which has entries to spare
+     * @param parent - the parent of the two internal pages
+     * @param parentEntry - the entry in the parent pointing to the two internal pages
+     * @see #updateParentPointers(TransactionId, HashMap, BTreeInternalPage)
+     *
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    protected void stealFromRightInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                              BTreeInternalPage page, BTreeInternalPage rightSibling, BTreeInternalPage parent,
+                                              BTreeEntry parentEntry) throws DbException, IOException, TransactionAbortedException {
+        // some code goes here
+        // Move some of the entries from the right sibling to the page so
+        // that the entries are evenly distributed. Be sure to update
+        // the corresponding parent entry. Be sure to update the parent
+        // pointers of all children in the entries that were moved.
+
+        Iterator<BTreeEntry> moveEntry = rightSibling.iterator();
+
+        // rotate entries through the parent until both pages take up about as many bytes
+        BTreeEntry move = moveEntry.next();
+        do
+        {
+            //将parent的entry移动到page，将sibling的entry移动到parent
+            BTreeEntry center = new BTreeEntry(parentEntry.getKey(), page.reverseIterator().next().getRightChild(), move.getLeftChild());
+            page.insertEntry(center);
+            rightSibling.deleteKeyAndLeftChild(move);
+            parentEntry.setKey(move.getKey());
+            parent.updateEntry(parentEntry);
+            move = moveEntry.next();
+        } while(rightSibling.getUsedSpace() - page.getUsedSpace() > rightSibling.getSpace(move.getKey()));
+        updateParentPointers(tid, dirtypages, page);
+    }
+    
+    /**
+     * Merge two leaf pages by moving all tuples from the right page to the left page. 
+     * Delete the corresponding key and right child pointer from the parent, and recursively 
+     * handle the case when the parent gets below minimum occupancy.
+     * Update sibling pointers as needed, and make the right page available for reuse.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param leftPage - the left leaf page
+     * @param rightPage - the right leaf page
+     * @param parent - the parent of the two pages
+     * @param parentEntry - the entry in the parent corresponding to the leftPage and rightPage
+     * @see #deleteParentEntry(TransactionId, HashMap, BTreePage, BTreeInternalPage, BTreeEntry)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    protected void mergeLeafPages(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+            BTreeLeafPage leftPage, BTreeLeafPage rightPage, BTreeInternalPage parent, BTreeEntry parentEntry) 
+                    throws DbException, IOException, TransactionAbortedException {
+
+        // some code goes here
+        //
+        // Move all the tuples from the right page to the left page, update
+        // the sibling pointers, and make the right page available for reuse.
+        // Delete the entry in the parent corresponding to the two pages that are merging -
+        // deleteParentEntry() will be useful here
+        Iterator<Tuple> tuples = rightPage.iterator();
+        int numTuple = rightPage.getNumTuples();
+        for(int i=0; i<numTuple; ++i)
+        {
+            Tuple tuple = tuples.next();
+            rightPage.deleteTuple(tuple);     //先删除后插入，因为需要更新tuple中的信息
+            leftPage.insertTuple(tuple);
+        }
+        if(rightPage.getRightSiblingId() != null)
+        {
+            BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightPage.getRightSiblingId(), Permissions.READ_WRITE);
+            rightSibling.setLeftSiblingId(leftPage.getId());
+        }
+        leftPage.setRightSiblingId(rightPage.getRightSiblingId());
+        setEmptyPage(tid, dirtypages, rightPage.getId().pageNumber());
+        deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
+    }
+
+    /**
+     * Merge two internal pages by moving all entries from the right page to the left page 
+     * and "pulling down" the corresponding key from the parent entry. 
+     * Delete the corresponding key and right child pointer from the parent, and recursively 
+     * handle the case when the parent gets below minimum occupancy.
+     * Update parent pointers as needed, and make the right page available for reuse.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param leftPage - the left internal page
+     * @param rightPage - the right internal page
+     * @param parent - the parent of the two pages
+     * @param parentEntry - the entry in the parent corresponding to the leftPage and rightPage
+     * @see #deleteParentEntry(TransactionId, HashMap, BTreePage, BTreeInternalPage, BTreeEntry)
+     * @see #updateParentPointers(TransactionId, HashMap, BTreeInternalPage)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    protected void mergeInternalPages(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+            BTreeInternalPage leftPage, BTreeInternalPage rightPage, BTreeInternalPage parent, BTreeEntry parentEntry) 
+                    throws DbException, IOException, TransactionAbortedException {
+        
+        // some code goes here
+        //
+        // Move all the entries from the right page to the left page, update
+        // the parent pointers of the children in the entries that were moved, 
+        // and make the right page available for reuse
+        // Delete the entry in the parent corresponding to the two pages that are merging -
+        // deleteParentEntry() will be useful here
+
+        Iterator<BTreeEntry> moveEntry = rightPage.iterator();
+        //先将parent中的索引节点插入leftpage
+        BTreeEntry center = new BTreeEntry(parentEntry.getKey(), leftPage.reverseIterator().next().getRightChild(),
+                rightPage.iterator().next().getLeftChild());
+        leftPage.insertEntry(center);
+        while(moveEntry.hasNext())
+        {
+            BTreeEntry entry = moveEntry.next();
+            rightPage.deleteKeyAndLeftChild(entry);
+            leftPage.insertEntry(entry);
+        }
+        setEmptyPage(tid, dirtypages, rightPage.getId().pageNumber());
+        //更新插入子页的对应父页
+        updateParentPointers(tid, dirtypages, leftPage);
+        deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
+    }
+    
+    /**
+     * Method to encapsulate the process of deleting an entry (specifically the key and right child) 
+     * from a parent node.  If the parent becomes empty (no keys remaining), that indicates that it 
+     * was the root node and should be replaced by its one remaining child.  Otherwise, if it gets 
+     * below minimum occupancy for non-root internal nodes, it should steal from one of its siblings or 
+     * merge with a sibling.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param leftPage - the child remaining after the key and right child are deleted
+     * @param parent - the parent containing the entry to be deleted
+     * @param parentEntry - the entry to be deleted
+     * @see #handleMinOccupancyPage(TransactionId, HashMap, BTreePage)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private void deleteParentEntry(TransactionId tid, HashMap<PageId, Page> dirtypages, 
+            BTreePage leftPage, BTreeInternalPage parent, BTreeEntry parentEntry) 
+                    throws DbException, IOException, TransactionAbortedException {      
+        
+        // delete the entry in the parent.  If
+        // the parent is below minimum occupancy, get some tuples from its siblings
+        // or merge with one of the siblings
+        parent.deleteKeyAndRightChild(parentEntry);
+        if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+            // This was the last entry in the parent.
+            // In this case, the parent (root node) should be deleted, and the merged 
+            // page will become the new root
+            BTreePageId rootPtrId = parent.getParentId();
+            if(rootPtrId.pgcateg() != BTreePageId.ROOT_PTR) {
+                throw new DbException("attempting to delete a non-root node");
+            }
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+            leftPage.setParentId(rootPtrId);
+            rootPtr.setRootId(leftPage.getId());
+
+            // release the parent page for reuse
+            setEmptyPage(tid, dirtypages, parent.getId().pageNumber());
+        }
+        else if(parent.isBelowMinOccupancy()) { 
+            handleMinOccupancyPage(tid, dirtypages, parent);
+        }
+    }
+
+    /**
+     * Delete a tuple from this BTreeFile. 
+     * May cause pages to merge or redistribute entries/tuples if the pages 
+     * become less than half full.
+     * 
+     * @param tid - the transaction id
+     * @param t - the tuple to delete
+     * @return a list of all pages that were dirtied by this operation. Could include
+     * many pages since parent pointers will need to be updated when an internal node merges.
+     * @see #handleMinOccupancyPage(TransactionId, HashMap, BTreePage)
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) 
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        try {
+            BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(),
+                    BTreePageId.LEAF);
+            BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+            page.deleteTuple(t);
+
+            // if the page is below minimum occupancy, get some tuples from its siblings
+            // or merge with one of the siblings
+            if(page.isBelowMinOccupancy()) { 
+                handleMinOccupancyPage(tid, dirtypages, page);
+            }
+        } catch(TransactionAbortedException | DbException e) {
+            // pages may have been changed half way through a split or merge when a lock
+            // wait aborted the transaction or the buffer pool had no room for another page;
+            // mark them dirty so that they stay in the pool and the abort reverts them
+            markDirty(tid, dirtypages);
+            throw e;
+        }
+
+        ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+        dirtyPagesArr.addAll(dirtypages.values());
+        return dirtyPagesArr;
+    }
+
+    /**
+     * Get a read lock on the root pointer page. Create the root pointer page and root page
+     * if necessary.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages 
+     * @return the root pointer page
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+        createIfEmpty();
+
+        // get a read lock on the root pointer page
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Read the id of the first header page from the root pointer page, which is locked with
+     * READ_ONLY permission only while it is read unless the transaction held a lock on it
+     * before. Create the root pointer page and root page if necessary.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages 
+     * @return the id of the first header page, or null if there are no header pages
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private BTreePageId readHeaderId(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        createIfEmpty();
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        boolean held = holdsLock(tid, dirtypages, rootPtrId);
+        BTreePageId headerId = ((BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY)).getHeaderId();
+        if(!held) {
+            releaseIfLocked(tid, rootPtrId);
+        }
+        return headerId;
+    }
+
+    private void createIfEmpty() throws IOException {
+        synchronized(this) {
+            if(f.length() == 0) {
+                // create the root pointer page and the root page
+                BufferedOutputStream bw = new BufferedOutputStream(
+                        new FileOutputStream(f, true));
+                byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
+                byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+                bw.write(emptyRootPtrData);
+                bw.write(emptyLeafData);
+                bw.close();
+            }
+        }
+    }
+
+    /**
+     * Get the page number of an empty page in this BTreeFile, reusing a freed page if possible.
+     * Pages are handed out from in-memory reserves of empty pages that are already marked
+     * used in the header pages, so handing one out takes no lock and does not read the header
+     * pages. The first reserve is refilled with a batch of freed pages, claimed in a short
+     * transaction of its own; only when there are no freed pages left are pages handed out
+     * from a batch of PREALLOCATE_PAGES empty pages appended to the file at once.
+     * 
+     * The freed pages are taken from an in-memory cache that is filled from the header pages
+     * the first time a page is needed, and kept up to date by transactionComplete: a page freed
+     * by setEmptyPage enters the cache when its transaction commits, and a page handed out to a
+     * transaction that aborts goes back to the reserve.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @return the page number of the empty page
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    protected int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages) 
+            throws DbException, IOException, TransactionAbortedException {
+        boolean load;
+        synchronized(this) {
+            load = !freePagesLoaded;
+            freePagesLoaded = true;
+        }
+        if(load) {
+            boolean loaded = false;
+            try {
+                loadFreePages(tid, dirtypages);
+                loaded = true;
+            } finally {
+                // let a later call load the cache again if this load failed
+                if(!loaded) {
+                    synchronized(this) {
+                        freePagesLoaded = false;
+                    }
+                }
+            }
+        }
+        while(true) {
+            synchronized(this) {
+                Integer pageNo = reserved.poll();
+                if(pageNo == null && (freePages.isEmpty() || claimTimedOut.contains(tid))) {
+                    if(appended.isEmpty()) {
+                        appendEmptyPages();
+                    }
+                    pageNo = appended.poll();
+                }
+                if(pageNo != null) {
+                    track(allocated, tid, pageNo);
+                    return pageNo;
+                }
+            }
+            claimFreePages(tid);
+        }
+    }
+
+    // record a page handed out to or freed by tid, see transactionComplete
+    private void track(HashMap<TransactionId, ArrayList<Integer>> pages, TransactionId tid, int pageNo) {
+        if(!pages.containsKey(tid)) {
+            pages.put(tid, new ArrayList<Integer>());
+        }
+        pages.get(tid).add(pageNo);
+        Database.getBufferPool().trackPageAllocation(tid, this);
+    }
+
+    /**
+     * Move a batch of freed pages from the cache to the reserve, marking their slots used in
+     * the header pages in a separate transaction that commits right away. The header pages are
+     * therefore only locked while the batch is claimed, not until tid completes. The claim
+     * gives up after CLAIM_LOCK_TIMEOUT milliseconds on a header page that another transaction
+     * holds, or that tid itself holds because it freed pages, and tid appends new pages from
+     * then on. Whenever the claim does not commit, it is aborted and the batch goes back to
+     * the cache.
+     * 
+     * @param tid - the transaction that needs an empty page
+     * 
+     * @throws DbException
+     * @throws IOException
+     */
+    private void claimFreePages(TransactionId tid) throws DbException, IOException {
+        ArrayList<Integer> batch = new ArrayList<Integer>();
+        synchronized(this) {
+            while(batch.size() < PREALLOCATE_PAGES && !freePages.isEmpty()) {
+                batch.add(freePages.pollFirst());
+            }
+        }
+        Transaction claim = new Transaction();
+        claim.start();
+        claim.setLockTimeout(CLAIM_LOCK_TIMEOUT);
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        ArrayList<Integer> claimed = new ArrayList<Integer>();
+        boolean committed = false;
+        try {
+            for(int pageNo : batch) {
+                BTreePageId headerId = findHeaderId(claim.getId(), dirtypages, pageNo);
+                if(headerId == null) {
+                    continue;
+                }
+                BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(claim.getId(), dirtypages, headerId, Permissions.READ_WRITE);
+                int slot = pageNo % BTreeHeaderPage.getNumSlots();
+                // a stale entry of the cache whose slot is used already is dropped
+                if(!headerPage.isSlotUsed(slot)) {
+                    headerPage.markSlotUsed(slot, true);
+                    claimed.add(pageNo);
+                }
+            }
+            markDirty(claim.getId(), dirtypages);
+            claim.commit();
+            committed = true;
+        } catch(TransactionAbortedException e) {
+            synchronized(this) {
+                claimTimedOut.add(tid);
+            }
+            Database.getBufferPool().trackPageAllocation(tid, this);
+        } finally {
+            // on any failure the batch goes back to the cache and the claim releases its header locks
+            if(!committed) {
+                synchronized(this) {
+                    freePages.addAll(batch);
+                }
+                claim.abort();
+            }
+        }
+        if(committed) {
+            synchronized(this) {
+                reserved.addAll(claimed);
+            }
+        }
+    }
+
+    /**
+     * Find the header page holding the slot of a page, following the chain of header pages
+     * from the root pointer page. Each header page on the way is locked with READ_ONLY
+     * permission only while its next pointer is read, unless the transaction held it before;
+     * header pages are only ever added to the end of the chain.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param pageNo - the page number
+     * @return the id of the header page, or null if the chain does not reach that far
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private BTreePageId findHeaderId(TransactionId tid, HashMap<PageId, Page> dirtypages, int pageNo)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId headerId = readHeaderId(tid, dirtypages);
+        for(int i = 0; headerId != null && i < pageNo / BTreeHeaderPage.getNumSlots(); i++) {
+            boolean held = holdsLock(tid, dirtypages, headerId);
+            BTreePageId nextId = ((BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY)).getNextPageId();
+            if(!held) {
+                releaseIfLocked(tid, headerId);
+            }
+            headerId = nextId;
+        }
+        return headerId;
+    }
+
+    /**
+     * Fill the cache of freed pages with the free slots of all header pages. Each header page
+     * is locked with READ_ONLY permission only while it is read, unless the transaction held
+     * it before.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private void loadFreePages(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        BTreePageId headerId = readHeaderId(tid, dirtypages);
+        for(int headerPageCount = 0; headerId != null; headerPageCount++) {
+            boolean held = holdsLock(tid, dirtypages, headerId);
+            BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            for(int slot = 0; slot < BTreeHeaderPage.getNumSlots(); slot++) {
+                if(!headerPage.isSlotUsed(slot)) {
+                    found.add(headerPageCount * BTreeHeaderPage.getNumSlots() + slot);
+                }
+            }
+            BTreePageId nextId = headerPage.getNextPageId();
+            if(!held) {
+                releaseIfLocked(tid, headerId);
+            }
+            headerId = nextId;
+        }
+        synchronized(this) {
+            freePages.addAll(found);
+        }
+    }
+
+    /**
+     * Append a batch of PREALLOCATE_PAGES empty pages to the end of the file with a single
+     * write. Pages past the end of the header pages count as used, so the batch is not marked
+     * in the header pages; the pages of the batch that are still unused when the file is closed
+     * stay in it until reclaimUnusedPages truncates or reserves them again.
+     * 
+     * @throws IOException
+     * @see #reclaimUnusedPages()
+     */
+    private synchronized void appendEmptyPages() throws IOException {
+        int firstPageNo = numPages() + 1;
+        byte[] emptyData = BTreePage.createEmptyPageData();
+        byte[] batch = new byte[PREALLOCATE_PAGES * emptyData.length];
+        for(int i = 0; i < PREALLOCATE_PAGES; i++) {
+            appended.add(firstPageNo + i);
+        }
+        FileOutputStream fos = new FileOutputStream(f, true);
+        fos.write(batch);
+        fos.close();
+    }
+
+    /**
+     * Update the reserve and the cache of freed pages once a transaction that was handed out
+     * or freed pages of this file completes. Called by the BufferPool after the pages of the
+     * transaction have been written or reverted, and before its locks are released.
+     * 
+     * @param tid - the transaction id
+     * @param commit - whether the transaction committed
+     * @see BufferPool#trackPageAllocation(TransactionId, BTreeFile)
+     */
+    synchronized void transactionComplete(TransactionId tid, boolean commit) {
+        ArrayList<Integer> handedOut = allocated.remove(tid);
+        ArrayList<Integer> emptied = freed.remove(tid);
+        claimTimedOut.remove(tid);
+        if(commit) {
+            if(emptied != null) {
+                freePages.addAll(emptied);
+            }
+        }
+        else if(handedOut != null) {
+            // the abort left these pages empty on disk and their header slots used
+            reserved.addAll(handedOut);
+        }
+    }
+    
+    /**
+     * Method to encapsulate the process of creating a new page.  It reuses old pages if possible,
+     * and creates a new page if none are available.  It wipes the page on disk and in the cache and 
+     * returns a clean copy locked with read-write permission
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param pgcateg - the BTreePageId category of the new page.  Either LEAF, INTERNAL, or HEADER
+     * @return the new empty page
+     * @see #getEmptyPageNo(TransactionId, HashMap)
+     * @see #setEmptyPage(TransactionId, HashMap, int)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    private Page getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        // create the new page
+        int emptyPageNo = getEmptyPageNo(tid, dirtypages);
+        BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
+        
+        // write empty page to disk
+        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.PAGE_SIZE);
+        rf.write(BTreePage.createEmptyPageData());
+        rf.close();
+        
+        // make sure the page is not in the buffer pool or in the local cache, also as the
+        // kind of page it was before it was freed, or flushing that copy would overwrite it
+        for(int categ = BTreePageId.INTERNAL; categ <= BTreePageId.HEADER; categ++) {
+            BTreePageId oldPageId = new BTreePageId(tableid, emptyPageNo, categ);
+            Database.getBufferPool().discardPage(oldPageId);
+            dirtypages.remove(oldPageId);
+        }
+        
+        return getPage(tid, dirtypages, newPageId, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Mark a page in this BTreeFile as empty. Find the corresponding header page 
+     * (create it if needed), and mark the corresponding slot in the header page as empty.
+     * 
+     * @param tid - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param emptyPageNo - the page number of the empty page
+     * @see #getEmptyPage(TransactionId, HashMap, int)
+     * 
+     * @throws DbException
+     * @throws IOException
+     * @throws TransactionAbortedException
+     */
+    protected void setEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int emptyPageNo) 
+            throws DbException, IOException, TransactionAbortedException {
+
+        // if this is the last page in the file (and not the only page), just 
+        // truncate the file
+        // @TODO: Commented out because we should probably do this somewhere else in case the transaction aborts....
+//      synchronized(this) {
+//          if(emptyPageNo == numPages()) {
+//              if(emptyPageNo <= 1) {
+//                  // if this is the only page in the file, just return.
+//                  // It just means we have an empty root page
+//                  return;
+//              }
+//              long newSize = f.length() - BufferPool.PAGE_SIZE;
+//              FileOutputStream fos = new FileOutputStream(f, true);
+//              FileChannel fc = fos.getChannel();
+//              fc.truncate(newSize);
+//              fc.close();
+//              fos.close();
+//              return;
+//          }
+//      }
+
+        // otherwise, get a read lock on the root pointer page and use it to locate 
+        // the first header page
+        BTreePageId headerId = readHeaderId(tid, dirtypages);
+        BTreePageId prevId = null;
+        int headerPageCount = 0;
+
+        // if there are no header pages, create the first header page and update
+        // the header pointer in the BTreeRootPtrPage
+        if(headerId == null) {
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+            // another transaction may have created it since the root pointer page was read
+            headerId = rootPtr.getHeaderId();
+            if(headerId == null) {
+                BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
+                headerId = headerPage.getId();
+                headerPage.init();
+                rootPtr.setHeaderId(headerId);
+            }
+        }
+
+        // iterate through all the existing header pages to find the one containing the slot
+        // corresponding to emptyPageNo
+        while(headerId != null && headerPageCount < emptyPageNo / BTreeHeaderPage.getNumSlots()) {
+            BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            prevId = headerId;
+            headerId = headerPage.getNextPageId();
+            headerPageCount++;
+        }
+
+        // at this point headerId should either be null or set with 
+        // the headerPage containing the slot corresponding to emptyPageNo.
+        // Add header pages until we have one with a slot corresponding to emptyPageNo
+        while(headerPageCount < emptyPageNo / BTreeHeaderPage.getNumSlots()) {
+            BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
+            
+            BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
+            headerId = headerPage.getId();
+            headerPage.init();
+            headerPage.setPrevPageId(prevId);
+            prevPage.setNextPageId(headerId);
+            
+            headerPageCount++;
+            prevId = headerId;
+        }
+
+        // now headerId should be set with the headerPage containing the slot corresponding to 
+        // emptyPageNo
+        BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+        int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+        headerPage.markSlotUsed(emptySlot, false);
+        // the page can be handed out once this transaction commits, see transactionComplete
+        synchronized(this) {
+            track(freed, tid, emptyPageNo);
+        }
+    }
+
+    /**
+     * get the specified tuples from the file based on its IndexPredicate value on
+     * behalf of the specified transaction. This method will acquire a read lock on
+     * the affected pages of the file, and may block until the lock can be
+     * acquired.
+     * 
+     * @param tid - the transaction id
+     * @param ipred - the index predicate value to filter on
+     * @return an iterator for the filtered tuples
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeSearchIterator(this, tid, ipred);
+    }
+
+    /**
+     * Get the tuples whose key fields lie between two bounds, in ascending or descending
+     * order of their keys, on behalf of the specified transaction. The scan descends
+     * straight to the leaf holding the bound it starts from -- the lower bound in
+     * ascending order, the upper bound in descending order -- and follows the sibling
+     * pointers until it passes the other bound, so it reads only the leaves holding the
+     * range. With both bounds null it reads the whole file, which in descending order
+     * walks the left sibling pointers from the right-most leaf. This method will acquire
+     * a read lock on the affected pages of the file, and may block until the lock can be
+     * acquired.
+     * 
+     * @param tid - the transaction id
+     * @param lower - a GREATER_THAN or GREATER_THAN_OR_EQ predicate, or null for no lower bound
+     * @param upper - a LESS_THAN or LESS_THAN_OR_EQ predicate, or null for no upper bound
+     * @param reverse - whether to return the tuples in descending order of their keys
+     * @return an iterator for the tuples in the range
+     * @throws IllegalArgumentException if a bound has the wrong operation
+     */
+    public DbFileIterator rangeIterator(TransactionId tid, IndexPredicate lower, IndexPredicate upper,
+            boolean reverse) {
+        return new BTreeSearchIterator(this, tid, lower, upper, reverse);
+    }
+
+    /**
+     * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
+     * will acquire a read lock on the affected pages of the file, and may block until 
+     * the lock can be acquired.
+     * 
+     * @param tid - the transaction id
+     * @return an iterator for all the tuples in this file
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(this, tid);
+    }
+
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a BTreeFile
+ */
+class BTreeFileIterator extends AbstractDbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    Iterator<Tuple> it = null;
+    BTreeLeafPage curp = null;
+
+    TransactionId tid;
+    BTreeFile f;
+
+    /**
+     * Constructor for this iterator
+     * @param f - the BTreeFile containing the tuples
+     * @param tid - the transaction id
+     */
+    public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+        this.f = f;
+        this.tid = tid;
+    }
+
+    /**
+     * Open this iterator by getting an iterator on the first leaf page
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+        it = curp.iterator();
+    }
+
+    /**
+     * Read the next tuple either from the current page if it has more tuples or
+     * from the next page by following the right sibling pointer.
+     * 
+     * @return the next tuple, or null if none exists
+     */
+    @Override
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (it != null && !it.hasNext())
+            it = null;
+
+        while (it == null && curp != null) {
+            BTreePageId nextp = curp.getRightSiblingId();
+            if(nextp == null) {
+                curp = null;
+            }
+            else {
+                curp = (BTreeLeafPage) BTreeFile.getPageFromPool(tid,
+                        nextp, Permissions.READ_ONLY);
+                it = curp.iterator();
+                if (!it.hasNext())
+                    it = null;
+            }
+        }
+
+        if (it == null)
+            return null;
+        return it.next();
+    }
+
+    /**
+     * rewind this iterator back to the beginning of the tuples
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * close the iterator
+     */
+    public void close() {
+        super.close();
+        it = null;
+        curp = null;
+    }
+}
+
+/**
+ * Helper class that implements the DbFileIterator for search tuples on a
+ * B+ Tree File. The search seeks directly to the leaf holding the bound it starts
+ * from and follows the sibling pointers, to the right in ascending order or to the
+ * left in descending order, until the first tuple past the other bound.
+ */
+class BTreeSearchIterator extends AbstractDbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    Iterator<Tuple> it = null;
+    BTreeLeafPage curp = null;
+
+    TransactionId tid;
+    BTreeFile f;
+    // the GREATER_THAN(_OR_EQ) and LESS_THAN(_OR_EQ) bounds on the key, or null if unbounded
+    IndexPredicate lower;
+    IndexPredicate upper;
+    // a predicate that is no bound, such as NOT_EQUALS, checked on every tuple
+    IndexPredicate filter;
+    boolean reverse;
+
+    /**
+     * Constructor for this iterator
+     * @param f - the BTreeFile containing the tuples
+     * @param tid - the transaction id
+     * @param ipred - the predicate to filter on
+     */
+    public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        switch (ipred.getOp()) {
+        case EQUALS:
+            this.lower = new IndexPredicate(Op.GREATER_THAN_OR_EQ, ipred.getField());
+            this.upper = new IndexPredicate(Op.LESS_THAN_OR_EQ, ipred.getField());
+            break;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            this.lower = ipred;
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            this.upper = ipred;
+            break;
+        default:
+            this.filter = ipred;
+        }
+    }
+
+    /**
+     * Constructor for an iterator over the tuples between two bounds
+     * @param f - the BTreeFile containing the tuples
+     * @param tid - the transaction id
+     * @param lower - a GREATER_THAN or GREATER_THAN_OR_EQ predicate, or null for no lower bound
+     * @param upper - a LESS_THAN or LESS_THAN_OR_EQ predicate, or null for no upper bound
+     * @param reverse - whether to return the tuples in descending order of their keys
+     */
+    public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate lower, IndexPredicate upper,
+            boolean reverse) {
+        if (lower != null && lower.getOp() != Op.GREATER_THAN && lower.getOp() != Op.GREATER_THAN_OR_EQ) {
+            throw new IllegalArgumentException("lower bound cannot be " + lower.getOp());
+        }
+        if (upper != null && upper.getOp() != Op.LESS_THAN && upper.getOp() != Op.LESS_THAN_OR_EQ) {
+            throw new IllegalArgumentException("upper bound cannot be " + upper.getOp());
+        }
+        this.f = f;
+        this.tid = tid;
+        this.lower = lower;
+        this.upper = upper;
+        this.reverse = reverse;
+    }
+
+    /**
+     * Open this iterator by getting an iterator on the leaf page holding the bound the
+     * scan starts from: the first tuple past the lower bound in ascending order, the last
+     * tuple before the upper bound in descending order.
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        if (!reverse) {
+            if (lower == null) {
+                curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+                it = curp.iterator();
+            }
+            else {
+                curp = f.findLeafPage(tid, Permissions.READ_ONLY, lower.getField());
+                // skip the tuples before the first match without comparing them
+                it = curp.iterator(lower.getField(), lower.getOp() == Op.GREATER_THAN_OR_EQ);
+            }
+        }
+        else if (upper == null) {
+            curp = f.findLastLeafPage(tid, Permissions.READ_ONLY, null);
+            it = curp.reverseIterator();
+        }
+        else if (upper.getOp() == Op.LESS_THAN_OR_EQ) {
+            curp = f.findLastLeafPage(tid, Permissions.READ_ONLY, upper.getField());
+            it = curp.reverseIterator(upper.getField(), true);
+        }
+        else {
+            // the left-most leaf possibly containing the bound is the right-most
+            // one possibly containing a smaller key
+            curp = f.findLeafPage(tid, Permissions.READ_ONLY, upper.getField());
+            it = curp.reverseIterator(upper.getField(), false);
+        }
+    }
+
+    /**
+     * Read the next tuple either from the current page if it has more tuples matching
+     * the predicate or from the next page by following the right sibling pointer, or
+     * the left sibling pointer in descending order.
+     * 
+     * @return the next tuple matching the predicate, or null if none exists
+     */
+    @Override
+    protected Tuple readNext() throws TransactionAbortedException, DbException,
+    NoSuchElementException {
+        // the scan started at one bound, so it ends at the first tuple past the other
+        IndexPredicate start = reverse ? upper : lower;
+        IndexPredicate end = reverse ? lower : upper;
+        while (it != null) {
+
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                Field key = t.getField(f.keyField());
+                if (start != null && !key.compare(start.getOp(), start.getField())) {
+                    // the leaf page searched for may end right before the bound, and the
+                    // next one start with keys equal to a GREATER_THAN bound
+                    continue;
+                }
+                if (end != null && !key.compare(end.getOp(), end.getField())) {
+                    return null;
+                }
+                if (filter == null || key.compare(filter.getOp(), filter.getField())) {
+                    return t;
+                }
+            }
+
+            BTreePageId nextp = reverse ? curp.getLeftSiblingId() : curp.getRightSiblingId();
+            // if there are no more pages in this direction, end the iteration
+            if(nextp == null) {
+                return null;
+            }
+            else {
+                curp = (BTreeLeafPage) BTreeFile.getPageFromPool(tid,
+                        nextp, Permissions.READ_ONLY);
+                it = reverse ? curp.reverseIterator() : curp.iterator();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * rewind this iterator back to the beginning of the tuples
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * close the iterator
+     */
+    public void close() {
+        super.close();
+        it = null;
+    }
+}
@@ -0,0 +1,562 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.Predicate.Op;
+
+/**
+ * BTreeFileEncoder reads a comma delimited text file and converts it to
+ * pages of binary data in the appropriate format for simpledb B+ tree
+ * pages.
+ */
+
+public class BTreeFileEncoder {
+
+    /**
+     * Encode the file using the BTreeFile's Insert method.
+     * 
+     * @param tuples - list of tuples to add to the file
+     * @param hFile - the file to temporarily store the data as a heap file on disk
+     * @param bFile - the file on disk to back the resulting BTreeFile
+     * @param keyField - the index of the key field for this B+ tree
+     * @param numFields - the number of fields in each tuple
+     * @return the BTreeFile
+     */
+    public static BTreeFile convert(ArrayList<ArrayList<Integer>> tuples, File hFile, 
+            File bFile, int keyField, int numFields) throws IOException {
+        File tempInput = File.createTempFile("tempTable", ".txt");
+        tempInput.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
+        for (ArrayList<Integer> tuple : tuples) {
+            int writtenFields = 0;
+            for (Integer field : tuple) {
+                writtenFields++;
+                if (writtenFields > numFields) {
+                    bw.close();
+                    throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
+                            Utility.listToString(tuple) + ")");
+                }
+                bw.write(String.valueOf(field));
+                if (writtenFields < numFields) {
+                    bw.write(',');
+                }
+            }
+            bw.write('\n');
+        }
+        bw.close();
+        return convert(tempInput, hFile, bFile, keyField, numFields);
+    }
+
+    /**
+     * Encode the file using the BTreeFile's Insert method.
+     * 
+     * @param inFile - the raw text file containing the tuples
+     * @param hFile - the file to temporarily store the data as a heap file on disk
+     * @param bFile - the file on disk to back the resulting BTreeFile
+     * @param keyField - the index of the key field for this B+ tree
+     * @param numFields - the number of fields in each tuple
+     * @return the BTreeFile
+     */
+    public static BTreeFile convert(File inFile, File hFile, File bFile,
+            int keyField, int numFields)
+                    throws IOException {
+        // convert the inFile to HeapFile first.
+        HeapFileEncoder.convert(inFile, hFile, BufferPool.PAGE_SIZE, numFields);
+        HeapFile heapf = Utility.openHeapFile(numFields, hFile);
+
+        // add the heap file to B+ tree file
+        BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+
+        try {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = Database.getCatalog().getDbFile(heapf.getId()).iterator(tid);
+            it.open();
+            // each tuple is inserted by a transaction of its own, whose commit writes its pages
+            Transaction t = new Transaction();
+            while (it.hasNext()) {
+                Tuple tup = it.next();
+                Database.getBufferPool().insertTuple(t.getId(), bf.getId(), tup);
+                t.commit();
+                t = new Transaction();
+            }
+            it.close();
+        } catch(TransactionAbortedException te){
+            te.printStackTrace();
+            return bf;
+        } catch(DbException e) {
+            e.printStackTrace();
+            return bf;
+        } catch(IOException e) {
+            e.printStackTrace();
+            return bf;
+        }
+
+        return bf;
+
+    }
+
+    /** 
+     * comparator to sort Tuples by key field
+     */
+    public static class TupleComparator implements Comparator<Tuple> {
+        private int keyField;
+
+        /** 
+         * Construct a TupleComparator
+         * 
+         * @param keyField - the index of the field the tuples are keyed on
+         */
+        public TupleComparator(int keyField) {
+            this.keyField = keyField;
+        }
+
+        /**
+         * Compare two tuples based on their key field
+         * 
+         * @return -1 if t1 < t2, 1 if t1 > t2, 0 if t1 == t2
+         */
+        public int compare(Tuple t1, Tuple t2) {
+            int cmp = 0;
+            if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
+                cmp = -1;
+            }
+            else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
+                cmp = 1;
+            }
+            return cmp;
+        }
+    }
+
+    /**
+     * Faster method to encode the B+ tree file
+     * 
+     * @param tuples - list of tuples to add to the file
+     * @param hFile - the file to temporarily store the data as a heap file on disk
+     * @param bFile - the file on disk to back the resulting BTreeFile
+     * @param npagebytes - number of bytes per page
+     * @param numFields - number of fields per tuple
+     * @param typeAr - array containing the types of the tuples
+     * @param fieldSeparator - character separating fields in the raw data file
+     * @param keyField - the field of the tuples the B+ tree will be keyed on
+     * @return the BTreeFile
+     */
+    public static BTreeFile convert(ArrayList<ArrayList<Integer>> tuples, File hFile, 
+            File bFile, int npagebytes,
+            int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
+                    throws IOException, DbException, TransactionAbortedException {
+        File tempInput = File.createTempFile("tempTable", ".txt");
+        tempInput.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
+        for (ArrayList<Integer> tuple : tuples) {
+            int writtenFields = 0;
+            for (Integer field : tuple) {
+                writtenFields++;
+                if (writtenFields > numFields) {
+                    bw.close();
+                    throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
+                            Utility.listToString(tuple) + ")");
+                }
+                bw.write(String.valueOf(field));
+                if (writtenFields < numFields) {
+                    bw.write(',');
+                }
+            }
+            bw.write('\n');
+        }
+        bw.close();
+        return convert(tempInput, hFile, bFile, npagebytes,
+                numFields, typeAr, fieldSeparator, keyField);
+    }
+
+    /** 
+     * Faster method to encode the B+ tree file
+     * 
+     * @param inFile - the file containing the raw data
+     * @param hFile - the data file for the HeapFile to be used as an intermediate conversion step
+     * @param bFile - the data file for the BTreeFile
+     * @param npagebytes - number of bytes per page
+     * @param numFields - number of fields per tuple
+     * @param typeAr - array containing the types of the tuples
+     * @param fieldSeparator - character separating fields in the raw data file
+     * @param keyField - the field of the tuples the B+ tree will be keyed on
+     * @return the B+ tree file
+     * @throws IOException
+     * @throws DbException
+     * @throws TransactionAbortedException
+     */
+    public static BTreeFile convert(File inFile, File hFile, File bFile, int npagebytes,
+            int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
+                    throws IOException, DbException, TransactionAbortedException {
+        // convert the inFile to HeapFile first.
+        HeapFileEncoder.convert(inFile, hFile, BufferPool.PAGE_SIZE, numFields);
+        HeapFile heapf = Utility.openHeapFile(numFields, hFile);
+
+        // read all the tuples from the heap file and sort them on the keyField
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDbFile(heapf.getId()).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            tuples.add(tup);
+        }
+        it.close();
+        Collections.sort(tuples, new TupleComparator(keyField));
+
+        // load the sorted tuples bottom up, filling every page
+        BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+        BTreeBulkLoader loader = new BTreeBulkLoader(bf, 1.0);
+        for(Tuple tup : tuples) {
+            loader.add(tup);
+        }
+        loader.finish();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return bf;
+    }
+
+    /**
+     * Convert a set of tuples to a byte array in the format of a BTreeLeafPage
+     * 
+     * @param tuples - the set of tuples
+     * @param npagebytes - number of bytes per page
+     * @param numFields - number of fields in each tuple
+     * @param typeAr - array containing the types of the tuples
+     * @param keyField - the field of the tuples the B+ tree will be keyed on
+     * @return a byte array which can be passed to the BTreeLeafPage constructor
+     * @throws IOException
+     */
+    public static byte[] convertToLeafPage(ArrayList<Tuple> tuples, int npagebytes,
+            int numFields, Type[] typeAr, int keyField)
+                    throws IOException {
+        if (BTreePage.hasCompressedKeys(typeAr[keyField])) {
+            return convertToCompressedLeafPage(tuples, npagebytes, typeAr, keyField);
+        }
+        int nrecbytes = 0;
+        for (int i = 0; i < numFields ; i++) {
+            nrecbytes += typeAr[i].getLen();
+        }
+        // pointerbytes: left sibling pointer, right sibling pointer, parent pointer
+        int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
+        int nrecords = (npagebytes * 8 - pointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+
+        //  per record, we need one bit; there are nrecords per page, so we need
+        // nrecords bits, i.e., ((nrecords/32)+1) integers.
+        int nheaderbytes = (nrecords / 8);
+        if (nheaderbytes * 8 < nrecords)
+            nheaderbytes++;  //ceiling
+        int nheaderbits = nheaderbytes * 8;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        // write out the pointers and the header of the page,
+        // then sort the tuples on the keyField and write out the tuples.
+        //
+        // in the header, write a 1 for bits that correspond to records we've
+        // written and 0 for empty slots.
+
+        int recordcount = tuples.size();
+        if (recordcount > nrecords)
+            recordcount = nrecords;
+
+        dos.writeInt(0); // parent pointer
+        dos.writeInt(0); // left sibling pointer
+        dos.writeInt(0); // right sibling pointer
+
+        int i = 0;
+        byte headerbyte = 0;
+
+        for (i=0; i<nheaderbits; i++) {
+            if (i < recordcount)
+                headerbyte |= (1 << (i % 8));
+
+            if (((i+1) % 8) == 0) {
+                dos.writeByte(headerbyte);
+                headerbyte = 0;
+            }
+        }
+
+        if (i % 8 > 0)
+            dos.writeByte(headerbyte);
+
+        Collections.sort(tuples, new TupleComparator(keyField));
+        for(int t = 0; t < recordcount; t++) {
+            TupleDesc td = tuples.get(t).getTupleDesc();
+            for(int j = 0; j < td.numFields(); j++) {
+                tuples.get(t).getField(j).serialize(dos);
+            }
+        }
+
+        // pad the rest of the page with zeroes
+        for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes + pointerbytes)); i++)
+            dos.writeByte(0);
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Convert a set of tuples to a byte array in the format of a BTreeLeafPage with
+     * compressed keys, where only the used slots are stored and each key only stores
+     * the characters it does not share with the key before it.
+     * 
+     * @see #convertToLeafPage(ArrayList, int, int, Type[], int)
+     */
+    private static byte[] convertToCompressedLeafPage(ArrayList<Tuple> tuples, int npagebytes,
+            Type[] typeAr, int keyField) throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        int nrecords = BTreeLeafPage.getMaxTuples(td, keyField);
+        int nheaderbytes = (nrecords / 8);
+        if (nheaderbytes * 8 < nrecords)
+            nheaderbytes++;  //ceiling
+        int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE;
+
+        // take as many tuples as fit
+        Collections.sort(tuples, new TupleComparator(keyField));
+        int recordcount = 0;
+        int nrecbytes = 0;
+        while (recordcount < tuples.size() && recordcount < nrecords) {
+            Tuple prev = (recordcount == 0 ? null : tuples.get(recordcount - 1));
+            int size = BTreeLeafPage.getSpace(td, keyField, tuples.get(recordcount), prev);
+            if (pointerbytes + nheaderbytes + nrecbytes + size > npagebytes)
+                break;
+            nrecbytes += size;
+            recordcount++;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        dos.writeInt(0); // parent pointer
+        dos.writeInt(0); // left sibling pointer
+        dos.writeInt(0); // right sibling pointer
+
+        // the used slots are the first recordcount ones
+        for (int i = 0; i < nheaderbytes; i++) {
+            int used = Math.max(0, Math.min(8, recordcount - i * 8));
+            dos.writeByte((1 << used) - 1);
+        }
+
+        for (int t = 0; t < recordcount; t++) {
+            BTreeLeafPage.writeCompressedTuple(dos, tuples.get(t), keyField, 
+                    (t == 0 ? null : tuples.get(t - 1)));
+        }
+
+        // pad the rest of the page with zeroes
+        while (dos.size() < npagebytes)
+            dos.writeByte(0);
+
+        return baos.toByteArray();
+    }
+
+    /**
+     *  Comparator to sort BTreeEntry objects by key
+     */
+    public static class EntryComparator implements Comparator<BTreeEntry> {
+        /**
+         * Compare two entries based on their key field
+         * 
+         * @return -1 if e1 < e2, 1 if e1 > e2, 0 if e1 == e2
+         */
+        public int compare(BTreeEntry e1, BTreeEntry e2) {
+            int cmp = 0;
+            if(e1.getKey().compare(Op.LESS_THAN, e2.getKey())) {
+                cmp = -1;
+            }
+            else if(e1.getKey().compare(Op.GREATER_THAN, e2.getKey())) {
+                cmp = 1;
+            }
+            return cmp;
+        }
+    }
+
+    /**
+     *  Comparator to sort BTreeEntry objects by key in descending order
+     */
+    public static class ReverseEntryComparator implements Comparator<BTreeEntry> {
+        /**
+         * Compare two entries based on their key field
+         * 
+         * @return -1 if e1 > e2, 1 if e1 < e2, 0 if e1 == e2
+         */
+        public int compare(BTreeEntry e1, BTreeEntry e2) {
+            int cmp = 0;
+            if(e1.getKey().compare(Op.GREATER_THAN, e2.getKey())) {
+                cmp = -1;
+            }
+            else if(e1.getKey().compare(Op.LESS_THAN, e2.getKey())) {
+                cmp = 1;
+            }
+            return cmp;
+        }
+    }
+
+    /**
+     * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+     * 
+     * @param entries - the set of entries
+     * @param npagebytes - number of bytes per page
+     * @param keyType - the type of the key field
+     * @param childPageCategory - the category of the child pages (either internal or leaf)
+     * @return a byte array which can be passed to the BTreeInternalPage constructor
+     * @throws IOException
+     */
+    public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+            Type keyType, int childPageCategory)
+                    throws IOException {
+        if (BTreePage.hasCompressedKeys(keyType)) {
+            return convertToCompressedInternalPage(entries, npagebytes, keyType, childPageCategory);
+        }
+        int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+        // pointerbytes: one extra child pointer, parent pointer, child page category
+        int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+        int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+
+        //  per entry, we need one bit; there are nentries per page, so we need
+        // nentries bits, plus 1 for the extra child pointer.
+        int nheaderbytes = (nentries + 1) / 8;
+        if (nheaderbytes * 8 < nentries + 1)
+            nheaderbytes++;  //ceiling
+        int nheaderbits = nheaderbytes * 8;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        // write out the pointers and the header of the page,
+        // then sort the entries and write them out.
+        //
+        // in the header, write a 1 for bits that correspond to entries we've
+        // written and 0 for empty slots.
+        int entrycount = entries.size();
+        if (entrycount > nentries)
+            entrycount = nentries;
+
+        dos.writeInt(0); // parent pointer
+        dos.writeByte((byte) childPageCategory);
+
+        int i = 0;
+        byte headerbyte = 0;
+
+        for (i=0; i<nheaderbits; i++) {
+            if (i < entrycount + 1)
+                headerbyte |= (1 << (i % 8));
+
+            if (((i+1) % 8) == 0) {
+                dos.writeByte(headerbyte);
+                headerbyte = 0;
+            }
+        }
+
+        if (i % 8 > 0)
+            dos.writeByte(headerbyte);
+
+        Collections.sort(entries, new EntryComparator());
+        for(int e = 0; e < entrycount; e++) {
+            entries.get(e).getKey().serialize(dos);
+        }
+
+        for(int e = entrycount; e < nentries; e++) {
+            for (int j=0; j<keyType.getLen(); j++) {
+                dos.writeByte(0);
+            }
+        }
+
+        dos.writeInt(entries.get(0).getLeftChild().pageNumber());
+        for(int e = 0; e < entrycount; e++) {
+            dos.writeInt(entries.get(e).getRightChild().pageNumber());
+        }
+
+        for(int e = entrycount; e < nentries; e++) {
+            for (int j=0; j<BTreeInternalPage.INDEX_SIZE; j++) {
+                dos.writeByte(0);
+            }
+        }
+
+        // pad the rest of the page with zeroes
+        for (i=0; i<(npagebytes - (nentries * nentrybytes + nheaderbytes + pointerbytes)); i++)
+            dos.writeByte(0);
+
+        return baos.toByteArray();
+
+    }
+
+    /**
+     * Convert a set of entries to a byte array in the format of a BTreeInternalPage with
+     * compressed keys, where only the used slots are stored and each key takes only as
+     * many bytes as it has characters.
+     * 
+     * @see #convertToInternalPage(ArrayList, int, Type, int)
+     */
+    private static byte[] convertToCompressedInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+            Type keyType, int childPageCategory) throws IOException {
+        int nentries = BTreeInternalPage.getMaxEntries(keyType);
+        int nheaderbytes = (nentries + 1) / 8;
+        if (nheaderbytes * 8 < nentries + 1)
+            nheaderbytes++;  //ceiling
+        // pointerbytes: one extra child pointer, parent pointer, child page category
+        int pointerbytes = 2 * BTreeInternalPage.INDEX_SIZE + 1;
+
+        // take as many entries as fit
+        Collections.sort(entries, new EntryComparator());
+        int entrycount = 0;
+        int nentrybytes = 0;
+        while (entrycount < entries.size() && entrycount < nentries) {
+            int size = BTreeInternalPage.getSpace(keyType, entries.get(entrycount).getKey());
+            if (pointerbytes + nheaderbytes + nentrybytes + size > npagebytes)
+                break;
+            nentrybytes += size;
+            entrycount++;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        dos.writeInt(0); // parent pointer
+        dos.writeByte((byte) childPageCategory);
+
+        // the used slots are the first entrycount + 1 ones
+        for (int i = 0; i < nheaderbytes; i++) {
+            int used = Math.max(0, Math.min(8, entrycount + 1 - i * 8));
+            dos.writeByte((1 << used) - 1);
+        }
+
+        for (int e = 0; e < entrycount; e++) {
+            BTreeInternalPage.writeCompressedKey(dos, entries.get(e).getKey());
+        }
+        dos.writeInt(entries.get(0).getLeftChild().pageNumber());
+        for (int e = 0; e < entrycount; e++) {
+            dos.writeInt(entries.get(e).getRightChild().pageNumber());
+        }
+
+        // pad the rest of the page with zeroes
+        while (dos.size() < npagebytes)
+            dos.writeByte(0);
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Create a byte array in the format of a BTreeRootPtrPage
+     * 
+     * @param root - the page number of the root page
+     * @param rootCategory - the category of the root page (leaf or internal)
+     * @param header - the page number of the first header page
+     * @return a byte array which can be passed to the BTreeRootPtrPage constructor
+     * @throws IOException
+     */
+    public static byte[] convertToRootPtrPage(int root, int rootCategory, int header)
+            throws IOException {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BTreeRootPtrPage.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        dos.writeInt(root); // root pointer
+        dos.writeByte((byte) rootCategory); // root page category
+
+        dos.writeInt(header); // header pointer
+
+        return baos.toByteArray();
+    }
+
+}
@@ -0,0 +1,843 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
+ * implements the Page interface that is used by BufferPool.
+ *
+ * @see BTreeFile
+ * @see BufferPool
+ *
+ */
+public class BTreeLeafPage extends BTreePage {
+    // a compressed key is stored as the number of leading characters it shares with
+    // the key before it and the number of characters that follow, one byte each,
+    // and then those characters
+    private final static int COMPRESSED_KEY_HEADER = 2;
+
+    private final byte header[];
+    private final Tuple tuples[];
+    private final int numSlots;
+    private final boolean compressedKeys;
+    
+    private int leftSibling; // leaf node or 0
+    private int rightSibling; // leaf node or 0
+
+    public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
+        Field prev = lowerBound;
+        assert(this.getId().pgcateg() == BTreePageId.LEAF);
+
+        Iterator<Tuple> it = this.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
+            prev = t.getField(fieldid);
+            assert(t.getRecordId().getPageId().equals(this.getId()));
+        }
+
+        if (null != upperBound && null != prev){
+            assert(prev.compare(Predicate.Op.LESS_THAN_OR_EQ, upperBound));
+        }
+
+        if (checkoccupancy && depth > 0) {
+            assert(getUsedSpace() >= getMinUsedSpace());
+        }
+    }
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk.
+     * The format of a BTreeLeafPage is a set of header bytes indicating
+     * the slots of the page that are in use, and some number of tuple slots, 
+     * as well as some extra bytes for the parent and sibling pointers.
+     *  Specifically, the number of tuples is equal to: <p>
+     *          floor((BufferPool.PAGE_SIZE*8 - extra bytes*8) / (tuple size * 8 + 1))
+     * <p> where tuple size is the size of tuples in this
+     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * The number of 8-bit header words is equal to:
+     * <p>
+     *      ceiling(no. tuple slots / 8)
+     * <p>
+     * If the key field is a string, only the tuples in used slots are stored, one
+     * after another, and each key is stored as the number of leading characters it
+     * shares with the key of the tuple before it, followed by the rest of it. The
+     * number of slots is then the number of tuples that fit if no key adds anything
+     * to the one before it, and how many tuples really fit depends on their keys.
+     * <p>
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     * 
+     * @param id - the id of this page
+     * @param data - the raw data of this page
+     * @param key - the field which the index is keyed on
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+        super(id, key);
+        this.compressedKeys = hasCompressedKeys(td.getFieldType(keyField));
+        this.numSlots = getMaxTuples();
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+        // Read the parent and sibling pointers
+        try {
+            Field f = Type.INT_TYPE.parse(dis);
+            this.parent = ((IntField) f).getValue();
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            Field f = Type.INT_TYPE.parse(dis);
+            this.leftSibling = ((IntField) f).getValue();
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            Field f = Type.INT_TYPE.parse(dis);
+            this.rightSibling = ((IntField) f).getValue();
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+        }
+
+        // allocate and read the header slots of this page
+        header = new byte[getHeaderSize()];
+        for (int i=0; i<header.length; i++)
+            header[i] = dis.readByte();
+
+        tuples = new Tuple[numSlots];
+        try{
+            // allocate and read the actual records of this page
+            if (compressedKeys) {
+                Tuple prev = null;
+                for (int i=0; i<tuples.length; i++) {
+                    if (isSlotUsed(i)) {
+                        tuples[i] = readCompressedTuple(dis, td, keyField, prev);
+                        tuples[i].setRecordId(new RecordId(pid, i));
+                        prev = tuples[i];
+                    }
+                }
+            }
+            else {
+                for (int i=0; i<tuples.length; i++)
+                    tuples[i] = readNextTuple(dis,i);
+            }
+        }catch(NoSuchElementException e){
+            e.printStackTrace();
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /** 
+     * Retrieve the maximum number of tuples this page can hold.
+     */
+    public int getMaxTuples() {        
+        return getMaxTuples(td, keyField);
+    }
+
+    /** 
+     * Retrieve the maximum number of tuples a leaf page of a B+ tree on a table with the
+     * given tuple descriptor and key field can hold.
+     */
+    static int getMaxTuples(TupleDesc td, int keyField) {
+        int tupleSize = td.getSize();
+        if (hasCompressedKeys(td.getFieldType(keyField))) {
+            // the smallest a tuple can be: its key adds nothing to the one before it
+            tupleSize += COMPRESSED_KEY_HEADER - td.getFieldType(keyField).getLen();
+        }
+        int bitsPerTupleIncludingHeader = tupleSize * 8 + 1;
+        // extraBits are: left sibling pointer, right sibling pointer, parent pointer
+        int extraBits = 3 * INDEX_SIZE * 8; 
+        int tuplesPerPage = (BufferPool.PAGE_SIZE*8 - extraBits) / bitsPerTupleIncludingHeader; //round down
+        return tuplesPerPage;
+    }
+
+    /**
+     * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
+     */
+    private int getHeaderSize() {        
+        int tuplesPerPage = getMaxTuples();
+        int hb = (tuplesPerPage / 8);
+        if (hb * 8 < tuplesPerPage) hb++;
+
+        return hb;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreeLeafPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new BTreeLeafPage(pid,oldDataRef,keyField);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * Read a tuple with a compressed key from the source file.
+     * 
+     * @param prev - the tuple stored before it, or null if it is the first one
+     */
+    static Tuple readCompressedTuple(DataInputStream dis, TupleDesc td, int keyField, Tuple prev) 
+            throws NoSuchElementException {
+        Tuple t = new Tuple(td);
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                if (j != keyField) {
+                    t.setField(j, td.getFieldType(j).parse(dis));
+                    continue;
+                }
+                int shared = dis.readUnsignedByte();
+                byte bs[] = new byte[dis.readUnsignedByte()];
+                dis.readFully(bs);
+                String prefix = (prev == null ? "" : 
+                        ((StringField) prev.getField(keyField)).getValue().substring(0, shared));
+                t.setField(j, new StringField(prefix + new String(bs), Type.STRING_LEN));
+            }
+        } catch (IOException e) {
+            throw new NoSuchElementException("error reading tuple");
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    /**
+     * Write a tuple with a compressed key, which only stores the part of the key
+     * that it does not share with the key of prev.
+     * 
+     * @param prev - the tuple stored before it, or null if it is the first one
+     */
+    static void writeCompressedTuple(DataOutputStream dos, Tuple t, int keyField, Tuple prev) 
+            throws IOException {
+        for (int j=0; j<t.getTupleDesc().numFields(); j++) {
+            if (j != keyField) {
+                t.getField(j).serialize(dos);
+                continue;
+            }
+            String key = ((StringField) t.getField(j)).getValue();
+            int shared = (prev == null ? 0 : sharedPrefix(prev.getField(keyField), t.getField(j)));
+            dos.writeByte(shared);
+            dos.writeByte(key.length() - shared);
+            dos.writeBytes(key.substring(shared));
+        }
+    }
+
+    /**
+     * Read tuples from the source file.
+     */
+    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+        // if associated bit is not set, read forward to the next tuple, and
+        // return null.
+        if (!isSlotUsed(slotId)) {
+            for (int i=0; i<td.getSize(); i++) {
+                try {
+                    dis.readByte();
+                } catch (IOException e) {
+                    throw new NoSuchElementException("error reading empty tuple");
+                }
+            }
+            return null;
+        }
+
+        // read fields in the tuple
+        Tuple t = new Tuple(td);
+        RecordId rid = new RecordId(pid, slotId);
+        t.setRecordId(rid);
+        try {
+            for (int j=0; j<td.numFields(); j++) {
+                Field f = td.getFieldType(j).parse(dis);
+                t.setField(j, f);
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+
+        return t;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the BTreeLeafPage constructor and
+     * have it produce an identical BTreeLeafPage object.
+     *
+     * @see #BTreeLeafPage
+     * @return A byte array corresponding to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        int len = BufferPool.PAGE_SIZE;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        // write out the parent and sibling pointers
+        try {
+            dos.writeInt(parent);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            dos.writeInt(leftSibling);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            dos.writeInt(rightSibling);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // create the header of the page
+        for (int i=0; i<header.length; i++) {
+            try {
+                dos.writeByte(header[i]);
+            } catch (IOException e) {
+                // this really shouldn't happen
+                e.printStackTrace();
+            }
+        }
+
+        // create the tuples
+        Tuple prev = null;
+        for (int i=0; i<tuples.length; i++) {
+
+            if (compressedKeys) {
+                if (isSlotUsed(i)) {
+                    try {
+                        writeCompressedTuple(dos, tuples[i], keyField, prev);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    prev = tuples[i];
+                }
+                continue;
+            }
+
+            // empty slot
+            if (!isSlotUsed(i)) {
+                for (int j=0; j<td.getSize(); j++) {
+                    try {
+                        dos.writeByte(0);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+
+                }
+                continue;
+            }
+
+            // non-empty slot
+            for (int j=0; j<td.numFields(); j++) {
+                Field f = tuples[i].getField(j);
+                try {
+                    f.serialize(dos);
+
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // padding
+        int zerolen = BufferPool.PAGE_SIZE - dos.size();
+        byte[] zeroes = new byte[zerolen];
+        try {
+            dos.write(zeroes, 0, zerolen);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if(rid == null)
+            throw new DbException("tried to delete tuple with null rid");
+        if((rid.getPageId().pageNumber() != pid.pageNumber()) || (rid.getPageId().getTableId() != pid.getTableId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        if (!isSlotUsed(rid.tupleno()))
+            throw new DbException("tried to delete null tuple.");
+        markSlotUsed(rid.tupleno(), false);
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page such that all records remain in sorted order;  
+     * the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+
+        // find the first empty slot 
+        int emptySlot = -1;
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                emptySlot = i;
+                break;
+            }
+        }
+
+        if (emptySlot == -1)
+            throw new DbException("called addTuple on page with no empty slots.");
+
+        // find the last key less than or equal to the key being inserted
+        int lessOrEqKey = -1;
+        Field key = t.getField(keyField);
+        for (int i=0; i<numSlots; i++) {
+            if(isSlotUsed(i)) {
+                if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+                    lessOrEqKey = i;
+                else
+                    break;  
+            }
+        }
+
+        // shift records back or forward to fill empty slot and make room for new record
+        // while keeping records in sorted order
+        int goodSlot = -1;
+        if(emptySlot < lessOrEqKey) {
+            for(int i = emptySlot; i < lessOrEqKey; i++) {
+                moveRecord(i+1, i);
+            }
+            goodSlot = lessOrEqKey;
+        }
+        else {
+            for(int i = emptySlot; i > lessOrEqKey + 1; i--) {
+                moveRecord(i-1, i);
+            }
+            goodSlot = lessOrEqKey + 1;
+        }
+
+        // insert new record into the correct spot in sorted order
+        markSlotUsed(goodSlot, true);
+        Debug.log(1, "BTreeLeafPage.insertTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.pageNumber(), goodSlot);
+        RecordId rid = new RecordId(pid, goodSlot);
+        t.setRecordId(rid);
+        tuples[goodSlot] = t;
+    }
+
+    /**
+     * Move a record from one slot to another slot, and update the corresponding
+     * headers and RecordId
+     */
+    private void moveRecord(int from, int to) {
+        if(!isSlotUsed(to) && isSlotUsed(from)) {
+            markSlotUsed(to, true);
+            RecordId rid = new RecordId(pid, to);
+            tuples[to] = tuples[from];
+            tuples[to].setRecordId(rid);
+            markSlotUsed(from, false);
+        }
+    }
+
+    /**
+     * Get the id of the left sibling of this page
+     * @return the id of the left sibling
+     */
+    public BTreePageId getLeftSiblingId() {
+        if(leftSibling == 0) {
+            return null;
+        }
+        return new BTreePageId(pid.getTableId(), leftSibling, BTreePageId.LEAF);
+    }
+
+    /**
+     * Get the id of the right sibling of this page
+     * @return the id of the right sibling
+     */
+    public BTreePageId getRightSiblingId() {
+        if(rightSibling == 0) {
+            return null;
+        }
+        return new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.LEAF);
+    }
+
+    /**
+     * Set the left sibling id of this page
+     * @param id - the new left sibling id
+     * @throws DbException if the id is not valid
+     */
+    public void setLeftSiblingId(BTreePageId id) throws DbException {
+        if(id == null) {
+            leftSibling = 0;
+        }
+        else {
+            if(id.getTableId() != pid.getTableId()) {
+                throw new DbException("table id mismatch in setLeftSiblingId");
+            }
+            if(id.pgcateg() != BTreePageId.LEAF) {
+                throw new DbException("leftSibling must be a leaf node");
+            }
+            leftSibling = id.pageNumber();
+        }
+    }
+
+    /**
+     * Set the right sibling id of this page
+     * @param id - the new right sibling id
+     * @throws DbException if the id is not valid
+     */
+    public void setRightSiblingId(BTreePageId id) throws DbException {
+        if(id == null) {
+            rightSibling = 0;
+        }
+        else {
+            if(id.getTableId() != pid.getTableId()) {
+                throw new DbException("table id mismatch in setRightSiblingId");
+            }
+            if(id.pgcateg() != BTreePageId.LEAF) {
+                throw new DbException("rightSibling must be a leaf node");
+            }
+            rightSibling = id.pageNumber();
+        }
+    }
+
+    /**
+     * Returns the number of tuples currently stored on this page
+     */
+    public int getNumTuples() {
+        return numSlots - getNumEmptySlots();
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int cnt = 0;
+        for(int i=0; i<numSlots; i++)
+            if(!isSlotUsed(i))
+                cnt++;
+        return cnt;
+    }
+
+    public int getUsedSpace() {
+        if (!compressedKeys)
+            return getNumTuples() * td.getSize();
+        int space = 0;
+        Tuple prev = null;
+        for (int slot : usedSlots(numSlots)) {
+            space += getSpace(td, keyField, tuples[slot], prev);
+            prev = tuples[slot];
+        }
+        return space;
+    }
+
+    public int getCapacity() {
+        if (!compressedKeys)
+            return getMaxTuples() * td.getSize();
+        return BufferPool.PAGE_SIZE - 3 * INDEX_SIZE - getHeaderSize();
+    }
+
+    public int getMaxItemSpace() {
+        if (!compressedKeys)
+            return td.getSize();
+        return td.getSize() - td.getFieldType(keyField).getLen() + COMPRESSED_KEY_HEADER + Type.STRING_LEN;
+    }
+
+    public int getMinUsedSpace() {
+        if (!compressedKeys)
+            return getMaxTuples() / 2 * td.getSize();
+        // splits and steals even out the bytes on two pages only to within a
+        // tuple or so, which leaves room for a page to end up a little below half
+        return Math.max(0, getCapacity() / 2 - 2 * getMaxItemSpace());
+    }
+
+    /**
+     * Returns the number of bytes the given tuple takes up on this page.
+     * 
+     * @param t - a tuple on this page
+     */
+    public int getSpace(Tuple t) {
+        Tuple prev = null;
+        if (compressedKeys) {
+            for (int i = t.getRecordId().tupleno() - 1; i >= 0; i--) {
+                if (isSlotUsed(i)) {
+                    prev = tuples[i];
+                    break;
+                }
+            }
+        }
+        return getSpace(td, keyField, t, prev);
+    }
+
+    /**
+     * Returns the number of bytes a tuple takes up on a leaf page of a B+ tree on a
+     * table with the given tuple descriptor and key field.
+     * 
+     * @param prev - the tuple stored before it, or null if it is the first one
+     */
+    static int getSpace(TupleDesc td, int keyField, Tuple t, Tuple prev) {
+        if (!hasCompressedKeys(td.getFieldType(keyField)))
+            return td.getSize();
+        Field key = t.getField(keyField);
+        int shared = (prev == null ? 0 : sharedPrefix(prev.getField(keyField), key));
+        return td.getSize() - td.getFieldType(keyField).getLen() + COMPRESSED_KEY_HEADER
+                + ((StringField) key).getValue().length() - shared;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        int headerbit = i % 8;
+        int headerbyte = (i - headerbit) / 8;
+        return (header[headerbyte] & (1 << headerbit)) != 0;
+    }
+
+    /**
+     * Abstraction to fill or clear a slot on this page.
+     */
+    private void markSlotUsed(int i, boolean value) {
+        int headerbit = i % 8;
+        int headerbyte = (i - headerbit) / 8;
+
+        Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+        if(value)
+            header[headerbyte] |= 1 << headerbit;
+        else
+            header[headerbyte] &= (0xFF ^ (1 << headerbit));
+        slotsChanged();
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * (note that this iterator shouldn't return tuples in empty slots!)
+     */
+    public Iterator<Tuple> iterator() {
+        return new BTreeLeafPageIterator(this);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page starting at the first one whose
+     * key field is greater than or equal to f (or strictly greater, if inclusive is
+     * false). Binary searches the used slots, so the tuples before it are never compared.
+     * 
+     * @param f - the key to start from
+     * @param inclusive - whether tuples with key field equal to f are included
+     * @return an iterator over the tuples at or after f on this page
+     */
+    public Iterator<Tuple> iterator(Field f, boolean inclusive) {
+        Predicate.Op op = inclusive ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN;
+        int[] slots = usedSlots(numSlots);
+        int lo = 0;
+        int hi = slots.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tuples[slots[mid]].getField(keyField).compare(op, f))
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return new BTreeLeafPageIterator(this, lo == slots.length ? numSlots : slots[lo]);
+    }
+
+    /**
+     * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * (note that this iterator shouldn't return tuples in empty slots!)
+     */
+    public Iterator<Tuple> reverseIterator() {
+        return new BTreeLeafPageReverseIterator(this);
+    }
+
+    /**
+     * Returns a reverse iterator over the tuples on this page starting at the last one whose
+     * key field is less than or equal to f (or strictly less, if inclusive is false). Binary
+     * searches the used slots like {@link #iterator(Field, boolean)}.
+     * 
+     * @param f - the key to start from
+     * @param inclusive - whether tuples with key field equal to f are included
+     * @return a reverse iterator over the tuples at or before f on this page
+     */
+    public Iterator<Tuple> reverseIterator(Field f, boolean inclusive) {
+        Predicate.Op op = inclusive ? Predicate.Op.GREATER_THAN : Predicate.Op.GREATER_THAN_OR_EQ;
+        int[] slots = usedSlots(numSlots);
+        int lo = 0;
+        int hi = slots.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tuples[slots[mid]].getField(keyField).compare(op, f))
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        // slots[lo] is the first tuple past f, so the iteration starts right before it
+        return new BTreeLeafPageReverseIterator(this, lo == 0 ? -1 : slots[lo - 1]);
+    }
+
+    /**
+     * protected method used by the iterator to get the ith tuple out of this page
+     * @param i - the index of the tuple
+     * @return the ith tuple in the page
+     * @throws NoSuchElementException
+     */
+    Tuple getTuple(int i) throws NoSuchElementException {
+
+        if (i >= tuples.length)
+            throw new NoSuchElementException();
+
+        try {
+            if(!isSlotUsed(i)) {
+                Debug.log(1, "BTreeLeafPage.getTuple: slot %d in %d:%d is not used", i, pid.getTableId(), pid.pageNumber());
+                return null;
+            }
+
+            Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
+            return tuples[i];
+
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new NoSuchElementException();
+        }
+    }
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage.
+ */
+class BTreeLeafPageIterator implements Iterator<Tuple> {
+    int curTuple = 0;
+    Tuple nextToReturn = null;
+    BTreeLeafPage p;
+
+    public BTreeLeafPageIterator(BTreeLeafPage p) {
+        this.p = p;
+    }
+
+    public BTreeLeafPageIterator(BTreeLeafPage p, int startSlot) {
+        this.p = p;
+        this.curTuple = startSlot;
+    }
+
+    public boolean hasNext() {
+        if (nextToReturn != null)
+            return true;
+
+        try {
+            while (true) {
+                nextToReturn = p.getTuple(curTuple++);
+                if(nextToReturn != null)
+                    return true;
+            }
+        } catch(NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    public Tuple next() {
+        Tuple next = nextToReturn;
+
+        if (next == null) {
+            if (hasNext()) {
+                next = nextToReturn;
+                nextToReturn = null;
+                return next;
+            } else
+                throw new NoSuchElementException();
+        } else {
+            nextToReturn = null;
+            return next;
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage in reverse.
+ */
+class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
+    int curTuple;
+    Tuple nextToReturn = null;
+    BTreeLeafPage p;
+
+    public BTreeLeafPageReverseIterator(BTreeLeafPage p) {
+        this.p = p;
+        this.curTuple = p.getMaxTuples() - 1;
+    }
+
+    public BTreeLeafPageReverseIterator(BTreeLeafPage p, int startSlot) {
+        this.p = p;
+        this.curTuple = startSlot;
+    }
+
+    public boolean hasNext() {
+        if (nextToReturn != null)
+            return true;
+
+        try {
+            while (curTuple >= 0) {
+                nextToReturn = p.getTuple(curTuple--);
+                if(nextToReturn != null)
+                    return true;
+            }
+            return false;
+        } catch(NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    public Tuple next() {
+        Tuple next = nextToReturn;
+
+        if (next == null) {
+            if (hasNext()) {
+                next = nextToReturn;
+                nextToReturn = null;
+                return next;
+            } else
+                throw new NoSuchElementException();
+        } else {
+            nextToReturn = null;
+            return next;
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
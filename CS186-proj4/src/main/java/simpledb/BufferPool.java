@@ -2,7 +2,12 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -41,9 +46,32 @@ public class BufferPool {
     //锁管理器
     private final LockManager lockManager;
 
+    //多版本管理器，为快照隔离的事务提供不加锁的读
+    private final VersionManager versionManager;
+
+    //正在运行的乐观事务及其私有工作区
+    private final Map<TransactionId, Workspace> workspaces;
+    //事务分配或释放过page的BTreeFile，事务结束时通知它们更新空闲page的缓存
+    private final Map<TransactionId, Set<BTreeFile>> pageAllocations;
+
+    //事务等待锁的超时时间，单位毫秒，0表示不超时；没有单独设置的事务使用defaultLockTimeout
+    private final Map<TransactionId, Long> lockTimeouts;
+    private volatile long defaultLockTimeout;
+
     //事务获取不到锁时需要等待，由于实际用的是sleep来体现等待，此处参数是sleep的时间
     private final long SLEEP_INTERVAL;
 
+    /**
+     * 乐观事务的私有工作区，记录读集合，并保存事务写操作所用的page副本
+     * 只被所属事务的线程访问
+     */
+    private static class Workspace {
+        //读过的page
+        final Set<PageId> readSet = new HashSet<>();
+        //以READ_WRITE权限获取过的page的私有副本，其中被标记为dirty的才是真正修改过的
+        final Map<PageId, Page> copies = new HashMap<>();
+    }
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -54,6 +82,11 @@ public class BufferPool {
         PAGES_NUM = numPages;
         lruPagesPool = new PageLruCache(PAGES_NUM);
         lockManager = new LockManager();
+        versionManager = new VersionManager();
+        workspaces = new ConcurrentHashMap<>();
+        pageAllocations = new ConcurrentHashMap<>();
+        lockTimeouts = new ConcurrentHashMap<>();
+        defaultLockTimeout = 0;
         //太小会造成忙碌的查询死锁，太大会浪费等待时间
         SLEEP_INTERVAL = 500;
     }
@@ -78,36 +111,249 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException, InterruptedException {
         // some code goes here
+        Workspace ws = workspaces.get(tid);
+        if (ws != null) {
+            return getOptimisticPage(tid, ws, pid, perm);
+        }
+        if (perm == Permissions.READ_ONLY && versionManager.isSnapshot(tid)) {
+            return getSnapshotPage(tid, pid);
+        }
+        long releases = lockManager.getReleaseCount();
         boolean result = (perm == Permissions.READ_ONLY) ? lockManager.grantSLock(tid, pid)
                 : lockManager.grantXLock(tid, pid);
-        //下面的while循环就是在模拟等待过程，隔一段时间就检查一次是否申请到锁了，还没申请到就检查是否陷入死锁
+        LockStats stats = lockManager.getStats();
+        boolean waitedForLock = !result;
+        long start = System.currentTimeMillis();
+        long timeout = getLockTimeout(tid);
+        //下面的while循环就是在模拟等待过程，有锁被释放或者隔一段时间就检查一次是否申请到锁了，还没申请到就检查是否陷入死锁或超时
         while (!result) {
+            long waited = System.currentTimeMillis() - start;
             if (lockManager.deadlockOccurred(tid, pid)) {
+                stats.recordDeadlock(waited);
                 throw new TransactionAbortedException();
             }
-            Thread.sleep(SLEEP_INTERVAL);
-            //sleep之后再次判断result
+            if (timeout > 0 && waited >= timeout) {
+                stats.recordTimeout(waited);
+                throw new TransactionAbortedException();
+            }
+            lockManager.awaitRelease(releases, timeout > 0 ? Math.min(SLEEP_INTERVAL, timeout - waited) : SLEEP_INTERVAL);
+            //醒来之后再次判断result
+            releases = lockManager.getReleaseCount();
             result = (perm == Permissions.READ_ONLY) ? lockManager.grantSLock(tid, pid)
                     : lockManager.grantXLock(tid, pid);
         }
+        stats.recordGrant(waitedForLock ? Math.max(1, System.currentTimeMillis() - start) : 0);
 
-        HeapPage page = (HeapPage) lruPagesPool.get(pid);
+        Page page = lruPagesPool.get(pid);
         if (page != null) {//直接命中
             return page;
         }
-        //未命中，访问磁盘并将其缓存
-        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(pid.getTableId());
-        HeapPage newPage = (HeapPage) table.readPage(pid);
-        Page removedPage = lruPagesPool.put(pid, newPage);
+        return loadPage(pid);
+    }
+
+    /**
+     * 缓存未命中时访问磁盘读取page并将其缓存
+     * 需要持有BufferPool的锁，避免读到正在被提交的事务写入磁盘的page
+     *
+     * @param pid
+     * @return 读取得到的page
+     */
+    private synchronized Page loadPage(PageId pid) throws DbException {
+        Page cached = lruPagesPool.get(pid);
+        if (cached != null) {//等待BufferPool锁的过程中已经被其他事务读入
+            return cached;
+        }
+        DbFile table = Database.getCatalog().getDbFile(pid.getTableId());
+        Page newPage;
+        try {
+            newPage = table.readPage(pid);
+        } catch (IOException e) {
+            throw new DbException("failed to read page " + pid + ": " + e.getMessage());
+        }
+        cachePage(newPage);
+        return newPage;
+    }
+
+    //把page放入缓存，换出的page写回磁盘
+    //NO STEAL下dirty的page不能被换出，缓存中全是dirty的page时抛出CacheException
+    private synchronized void cachePage(Page page) throws CacheException {
+        Page removedPage = lruPagesPool.put(page.getId(), page);
         if (removedPage != null) {
+            versionManager.forgetLatestImage(removedPage.getId());
             try {
                 flushPage(removedPage);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-        return newPage;
+    }
+
+    /**
+     * 快照事务读取page，不加锁
+     * 如果tid自己修改过该page，返回缓存中的page；否则返回tid开始时已提交的版本，
+     * 返回的page是只读的副本，不会被其他事务修改
+     *
+     * @param tid 快照事务
+     * @param pid
+     * @return 对tid可见的page
+     */
+    private Page getSnapshotPage(TransactionId tid, PageId pid) throws DbException {
+        Page cached = lruPagesPool.get(pid);
+        if (cached != null && cached.isDirty() != null && cached.isDirty().equals(tid)) {
+            return cached;
+        }
+        Page version = versionManager.getVisibleVersion(tid, pid);
+        if (version != null) {
+            return version;
+        }
+        //没有版本链，说明tid开始后该page没有被提交过，最近一次提交的内容就是可见的
+        Page latest = versionManager.getLatestImage(pid);
+        return latest != null ? latest : loadLatestImage(tid, pid);
+    }
 
+    /**
+     * 构造pid最近一次提交内容（即before image）的只读副本并保存下来供之后的快照读复用
+     * 需要持有BufferPool的锁，避免构造副本的过程中有事务提交该page
+     *
+     * @param tid 快照事务
+     * @param pid
+     * @return 对tid可见的page
+     */
+    private synchronized Page loadLatestImage(TransactionId tid, PageId pid) throws DbException {
+        //等待BufferPool锁的过程中可能刚好有事务提交了该page，此时版本链已经建立，需要再查一次
+        Page version = versionManager.getVisibleVersion(tid, pid);
+        if (version != null) {
+            return version;
+        }
+        Page latest = versionManager.getLatestImage(pid);
+        if (latest != null) {
+            return latest;
+        }
+        Page cached = lruPagesPool.get(pid);
+        if (cached == null) {
+            cached = loadPage(pid);
+        }
+        latest = cached.getBeforeImage();
+        versionManager.cacheLatestImage(pid, latest);
+        return latest;
+    }
+
+    /**
+     * 乐观事务获取page，不加锁
+     * 读操作优先返回事务自己的副本，否则从快照读取并记入读集合；
+     * 写操作返回基于最近一次提交内容的私有副本，提交验证通过后才会被安装到BufferPool中
+     *
+     * @param tid 乐观事务
+     * @param ws  tid的工作区
+     * @param pid
+     * @param perm
+     * @return 对tid可见的page
+     */
+    private Page getOptimisticPage(TransactionId tid, Workspace ws, PageId pid, Permissions perm)
+            throws DbException {
+        Page copy = ws.copies.get(pid);
+        if (copy != null) {
+            return copy;
+        }
+        if (perm == Permissions.READ_ONLY) {
+            ws.readSet.add(pid);
+            return getSnapshotPage(tid, pid);
+        }
+        Page cached = lruPagesPool.get(pid);
+        if (cached == null) {
+            cached = loadPage(pid);
+        }
+        //副本基于最近一次提交的内容，如果它比tid的快照新，提交时的验证会让tid回滚
+        copy = cached.getBeforeImage();
+        ws.copies.put(pid, copy);
+        return copy;
+    }
+
+    /**
+     * 登记一个开始运行的事务，快照隔离和乐观的事务从此刻开始读取快照
+     *
+     * @param tid
+     * @param mode 该事务使用的并发控制方式
+     */
+    public synchronized void beginTransaction(TransactionId tid, ConcurrencyMode mode) {
+        if (mode == ConcurrencyMode.SNAPSHOT_ISOLATION) {
+            versionManager.beginSnapshot(tid);
+        } else if (mode == ConcurrencyMode.OPTIMISTIC) {
+            versionManager.beginSnapshot(tid);
+            workspaces.put(tid, new Workspace());
+        }
+    }
+
+    /**
+     * 提交前的验证，快照事务在这里检测写写冲突，乐观事务在这里验证读写集合并安装修改过的副本
+     *
+     * @param tid
+     * @throws TransactionAbortedException 如果验证失败，tid需要回滚
+     */
+    public synchronized void validateCommit(TransactionId tid) throws TransactionAbortedException {
+        Workspace ws = workspaces.get(tid);
+        if (ws != null) {
+            validateOptimistic(tid, ws);
+            return;
+        }
+        if (!versionManager.isSnapshot(tid)) {
+            return;
+        }
+        ArrayList<PageId> dirtied = new ArrayList<>();
+        Iterator<Page> it = lruPagesPool.iterator();
+        while (it.hasNext()) {
+            Page p = it.next();
+            if (p.isDirty() != null && p.isDirty().equals(tid)) {
+                dirtied.add(p.getId());
+            }
+        }
+        if (versionManager.hasConflict(tid, dirtied)) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * 验证乐观事务：读写集合中的page在tid开始后都没有被其他事务提交过，也不会被已经通过验证、
+     * 还没有发布提交的乐观事务提交，并且修改过的page此时能立即加上写锁（没有两阶段锁的事务正在使用）。
+     * 验证通过后登记tid的写集合，并将修改过的副本放入缓存，之后由flushPages(tid)像普通事务一样提交；
+     * 写锁一直持有到transactionComplete，保证验证和提交之间不会有其他事务修改这些page。
+     * 写锁只能发现写写冲突，读写冲突靠登记的写集合发现：验证和登记都在BufferPool的锁中完成
+     *
+     * @param tid
+     * @param ws  tid的工作区
+     * @throws TransactionAbortedException 如果验证失败，已经加上的锁在回滚时释放
+     */
+    private void validateOptimistic(TransactionId tid, Workspace ws) throws TransactionAbortedException {
+        ArrayList<Page> written = new ArrayList<>();
+        for (Page copy : ws.copies.values()) {
+            if (copy.isDirty() != null && copy.isDirty().equals(tid)) {
+                written.add(copy);
+            }
+        }
+        //只读事务读到的是同一个快照，一定可以串行化在快照时刻，不需要验证
+        if (written.isEmpty()) {
+            return;
+        }
+        ArrayList<PageId> accessed = new ArrayList<>(ws.readSet);
+        accessed.addAll(ws.copies.keySet());
+        if (versionManager.hasConflict(tid, accessed) || versionManager.conflictsWithValidated(tid, accessed)) {
+            throw new TransactionAbortedException();
+        }
+        ArrayList<PageId> writeSet = new ArrayList<>();
+        for (Page copy : written) {
+            if (!lockManager.grantXLock(tid, copy.getId())) {
+                throw new TransactionAbortedException();
+            }
+            writeSet.add(copy.getId());
+        }
+        versionManager.reserveCommit(tid, writeSet);
+        for (Page copy : written) {
+            try {
+                cachePage(copy);
+            } catch (CacheException e) {
+                throw new TransactionAbortedException();
+            }
+        }
     }
 
     /**
@@ -140,6 +386,67 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /**
+     * 设置锁升级阈值：一个事务在同一个表上持有的page锁多于threshold个时，将它们转换为一个表锁
+     *
+     * @param threshold
+     * @see LockManager#setEscalationThreshold(int)
+     */
+    public void setLockEscalationThreshold(int threshold) {
+        lockManager.setEscalationThreshold(threshold);
+    }
+
+    /**
+     * @return 到目前为止发生锁升级的次数
+     */
+    public long getLockEscalationCount() {
+        return lockManager.getEscalationCount();
+    }
+
+    /**
+     * 设置事务等待一个锁的最长时间，超时后getPage()抛出TransactionAbortedException
+     *
+     * @param tid
+     * @param millis 单位毫秒，0表示不超时
+     */
+    public void setLockTimeout(TransactionId tid, long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("negative lock timeout");
+        }
+        lockTimeouts.put(tid, millis);
+    }
+
+    /**
+     * 设置没有单独设置超时时间的事务使用的锁超时时间
+     *
+     * @param millis 单位毫秒，0表示不超时
+     */
+    public void setDefaultLockTimeout(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("negative lock timeout");
+        }
+        defaultLockTimeout = millis;
+    }
+
+    private long getLockTimeout(TransactionId tid) {
+        Long timeout = lockTimeouts.get(tid);
+        return timeout != null ? timeout : defaultLockTimeout;
+    }
+
+    /**
+     * @return 锁的统计信息：请求、等待、升级、死锁回滚、超时的次数以及等待时间直方图
+     */
+    public LockStats getLockStats() {
+        return lockManager.getStats();
+    }
+
+    /**
+     * @return 当前锁表以及等待图的快照
+     */
+    public LockTableSnapshot getLockTableSnapshot() {
+        return lockManager.snapshot();
+    }
+
     /**
      * Return true if the specified transaction has a lock on the specified page
      */
@@ -159,12 +466,51 @@ public class BufferPool {
     public synchronized void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
         // some code goes here
-        lockManager.releaseTransactionLocks(tid);
+        //先写回或撤销，再释放锁：getPage拿到锁之后不需要BufferPool的锁就能取得缓存中的page，
+        //提前释放的话其他事务可能拿到即将被撤销的page对象，或者它的修改被当作tid的修改写回磁盘
         if (commit) {
             flushPages(tid);
+            //flushAllPages()可能在提交之前就写回了tid修改的page，flushPages(tid)不会再处理它们，
+            //它们的before image也要更新为提交的内容，之后的事务才以它为更新前的状态
+            Iterator<Page> it = lruPagesPool.iterator();
+            while (it.hasNext()) {
+                Page p = it.next();
+                if (p.isDirty() == null && holdsLock(tid, p.getId())) {
+                    p.setBeforeImage();
+                }
+            }
         } else {
             revertTransactionAction(tid);
         }
+        Set<BTreeFile> files = pageAllocations.remove(tid);
+        if (files != null) {
+            for (BTreeFile file : files) {
+                file.transactionComplete(tid, commit);
+            }
+        }
+        lockManager.releaseTransactionLocks(tid);
+        workspaces.remove(tid);
+        lockTimeouts.remove(tid);
+        versionManager.endSnapshot(tid);
+    }
+
+    /**
+     * 登记tid在file中分配或释放了page，tid提交或回滚时调用file的transactionComplete
+     *
+     * @param tid
+     * @param file
+     * @see BTreeFile#transactionComplete(TransactionId, boolean)
+     */
+    void trackPageAllocation(TransactionId tid, BTreeFile file) {
+        Set<BTreeFile> files = pageAllocations.get(tid);
+        if (files == null) {
+            files = ConcurrentHashMap.newKeySet();
+            Set<BTreeFile> raced = pageAllocations.putIfAbsent(tid, files);
+            if (raced != null) {
+                files = raced;
+            }
+        }
+        files.add(file);
     }
 
     /**
@@ -172,7 +518,7 @@ public class BufferPool {
      *
      * @param tid
      */
-    public synchronized void revertTransactionAction(TransactionId tid) {
+    public synchronized void revertTransactionAction(TransactionId tid) throws IOException {
         Iterator<Page> it = lruPagesPool.iterator();
         while (it.hasNext()) {
             Page p = it.next();
@@ -190,7 +536,10 @@ public class BufferPool {
      * <p>
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have
-     * been dirtied so that future requests see up-to-date pages.
+     * been dirtied so that future requests see up-to-date pages. The
+     * secondary indexes of the table get an entry for the tuple as well.
+     * The pages stay in the pool until the transaction completes, so this
+     * fails if the pool fills up with dirty pages, which it cannot evict.
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -200,11 +549,13 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
-        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        DbFile table = Database.getCatalog().getDbFile(tableId);
         ArrayList<Page> affectedPages = table.insertTuple(tid, t);
-        for (Page page : affectedPages) {
-            page.markDirty(true, tid);
+        //t已经有了在HeapFile中的位置，再把它加入表上的每个二级索引
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            affectedPages.addAll(index.insertTuple(tid, t));
         }
+        pinDirtyPages(tid, affectedPages);
     }
 
     /**
@@ -215,19 +566,39 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit.  Does not need to update cached versions of any pages that have
      * been dirtied, as it is not possible that a new page was created during the deletion
-     * (note difference from addTuple).
+     * (note difference from addTuple). The entries for the tuple are removed
+     * from the secondary indexes of its table as well. The pages stay in
+     * the pool until the transaction completes, so this fails if the pool
+     * fills up with dirty pages, which it cannot evict.
      *
      * @param tid the transaction adding the tuple.
      * @param t   the tuple to add
      */
     public void deleteTuple(TransactionId tid, Tuple t)
-            throws DbException, TransactionAbortedException {
+            throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
         int tableId = t.getRecordId().getPageId().getTableId();
-        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(tableId);
-        Page affectedPage = table.deleteTuple(tid, t);
-        affectedPage.markDirty(true, tid);
+        DbFile table = Database.getCatalog().getDbFile(tableId);
+        ArrayList<Page> affectedPages = table.deleteTuple(tid, t);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            affectedPages.addAll(index.deleteTuple(tid, t));
+        }
+        pinDirtyPages(tid, affectedPages);
+    }
+
+    //把修改过的page标记为dirty，让它们留在缓存中直到事务结束
+    //BTreeFile在一次操作结束时才标记它修改过的page，维护二级索引时读入的page可能已经把其中还是干净的page换出了，
+    //这时缓存中没有这个page或者是从磁盘重新读入的旧内容，需要把修改后的page放回缓存，否则修改会丢失
+    //乐观事务修改的是工作区中的副本，验证通过之前不能放入缓存
+    private synchronized void pinDirtyPages(TransactionId tid, ArrayList<Page> pages) throws CacheException {
+        boolean optimistic = workspaces.containsKey(tid);
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            if (!optimistic && lruPagesPool.get(page.getId()) != page) {
+                cachePage(page);
+            }
+        }
     }
 
     /**
@@ -260,6 +631,9 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for proj1
+        //BTreeFile分配新page时先把空page写入磁盘，再丢弃cache中的旧内容，让之后的getPage从磁盘读入
+        lruPagesPool.discard(pid);
+        versionManager.forgetLatestImage(pid);
     }
 
     /**
@@ -273,8 +647,8 @@ public class BufferPool {
     private synchronized void flushPage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
-        HeapPage dirty_page = (HeapPage) page;
-        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(page.getId().getTableId());
+        Page dirty_page = page;
+        DbFile table = Database.getCatalog().getDbFile(page.getId().getTableId());
         table.writePage(dirty_page);
         dirty_page.markDirty(false, null);
     }
@@ -286,16 +660,32 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        //有快照事务在运行时，需要在覆盖page之前保留其旧版本，并登记新版本
+        boolean versioned = versionManager.isTracking();
+        long commitTs = versionManager.prepareCommit();
+        boolean committed = false;
         Iterator<Page> it = lruPagesPool.iterator();
         while (it.hasNext()) {
             Page p = it.next();
             if (p.isDirty() != null && p.isDirty().equals(tid)) {
+                if (versioned) {
+                    versionManager.preserveVersion(p.getId(), p.getBeforeImage());
+                }
                 flushPage(p);
                 if (p.isDirty() == null) {
                     p.setBeforeImage();
                 }
+                if (versioned) {
+                    versionManager.installVersion(p.getId(), p.getBeforeImage(), commitTs);
+                } else {
+                    versionManager.forgetLatestImage(p.getId());
+                }
+                committed = true;
             }
         }
+        if (committed) {
+            versionManager.publishCommit(commitTs);
+        }
     }
 
 
@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -29,6 +31,12 @@ public class Catalog {
     //建立表的名称到tableid的映射
     private HashMap<String, Integer> name2id;
 
+    //建立tableid到表上的二级索引的映射
+    private HashMap<Integer, ArrayList<SecondaryIndex>> id2indexes;
+
+    //建立二级索引的B+树文件的id到文件的映射，BufferPool通过getDbFile读取索引的page
+    private HashMap<Integer, DbFile> indexid2file;
+
 
     /**
      * Constructor.
@@ -40,6 +48,8 @@ public class Catalog {
         id2pkey = new HashMap<>();
         id2name = new HashMap<>();
         name2id = new HashMap<>();
+        id2indexes = new HashMap<>();
+        indexid2file = new HashMap<>();
     }
 
     /**
@@ -108,10 +118,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        if (!isIdValid(tableid, id2file)) {
-            throw new NoSuchElementException();
-        }
-        return id2file.get(tableid).getTupleDesc();
+        return getDbFile(tableid).getTupleDesc();
     }
 
 
@@ -124,12 +131,50 @@ public class Catalog {
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         // some code goes here
+        if (isIdValid(tableid, indexid2file)) {
+            return indexid2file.get(tableid);
+        }
         if (!isIdValid(tableid, id2file)) {
             throw new NoSuchElementException();
         }
         return id2file.get(tableid);
     }
 
+    /**
+     * Add a secondary index on a table that is already in the catalog. The
+     * B+ tree of the index can then be read through the buffer pool like a
+     * table, but it is not listed by {@link #tableIdIterator}.
+     *
+     * @param index the index to add
+     */
+    public void addIndex(SecondaryIndex index) {
+        if (!isIdValid(index.getTableId(), id2file)) {
+            throw new NoSuchElementException();
+        }
+        for (SecondaryIndex other : getIndexes(index.getTableId())) {
+            if (other.getName().equals(index.getName())) {
+                throw new UnsupportedOperationException("目前不支持添加相同名字的index");
+            }
+        }
+        if (!id2indexes.containsKey(index.getTableId())) {
+            id2indexes.put(index.getTableId(), new ArrayList<SecondaryIndex>());
+        }
+        id2indexes.get(index.getTableId()).add(index);
+        indexid2file.put(index.getFile().getId(), index.getFile());
+    }
+
+    /**
+     * @param tableid the id of a table
+     * @return the secondary indexes on the table, in the order they were added;
+     * empty if it has none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        if (!isIdValid(tableid, id2indexes)) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(id2indexes.get(tableid));
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         if (!isIdValid(tableid, id2pkey)) {
@@ -164,10 +209,22 @@ public class Catalog {
         id2pkey.clear();
         id2file.clear();
         name2id.clear();
+        id2indexes.clear();
+        indexid2file.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the format name (field type [pk] [btree|hash], ...); a table with a
+     * field annotated btree is stored as a B+ tree keyed on that field (its .dat
+     * file must be in BTreeFile format, see {@link BTreeFileEncoder}), one with a
+     * field annotated hash as a {@link HashFile} on that field (its .dat file must
+     * be empty or written by a HashFile), otherwise as a HeapFile.
+     * <p>
+     * A line of the format index name on table (column, ...) [include (column, ...)]
+     * adds a {@link SecondaryIndex} keyed on columns of a HeapFile table listed
+     * on an earlier line. The B+ tree of the index is stored in name.dat; if that
+     * file does not exist yet, it is created and filled from the table.
      *
      * @param catalogFile
      */
@@ -181,6 +238,11 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
+                Matcher index = INDEX_LINE.matcher(line);
+                if (index.matches()) {
+                    loadIndex(index, baseFolder);
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -189,6 +251,9 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                //以btree标注的列作为key，把表组织成B+树，以hash标注时组织成HashFile，没有标注时是HeapFile
+                int btreeKey = -1;
+                int hashKey = -1;
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -200,11 +265,15 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("btree") && btreeKey == -1 && hashKey == -1)
+                            btreeKey = names.size() - 1;
+                        else if (els2[i].trim().equals("hash") && btreeKey == -1 && hashKey == -1)
+                            hashKey = names.size() - 1;
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -213,7 +282,14 @@ public class Catalog {
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 // TODO: 17-6-10 按照这句话的意思，表格的数据.dat文件必须是放在与catalog文件的同一个文件夹下
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tabHf;
+                if (btreeKey != -1)
+                    tabHf = new BTreeFile(dataFile, btreeKey, t);
+                else if (hashKey != -1)
+                    tabHf = new HashFile(dataFile, hashKey, t);
+                else
+                    tabHf = new HeapFile(dataFile, t);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -223,7 +299,62 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            //index引用了不存在的列，或者表不是HeapFile
+            System.out.println("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
+        }
+    }
+
+    //index name on table (column, ...) [include (column, ...)]
+    private static final Pattern INDEX_LINE =
+            Pattern.compile("\\s*index\\s+(\\S+)\\s+on\\s+([^\\s(]+)\\s*\\(([^)]*)\\)(\\s*include\\s*\\(([^)]*)\\))?\\s*");
+
+    /**
+     * 根据schema文件中的一行创建二级索引并加入catalog，索引文件不存在时读取表中已有的tuple建立索引
+     */
+    private void loadIndex(Matcher line, String baseFolder) throws IOException {
+        String name = line.group(1);
+        String tableName = line.group(2);
+        if (!name2id.containsKey(tableName)) {
+            System.out.println("Unknown table " + tableName + " for index " + name);
+            System.exit(0);
+        }
+        int tableid = name2id.get(tableName);
+        TupleDesc td = getTupleDesc(tableid);
+        int[] keyFields = fieldIndexes(td, line.group(3));
+        int[] includeFields = fieldIndexes(td, line.group(5));
+        File indexFile = new File(baseFolder + "/" + name + ".dat");
+        boolean build = !indexFile.exists() || indexFile.length() == 0;
+        SecondaryIndex index = new SecondaryIndex(indexFile, name, tableid, keyFields, includeFields);
+        addIndex(index);
+        if (build) {
+            Transaction t = new Transaction();
+            t.start();
+            try {
+                index.build(t.getId(), 1.0);
+                t.commit();
+            } catch (DbException | TransactionAbortedException e) {
+                t.transactionComplete(true);
+                throw new IOException("failed to build index " + name + ": " + e.getMessage());
+            }
+        }
+        System.out.println("Added index : " + name + " on " + tableName);
+    }
+
+    /**
+     * @return 以逗号分隔的列名在td中的下标，columns为null或空时返回空数组
+     */
+    private static int[] fieldIndexes(TupleDesc td, String columns) {
+        if (columns == null || columns.trim().isEmpty()) {
+            return new int[0];
+        }
+        String[] names = columns.split(",");
+        int[] fields = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            fields[i] = td.fieldNameToIndex(names[i].trim());
         }
+        return fields;
     }
 }
 
@@ -0,0 +1,27 @@
+package simpledb;
+
+/**
+ * 事务使用的并发控制方式，在创建Transaction时指定
+ *
+ * @see Transaction#Transaction(ConcurrencyMode)
+ * @see BufferPool#beginTransaction(TransactionId, ConcurrencyMode)
+ */
+public enum ConcurrencyMode {
+    /**
+     * 默认方式：读写都在page上加锁，严格两阶段锁(strict 2PL)
+     */
+    TWO_PHASE_LOCKING,
+
+    /**
+     * 快照隔离：读操作不加锁，读取事务开始时已提交的page版本；
+     * 写操作仍然加写锁，提交时若发现有其他事务在本事务开始后提交过同一个page，则回滚(first-committer-wins)
+     */
+    SNAPSHOT_ISOLATION,
+
+    /**
+     * 乐观并发控制(OCC)：读写都不加锁，读取事务开始时的快照并记录读集合，
+     * 写操作作用在事务私有的page副本上；提交时验证读写集合中的page在事务开始后没有被其他事务提交过，
+     * 验证通过后才给写集合加写锁并将副本安装到BufferPool，否则回滚。适合冲突很少的短小读多写少事务
+     */
+    OPTIMISTIC
+}
@@ -49,11 +49,13 @@ public interface DbFile extends Serializable {
      * This method will acquire a lock on the affected pages of the file, and
      * may block until the lock can be acquired.
      *
+     * @return An ArrayList contain the pages that were modified
      * @throws DbException if the tuple cannot be deleted or is not a member
      *   of the file
+     * @throws IOException if the needed file can't be read/written
      */
-    Page deleteTuple(TransactionId tid, Tuple t)
-        throws DbException, TransactionAbortedException;
+    ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException;
 
     /**
      * Returns an iterator over all the tuples stored in this DbFile. The
@@ -64,6 +66,13 @@ public interface DbFile extends Serializable {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns the number of pages in this DbFile, counting every page an
+     * access method keeps on disk (for a B+ tree also the internal, header
+     * and root pointer pages).  Used to estimate the cost of a full scan.
+     */
+    int numPages();
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDbFile} and
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
  * them from the table they belong to.
@@ -54,7 +56,11 @@ public class Delete extends Operator {
         hasAccessed = false;
         while (child.hasNext()) {
             Tuple next = child.next();
-            Database.getBufferPool().deleteTuple(tid, next);
+            try {
+                Database.getBufferPool().deleteTuple(tid, next);
+            } catch (IOException e) {
+                throw new DbException("failed to delete " + next + ": " + e.getMessage());
+            }
             count++;
         }
     }
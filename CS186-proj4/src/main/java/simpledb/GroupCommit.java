@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+//组提交(group commit)：多个几乎同时提交的事务共用一次日志刷盘
+//每个提交的事务写完COMMIT记录后得到一个递增的位置，然后等待直到该位置之前的日志都已经刷盘
+//位置由LogFile决定，见LogFile.getDurablePosition()
+//第一个发现自己的记录还没刷盘的事务成为leader，它等待一个很短的时间窗口（或者等到凑满一批），
+//然后刷盘一次，把这段时间里写入的COMMIT记录一起变为持久的，其余事务(follower)只需等待leader唤醒
+class GroupCommit {
+    private final LogFile log;
+
+    //以下字段都受this的锁保护
+    //是否有leader正在等待窗口或刷盘
+    private boolean flushing = false;
+    //正在等待刷盘的提交数，leader用来判断是否已经凑满一批
+    private int waiting = 0;
+
+    //leader最多等待的时间，单位纳秒，0表示不等待，在上一次刷盘期间到达的提交仍然会合并为一批
+    private long windowNanos;
+    //一批最多合并的提交数，凑满后leader立即刷盘
+    private int maxBatch;
+
+    //刷盘次数与经过组提交的提交数
+    private long forces = 0;
+    private long commits = 0;
+
+    GroupCommit(LogFile log, long windowNanos, int maxBatch) {
+        this.log = log;
+        configure(windowNanos, maxBatch);
+    }
+
+    synchronized void configure(long windowNanos, int maxBatch) {
+        if (windowNanos < 0 || maxBatch < 1) {
+            throw new IllegalArgumentException("bad group commit window " + windowNanos + " or batch " + maxBatch);
+        }
+        this.windowNanos = windowNanos;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * 阻塞直到position之前的日志都已经刷盘，调用时不能持有log的锁
+     *
+     * @param position LogFile.logCommit()得到的COMMIT记录的位置
+     */
+    void awaitDurable(long position) throws IOException {
+        boolean interrupted = false;
+        synchronized (this) {
+            waiting++;
+            notifyAll();//可能凑满了leader正在等待的一批
+        }
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (log.getDurablePosition() < position && flushing) {
+                        interrupted |= waitQuietly();
+                    }
+                    if (log.getDurablePosition() >= position) {
+                        return;
+                    }
+                    //成为leader
+                    flushing = true;
+                    interrupted |= collectBatch();
+                }
+                boolean forced = false;
+                try {
+                    force();
+                    forced = true;
+                } finally {
+                    synchronized (this) {
+                        flushing = false;
+                        if (forced) {
+                            forces++;
+                        }
+                        notifyAll();
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                waiting--;
+                commits++;
+            }
+            //提交必须等到持久化才能返回，所以等待期间的中断推迟到这里再恢复
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //leader在刷盘前等待更多的提交加入，直到凑满一批或者时间窗口结束
+    //返回等待期间是否被中断
+    private boolean collectBatch() {
+        long deadline = System.nanoTime() + windowNanos;
+        long remaining = windowNanos;
+        while (waiting < maxBatch && remaining > 0) {
+            try {
+                wait(remaining / 1000000, (int) (remaining % 1000000));
+            } catch (InterruptedException e) {
+                return true;//不再等待，直接刷盘
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        return false;
+    }
+
+    //在log的锁内把缓冲的日志写入文件，取得写到的位置和要刷盘的文件，然后在锁外刷盘：
+    //不持有this的锁，新到达的提交可以排队成为下一批；不持有log的锁，不阻塞其他日志的写入
+    private void force() throws IOException {
+        retry:
+        while (true) {
+            long target;
+            List<FileChannel> channels;
+            synchronized (log) {
+                long from = log.getDurablePosition();
+                target = log.writeBuffered();
+                channels = log.getChannels(from, target);
+            }
+            for (FileChannel channel : channels) {
+                try {
+                    channel.force(true);
+                } catch (ClosedChannelException e) {
+                    //刷盘期间logTruncate()关闭了日志文件，之前写入的记录不会丢失，重新取得文件再刷盘
+                    continue retry;
+                }
+            }
+            log.markDurable(target);
+            return;
+        }
+    }
+
+    //返回是否被中断
+    private boolean waitQuietly() {
+        try {
+            wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    synchronized long getForceCount() {
+        return forces;
+    }
+
+    synchronized long getCommitCount() {
+        return commits;
+    }
+}
@@ -0,0 +1,312 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of HashBucketPage stores the tuples of one bucket of a
+ * HashFile, or of an overflow page chained to a bucket when the bucket cannot
+ * be split any further.
+ *
+ * @see HashFile
+ * @see HashDirectoryPage
+ */
+public class HashBucketPage implements Page {
+
+    private static final int INDEX_SIZE = Type.INT_TYPE.getLen();
+    // local depth, hash bits and next page
+    private static final int META_SIZE = 3 * INDEX_SIZE;
+
+    private final HashPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private final byte[] header;
+    private final Tuple[] tuples;
+
+    private int localDepth;
+    private int hashBits;
+    private int nextPageNo;
+
+    private boolean dirty = false;
+    private TransactionId dirtier = null;
+
+    private byte[] oldData;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     * The format of a HashBucketPage is an integer for the local depth of the
+     * bucket, an integer with the low bits that the hashes of all keys in the
+     * bucket share, and the page number of the next page in the chain of
+     * overflow pages (0 if there is none), followed by a set of header bytes
+     * indicating the slots of the page that are in use and the tuple slots,
+     * laid out as on a HeapPage. The number of tuples is equal to: <p>
+     * floor(((BufferPool.PAGE_SIZE - 12)*8) / (tuple size * 8 + 1))
+     * <p>
+     * Only the first page of a bucket uses the local depth and hash bits.
+     *
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#PAGE_SIZE
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getNumSlots(td);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+        localDepth = dis.readInt();
+        hashBits = dis.readInt();
+        nextPageNo = dis.readInt();
+
+        header = new byte[getHeaderSize()];
+        for (int i = 0; i < header.length; i++)
+            header[i] = dis.readByte();
+
+        tuples = new Tuple[numSlots];
+        try {
+            for (int i = 0; i < tuples.length; i++)
+                tuples[i] = readNextTuple(dis, i);
+        } catch (NoSuchElementException e) {
+            e.printStackTrace();
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of tuples a bucket page of a file with tuples td holds
+     */
+    public static int getNumSlots(TupleDesc td) {
+        return ((BufferPool.PAGE_SIZE - META_SIZE) * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private int getHeaderSize() {
+        return (numSlots + 7) / 8;
+    }
+
+    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            try {
+                dis.skipBytes(td.getSize());
+            } catch (IOException e) {
+                throw new NoSuchElementException("error reading empty tuple");
+            }
+            return null;
+        }
+
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parse(dis));
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    /**
+     * @return the low {@link #getLocalDepth()} bits of the hashes of the keys
+     * that belong in this bucket
+     */
+    public int getHashBits() {
+        return hashBits;
+    }
+
+    public void setHashBits(int hashBits) {
+        this.hashBits = hashBits;
+    }
+
+    /**
+     * @param hash the hash of a key, see {@link HashFile#hash}
+     * @return whether the key belongs in this bucket; false if the bucket was
+     * split after the directory was read
+     */
+    public boolean holds(int hash) {
+        return (hash & ((1 << localDepth) - 1)) == hashBits;
+    }
+
+    /**
+     * @return the page number of the next overflow page, or 0 if there is none
+     */
+    public int getNextPageNo() {
+        return nextPageNo;
+    }
+
+    public void setNextPageNo(int nextPageNo) {
+        this.nextPageNo = nextPageNo;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the HashBucketPage constructor and
+     * have it produce an identical HashBucketPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(localDepth);
+            dos.writeInt(hashBits);
+            dos.writeInt(nextPageNo);
+            dos.write(header);
+            for (int i = 0; i < tuples.length; i++) {
+                if (!isSlotUsed(i)) {
+                    dos.write(new byte[td.getSize()]);
+                    continue;
+                }
+                for (int j = 0; j < td.numFields(); j++) {
+                    tuples[i].getField(j).serialize(dos);
+                }
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - META_SIZE - header.length - td.getSize() * tuples.length]);
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HashBucketPage of local depth 0 and without overflow pages.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE]; //all 0
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple should be updated to reflect
+     * that it is no longer stored on any page.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno())) {
+            throw new DbException("this tuple is not on this page, or tuple slot is already empty");
+        }
+        tuples[rid.tupleno()] = null;
+        markSlotUsed(rid.tupleno(), false);
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to reflect
+     * that it is now stored on this page.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *                     is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) throw new DbException("tupleDesc is mismatch");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                tuples[i] = t;
+                t.setRecordId(new RecordId(pid, i));
+                markSlotUsed(i, true);
+                return;
+            }
+        }
+        throw new DbException("the page is full (no empty slots)");
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int emptySlots = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                emptySlots++;
+            }
+        }
+        return emptySlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            header[i / 8] |= (byte) (1 << (i % 8));
+        } else {
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> used = new ArrayList<Tuple>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                used.add(tuples[i]);
+            }
+        }
+        return Collections.unmodifiableList(used).iterator();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage is the first page of a HashFile. It maps the low bits of
+ * the hash of a key to the bucket page that holds the tuples with that key,
+ * as in extendible hashing: with global depth d, the directory has 2^d
+ * entries, and a bucket of local depth l &lt;= d is pointed to by the 2^(d-l)
+ * entries that agree on the low l bits. The directory has to fit on this one
+ * page, so it can double only up to {@link #getMaxDepth()}; buckets past that
+ * grow chains of overflow pages instead.
+ *
+ * @see HashFile
+ * @see HashBucketPage
+ */
+public class HashDirectoryPage implements Page {
+
+    private static final int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+    private final HashPageId pid;
+    private int globalDepth;
+    private final int[] buckets;
+
+    private boolean dirty = false;
+    private TransactionId dirtier = null;
+
+    private byte[] oldData;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     * The format of a HashDirectoryPage is an integer for the global depth,
+     * followed by the page numbers of the buckets for each of the 2^(max
+     * depth) possible entries, of which only the first 2^(global depth) are
+     * in use.
+     *
+     * @see #getMaxDepth()
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        globalDepth = dis.readInt();
+        buckets = new int[1 << getMaxDepth()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = dis.readInt();
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the largest global depth whose directory fits on a page
+     */
+    public static int getMaxDepth() {
+        int depth = 0;
+        while (INDEX_SIZE + (2 << depth) * INDEX_SIZE <= BufferPool.PAGE_SIZE) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * @return the id of the directory page of the given table
+     */
+    public static HashPageId getId(int tableid) {
+        return new HashPageId(tableid, HashPageId.DIRECTORY);
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /**
+     * @param hash the hash of a key, see {@link HashFile#hash}
+     * @return the page number of the bucket that holds the key
+     */
+    public int getBucket(int hash) {
+        return buckets[hash & ((1 << globalDepth) - 1)];
+    }
+
+    /**
+     * @return the page number of the bucket at entry i of the directory
+     */
+    public int getEntry(int i) {
+        return buckets[i];
+    }
+
+    public void setEntry(int i, int pageNo) {
+        buckets[i] = pageNo;
+    }
+
+    /**
+     * @return the number of entries in use, 2^(global depth)
+     */
+    public int getNumEntries() {
+        return 1 << globalDepth;
+    }
+
+    /**
+     * Doubles the directory by adding one bit to the global depth. Each new
+     * entry points to the same bucket as the entry it differs from only in
+     * the new bit.
+     *
+     * @throws DbException if the directory is already as large as a page allows
+     */
+    public void grow() throws DbException {
+        if (globalDepth >= getMaxDepth()) {
+            throw new DbException("hash directory is full");
+        }
+        int n = getNumEntries();
+        System.arraycopy(buckets, 0, buckets, n, n);
+        globalDepth++;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the HashDirectoryPage constructor and
+     * have it produce an identical HashDirectoryPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(globalDepth);
+            for (int bucket : buckets) {
+                dos.writeInt(bucket);
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - INDEX_SIZE * (buckets.length + 1)]);
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to the directory of
+     * a new HashFile: global depth 0, with its only entry pointing to the
+     * bucket on page 1.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        // 第一个entry(紧跟在global depth之后)指向第1页
+        data[2 * INDEX_SIZE - 1] = 1;
+        return data;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        if (this.dirty)
+            return this.dirtier;
+        else
+            return null;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
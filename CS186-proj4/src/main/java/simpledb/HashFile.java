@@ -0,0 +1,535 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.Predicate.Op;
+
+/**
+ * HashFile is an implementation of a DbFile that stores a table as an
+ * extendible hash index on one of its fields. Page 0 is a directory that maps
+ * the low bits of the hash of a key to a bucket page, so finding the tuples
+ * with a given key takes two page reads, the directory and the bucket, as long
+ * as the bucket has no overflow pages. A full bucket is split in two, doubling
+ * the directory if needed; only when the directory cannot grow any further, or
+ * when every key in the bucket has the same hash, is an overflow page chained
+ * to it. Buckets are never merged again when tuples are deleted.
+ * <p>
+ * Tuples come back in no particular order, and only EQUALS predicates can be
+ * answered from the directory, see {@link #indexIterator}.
+ *
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ */
+public class HashFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a hash file backed by the specified file.
+     *
+     * @param f   the file that stores the on-disk backing store for this hash file
+     * @param key the field which the index is keyed on
+     * @param td  the tuple descriptor of tuples in the file
+     */
+    public HashFile(File f, int key, TupleDesc td) {
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the index of the field that this file is hashed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * The hash of a key that picks its bucket. The high bits of the hash code
+     * are folded into the low ones the directory uses, as in HashMap.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Read a page from the file on disk. This should not be called directly
+     * but should be called from the BufferPool via getPage()
+     *
+     * @param pid the id of the page to read from disk
+     * @return the page constructed from the contents on disk
+     */
+    public Page readPage(PageId pid) {
+        HashPageId id = (HashPageId) pid;
+        byte[] pageBuf = new byte[BufferPool.PAGE_SIZE];
+        try {
+            RandomAccessFile rf = new RandomAccessFile(f, "r");
+            try {
+                rf.seek((long) id.pageNumber() * BufferPool.PAGE_SIZE);
+                rf.readFully(pageBuf);
+            } finally {
+                rf.close();
+            }
+            Debug.log(1, "HashFile.readPage: read page %d", id.pageNumber());
+            if (id.isDirectory()) {
+                return new HashDirectoryPage(id, pageBuf);
+            }
+            return new HashBucketPage(id, pageBuf);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Read past end of table");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write a page to disk.  This should not be called directly but should
+     * be called from the BufferPool when pages are flushed to disk
+     *
+     * @param page the page to write to disk
+     */
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        rf.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+        rf.write(page.getPageData());
+        rf.close();
+    }
+
+    /**
+     * Returns the number of pages in this HashFile, including the directory.
+     */
+    public int numPages() {
+        // we only ever write full pages
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    private void createIfEmpty() throws IOException {
+        synchronized (this) {
+            if (f.length() == 0) {
+                // create the directory and the one bucket it points to
+                BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
+                bw.write(HashDirectoryPage.createEmptyPageData());
+                bw.write(HashBucketPage.createEmptyPageData());
+                bw.close();
+            }
+        }
+    }
+
+    /**
+     * Lock and retrieve a page, looking in dirtypages first so that a page that
+     * has been modified by this operation is not fetched again. A page locked
+     * with READ_WRITE permission is marked dirty right away: a split changes
+     * several pages before the operation returns, and a clean page could be
+     * evicted from the buffer pool in between, or be left half changed if the
+     * transaction aborts before the pages are marked dirty.
+     */
+    private Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        if (dirtypages.containsKey(pid)) {
+            return dirtypages.get(pid);
+        }
+        Page p = BTreeFile.getPageFromPool(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    private static boolean holdsLock(TransactionId tid, HashMap<PageId, Page> dirtypages, PageId pid) {
+        return dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+    }
+
+    // snapshot and optimistic transactions read pages without locking them
+    private static void releaseIfLocked(TransactionId tid, PageId pid) {
+        if (Database.getBufferPool().holdsLock(tid, pid)) {
+            Database.getBufferPool().releasePage(tid, pid);
+        }
+    }
+
+    /**
+     * Find and lock the first page of the bucket that holds keys with the given
+     * hash. The directory is locked with READ_ONLY permission only while it is
+     * read, unless the transaction held a lock on it before, so lookups do not
+     * keep out transactions that split buckets. Splitting a bucket locks it for
+     * writing, so if the bucket locked here no longer holds the hash, it was
+     * split after the directory was read, and the lookup starts over.
+     *
+     * @param tid        the transaction id
+     * @param dirtypages the list of dirty pages which should be updated with all new dirty pages
+     * @param hash       the hash of the key, see {@link #hash}
+     * @param perm       the permissions with which to lock the bucket page
+     * @return the first page of the bucket
+     */
+    HashBucketPage findBucket(TransactionId tid, HashMap<PageId, Page> dirtypages, int hash, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        try {
+            createIfEmpty();
+        } catch (IOException e) {
+            throw new DbException("unable to create " + f + ": " + e);
+        }
+        HashPageId dirId = HashDirectoryPage.getId(tableid);
+        while (true) {
+            boolean held = holdsLock(tid, dirtypages, dirId);
+            int pageNo = ((HashDirectoryPage) getPage(tid, dirtypages, dirId, Permissions.READ_ONLY)).getBucket(hash);
+            if (!held) {
+                releaseIfLocked(tid, dirId);
+            }
+            HashPageId bucketId = new HashPageId(tableid, pageNo);
+            boolean bucketHeld = holdsLock(tid, dirtypages, bucketId);
+            HashBucketPage bucket = (HashBucketPage) getPage(tid, dirtypages, bucketId, perm);
+            if (bucket.holds(hash)) {
+                return bucket;
+            }
+            if (!bucketHeld) {
+                if (dirtypages.remove(bucketId) != null) {
+                    bucket.markDirty(false, null);
+                }
+                releaseIfLocked(tid, bucketId);
+            }
+        }
+    }
+
+    /**
+     * @return the pages of the bucket starting at first, following the overflow pages
+     */
+    private List<HashBucketPage> chain(TransactionId tid, HashMap<PageId, Page> dirtypages, HashBucketPage first,
+                                       Permissions perm) throws DbException, TransactionAbortedException {
+        List<HashBucketPage> pages = new ArrayList<HashBucketPage>();
+        HashBucketPage p = first;
+        pages.add(p);
+        while (p.getNextPageNo() != 0) {
+            p = (HashBucketPage) getPage(tid, dirtypages, new HashPageId(tableid, p.getNextPageNo()), perm);
+            pages.add(p);
+        }
+        return pages;
+    }
+
+    /**
+     * Append a new, empty bucket page to the file and lock it with READ_WRITE permission.
+     */
+    private HashBucketPage newBucketPage(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNo;
+        synchronized (this) {
+            BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
+            bw.write(HashBucketPage.createEmptyPageData());
+            bw.close();
+            pageNo = numPages() - 1;
+        }
+        return (HashBucketPage) getPage(tid, dirtypages, new HashPageId(tableid, pageNo), Permissions.READ_WRITE);
+    }
+
+    /**
+     * Add t to the first page of the chain starting at first that has room for
+     * it, chaining a new overflow page to the bucket if none has.
+     */
+    private void addToChain(TransactionId tid, HashMap<PageId, Page> dirtypages, HashBucketPage first, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage last = null;
+        for (HashBucketPage p : chain(tid, dirtypages, first, Permissions.READ_WRITE)) {
+            if (p.getNumEmptySlots() > 0) {
+                p.insertTuple(t);
+                return;
+            }
+            last = p;
+        }
+        HashBucketPage overflow = newBucketPage(tid, dirtypages);
+        last.setNextPageNo(overflow.getId().pageNumber());
+        overflow.insertTuple(t);
+    }
+
+    /**
+     * Insert a tuple into this HashFile, splitting its bucket if the bucket is full.
+     *
+     * @param tid the transaction id
+     * @param t   the tuple to insert
+     * @return a list of all pages that were dirtied by this operation. When a bucket
+     * is split this includes the directory and the new bucket page.
+     * @see #splitBucket
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupleDesc is mismatch");
+        }
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        int hash = hash(t.getField(keyField));
+        while (true) {
+            HashBucketPage bucket = findBucket(tid, dirtypages, hash, Permissions.READ_WRITE);
+            List<HashBucketPage> pages = chain(tid, dirtypages, bucket, Permissions.READ_WRITE);
+            boolean full = true;
+            for (HashBucketPage p : pages) {
+                full &= p.getNumEmptySlots() == 0;
+            }
+            if (!full || !splitBucket(tid, dirtypages, bucket, pages, hash)) {
+                addToChain(tid, dirtypages, bucket, t);
+                return new ArrayList<Page>(dirtypages.values());
+            }
+            // the split may have left every tuple on one side, so look again
+        }
+    }
+
+    /**
+     * Split a full bucket by one more bit of the hash: the tuples whose hash has
+     * that bit set move to a new bucket, and the directory entries that have it
+     * set are pointed at the new bucket. The directory is doubled first if the
+     * bucket already uses every bit the directory does.
+     *
+     * @param tid        the transaction id
+     * @param dirtypages the list of dirty pages which should be updated with all new dirty pages
+     * @param bucket     the first page of the bucket, locked with READ_WRITE permission
+     * @param pages      the pages of the bucket, see {@link #chain}
+     * @param hash       the hash of the key about to be inserted
+     * @return false if the bucket was not split, because the directory cannot grow
+     * any more or every key in the bucket has the same hash as the new key, in
+     * which case only an overflow page will make room
+     */
+    private boolean splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages, HashBucketPage bucket,
+                                List<HashBucketPage> pages, int hash)
+            throws DbException, IOException, TransactionAbortedException {
+        int depth = bucket.getLocalDepth();
+        if (depth >= HashDirectoryPage.getMaxDepth()) {
+            return false;
+        }
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        boolean separable = false;
+        for (HashBucketPage p : pages) {
+            Iterator<Tuple> it = p.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                tuples.add(t);
+                separable |= hash(t.getField(keyField)) != hash;
+            }
+        }
+        if (!separable) {
+            return false;
+        }
+
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, dirtypages,
+                HashDirectoryPage.getId(tableid), Permissions.READ_WRITE);
+        if (depth == dir.getGlobalDepth()) {
+            dir.grow();
+        }
+        HashBucketPage image = newBucketPage(tid, dirtypages);
+        image.setLocalDepth(depth + 1);
+        image.setHashBits(bucket.getHashBits() | (1 << depth));
+        bucket.setLocalDepth(depth + 1);
+        for (int i = 0; i < dir.getNumEntries(); i++) {
+            if (dir.getEntry(i) == bucket.getId().pageNumber() && (i & (1 << depth)) != 0) {
+                dir.setEntry(i, image.getId().pageNumber());
+            }
+        }
+
+        for (Tuple t : tuples) {
+            if (image.holds(hash(t.getField(keyField)))) {
+                HashBucketPage p = (HashBucketPage) dirtypages.get(t.getRecordId().getPageId());
+                p.deleteTuple(t);
+                addToChain(tid, dirtypages, image, t);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delete a tuple from this HashFile. The bucket of its key is locked with
+     * READ_WRITE permission first, as for an insert, so the tuple cannot be moved
+     * to another bucket meanwhile.
+     *
+     * @param tid the transaction id
+     * @param t   the tuple to delete
+     * @return a list of all pages that were dirtied by this operation
+     * @throws DbException if the tuple is not in the bucket of its key
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tried to delete tuple with null rid");
+        }
+        HashBucketPage bucket = findBucket(tid, dirtypages, hash(t.getField(keyField)), Permissions.READ_WRITE);
+        for (HashBucketPage p : chain(tid, dirtypages, bucket, Permissions.READ_ONLY)) {
+            if (p.getId().equals(rid.getPageId())) {
+                p = (HashBucketPage) getPage(tid, dirtypages, p.getId(), Permissions.READ_WRITE);
+                p.deleteTuple(t);
+                return new ArrayList<Page>(dirtypages.values());
+            }
+        }
+        throw new DbException("tuple " + rid + " is not in the bucket of its key");
+    }
+
+    /**
+     * Get the tuples of this file that satisfy an IndexPredicate on the key
+     * field, on behalf of the specified transaction. An EQUALS predicate reads
+     * only the bucket of the key; any other predicate cannot use the hash and
+     * reads the whole file.
+     *
+     * @param tid   the transaction id
+     * @param ipred the index predicate value to filter on
+     * @return an iterator for the filtered tuples
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashSearchIterator(this, tid, ipred);
+    }
+
+    /**
+     * Get an iterator for all tuples in this file, bucket page by bucket page.
+     *
+     * @param tid the transaction id
+     * @return an iterator for all the tuples in this file
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(this, tid);
+    }
+}
+
+/**
+ * Helper class that implements the DbFileIterator for all tuples of a HashFile
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HashFile f;
+    private final TransactionId tid;
+    private int pageNo;
+    private Iterator<Tuple> it = null;
+
+    public HashFileIterator(HashFile f, TransactionId tid) {
+        this.f = f;
+        this.tid = tid;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        // page 0 is the directory
+        pageNo = 0;
+        it = Collections.<Tuple>emptyList().iterator();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (it == null) {
+            return null;
+        }
+        while (!it.hasNext()) {
+            if (++pageNo >= f.numPages()) {
+                return null;
+            }
+            HashPageId pid = new HashPageId(f.getId(), pageNo);
+            it = ((HashBucketPage) BTreeFile.getPageFromPool(tid, pid, Permissions.READ_ONLY)).iterator();
+        }
+        return it.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+    }
+}
+
+/**
+ * Helper class that implements the DbFileIterator for search tuples on a HashFile
+ */
+class HashSearchIterator extends AbstractDbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HashFile f;
+    private final TransactionId tid;
+    private final IndexPredicate ipred;
+    // EQUALS读取的bucket中的下一页，其他比较读取整个文件
+    private int nextPageNo;
+    private Iterator<Tuple> it = null;
+    private DbFileIterator all = null;
+
+    public HashSearchIterator(HashFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        this.ipred = ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (ipred.getOp() == Op.EQUALS) {
+            HashBucketPage bucket = f.findBucket(tid, new HashMap<PageId, Page>(),
+                    HashFile.hash(ipred.getField()), Permissions.READ_ONLY);
+            it = bucket.iterator();
+            nextPageNo = bucket.getNextPageNo();
+        } else {
+            all = f.iterator(tid);
+            all.open();
+        }
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            Tuple t;
+            if (all != null) {
+                if (!all.hasNext()) {
+                    return null;
+                }
+                t = all.next();
+            } else {
+                if (it == null) {
+                    return null;
+                }
+                while (!it.hasNext()) {
+                    if (nextPageNo == 0) {
+                        return null;
+                    }
+                    HashPageId pid = new HashPageId(f.getId(), nextPageNo);
+                    HashBucketPage p = (HashBucketPage) BTreeFile.getPageFromPool(tid, pid, Permissions.READ_ONLY);
+                    it = p.iterator();
+                    nextPageNo = p.getNextPageNo();
+                }
+                t = it.next();
+            }
+            if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+                return t;
+            }
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        if (all != null) {
+            all.close();
+            all = null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+/**
+ * Unique identifier for HashDirectoryPage and HashBucketPage objects. Page 0
+ * of a HashFile is its directory, every other page is a bucket page.
+ */
+public class HashPageId implements PageId {
+
+    private static final long serialVersionUID = 1L;
+
+    public final static int DIRECTORY = 0;
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo    The page number in that table.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     * this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return whether this is the directory page of its file
+     */
+    public boolean isDirectory() {
+        return pgNo == DIRECTORY;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     * the table number and the page number (needed if a PageId is used as a
+     * key in a hash table in the BufferPool, for example.)
+     * @see BufferPool
+     */
+    @Override
+    public int hashCode() {
+        return 31 * tableId + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     * ids are the same)
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId)) {
+            return false;
+        }
+        HashPageId p = (HashPageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo;
+    }
+
+    @Override
+    public String toString() {
+        return "(tableId: " + tableId + ", pgNo: " + pgNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.  Size of returned array must contain
+     * number of integers that corresponds to number of args to one of the
+     * constructors.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = tableId;
+        data[1] = pgNo;
+
+        return data;
+    }
+}
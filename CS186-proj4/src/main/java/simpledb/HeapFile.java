@@ -168,7 +168,7 @@ public class HeapFile implements DbFile {
     }
 
     // see DbFile.java for javadocs
-    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
         PageId pid = t.getRecordId().getPageId();
@@ -187,7 +187,9 @@ public class HeapFile implements DbFile {
         if (affectedPage == null) {
             throw new DbException("tuple " + t + " is not in this table");
         }
-        return affectedPage;
+        ArrayList<Page> affectedPages = new ArrayList<>();
+        affectedPages.add(affectedPage);
+        return affectedPages;
         // not necessary for proj1
     }
 
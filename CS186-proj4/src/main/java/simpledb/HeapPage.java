@@ -406,6 +406,19 @@ public class HeapPage implements Page {
         return value ? (byte) (target | b) : (byte) (target & ~b);
     }
 
+    /**
+     * 通过RecordId中的slot直接读取tuple，给SecondaryIndex使用
+     *
+     * @param i the slot of the tuple
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= getNumTuples() || !isSlotUsed(i)) {
+            return null;
+        }
+        return tuples[i];
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -0,0 +1,267 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IndexScan reads the tuples of a B+ tree organized table that satisfy an
+ * IndexPredicate on the tree's key field.  Instead of reading every page like
+ * SeqScan, it descends from the root to the first leaf that can hold a
+ * matching tuple and follows the leaf siblings only as far as tuples match.
+ * Tuples come back in key order. A B+ tree table can also be scanned between
+ * a lower and an upper bound on the key, reading only the leaves in between,
+ * and in descending key order, following the left siblings instead.
+ * <p>
+ * A table stored in a HashFile can be scanned the same way for an EQUALS
+ * predicate on its key field, reading only the bucket of the key.
+ * <p>
+ * It can also read a table through one of its secondary indexes, seeking with
+ * predicates on a leading prefix of the index's key columns, and either
+ * fetching each matching tuple from the table, or, when the index stores every
+ * column the query needs, returning just those columns without touching the
+ * table (an index-only scan).
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private IndexPredicate ipred;
+
+    //ipred为下界时的上界，没有时为null
+    private IndexPredicate upper;
+
+    private boolean descending;
+
+    //通过二级索引读取时使用的索引，读取以B+树组织的表时为null
+    private SecondaryIndex index;
+
+    //二级索引的key列前缀上的条件
+    private List<IndexPredicate> keyPreds = Collections.emptyList();
+
+    //除ipred外在索引的entry上检查的条件
+    private List<Predicate> residual = Collections.emptyList();
+
+    private boolean indexOnly;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a BTreeFile or HashFile.
+     * @param tableAlias the alias of this table, as for SeqScan.
+     * @param ipred      the predicate on the table's key field.
+     * @throws IllegalArgumentException if the table is not stored in a BTreeFile
+     *                                  or HashFile, or the predicate cannot be answered by the index
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+        super(tid, tableid, tableAlias, search(tid, tableid, ipred));
+        this.ipred = ipred;
+    }
+
+    /**
+     * Creates a scan over the tuples of a B+ tree organized table whose keys lie
+     * between two bounds, as a part of the specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a BTreeFile.
+     * @param tableAlias the alias of this table, as for SeqScan.
+     * @param lower      a GREATER_THAN or GREATER_THAN_OR_EQ predicate on the
+     *                   key, or null for no lower bound
+     * @param upper      a LESS_THAN or LESS_THAN_OR_EQ predicate on the key, or
+     *                   null for no upper bound
+     * @param descending whether to return the tuples in descending key order
+     * @throws IllegalArgumentException if the table is not stored in a BTreeFile
+     *                                  or a bound has the wrong operation
+     * @see BTreeFile#rangeIterator
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate lower,
+                     IndexPredicate upper, boolean descending) {
+        super(tid, tableid, tableAlias, range(tid, tableid, lower, upper, descending));
+        this.ipred = lower != null ? lower : upper;
+        this.upper = lower != null ? upper : null;
+        this.descending = descending;
+    }
+
+    /**
+     * Creates a scan over the specified table that reads it through one of its
+     * secondary indexes.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the index to read; its table is the one scanned.
+     * @param tableAlias the alias of the table, as for SeqScan.
+     * @param ipred      the predicate on the first key column of the index, or
+     *                   null to read the whole index
+     * @param residual   predicates on the columns of the index entries, checked
+     *                   before any tuple is fetched, see {@link SecondaryIndex#indexOf}
+     * @param indexOnly  whether to return only the columns the index stores
+     *                   instead of fetching the tuples from the table
+     * @throws IllegalArgumentException if the predicate cannot be answered by the index
+     */
+    public IndexScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred,
+                     List<Predicate> residual, boolean indexOnly) {
+        this(tid, index, tableAlias, ipred == null ? Collections.<IndexPredicate>emptyList()
+                : Collections.singletonList(ipred), residual, indexOnly);
+    }
+
+    /**
+     * Creates a scan over the specified table that reads it through one of its
+     * secondary indexes, seeking with predicates on a leading prefix of the
+     * key columns.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the index to read; its table is the one scanned.
+     * @param tableAlias the alias of the table, as for SeqScan.
+     * @param keyPreds   predicates on the first keyPreds.size() key columns of
+     *                   the index, see {@link SecondaryIndex#iterator}
+     * @param residual   predicates on the columns of the index entries, checked
+     *                   before any tuple is fetched, see {@link SecondaryIndex#indexOf}
+     * @param indexOnly  whether to return only the columns the index stores
+     *                   instead of fetching the tuples from the table
+     * @throws IllegalArgumentException if the predicates cannot be answered by the index
+     */
+    public IndexScan(TransactionId tid, SecondaryIndex index, String tableAlias, List<IndexPredicate> keyPreds,
+                     List<Predicate> residual, boolean indexOnly) {
+        super(tid, index.getTableId(), tableAlias, index.iterator(tid, keyPreds, residual, indexOnly));
+        this.ipred = keyPreds.isEmpty() ? null : keyPreds.get(0);
+        this.keyPreds = keyPreds;
+        this.index = index;
+        this.residual = residual;
+        this.indexOnly = indexOnly;
+    }
+
+    private static DbFileIterator search(TransactionId tid, int tableid, IndexPredicate ipred) {
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        if (!(f instanceof BTreeFile) && !(f instanceof HashFile)) {
+            throw new IllegalArgumentException("table " + tableid + " has no index");
+        }
+        if (!canAnswer(f, ipred.getOp())) {
+            throw new IllegalArgumentException("index cannot answer " + ipred.getOp());
+        }
+        if (f instanceof HashFile) {
+            return ((HashFile) f).indexIterator(tid, ipred);
+        }
+        return ((BTreeFile) f).indexIterator(tid, ipred);
+    }
+
+    private static DbFileIterator range(TransactionId tid, int tableid, IndexPredicate lower,
+                                       IndexPredicate upper, boolean descending) {
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        if (!(f instanceof BTreeFile)) {
+            throw new IllegalArgumentException("table " + tableid + " has no B+ tree");
+        }
+        return ((BTreeFile) f).rangeIterator(tid, lower, upper, descending);
+    }
+
+    //哈希索引只能回答EQUALS
+    private static boolean canAnswer(DbFile f, Predicate.Op op) {
+        return f instanceof HashFile ? op == Predicate.Op.EQUALS : isIndexable(op);
+    }
+
+    /**
+     * @param op
+     * @return B+树能否通过读取一段连续的叶子回答op比较，NOT_EQUALS和LIKE不行
+     */
+    public static boolean isIndexable(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 判断能否用table上的索引回答对field的op比较
+     *
+     * @param tableid
+     * @param field   比较的列在table中的下标
+     * @param op
+     * @return table是否以该列为key组织成B+树，且op可以通过读取连续的叶子回答；
+     * 或者以该列为key组织成HashFile，且op是EQUALS
+     */
+    public static boolean canServe(int tableid, int field, Predicate.Op op) {
+        DbFile f = Database.getCatalog().getDbFile(tableid);
+        if (f instanceof BTreeFile) {
+            return ((BTreeFile) f).keyField() == field && canAnswer(f, op);
+        }
+        return f instanceof HashFile && ((HashFile) f).keyField() == field && canAnswer(f, op);
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return the predicates on the key columns of the secondary index read,
+     * empty if there are none or the table is itself a B+ tree or hash file
+     */
+    public List<IndexPredicate> getKeyPredicates() {
+        return keyPreds;
+    }
+
+    /**
+     * @return the upper bound of a scan between two bounds, or null
+     */
+    public IndexPredicate getUpperBound() {
+        return upper;
+    }
+
+    /**
+     * @return whether the tuples come back in descending key order
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return the secondary index read, or null if the table is itself a B+ tree or hash file
+     */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return whether only the columns stored in the secondary index are returned
+     */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, or for an index-only scan that of the
+     * columns stored in the index, with field names prefixed by the alias.
+     */
+    @Override
+    public TupleDesc getTupleDesc() {
+        if (!indexOnly) {
+            return super.getTupleDesc();
+        }
+        TupleDesc desc = index.getCoveredTupleDesc();
+        Type[] types = new Type[desc.numFields()];
+        String[] names = new String[desc.numFields()];
+        for (int i = 0; i < desc.numFields(); i++) {
+            types[i] = desc.getFieldType(i);
+            names[i] = getAlias() + "." + desc.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    @Override
+    public String getName() {
+        String scan = index == null ? "Index scan" : (indexOnly ? "Index-only scan" : "Index scan") + " using " + index.getName();
+        String pred = ipred == null ? "" : " " + ipred.getOp() + " " + ipred.getField();
+        for (int i = 1; i < keyPreds.size(); i++) {
+            pred += " and " + keyPreds.get(i).getOp() + " " + keyPreds.get(i).getField();
+        }
+        if (upper != null) {
+            pred += " and " + upper.getOp() + " " + upper.getField();
+        }
+        return "<" + scan + " on " + getAlias() + pred + (residual.isEmpty() ? "" : " and " + residual.size() + " more")
+                + (descending ? " descending" : "") + ">";
+    }
+}
@@ -13,6 +13,8 @@ import java.util.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    //每个表别名的访问路径（SeqScan或IndexScan）的代价，没有记录的别名按全表扫描计算
+    HashMap<String, Double> accessCosts;
 
     /**
      * Constructor
@@ -21,8 +23,32 @@ public class JoinOptimizer {
      * @param joins the list of joins being performed
      */
     public JoinOptimizer(LogicalPlan p, Vector<LogicalJoinNode> joins) {
+        this(p, joins, new HashMap<String, Double>());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param p           the logical plan being optimized
+     * @param joins       the list of joins being performed
+     * @param accessCosts the cost of the access path chosen for each table alias;
+     *                    aliases not in the map are costed as a sequential scan
+     */
+    public JoinOptimizer(LogicalPlan p, Vector<LogicalJoinNode> joins, HashMap<String, Double> accessCosts) {
         this.p = p;
         this.joins = joins;
+        this.accessCosts = accessCosts;
+    }
+
+    /**
+     * @param stats
+     * @param tableName
+     * @param alias
+     * @return 读取alias对应的表的代价，使用了索引时是索引扫描的代价
+     */
+    private double accessCost(HashMap<String, TableStats> stats, String tableName, String alias) {
+        Double cost = accessCosts.get(alias);
+        return cost != null ? cost : stats.get(tableName).estimateScanCost();
     }
 
     /**
@@ -330,13 +356,12 @@ public class JoinOptimizer {
         if (news.isEmpty()) { // base case -- both are base relations
             //移除一个join之后就为null，说明传入的joinSet只含有一个join
             prevBest = new Vector<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
+            t1cost = accessCost(stats, table1Name, j.t1Alias);
             t1card = stats.get(table1Name).estimateTableCardinality(
                     filterSelectivities.get(j.t1Alias));
             leftPkey = isPkey(j.t1Alias, j.f1PureName);
 
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
+            t2cost = table2Alias == null ? 0 : accessCost(stats, table2Name, table2Alias);
             t2card = table2Alias == null ? 0 : stats.get(table2Name)
                     .estimateTableCardinality(
                             filterSelectivities.get(j.t2Alias));
@@ -365,8 +390,7 @@ public class JoinOptimizer {
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
 
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
+                t2cost = j.t2Alias == null ? 0 : accessCost(stats, table2Name, j.t2Alias);
                 t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateTableCardinality(
                                 filterSelectivities.get(j.t2Alias));
@@ -517,7 +541,7 @@ public class JoinOptimizer {
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
                         + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
+                        + accessCost(stats, table1Name, j.t1Alias)
                         + ", card = "
                         + stats.get(table1Name).estimateTableCardinality(
                         selectivities.get(j.t1Alias)) + ")");
@@ -536,8 +560,7 @@ public class JoinOptimizer {
                         j.t2Alias == null ? "Subplan"
                                 : (j.t2Alias
                                 + " (Cost = "
-                                + stats.get(table2Name)
-                                .estimateScanCost()
+                                + accessCost(stats, table2Name, j.t2Alias)
                                 + ", card = "
                                 + stats.get(table2Name)
                                 .estimateTableCardinality(
@@ -1,23 +1,93 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class LockManager {
 
+    //默认的锁升级阈值：一个事务在同一个表上持有的page锁超过这个数量时，尝试将它们升级为一个表锁
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
     //Key相当于资源，LockState存放事务id与锁类型，故每个LockState代表某事务在Key上加了锁
     //故整个map为所有资源的锁信息
     private Map<PageId, List<LockState>> lockStateMap;
 
+    //表级锁，Key为表的id，一个表锁覆盖该表所有的page
+    private Map<Integer, List<LockState>> tableLockMap;
+
     //Key为事务，PageId为正在等待的资源，相当于保存了等待的信息，PS：BufferPool中实际用的是sleep体现等待
     private Map<TransactionId, PageId> waitingInfo;
 
+    //lockStateMap的反向索引：每个事务持有page锁的page，避免查找事务的锁时遍历整个lockStateMap
+    private Map<TransactionId, Set<PageId>> pagesByTid;
+
+    //每个事务在每个表上持有page锁的page数量，用于判断是否需要锁升级
+    private Map<TransactionId, Map<Integer, Integer>> pageCountsByTid;
+
+    //lockStateMap按表的索引：每个表上有page锁的page，锁升级时只检查该表的page，不必遍历整个lockStateMap
+    private Map<Integer, Set<PageId>> pagesByTable;
+
+    //锁升级阈值
+    private volatile int escalationThreshold;
+
+    //锁请求、等待、升级等的统计信息
+    private final LockStats stats;
+
+    //释放锁的次数，等待者据此判断自上次申请以来是否有锁被释放过
+    private long releases = 0;
+
     public LockManager() {
+        this(DEFAULT_ESCALATION_THRESHOLD);
+    }
+
+    /**
+     * @param escalationThreshold 锁升级阈值，见setEscalationThreshold()
+     */
+    public LockManager(int escalationThreshold) {
         //使用支持并发的容器避免ConcurrentModificationException
         lockStateMap = new ConcurrentHashMap<>();
+        tableLockMap = new ConcurrentHashMap<>();
         waitingInfo = new ConcurrentHashMap<>();
+        pagesByTid = new HashMap<>();
+        pageCountsByTid = new HashMap<>();
+        pagesByTable = new HashMap<>();
+        stats = new LockStats();
+        setEscalationThreshold(escalationThreshold);
+    }
+
+    /**
+     * 设置锁升级阈值：事务在一个表上持有的page锁多于threshold个时，将它们转换成一个表锁
+     *
+     * @param threshold 必须为正数，Integer.MAX_VALUE表示不进行锁升级
+     */
+    public void setEscalationThreshold(int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("escalation threshold must be positive");
+        }
+        escalationThreshold = threshold;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /**
+     * @return 到目前为止发生锁升级的次数
+     */
+    public long getEscalationCount() {
+        return stats.getEscalations();
+    }
+
+    /**
+     * @return 锁的统计信息，BufferPool在等待锁的过程中也会向其中记录
+     */
+    public LockStats getStats() {
+        return stats;
     }
 
 
@@ -33,6 +103,24 @@ public class LockManager {
      * @return
      */
     public synchronized boolean grantSLock(TransactionId tid, PageId pid) {
+        int tableId = pid.getTableId();
+        if (getTableLockState(tid, tableId) != null) {
+            return true;//表锁（无论读写）已经覆盖了该page
+        }
+        if (tableLockConflicts(tid, tableId, Permissions.READ_ONLY)) {
+            return wait(tid, pid);
+        }
+        if (!grantPageSLock(tid, pid)) {
+            return false;
+        }
+        escalateIfNeeded(tid, tableId);
+        return true;
+    }
+
+    /**
+     * 只考虑page锁时的grantSLock()
+     */
+    private synchronized boolean grantPageSLock(TransactionId tid, PageId pid) {
         ArrayList<LockState> list = (ArrayList<LockState>) lockStateMap.get(pid);
         if (list != null && list.size() != 0) {
             if (list.size() == 1) {//pid上只有一个锁
@@ -74,6 +162,26 @@ public class LockManager {
      * @return
      */
     public synchronized boolean grantXLock(TransactionId tid, PageId pid) {
+        int tableId = pid.getTableId();
+        LockState tls = getTableLockState(tid, tableId);
+        if (tls != null && tls.getPerm() == Permissions.READ_WRITE) {
+            return true;
+        }
+        //如果tid只有表读锁，仍然需要在page上加写锁
+        if (tableLockConflicts(tid, tableId, Permissions.READ_WRITE)) {
+            return wait(tid, pid);
+        }
+        if (!grantPageXLock(tid, pid)) {
+            return false;
+        }
+        escalateIfNeeded(tid, tableId);
+        return true;
+    }
+
+    /**
+     * 只考虑page锁时的grantXLock()
+     */
+    private synchronized boolean grantPageXLock(TransactionId tid, PageId pid) {
         ArrayList<LockState> list = (ArrayList<LockState>) lockStateMap.get(pid);
         if (list != null && list.size() != 0) {
             if (list.size() == 1) {//如果pid上只有一个锁
@@ -111,9 +219,18 @@ public class LockManager {
         if (list == null) {
             list = new ArrayList<>();
         }
+        if (perm == Permissions.READ_WRITE && list.contains(new LockState(tid, Permissions.READ_ONLY))) {
+            stats.recordUpgrade();
+        }
         list.add(nls);
         lockStateMap.put(pid, list);
+        pagesByTable.computeIfAbsent(pid.getTableId(), k -> new HashSet<>()).add(pid);
         waitingInfo.remove(tid);
+        Set<PageId> pages = pagesByTid.computeIfAbsent(tid, k -> new HashSet<>());
+        if (pages.add(pid)) {
+            Map<Integer, Integer> counts = pageCountsByTid.computeIfAbsent(tid, k -> new HashMap<>());
+            counts.merge(pid.getTableId(), 1, Integer::sum);
+        }
         return true;
     }
 
@@ -133,6 +250,8 @@ public class LockManager {
      * unlock被设计为可以随时调用，如果不存在则返回false
      * 这样，查找是否存在的代码已经在方法内，在其他地方不必先确认存在再unlock
      * 而是应该先unlock再根据返回结果判断是否存在
+     * <p>
+     * 如果pid被tid的表锁覆盖，表锁不会因此释放，直接返回true
      *
      * @param tid
      * @param pid
@@ -141,11 +260,28 @@ public class LockManager {
     public synchronized boolean unlock(TransactionId tid, PageId pid) {
         ArrayList<LockState> list = (ArrayList<LockState>) lockStateMap.get(pid);
 
-        if (list == null || list.size() == 0) return false;
-        LockState ls = getLockState(tid, pid);
-        if (ls == null) return false;
+        if (list == null || list.size() == 0) {
+            return getTableLockState(tid, pid.getTableId()) != null;
+        }
+        LockState ls = getPageLockState(tid, pid);
+        if (ls == null) {
+            return getTableLockState(tid, pid.getTableId()) != null;
+        }
         list.remove(ls);
-        lockStateMap.put(pid, list);
+        if (list.isEmpty()) {
+            lockStateMap.remove(pid);
+            Set<PageId> pages = pagesByTable.get(pid.getTableId());
+            pages.remove(pid);
+            if (pages.isEmpty()) {
+                pagesByTable.remove(pid.getTableId());
+            }
+        } else {
+            lockStateMap.put(pid, list);
+        }
+        if (getPageLockState(tid, pid) == null) {//tid在pid上的锁已经全部释放
+            forgetPage(tid, pid);
+        }
+        released();
         return true;
     }
 
@@ -158,13 +294,158 @@ public class LockManager {
         //先找出所有，再释放
         List<PageId> toRelease = getAllLocksByTid(tid);
         for (PageId pid : toRelease) {
-            unlock(tid, pid);
+            while (getPageLockState(tid, pid) != null) {//tid在pid上可能同时有读锁和写锁
+                unlock(tid, pid);
+            }
+        }
+        for (Map.Entry<Integer, List<LockState>> entry : tableLockMap.entrySet()) {
+            entry.getValue().removeIf(ls -> ls.getTid().equals(tid));
+        }
+        tableLockMap.values().removeIf(List::isEmpty);
+        pagesByTid.remove(tid);
+        pageCountsByTid.remove(tid);
+        //事务结束后不再等待任何资源，例如乐观事务提交验证时没能加上写锁而回滚
+        waitingInfo.remove(tid);
+        released();
+    }
+
+    /**
+     * @return 到目前为止释放锁的次数，在申请锁之前读取，传给awaitRelease()
+     */
+    public synchronized long getReleaseCount() {
+        return releases;
+    }
+
+    /**
+     * 等待直到seenReleases之后又有锁被释放，或者已经等待了millis毫秒
+     * B+树遍历时只短暂地持有内部节点的锁，等待者在锁释放后马上重新申请，而不是每次都睡眠固定的时间
+     *
+     * @param seenReleases 上次申请锁之前getReleaseCount()的返回值
+     * @param millis       最长等待时间，必须为正数
+     */
+    public synchronized void awaitRelease(long seenReleases, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        long left = millis;
+        while (releases == seenReleases && left > 0) {
+            wait(left);
+            left = deadline - System.currentTimeMillis();
+        }
+    }
+
+    private synchronized void released() {
+        releases++;
+        notifyAll();
+    }
+
+    /**
+     * 从反向索引中删除tid在pid上的page锁
+     */
+    private synchronized void forgetPage(TransactionId tid, PageId pid) {
+        Set<PageId> pages = pagesByTid.get(tid);
+        if (pages == null || !pages.remove(pid)) {
+            return;
+        }
+        Map<Integer, Integer> counts = pageCountsByTid.get(tid);
+        int tableId = pid.getTableId();
+        int n = counts.get(tableId) - 1;
+        if (n == 0) {
+            counts.remove(tableId);
+        } else {
+            counts.put(tableId, n);
         }
     }
 
 //==========================申请锁,加锁,解锁的相关方法 end==================================
 
 
+//==========================锁升级的相关方法 begin==================================
+
+    /**
+     * 如果tid在tableId上持有的page锁超过了阈值，尝试将它们升级为一个表锁：
+     * tid在该表上有page写锁时升级为表写锁，否则升级为表读锁
+     * 如果其他事务持有冲突的锁，就暂不升级，继续使用page锁，每再获得threshold个page锁时重试一次
+     *
+     * @param tid
+     * @param tableId
+     */
+    private synchronized void escalateIfNeeded(TransactionId tid, int tableId) {
+        Map<Integer, Integer> counts = pageCountsByTid.get(tid);
+        Integer count = counts == null ? null : counts.get(tableId);
+        int threshold = escalationThreshold;
+        if (count == null || count <= threshold || (count - threshold - 1) % threshold != 0) {
+            return;
+        }
+        List<PageId> pages = new ArrayList<>();
+        Permissions perm = Permissions.READ_ONLY;
+        for (PageId pid : pagesByTid.get(tid)) {
+            if (pid.getTableId() == tableId) {
+                pages.add(pid);
+                for (LockState ls : lockStateMap.get(pid)) {
+                    if (ls.getTid().equals(tid) && ls.getPerm() == Permissions.READ_WRITE) {
+                        perm = Permissions.READ_WRITE;
+                    }
+                }
+            }
+        }
+        if (!canLockTable(tid, tableId, perm)) {
+            return;
+        }
+        List<LockState> tableLocks = tableLockMap.computeIfAbsent(tableId, k -> new ArrayList<>());
+        tableLocks.removeIf(ls -> ls.getTid().equals(tid));//升级前tid可能已经持有该表的读锁
+        tableLocks.add(new LockState(tid, perm));
+        for (PageId pid : pages) {
+            while (getPageLockState(tid, pid) != null) {
+                unlock(tid, pid);
+            }
+        }
+        stats.recordEscalation();
+    }
+
+    /**
+     * 判断tid能否在tableId上加perm类型的表锁，即其他事务在该表上是否持有冲突的表锁或page锁
+     */
+    private synchronized boolean canLockTable(TransactionId tid, int tableId, Permissions perm) {
+        if (tableLockConflicts(tid, tableId, perm)) {
+            return false;
+        }
+        Set<PageId> pages = pagesByTable.get(tableId);
+        if (pages == null) {
+            return true;
+        }
+        for (PageId pid : pages) {
+            for (LockState ls : lockStateMap.get(pid)) {
+                if (!ls.getTid().equals(tid)
+                        && (perm == Permissions.READ_WRITE || ls.getPerm() == Permissions.READ_WRITE)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param tid
+     * @param tableId
+     * @param perm    tid在该表的某个page（或整个表）上请求的锁类型
+     * @return 其他事务在tableId上是否持有与perm冲突的表锁
+     */
+    private synchronized boolean tableLockConflicts(TransactionId tid, int tableId, Permissions perm) {
+        List<LockState> list = tableLockMap.get(tableId);
+        if (list == null) {
+            return false;
+        }
+        for (LockState ls : list) {
+            if (!ls.getTid().equals(tid)
+                    && (perm == Permissions.READ_WRITE || ls.getPerm() == Permissions.READ_WRITE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+//==========================锁升级的相关方法 end==================================
+
+
 //==========================检测死锁的相关方法 beign======================================
 
     /**
@@ -202,18 +483,13 @@ public class LockManager {
      * @return true表示进入了死锁，false表示没有
      */
     public synchronized boolean deadlockOccurred(TransactionId tid, PageId pid) {//T1为tid，P3为pid
-        List<LockState> holders = lockStateMap.get(pid);
-        if (holders == null || holders.size() == 0) {
-            return false;
-        }
-        List<PageId> pids = getAllLocksByTid(tid);//找出T1拥有的所有资源，即只含有P1的list
-        for (LockState ls : holders) {
-            TransactionId holder = ls.getTid();
+        List<TransactionId> holders = getHolders(pid);
+        for (TransactionId holder : holders) {
             //去掉T1，因为虽然上图没画出这种情况，但T1可能同时也在其他Page上有读锁，这会影响判断结果
             if (!holder.equals(tid)) {
-                //判断T3(holder)是否直接或间接在等待P1(pids)
+                //判断T3(holder)是否直接或间接在等待T1拥有的资源(P1)
                 //由图可以看出T3在直接等待P2，而P2的拥有者T2在直接等待P1,即T3在间接等待P1
-                boolean isWaiting = isWaitingResources(holder, pids, tid);
+                boolean isWaiting = isWaitingResources(holder, tid, new HashSet<TransactionId>());
                 if (isWaiting) {
                     return true;
                 }
@@ -223,37 +499,36 @@ public class LockManager {
     }
 
     /**
-     * 判断tid是否直接或间接地在等待pids中的某个资源
+     * 判断tid是否直接或间接地在等待toRemove拥有的某个资源（page锁或覆盖该page的表锁）
      *
      * @param tid
-     * @param pids
-     * @param toRemove 需要排除toRemove来判断，具体原因见方法内部注释；
+     * @param toRemove 资源的拥有者，同时需要排除toRemove来判断，具体原因见方法内部注释；
      *                 事实上，toRemove就是leadToDeadLock()的参数tid，也就是要排除它自己对判断过程的影响
+     * @param visited  已经检查过的事务，其他事务之间可能已经形成了不包含toRemove的等待环，不记录的话会无限递归
      * @return
      */
-    private synchronized boolean isWaitingResources(TransactionId tid, List<PageId> pids, TransactionId toRemove) {
+    private synchronized boolean isWaitingResources(TransactionId tid, TransactionId toRemove,
+                                                    Set<TransactionId> visited) {
+        if (!visited.add(tid)) {
+            return false;
+        }
         PageId waitingPage = waitingInfo.get(tid);
         if (waitingPage == null) {
             return false;
         }
-        for (PageId pid : pids) {
-            if (pid.equals(waitingPage)) {
-                return true;
-            }
+        if (getLockState(toRemove, waitingPage) != null) {
+            return true;
         }
-        //到达这里说明tid并不直接在等待pids中的任意一个，但有可能间接在等待
-        //如果waitingPage的拥有者们(去掉toRemove)中的某一个正在等待pids中的某一个，说明是tid间接在等待
-        List<LockState> holders = lockStateMap.get(waitingPage);
-        if (holders == null || holders.size() == 0) return false;//该资源没有拥有者
-        for (LockState ls : holders) {
-            TransactionId holder = ls.getTid();
+        //到达这里说明tid并不直接在等待toRemove的资源，但有可能间接在等待
+        //如果waitingPage的拥有者们(去掉toRemove)中的某一个正在等待toRemove的资源，说明是tid间接在等待
+        for (TransactionId holder : getHolders(waitingPage)) {
             if (!holder.equals(toRemove)) {//去掉toRemove，在toRemove刚好拥有waitingResource的读锁时就需要
-                boolean isWaiting = isWaitingResources(holder, pids, toRemove);
+                boolean isWaiting = isWaitingResources(holder, toRemove, visited);
                 if (isWaiting) return true;
             }
         }
-        //如果在for循环中没有return，说明每一个holder都不直接或间接等待pids
-        //故tid也非间接等待pids
+        //如果在for循环中没有return，说明每一个holder都不直接或间接等待toRemove的资源
+        //故tid也非间接等待
         return false;
     }
 
@@ -265,9 +540,55 @@ public class LockManager {
     /**
      * @param tid 施加锁的事务id
      * @param pid 被上锁的page
-     * @return tid代表的事务在pid上的锁;如果不存在该锁，返回null
+     * @return tid代表的事务在pid上的锁，如果pid被tid的表锁覆盖则返回该表锁;如果不存在该锁，返回null
      */
     public synchronized LockState getLockState(TransactionId tid, PageId pid) {
+        LockState ls = getPageLockState(tid, pid);
+        return ls != null ? ls : getTableLockState(tid, pid.getTableId());
+    }
+
+    /**
+     * @param tid
+     * @param tableId
+     * @return tid在tableId上的表锁;如果不存在，返回null
+     */
+    public synchronized LockState getTableLockState(TransactionId tid, int tableId) {
+        List<LockState> list = tableLockMap.get(tableId);
+        if (list == null) {
+            return null;
+        }
+        for (LockState ls : list) {
+            if (ls.getTid().equals(tid)) {
+                return ls;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 在pid上持有page锁或持有所在表的表锁的事务
+     */
+    private synchronized List<TransactionId> getHolders(PageId pid) {
+        List<TransactionId> holders = new ArrayList<>();
+        List<LockState> list = lockStateMap.get(pid);
+        if (list != null) {
+            for (LockState ls : list) {
+                holders.add(ls.getTid());
+            }
+        }
+        list = tableLockMap.get(pid.getTableId());
+        if (list != null) {
+            for (LockState ls : list) {
+                holders.add(ls.getTid());
+            }
+        }
+        return holders;
+    }
+
+    /**
+     * 只考虑page锁时的getLockState()
+     */
+    private synchronized LockState getPageLockState(TransactionId tid, PageId pid) {
         ArrayList<LockState> list = (ArrayList<LockState>) lockStateMap.get(pid);
         if (list == null || list.size() == 0) {
             return null;
@@ -281,21 +602,40 @@ public class LockManager {
     }
 
     /**
-     * 得到tid所拥有的所有锁，以锁所在的资源pid的形式返回
+     * 得到tid所拥有的所有page锁，以锁所在的资源pid的形式返回，不包括表锁
      *
      * @param tid
      * @return
      */
     private synchronized List<PageId> getAllLocksByTid(TransactionId tid) {
-        ArrayList<PageId> pids = new ArrayList<>();
+        Set<PageId> pages = pagesByTid.get(tid);
+        return pages == null ? new ArrayList<PageId>() : new ArrayList<>(pages);
+    }
+
+    /**
+     * 生成锁表当前状态的快照，包括所有的page锁、表锁、正在等待的事务以及等待图
+     *
+     * @return
+     */
+    public synchronized LockTableSnapshot snapshot() {
+        Map<PageId, List<LockState>> pages = new HashMap<>();
         for (Map.Entry<PageId, List<LockState>> entry : lockStateMap.entrySet()) {
-            for (LockState ls : entry.getValue()) {
-                if (ls.getTid().equals(tid)) {
-                    pids.add(entry.getKey());
-                }
+            if (!entry.getValue().isEmpty()) {
+                pages.put(entry.getKey(), new ArrayList<>(entry.getValue()));
             }
         }
-        return pids;
+        Map<Integer, List<LockState>> tables = new HashMap<>();
+        for (Map.Entry<Integer, List<LockState>> entry : tableLockMap.entrySet()) {
+            tables.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        Map<TransactionId, PageId> waiting = new HashMap<>(waitingInfo);
+        Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+        for (Map.Entry<TransactionId, PageId> entry : waiting.entrySet()) {
+            Set<TransactionId> holders = new HashSet<>(getHolders(entry.getValue()));
+            holders.remove(entry.getKey());
+            waitsFor.put(entry.getKey(), holders);
+        }
+        return new LockTableSnapshot(pages, tables, waiting, waitsFor);
     }
 
 //==========================查询与修改两个map信息的相关方法 end=========================
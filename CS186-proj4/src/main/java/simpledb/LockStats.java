@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 锁管理器的统计信息，由LockManager持有，计数都是从创建开始累计的
+ * <p>
+ * 一次锁请求指的是BufferPool.getPage()中为获得一个page锁所做的全部尝试，
+ * 它要么立即得到锁(grant)，要么等待(wait)之后得到锁、因死锁回滚或因超时回滚
+ */
+public class LockStats {
+
+    //等待时间直方图的桶：第i个桶(i>0)统计等待时间在[2^(i-1), 2^i)毫秒之间的请求，第0个桶统计不足1毫秒的请求
+    public static final int WAIT_BUCKETS = 16;
+
+    private final AtomicLong grants = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong upgrades = new AtomicLong();
+    private final AtomicLong deadlockAborts = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong escalations = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_BUCKETS);
+
+    /**
+     * 记录一次得到了锁的请求
+     *
+     * @param waitMillis 得到锁之前等待的时间，0表示没有等待
+     */
+    public void recordGrant(long waitMillis) {
+        grants.incrementAndGet();
+        if (waitMillis > 0) {
+            recordWait(waitMillis);
+        }
+    }
+
+    /**
+     * 记录一次等待后因死锁而回滚的请求
+     */
+    public void recordDeadlock(long waitMillis) {
+        deadlockAborts.incrementAndGet();
+        recordWait(waitMillis);
+    }
+
+    /**
+     * 记录一次等待超时而回滚的请求
+     */
+    public void recordTimeout(long waitMillis) {
+        timeouts.incrementAndGet();
+        recordWait(waitMillis);
+    }
+
+    /**
+     * 记录一次读锁到写锁的升级
+     */
+    public void recordUpgrade() {
+        upgrades.incrementAndGet();
+    }
+
+    /**
+     * 记录一次page锁到表锁的升级
+     */
+    public void recordEscalation() {
+        escalations.incrementAndGet();
+    }
+
+    private void recordWait(long waitMillis) {
+        waits.incrementAndGet();
+        totalWaitMillis.addAndGet(waitMillis);
+        waitHistogram.incrementAndGet(bucketOf(waitMillis));
+    }
+
+    /**
+     * @param waitMillis
+     * @return 等待时间所属的直方图桶，超出范围的放在最后一个桶
+     */
+    public static int bucketOf(long waitMillis) {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(waitMillis, 0));
+        return Math.min(bucket, WAIT_BUCKETS - 1);
+    }
+
+    public long getGrants() {
+        return grants.get();
+    }
+
+    /**
+     * @return 没能立即得到锁的请求数，包括最终得到锁的和回滚的
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    public long getUpgrades() {
+        return upgrades.get();
+    }
+
+    public long getDeadlockAborts() {
+        return deadlockAborts.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getEscalations() {
+        return escalations.get();
+    }
+
+    public long getTotalWaitMillis() {
+        return totalWaitMillis.get();
+    }
+
+    /**
+     * @return 等待时间直方图的副本，见WAIT_BUCKETS
+     */
+    public long[] getWaitHistogram() {
+        long[] copy = new long[WAIT_BUCKETS];
+        for (int i = 0; i < WAIT_BUCKETS; i++) {
+            copy[i] = waitHistogram.get(i);
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("grants=").append(getGrants())
+                .append(" waits=").append(getWaits())
+                .append(" upgrades=").append(getUpgrades())
+                .append(" deadlockAborts=").append(getDeadlockAborts())
+                .append(" timeouts=").append(getTimeouts())
+                .append(" escalations=").append(getEscalations())
+                .append(" totalWaitMs=").append(getTotalWaitMillis())
+                .append("\nwait histogram (ms):");
+        long[] histogram = getWaitHistogram();
+        for (int i = 0; i < WAIT_BUCKETS; i++) {
+            if (histogram[i] == 0) {
+                continue;
+            }
+            long low = i == 0 ? 0 : 1L << (i - 1);
+            String high = i == WAIT_BUCKETS - 1 ? "inf" : String.valueOf(1L << i);
+            sb.append("\n  [").append(low).append(", ").append(high).append(") ").append(histogram[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 锁表在某一时刻的只读快照，由LockManager.snapshot()生成，用于诊断锁等待
+ * 包括每个page与表上的锁、正在等待的事务，以及由此得到的等待图(waits-for graph)
+ */
+public class LockTableSnapshot {
+
+    private final Map<PageId, List<LockState>> pageLocks;
+    private final Map<Integer, List<LockState>> tableLocks;
+    private final Map<TransactionId, PageId> waiting;
+    private final Map<TransactionId, Set<TransactionId>> waitsFor;
+
+    LockTableSnapshot(Map<PageId, List<LockState>> pageLocks, Map<Integer, List<LockState>> tableLocks,
+                      Map<TransactionId, PageId> waiting, Map<TransactionId, Set<TransactionId>> waitsFor) {
+        this.pageLocks = Collections.unmodifiableMap(pageLocks);
+        this.tableLocks = Collections.unmodifiableMap(tableLocks);
+        this.waiting = Collections.unmodifiableMap(waiting);
+        this.waitsFor = Collections.unmodifiableMap(waitsFor);
+    }
+
+    /**
+     * @return 每个page上的锁
+     */
+    public Map<PageId, List<LockState>> getPageLocks() {
+        return pageLocks;
+    }
+
+    /**
+     * @return 每个表上的表锁，Key为表的id
+     */
+    public Map<Integer, List<LockState>> getTableLocks() {
+        return tableLocks;
+    }
+
+    /**
+     * @return 正在等待锁的事务及其等待的page
+     */
+    public Map<TransactionId, PageId> getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return 等待图：Key为正在等待的事务，Value为持有它所等待的锁的事务
+     */
+    public Map<TransactionId, Set<TransactionId>> getWaitsFor() {
+        return waitsFor;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("lock table:");
+        for (Map.Entry<Integer, List<LockState>> e : tableLocks.entrySet()) {
+            sb.append("\n  table ").append(e.getKey()).append(": ");
+            appendLocks(sb, e.getValue());
+        }
+        for (Map.Entry<PageId, List<LockState>> e : pageLocks.entrySet()) {
+            PageId pid = e.getKey();
+            sb.append("\n  page ").append(pid.getTableId()).append(':').append(pid.pageNumber()).append(": ");
+            appendLocks(sb, e.getValue());
+        }
+        sb.append("\nwaits-for:");
+        for (Map.Entry<TransactionId, Set<TransactionId>> e : waitsFor.entrySet()) {
+            PageId pid = waiting.get(e.getKey());
+            sb.append("\n  ").append(e.getKey().getId()).append(" -> ");
+            boolean first = true;
+            for (TransactionId holder : e.getValue()) {
+                sb.append(first ? "" : ", ").append(holder.getId());
+                first = false;
+            }
+            if (pid != null) {
+                sb.append(" (page ").append(pid.getTableId()).append(':').append(pid.pageNumber()).append(')');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendLocks(StringBuilder sb, List<LockState> locks) {
+        boolean first = true;
+        for (LockState ls : locks) {
+            sb.append(first ? "" : ", ").append(ls.getTid().getId())
+                    .append(ls.getPerm() == Permissions.READ_ONLY ? "(S)" : "(X)");
+            first = false;
+        }
+    }
+}
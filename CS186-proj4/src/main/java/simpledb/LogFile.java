@@ -4,6 +4,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.channels.FileChannel;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -93,6 +94,16 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // commits arriving together share one log force, see setGroupCommit()
+    static final long DEFAULT_GROUP_COMMIT_WINDOW_MICROS = 0;
+    static final int DEFAULT_GROUP_COMMIT_BATCH = 64;
+    private final GroupCommit groupCommit = new GroupCommit(this,
+            DEFAULT_GROUP_COMMIT_WINDOW_MICROS * 1000, DEFAULT_GROUP_COMMIT_BATCH);
+    // COMMIT records written so far, and how many of them are known to
+    // be on disk
+    private long loggedCommits = 0;
+    private volatile long forcedCommits = 0;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -169,21 +180,52 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  Commits that arrive at about the
+        same time share a single force (group commit); this call
+        returns once the force covering its record has completed.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long commitNo;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            commitNo = ++loggedCommits;
+        }
+        //must not hold the log lock here, or no other commit could join the batch
+        groupCommit.awaitDurable(commitNo);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Configure group commit.  The first committer to find its
+        record not yet on disk waits up to windowMicros for other
+        commits (or until maxBatch commits are waiting) and then
+        forces the log once for all of them.  A window of 0 forces
+        immediately; commits that arrive during that force are still
+        batched into the next one.
+
+        @param windowMicros how long a commit may wait for others, in microseconds
+        @param maxBatch force as soon as this many commits are waiting
+    */
+    public void setGroupCommit(long windowMicros, int maxBatch) {
+        groupCommit.configure(windowMicros * 1000, maxBatch);
+    }
+
+    /** @return the number of log forces issued by group commit */
+    public long getCommitForceCount() {
+        return groupCommit.getForceCount();
+    }
+
+    /** @return the number of commits made durable by group commit */
+    public long getGroupCommittedCount() {
+        return groupCommit.getCommitCount();
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -504,7 +546,33 @@ public class LogFile {
     }
 
     public  synchronized void force() throws IOException {
+        long commits = loggedCommits;
         raf.getChannel().force(true);
+        markDurable(commits);
+    }
+
+    // used by group commit, which measures positions in commits: records
+    // are written to raf directly, so this only returns the number of
+    // COMMIT records written so far
+    synchronized long writeBuffered() {
+        return loggedCommits;
+    }
+
+    // the file holding the log, for group commit to force outside the lock
+    synchronized List<FileChannel> getChannels(long from, long to) {
+        return Collections.singletonList(raf.getChannel());
+    }
+
+    // the number of COMMIT records known to be on disk
+    long getDurablePosition() {
+        return forcedCommits;
+    }
+
+    // a force covering the first commits COMMIT records has completed
+    synchronized void markDurable(long commits) {
+        if (commits > forcedCommits) {
+            forcedCommits = commits;
+        }
     }
 
 }
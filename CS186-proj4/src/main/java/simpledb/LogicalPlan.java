@@ -301,6 +301,174 @@ public class LogicalPlan {
 
         }
 
+        //为每个表选择访问路径：在能由索引回答的过滤条件中找代价最小的一个，
+        //比全表扫描便宜时把SeqScan换成IndexScan，这个条件不再需要Filter
+        HashSet<LogicalFilterNode> servedByIndex = new HashSet<LogicalFilterNode>();
+        HashMap<String,Double> accessCosts = new HashMap<String,Double>();
+        //ORDER BY的列是B+树的key时，按叶子的顺序读出的tuple已经有序，不需要OrderBy
+        boolean orderedByIndex = false;
+        for (LogicalScanNode table : tables) {
+            SeqScan ss = (SeqScan) subplanMap.get(table.alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s == null) {
+                continue;
+            }
+            double bestCost = s.estimateScanCost();
+            LogicalFilterNode best = null;
+            IndexPredicate bestPred = null;
+            //B+树的key上同时有下界和上界时，从一端读到另一端，bestUpper是与best配对的上界
+            LogicalFilterNode bestUpper = null;
+            IndexPredicate bestUpperPred = null;
+            int keyField = -1;
+            ArrayList<LogicalFilterNode> lowers = new ArrayList<LogicalFilterNode>();
+            ArrayList<LogicalFilterNode> uppers = new ArrayList<LogicalFilterNode>();
+            HashMap<LogicalFilterNode,IndexPredicate> keyPreds = new HashMap<LogicalFilterNode,IndexPredicate>();
+            for (LogicalFilterNode lf : filters) {
+                if (!lf.tableAlias.equals(table.alias)) {
+                    continue;
+                }
+                int field;
+                try {
+                    field = ss.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName);
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                if (!IndexScan.canServe(table.t, field, lf.p)) {
+                    continue;
+                }
+                Field f = constant(ss.getTupleDesc().getFieldType(field), lf.c);
+                IndexPredicate pred = new IndexPredicate(lf.p, f);
+                keyField = field;
+                keyPreds.put(lf, pred);
+                if (lf.p == Predicate.Op.GREATER_THAN || lf.p == Predicate.Op.GREATER_THAN_OR_EQ) {
+                    lowers.add(lf);
+                } else if (lf.p == Predicate.Op.LESS_THAN || lf.p == Predicate.Op.LESS_THAN_OR_EQ) {
+                    uppers.add(lf);
+                }
+                double cost = s.estimateIndexScanCost(field, lf.p, f);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = lf;
+                    bestPred = pred;
+                }
+            }
+            for (LogicalFilterNode lower : lowers) {
+                for (LogicalFilterNode upper : uppers) {
+                    double cost = s.estimateIndexScanCost(keyField, keyPreds.get(lower), keyPreds.get(upper));
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = lower;
+                        bestPred = keyPreds.get(lower);
+                        bestUpper = upper;
+                        bestUpperPred = keyPreds.get(upper);
+                    }
+                }
+            }
+
+            //再看表上的二级索引：索引中有的列上的过滤条件都在读取tuple之前检查，
+            //索引包含了查询用到的所有列时不需要读取表(index-only scan)
+            TupleDesc baseTd = Database.getCatalog().getTupleDesc(table.t);
+            Set<Integer> referenced = referencedFields(table.alias, baseTd);
+            IndexScan bestIndexScan = null;
+            HashSet<LogicalFilterNode> bestServed = null;
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(table.t)) {
+                boolean indexOnly = index.covers(referenced);
+                //key列前缀上能由B+树回答的条件决定读取哪一段叶子：依次在每个key列上选一个条件，
+                //优先选EQUALS，同类中选选择性最好的，选到范围条件或者某列上没有条件时停止
+                List<IndexPredicate> seekPreds = new ArrayList<IndexPredicate>();
+                HashSet<LogicalFilterNode> seek = new HashSet<LogicalFilterNode>();
+                double rangeSel = 1.0;
+                for (int key : index.getKeyFields()) {
+                    LogicalFilterNode chosen = null;
+                    double chosenSel = 1.0;
+                    for (LogicalFilterNode lf : filters) {
+                        int field = fieldIndex(baseTd, table.alias, lf);
+                        if (field != key || !IndexScan.isIndexable(lf.p)) {
+                            continue;
+                        }
+                        double sel = s.estimateSelectivity(field, lf.p, constant(baseTd.getFieldType(field), lf.c));
+                        boolean equals = lf.p == Predicate.Op.EQUALS;
+                        if (chosen == null || (equals && chosen.p != Predicate.Op.EQUALS)
+                                || (equals == (chosen.p == Predicate.Op.EQUALS) && sel < chosenSel)) {
+                            chosen = lf;
+                            chosenSel = sel;
+                        }
+                    }
+                    if (chosen == null) {
+                        break;
+                    }
+                    seek.add(chosen);
+                    seekPreds.add(new IndexPredicate(chosen.p, constant(baseTd.getFieldType(key), chosen.c)));
+                    rangeSel *= chosenSel;
+                    if (chosen.p != Predicate.Op.EQUALS) {
+                        break;
+                    }
+                }
+                double fetchSel = rangeSel;
+                List<Predicate> residual = new ArrayList<Predicate>();
+                HashSet<LogicalFilterNode> served = new HashSet<LogicalFilterNode>();
+                for (LogicalFilterNode lf : filters) {
+                    int field = fieldIndex(baseTd, table.alias, lf);
+                    if (field == -1 || index.indexOf(field) == -1) {
+                        continue;
+                    }
+                    served.add(lf);
+                    if (!seek.contains(lf)) {
+                        Field f = constant(baseTd.getFieldType(field), lf.c);
+                        residual.add(new Predicate(index.indexOf(field), lf.p, f));
+                        fetchSel *= s.estimateSelectivity(field, lf.p, f);
+                    }
+                }
+                double cost = s.estimateIndexScanCost(index, rangeSel, fetchSel, indexOnly);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestIndexScan = new IndexScan(t, index, table.alias, seekPreds, residual, indexOnly);
+                    bestServed = served;
+                }
+            }
+
+            if (bestIndexScan != null) {
+                subplanMap.put(table.alias, bestIndexScan);
+                servedByIndex.addAll(bestServed);
+                if (explain) {
+                    System.out.println("Using " + bestIndexScan.getName() + " for " + table.alias
+                            + " (cost " + bestCost + " vs scan " + s.estimateScanCost() + ")");
+                }
+            } else {
+                //只有一个表且没有聚合时，按B+树的key排序可以由扫描的方向完成
+                DbFile file = Database.getCatalog().getDbFile(table.t);
+                boolean descending = false;
+                if (hasOrderBy && !hasAgg && tables.size() == 1 && joins.isEmpty() && file instanceof BTreeFile
+                        && oByField.equals(table.alias + "." + baseTd.getFieldName(((BTreeFile) file).keyField()))) {
+                    orderedByIndex = true;
+                    descending = !oByAsc;
+                }
+                if (best != null) {
+                    IndexScan scan;
+                    if (bestUpper != null || descending) {
+                        IndexPredicate[] bounds = bounds(bestPred);
+                        scan = new IndexScan(t, table.t, table.alias, bounds[0],
+                                bestUpper != null ? bestUpperPred : bounds[1], descending);
+                    } else {
+                        scan = new IndexScan(t, table.t, table.alias, bestPred);
+                    }
+                    subplanMap.put(table.alias, scan);
+                    servedByIndex.add(best);
+                    if (bestUpper != null) {
+                        servedByIndex.add(bestUpper);
+                    }
+                    if (explain) {
+                        System.out.println("Using " + scan.getName() + " for " + table.alias
+                                + " (cost " + bestCost + " vs scan " + s.estimateScanCost() + ")");
+                    }
+                } else if (descending) {
+                    //SeqScan从最左边的叶子开始按key升序读，降序时从最右边的叶子向左读
+                    subplanMap.put(table.alias, new IndexScan(t, table.t, table.alias, null, null, true));
+                }
+            }
+            accessCosts.put(table.alias, bestCost);
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -329,17 +497,20 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!servedByIndex.contains(lf)) {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            //统计信息按表的列计算，index-only scan只有索引中的列，所以不能用subplan的下标
+            double sel= s.estimateSelectivity(getTupleDesc(lf.tableAlias).fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        JoinOptimizer jo = new JoinOptimizer(this,joins,accessCosts);
 
         if (joins.size() != 0) {//课程给的原方法没有这个判断，加上后防止没有join时optimizer被调用而返回null
             joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -471,7 +642,7 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && !orderedByIndex) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
@@ -540,6 +711,82 @@ public class LogicalPlan {
        
     }
 
+    /**
+     * @return 过滤条件lf作用于alias对应的表时比较的列在表中的下标，作用于别的表时返回-1
+     */
+    private static int fieldIndex(TupleDesc baseTd, String alias, LogicalFilterNode lf) {
+        if (!lf.tableAlias.equals(alias)) {
+            return -1;
+        }
+        try {
+            return baseTd.fieldNameToIndex(lf.fieldPureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return B+树上的条件pred对应的下界和上界，没有的一端为null
+     */
+    private static IndexPredicate[] bounds(IndexPredicate pred) {
+        switch (pred.getOp()) {
+            case EQUALS:
+                return new IndexPredicate[]{new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, pred.getField()),
+                        new IndexPredicate(Predicate.Op.LESS_THAN_OR_EQ, pred.getField())};
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return new IndexPredicate[]{pred, null};
+            default:
+                return new IndexPredicate[]{null, pred};
+        }
+    }
+
+    /**
+     * @return 把过滤条件中的常量转换成type类型的Field
+     */
+    private static Field constant(Type type, String c) {
+        if (type == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(c));
+        else
+            return new StringField(c, Type.STRING_LEN);
+    }
+
+    /**
+     * Finds the columns of a table that the query reads: those in the select
+     * list, the aggregate, GROUP BY and ORDER BY, and the filters and joins.
+     *
+     * @param alias the alias of the table
+     * @param td    the TupleDesc of the table
+     * @return the indexes of the columns in td, or null if the query selects all
+     * of them with *
+     */
+    private Set<Integer> referencedFields(String alias, TupleDesc td) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*")) {
+                return null;
+            }
+            names.add(si.fname);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+        HashSet<Integer> fields = new HashSet<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(alias + "." + td.getFieldName(i))) {
+                fields.add(i);
+            }
+        }
+        return fields;
+    }
+
     public TupleDesc getTupleDesc(String alia){
         if (tableMap.containsKey(alia)) {
             return Database.getCatalog().getDbFile(tableMap.get(alia)).getTupleDesc();
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+
 public class PageLruCache extends LruCache<PageId, Page> {
 
     public PageLruCache(int capacity) {
@@ -64,18 +66,32 @@ public class PageLruCache extends LruCache<PageId, Page> {
         }
     }
 
+    /**
+     * 把pid对应的page从cache中删除，不写回磁盘
+     * pid不在cache中时什么也不做
+     *
+     * @param pid
+     */
+    public synchronized void discard(PageId pid) {
+        if (!isCached(pid)) {
+            return;
+        }
+        removePage(pid);
+        cachedEntries.remove(pid);
+    }
+
     /**
      * 将pid对应的page从磁盘中再次读入，即将其恢复为磁盘中该page的状态
      *
      * @param pid
      */
-    public synchronized void reCachePage(PageId pid) {
+    public synchronized void reCachePage(PageId pid) throws IOException {
         if (!isCached(pid)) {
             throw new IllegalArgumentException();
         }
         //访问磁盘获得该page
-        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(pid.getTableId());
-        HeapPage originalPage = (HeapPage) table.readPage(pid);
+        DbFile table = Database.getCatalog().getDbFile(pid.getTableId());
+        Page originalPage = table.readPage(pid);
         Node node = new Node(pid, originalPage);
         cachedEntries.put(pid, node);
         Node toRemoved = head;
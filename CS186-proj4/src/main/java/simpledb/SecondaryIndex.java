@@ -0,0 +1,476 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SecondaryIndex is a B+ tree over some columns of a table stored in a
+ * HeapFile. Each leaf tuple of the tree holds the key columns of one table
+ * tuple, then any INCLUDE columns, and then the page number and slot of that
+ * tuple in the HeapFile, so the tree is far narrower than the table. The
+ * INCLUDE columns are there so that predicates on them can be checked, and
+ * queries that only read them answered, without going to the table. Several
+ * tuples may share a key, so removing the entry of one of them reads all the
+ * entries with that key.
+ * <p>
+ * A BTreeFile is keyed on a single field, so an index with several key
+ * columns puts one more column in front of its entries: a string that encodes
+ * the key columns in order, such that comparing two of them compares the key
+ * columns one after the other. An integer column takes a fixed number of
+ * characters; a string column is cut or padded to an equal share of the rest
+ * of the string, so keys that differ only after that share compare equal.
+ * Predicates on a leading prefix of the key columns (equalities, and then at
+ * most one range) are therefore answered by reading one range of the tree,
+ * and are checked again on the key columns of each entry in that range.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex} and kept up to date by
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}. Only
+ * HeapFile tables can have them, because their tuples never move to another
+ * page or slot.
+ *
+ * @see IndexScan
+ */
+public class SecondaryIndex {
+
+    private final String name;
+    private final int tableid;
+    private final int[] keyFields;
+    private final int[] includeFields;
+    //索引中的列在表中的下标，先是key列，再是include列
+    private final int[] fields;
+    //这些列在entry中的起始位置：有多个key列时第0列是编码后的组合key
+    private final int first;
+    //组合key中每个string类型的key列占的字符数
+    private final int stringWidth;
+    private final BTreeFile tree;
+
+    //组合key中int类型的列占的字符数，每个字符存7位，可以在磁盘上原样保存
+    private static final int INT_WIDTH = 5;
+    //组合key中最大的字符，上界用它填充
+    private static final char MAX_CHAR = 0x7f;
+
+    /**
+     * Creates an index over a table that is already in the catalog. The index
+     * has to be registered with {@link Catalog#addIndex} before it is used, and
+     * filled with {@link #build} if the table has tuples already.
+     *
+     * @param f             the file that stores the B+ tree; empty for a new index
+     * @param name          the name of the index
+     * @param tableid       the table to index, which must be stored in a HeapFile
+     * @param keyFields     the columns of the table the index is keyed on, in
+     *                      the order the entries are sorted on them
+     * @param includeFields other columns of the table to store in the index
+     * @throws IllegalArgumentException if the table is not a HeapFile, there
+     *                                  is no key column, a column appears twice,
+     *                                  or there are too many key columns to
+     *                                  encode them in one string
+     */
+    public SecondaryIndex(File f, String name, int tableid, int[] keyFields, int[] includeFields) {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("only tables stored in a HeapFile can have a secondary index");
+        }
+        if (keyFields.length == 0) {
+            throw new IllegalArgumentException("an index needs at least one key column");
+        }
+        this.name = name;
+        this.tableid = tableid;
+        this.keyFields = keyFields.clone();
+        this.includeFields = includeFields.clone();
+        this.fields = new int[keyFields.length + includeFields.length];
+        System.arraycopy(keyFields, 0, fields, 0, keyFields.length);
+        System.arraycopy(includeFields, 0, fields, keyFields.length, includeFields.length);
+        this.first = keyFields.length > 1 ? 1 : 0;
+
+        TupleDesc table = Database.getCatalog().getTupleDesc(tableid);
+        int strings = 0;
+        for (int field : keyFields) {
+            if (table.getFieldType(field) == Type.STRING_TYPE) {
+                strings++;
+            }
+        }
+        int rest = Type.STRING_LEN - INT_WIDTH * (keyFields.length - strings);
+        this.stringWidth = strings == 0 ? 0 : rest / strings;
+        if (first == 1 && (rest < 0 || (strings > 0 && stringWidth == 0))) {
+            throw new IllegalArgumentException("index " + name + " has too many key columns");
+        }
+
+        Type[] types = new Type[first + fields.length + 2];
+        String[] names = new String[first + fields.length + 2];
+        if (first == 1) {
+            types[0] = Type.STRING_TYPE;
+            names[0] = "key";
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (indexOf(fields[i]) != first + i) {
+                throw new IllegalArgumentException("column " + fields[i] + " appears twice in index " + name);
+            }
+            types[first + i] = table.getFieldType(fields[i]);
+            names[first + i] = table.getFieldName(fields[i]);
+        }
+        //最后两列是tuple在HeapFile中的位置
+        int pos = first + fields.length;
+        types[pos] = Type.INT_TYPE;
+        names[pos] = "pageno";
+        types[pos + 1] = Type.INT_TYPE;
+        names[pos + 1] = "tupleno";
+        this.tree = new BTreeFile(f, 0, new TupleDesc(types, names));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public int[] getKeyFields() {
+        return keyFields.clone();
+    }
+
+    public int[] getIncludeFields() {
+        return includeFields.clone();
+    }
+
+    /**
+     * @return the B+ tree holding the entries of this index
+     */
+    public BTreeFile getFile() {
+        return tree;
+    }
+
+    /**
+     * @param field a column of the table
+     * @return the position of the column in the entries of this index, or -1
+     * if the index does not store it
+     */
+    public int indexOf(int field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == field) {
+                return first + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param tableFields columns of the table, or null for all of them
+     * @return whether the index stores every one of the columns, so that a scan
+     * reading only them never needs to fetch tuples from the table
+     */
+    public boolean covers(Collection<Integer> tableFields) {
+        if (tableFields == null) {
+            tableFields = new ArrayList<Integer>();
+            for (int i = 0; i < Database.getCatalog().getTupleDesc(tableid).numFields(); i++) {
+                tableFields.add(i);
+            }
+        }
+        for (int field : tableFields) {
+            if (indexOf(field) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the TupleDesc of the tuples an index-only scan returns: the columns
+     * the index stores, in the order they have in the table
+     */
+    public TupleDesc getCoveredTupleDesc() {
+        TupleDesc table = Database.getCatalog().getTupleDesc(tableid);
+        int[] covered = coveredFields();
+        Type[] types = new Type[covered.length];
+        String[] names = new String[covered.length];
+        for (int i = 0; i < covered.length; i++) {
+            types[i] = table.getFieldType(covered[i]);
+            names[i] = table.getFieldName(covered[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    //索引存储的列在表中的下标，从小到大排列
+    private int[] coveredFields() {
+        int[] covered = fields.clone();
+        Arrays.sort(covered);
+        return covered;
+    }
+
+    /**
+     * @param t a tuple of the table that is stored in the HeapFile
+     * @return the entry of this index for t
+     */
+    private Tuple entry(Tuple t) {
+        Tuple entry = new Tuple(tree.getTupleDesc());
+        if (first == 1) {
+            StringBuilder key = new StringBuilder();
+            for (int field : keyFields) {
+                encode(key, t.getField(field));
+            }
+            entry.setField(0, new StringField(key.toString(), Type.STRING_LEN));
+        }
+        for (int i = 0; i < fields.length; i++) {
+            entry.setField(first + i, t.getField(fields[i]));
+        }
+        RecordId rid = t.getRecordId();
+        int pos = first + fields.length;
+        entry.setField(pos, new IntField(rid.getPageId().pageNumber()));
+        entry.setField(pos + 1, new IntField(rid.tupleno()));
+        return entry;
+    }
+
+    //entry指向的tuple在表中的位置
+    private RecordId pointer(Tuple entry) {
+        int pos = first + fields.length;
+        int pageNo = ((IntField) entry.getField(pos)).getValue();
+        int tupleNo = ((IntField) entry.getField(pos + 1)).getValue();
+        return new RecordId(new HeapPageId(tableid, pageNo), tupleNo);
+    }
+
+    /**
+     * 把一个key列的值追加到组合key中，每列占固定的字符数，字符都不大于MAX_CHAR
+     * int去掉符号位后按7位一组从高到低存放，字符串的比较就是数值的比较；
+     * 字符串截断或用0补齐到stringWidth个字符，大于MAX_CHAR的字符存为MAX_CHAR，
+     * 所以只保证值小的不会排在后面，相等的组合key还要比较entry中的key列
+     */
+    private void encode(StringBuilder key, Field f) {
+        if (f.getType() == Type.INT_TYPE) {
+            long v = (((IntField) f).getValue() & 0xffffffffL) ^ 0x80000000L;
+            for (int shift = 7 * (INT_WIDTH - 1); shift >= 0; shift -= 7) {
+                key.append((char) ((v >>> shift) & 0x7f));
+            }
+        } else {
+            String v = ((StringField) f).getValue();
+            for (int i = 0; i < stringWidth; i++) {
+                key.append(i < v.length() ? (char) Math.min(v.charAt(i), MAX_CHAR) : (char) 0);
+            }
+        }
+    }
+
+    //以prefix开头的组合key中最大的一个
+    private static StringField fill(StringBuilder prefix) {
+        StringBuilder key = new StringBuilder(prefix);
+        while (key.length() < Type.STRING_LEN) {
+            key.append(MAX_CHAR);
+        }
+        return new StringField(key.toString(), Type.STRING_LEN);
+    }
+
+    /**
+     * Adds the entry for a tuple that has just been inserted into the table.
+     *
+     * @param tid the transaction inserting the tuple
+     * @param t   the tuple, with the RecordId it got in the HeapFile
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return tree.insertTuple(tid, entry(t));
+    }
+
+    /**
+     * Removes the entry for a tuple that is being deleted from the table.
+     *
+     * @param tid the transaction deleting the tuple
+     * @param t   the tuple, with its RecordId in the HeapFile
+     * @return the pages of the index that were modified
+     * @throws DbException if the index has no entry for t
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        //在key相等的entry中找到指向t的那一个
+        DbFileIterator it = tree.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, entry(t).getField(0)));
+        Tuple victim = null;
+        it.open();
+        while (victim == null && it.hasNext()) {
+            Tuple entry = it.next();
+            if (pointer(entry).equals(t.getRecordId())) {
+                victim = entry;
+            }
+        }
+        it.close();
+        if (victim == null) {
+            throw new DbException("index " + name + " has no entry for " + t.getRecordId());
+        }
+        return tree.deleteTuple(tid, victim);
+    }
+
+    /**
+     * Fills the index with the entries for the tuples already in the table by
+     * sorting them and bulk loading the tree. The file of the index must still
+     * be empty.
+     *
+     * @param tid        the transaction reading the table
+     * @param fillFactor the fraction of each page to fill, as for {@link BTreeBulkLoader}
+     */
+    public void build(TransactionId tid, double fillFactor)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            entries.add(entry(it.next()));
+        }
+        it.close();
+        Collections.sort(entries, new BTreeFileEncoder.TupleComparator(0));
+        BTreeBulkLoader.load(tree, new TupleIterator(tree.getTupleDesc(), entries), fillFactor);
+    }
+
+    /**
+     * Returns an iterator over the table tuples, or over the covered columns of
+     * them, whose entries satisfy predicates on a leading prefix of the key
+     * columns and a number of further predicates on any of the columns the
+     * index stores. Only the part of the tree that the key predicates select
+     * is read, and entries that fail the further predicates are dropped
+     * before their tuples are fetched.
+     *
+     * @param tid       the transaction this scan is running as a part of
+     * @param keyPreds  predicates on the first keyPreds.size() key columns, one
+     *                  for each: EQUALS on all but the last, which may also be
+     *                  a range; empty to read the whole index
+     * @param residual  predicates on the columns of the index entries, see {@link #indexOf}
+     * @param indexOnly whether to return the columns the index stores, as
+     *                  described by {@link #getCoveredTupleDesc}, rather than
+     *                  fetching the tuples from the table
+     * @throws IllegalArgumentException if the key predicates do not select a
+     *                                  single range of the tree
+     */
+    public DbFileIterator iterator(TransactionId tid, List<IndexPredicate> keyPreds, List<Predicate> residual,
+                                   boolean indexOnly) {
+        if (keyPreds.size() > keyFields.length) {
+            throw new IllegalArgumentException("index " + name + " has only " + keyFields.length + " key columns");
+        }
+        for (int i = 0; i < keyPreds.size(); i++) {
+            Predicate.Op op = keyPreds.get(i).getOp();
+            if (!IndexScan.isIndexable(op) || (i < keyPreds.size() - 1 && op != Predicate.Op.EQUALS)) {
+                throw new IllegalArgumentException("index " + name + " cannot answer " + op + " on key column " + i);
+            }
+        }
+        DbFileIterator entries;
+        if (keyPreds.isEmpty()) {
+            entries = tree.iterator(tid);
+        } else if (first == 0) {
+            entries = tree.indexIterator(tid, keyPreds.get(0));
+        } else {
+            //组合key的范围：前面的列相等，最后一列的条件给出一端，另一端是相等部分的所有key
+            //比较是否严格由下面重新检查的key列条件决定
+            StringBuilder prefix = new StringBuilder();
+            for (int i = 0; i < keyPreds.size() - 1; i++) {
+                encode(prefix, keyPreds.get(i).getField());
+            }
+            IndexPredicate last = keyPreds.get(keyPreds.size() - 1);
+            StringBuilder bound = new StringBuilder(prefix);
+            encode(bound, last.getField());
+            StringBuilder low = prefix;
+            StringBuilder high = prefix;
+            switch (last.getOp()) {
+                case EQUALS:
+                    low = bound;
+                    high = bound;
+                    break;
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    low = bound;
+                    break;
+                default:
+                    high = bound;
+                    break;
+            }
+            IndexPredicate lower = low.length() == 0 ? null
+                    : new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new StringField(low.toString(), Type.STRING_LEN));
+            IndexPredicate upper = high.length() == 0 ? null
+                    : new IndexPredicate(Predicate.Op.LESS_THAN_OR_EQ, fill(high));
+            entries = tree.rangeIterator(tid, lower, upper, false);
+            residual = new ArrayList<Predicate>(residual);
+            for (int i = 0; i < keyPreds.size(); i++) {
+                residual.add(new Predicate(first + i, keyPreds.get(i).getOp(), keyPreds.get(i).getField()));
+            }
+        }
+        return new SecondaryIndexIterator(tid, entries, residual, indexOnly);
+    }
+
+    private class SecondaryIndexIterator extends AbstractDbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final DbFileIterator entries;
+        private final List<Predicate> residual;
+        private final boolean indexOnly;
+        private final TupleDesc coveredTd;
+        private final int[] covered;
+
+        SecondaryIndexIterator(TransactionId tid, DbFileIterator entries, List<Predicate> residual,
+                               boolean indexOnly) {
+            this.tid = tid;
+            this.entries = entries;
+            this.residual = residual;
+            this.indexOnly = indexOnly;
+            this.coveredTd = getCoveredTupleDesc();
+            this.covered = coveredFields();
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            entries.open();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            entries.rewind();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            entries.close();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (entries.hasNext()) {
+                Tuple entry = entries.next();
+                if (!matches(entry)) {
+                    continue;
+                }
+                if (indexOnly) {
+                    Tuple t = new Tuple(coveredTd);
+                    for (int i = 0; i < covered.length; i++) {
+                        t.setField(i, entry.getField(indexOf(covered[i])));
+                    }
+                    t.setRecordId(pointer(entry));
+                    return t;
+                }
+                return fetch(pointer(entry));
+            }
+            return null;
+        }
+
+        private boolean matches(Tuple entry) {
+            for (Predicate p : residual) {
+                if (!p.filter(entry)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        //从HeapFile中读取entry指向的tuple
+        private Tuple fetch(RecordId rid) throws DbException, TransactionAbortedException {
+            HeapPage page;
+            try {
+                page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t == null) {
+                throw new DbException("index " + name + " points to empty slot " + rid);
+            }
+            return t;
+        }
+    }
+}
@@ -41,10 +41,19 @@ public class SeqScan implements DbIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, Database.getCatalog().getDbFile(tableid).iterator(tid));
+    }
+
+    /**
+     * 给IndexScan等只读取表中部分tuple的scan使用，tuple来自tupleIterator而不是整个表
+     *
+     * @param tupleIterator 读取该表tuple的迭代器
+     */
+    protected SeqScan(TransactionId tid, int tableid, String tableAlias, DbFileIterator tupleIterator) {
         this.tid = tid;
         this.tableAlias = tableAlias;
         this.tableid = tableid;
-        tupleIterator = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        this.tupleIterator = tupleIterator;
     }
 
     /**
@@ -1,6 +1,8 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -63,10 +65,17 @@ public class TableStats {
 
     private HashMap<String, Integer[]> attrs;//Key是该表的每一列的FieldName，Value是最小值和最大值的数组
     private HashMap<String, Object> name2hist;
-    private HeapFile table;
+    private DbFile table;
     private int ntups;
     private int ioCostPerPage;
     private TupleDesc td;
+    //表以B+树组织时索引的key、树的高度和存有tuple的叶子数量，以HashFile组织时height为1(目录页)，
+    //都不是时height为0
+    private int indexField = -1;
+    private int height;
+    private int leafPages;
+    //表上每个二级索引的名称到该索引的B+树的高度和叶子数量的映射
+    private HashMap<String, int[]> indexShapes = new HashMap<>();
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -86,13 +95,48 @@ public class TableStats {
         // in a single scan of the table.
         // some code goes here
         this.ioCostPerPage = ioCostPerPage;
-        table = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        table = Database.getCatalog().getDbFile(tableid);
         td = table.getTupleDesc();
         attrs = new HashMap<>();
         name2hist = new HashMap<>();
         Transaction t = new Transaction();//查询计划的Transaction是在这里新建的
         DbFileIterator iter = table.iterator(t.getId());
         process(iter);
+        if (table instanceof BTreeFile) {
+            BTreeFile index = (BTreeFile) table;
+            try {
+                height = index.height(t.getId());
+                indexField = index.keyField();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        } else if (table instanceof HashFile) {
+            //查找时先读目录页，再读key所在的bucket
+            height = 1;
+            indexField = ((HashFile) table).keyField();
+        }
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableid)) {
+            try {
+                indexShapes.put(index.getName(), shape(index.getFile(), t.getId()));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return B+树的高度和存有tuple的叶子数量
+     */
+    private static int[] shape(BTreeFile tree, TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        HashSet<PageId> pages = new HashSet<>();
+        DbFileIterator it = tree.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            pages.add(it.next().getRecordId().getPageId());
+        }
+        it.close();
+        return new int[]{tree.height(tid), pages.size()};
     }
 
     /**
@@ -101,11 +145,13 @@ public class TableStats {
      * @param iter
      */
     private void process(DbFileIterator iter) {
+        HashSet<PageId> pages = new HashSet<>();
         try {
             iter.open();
             while (iter.hasNext()) {//计算每一个int类型的列的最大最小值
                 ntups++;//计算tuple数量
                 Tuple t = iter.next();
+                pages.add(t.getRecordId().getPageId());
                 for (int i = 0; i < td.numFields(); i++) {
                     Type type = td.getFieldType(i);
                     if (type == Type.INT_TYPE) {//只处理int类型的列，因为StringHistogram不需要最大最小的数据
@@ -165,6 +211,7 @@ public class TableStats {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        leafPages = pages.size();
     }
 
 
@@ -185,6 +232,91 @@ public class TableStats {
         return table.numPages() * ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of answering <tt>field op constant</tt> through the
+     * table's B+ tree: reading the root pointer and internal pages on the way
+     * down (the height of the tree), the leaf pages holding the matching tuples,
+     * and for an unclustered index one random page fetch per matching tuple.
+     * Tuples of a B+ tree organized table live in its leaves, so that index is
+     * clustered and needs no fetches. For a table stored in a HashFile, the
+     * directory page takes the place of the path down the tree and the pages
+     * of the key's bucket that of the leaves.
+     *
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if there is no
+     * index on field or the index cannot answer op
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        if (height == 0 || field != indexField || !IndexScan.canServe(table.getId(), field, op)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double selectivity = estimateSelectivity(field, op, constant);
+        return estimateIndexScanCost(height, leafPages, selectivity, selectivity, true);
+    }
+
+    /**
+     * Estimates the cost of reading the tuples with <tt>lower</tt> and
+     * <tt>upper</tt> bounds on field through the table's B+ tree, which seeks
+     * to one bound and stops at the other, so only the leaves between the two
+     * are read.
+     *
+     * @param lower a GREATER_THAN or GREATER_THAN_OR_EQ predicate on field
+     * @param upper a LESS_THAN or LESS_THAN_OR_EQ predicate on field
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if there is no
+     * B+ tree on field
+     */
+    public double estimateIndexScanCost(int field, IndexPredicate lower, IndexPredicate upper) {
+        if (height == 0 || field != indexField || !(table instanceof BTreeFile)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        //两个半开区间的交集：两端各自排除的部分不重叠
+        double selectivity = Math.max(0.0, estimateSelectivity(field, lower.getOp(), lower.getField())
+                + estimateSelectivity(field, upper.getOp(), upper.getField()) - 1.0);
+        return estimateIndexScanCost(height, leafPages, selectivity, selectivity, true);
+    }
+
+    /**
+     * Estimates the cost of reading the table through one of its secondary
+     * indexes: going down the tree, reading the leaves that the predicates on
+     * a leading prefix of the key columns select, and, unless the index stores
+     * every column the query needs, one random page fetch for each entry that
+     * also passes the predicates checked on the other columns of the index. A secondary index
+     * is unclustered, so its entries do not come in the order of the table.
+     *
+     * @param index            an index on this table
+     * @param rangeSelectivity the fraction of the entries the predicates on the
+     *                         key columns select, 1 to read the whole index
+     * @param fetchSelectivity the fraction of the entries that pass every
+     *                         predicate checked in the index
+     * @param indexOnly        whether the scan returns the columns of the index
+     *                         without fetching tuples
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the index was
+     * added after these statistics were computed
+     */
+    public double estimateIndexScanCost(SecondaryIndex index, double rangeSelectivity, double fetchSelectivity,
+                                        boolean indexOnly) {
+        int[] shape = indexShapes.get(index.getName());
+        if (shape == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return estimateIndexScanCost(shape[0], shape[1], rangeSelectivity, fetchSelectivity, indexOnly);
+    }
+
+    /**
+     * @param height           B+树的高度
+     * @param leafPages        B+树存有tuple的叶子数量
+     * @param rangeSelectivity 需要读取的叶子所占的比例
+     * @param fetchSelectivity 需要从表中读取的tuple所占的比例
+     * @param clustered        tuple是否按key的顺序存放在叶子中，否则每个需要的tuple都需要一次随机读
+     * @return 通过索引读取满足条件的tuple的代价
+     */
+    private double estimateIndexScanCost(int height, int leafPages, double rangeSelectivity,
+                                         double fetchSelectivity, boolean clustered) {
+        //至少要读一个叶子才能知道没有满足条件的tuple
+        double leaves = Math.max(1, Math.ceil(rangeSelectivity * leafPages));
+        double fetches = clustered ? 0 : Math.ceil(fetchSelectivity * ntups);
+        return (height + leaves + fetches) * ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -9,15 +9,26 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final ConcurrencyMode mode;
     volatile boolean started = false;
 
     public Transaction() {
+        this(ConcurrencyMode.TWO_PHASE_LOCKING);
+    }
+
+    /**
+     * Create a transaction that uses the specified concurrency control
+     * scheme for the pages it reads and writes.
+     */
+    public Transaction(ConcurrencyMode mode) {
         tid = new TransactionId();
+        this.mode = mode;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        Database.getBufferPool().beginTransaction(tid, mode);
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -29,8 +40,34 @@ public class Transaction {
         return tid;
     }
 
-    /** Finish the transaction */
-    public void commit() throws IOException {
+    public ConcurrencyMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Abort instead of waiting longer than the given time for any single
+     * page lock.
+     *
+     * @param millis the timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setLockTimeout(long millis) {
+        Database.getBufferPool().setLockTimeout(tid, millis);
+    }
+
+    /**
+     * Finish the transaction. If commit-time validation fails (e.g. a
+     * write-write conflict under snapshot isolation), the transaction is
+     * aborted instead and TransactionAbortedException is thrown.
+     */
+    public void commit() throws IOException, TransactionAbortedException {
+        if (started) {
+            try {
+                Database.getBufferPool().validateCommit(tid);
+            } catch (TransactionAbortedException e) {
+                transactionComplete(true);
+                throw e;
+            }
+        }
         transactionComplete(false);
     }
 
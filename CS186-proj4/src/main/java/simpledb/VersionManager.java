@@ -0,0 +1,293 @@
+package simpledb;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * 多版本并发控制(MVCC)的版本管理器，由BufferPool持有
+ * <p>
+ * 每个事务提交时分配一个递增的提交时间戳，快照事务开始时记录当时的时间戳作为快照时间戳，
+ * 它只能看到提交时间戳不大于快照时间戳的page版本。
+ * <p>
+ * 由于采用NO STEAL/FORCE，缓存中page的before image就是最近一次提交的内容，
+ * 因此只有在"有快照事务正在运行时提交了某个page"这种情况下才需要为该page保留旧版本，
+ * 保留的旧版本组成版本链，在不再被任何快照事务需要时回收。
+ */
+public class VersionManager {
+
+    //已发布的最大提交时间戳，快照事务开始时读取它作为快照时间戳
+    private long clock;
+
+    //正在运行的快照事务及其快照时间戳，乐观事务同样从快照读取，也登记在这里
+    private final Map<TransactionId, Long> snapshots;
+
+    //page的已提交版本链，按提交时间戳从新到旧排列
+    private final Map<PageId, LinkedList<PageVersion>> versionChains;
+
+    //page最近一次提交的时间戳，只在有快照事务运行时记录，用于提交时检测冲突
+    private final Map<PageId, Long> lastCommitTs;
+
+    //page最近一次提交内容的只读副本，供快照读复用，避免每次读取都复制page
+    //page被提交或移出BufferPool时失效
+    private final Map<PageId, Page> latestImages;
+
+    //已经通过验证、但提交还没有发布的乐观事务及其将要提交的page
+    //这段时间内lastCommitTs中还没有它们的修改，之后验证的乐观事务需要在这里检查冲突
+    private final Map<TransactionId, Collection<PageId>> validated;
+
+    private static class PageVersion {
+        final long commitTs;
+        final Page page;
+
+        PageVersion(long commitTs, Page page) {
+            this.commitTs = commitTs;
+            this.page = page;
+        }
+    }
+
+    public VersionManager() {
+        clock = 0;
+        snapshots = new HashMap<>();
+        versionChains = new HashMap<>();
+        lastCommitTs = new HashMap<>();
+        latestImages = new HashMap<>();
+        validated = new HashMap<>();
+    }
+
+    /**
+     * 开始一个快照事务，以当前已发布的提交时间戳作为它的快照
+     *
+     * @param tid
+     */
+    public synchronized void beginSnapshot(TransactionId tid) {
+        snapshots.put(tid, clock);
+    }
+
+    /**
+     * @param tid
+     * @return tid是否为正在运行的快照事务
+     */
+    public synchronized boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /**
+     * 快照事务结束（提交或回滚）时调用，之后回收不再需要的旧版本
+     *
+     * @param tid
+     */
+    public synchronized void endSnapshot(TransactionId tid) {
+        validated.remove(tid);
+        if (snapshots.remove(tid) != null) {
+            collectGarbage();
+        }
+    }
+
+    /**
+     * 在版本链中查找对tid可见的版本
+     *
+     * @param tid 快照事务
+     * @param pid
+     * @return 对tid可见的版本；如果该page没有版本链则返回null，此时最近一次提交的内容就是可见的
+     */
+    public synchronized Page getVisibleVersion(TransactionId tid, PageId pid) {
+        LinkedList<PageVersion> chain = versionChains.get(pid);
+        if (chain == null) {
+            return null;
+        }
+        long snapshotTs = snapshots.get(tid);
+        for (PageVersion v : chain) {
+            if (v.commitTs <= snapshotTs) {
+                return v.page;
+            }
+        }
+        //回收时保证链上最老的版本对所有快照事务可见，所以不会到达这里
+        return chain.getLast().page;
+    }
+
+    /**
+     * @param pid
+     * @return pid最近一次提交内容的只读副本；如果没有保存则返回null
+     */
+    public synchronized Page getLatestImage(PageId pid) {
+        return latestImages.get(pid);
+    }
+
+    /**
+     * 保存pid最近一次提交内容的只读副本
+     * 调用者（BufferPool）需要保证此时没有事务正在提交pid
+     *
+     * @param pid
+     * @param image 不会再被修改的副本
+     */
+    public synchronized void cacheLatestImage(PageId pid, Page image) {
+        latestImages.put(pid, image);
+    }
+
+    /**
+     * page被提交或移出BufferPool时调用，不再为它保存副本
+     *
+     * @param pid
+     */
+    public synchronized void forgetLatestImage(PageId pid) {
+        latestImages.remove(pid);
+    }
+
+    /**
+     * @return 是否需要为提交保留旧版本，没有快照事务时提交不需要做任何额外的工作
+     */
+    public synchronized boolean isTracking() {
+        return !snapshots.isEmpty();
+    }
+
+    /**
+     * 分配一个提交时间戳，在publishCommit之前这个时间戳对新开始的快照事务不可见
+     * 调用者（BufferPool）需要保证同一时刻只有一个事务在提交
+     */
+    public synchronized long prepareCommit() {
+        return clock + 1;
+    }
+
+    /**
+     * 在page被提交的内容覆盖之前调用，将其提交前的内容保留到版本链中
+     *
+     * @param pid
+     * @param before page提交前的内容(即上一次提交的内容)
+     */
+    public synchronized void preserveVersion(PageId pid, Page before) {
+        if (snapshots.isEmpty() || versionChains.containsKey(pid)) {
+            return;
+        }
+        LinkedList<PageVersion> chain = new LinkedList<>();
+        Long prevTs = lastCommitTs.get(pid);
+        chain.add(new PageVersion(prevTs == null ? 0 : prevTs, before));
+        versionChains.put(pid, chain);
+    }
+
+    /**
+     * 在page被提交后调用，将提交后的内容作为新版本加入版本链
+     *
+     * @param pid
+     * @param after    提交后的内容，必须是不会再被修改的副本
+     * @param commitTs prepareCommit()分配的时间戳
+     */
+    public synchronized void installVersion(PageId pid, Page after, long commitTs) {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        lastCommitTs.put(pid, commitTs);
+        latestImages.put(pid, after);
+        LinkedList<PageVersion> chain = versionChains.get(pid);
+        if (chain != null) {
+            chain.addFirst(new PageVersion(commitTs, after));
+        }
+    }
+
+    /**
+     * 发布提交时间戳，之后开始的快照事务可以看到该次提交
+     *
+     * @param commitTs
+     */
+    public synchronized void publishCommit(long commitTs) {
+        clock = commitTs;
+    }
+
+    /**
+     * 事务提交前检查冲突：如果pages中的某个page在tid开始之后被其他事务提交过，则tid必须回滚
+     * 快照事务传入它修改过的page(first-committer-wins)，乐观事务传入它的读写集合(backward validation)
+     *
+     * @param tid
+     * @param pages 需要验证的page
+     * @return 是否存在冲突
+     */
+    public synchronized boolean hasConflict(TransactionId tid, Iterable<PageId> pages) {
+        Long snapshotTs = snapshots.get(tid);
+        if (snapshotTs == null) {
+            return false;
+        }
+        for (PageId pid : pages) {
+            Long ts = lastCommitTs.get(pid);
+            if (ts != null && ts > snapshotTs) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 乐观事务通过验证时调用，登记它将要提交的page，直到它结束(endSnapshot)
+     * 调用者（BufferPool）需要在同一个临界区中完成验证和登记，
+     * 否则两个事务可能都在对方发布提交之前通过验证
+     *
+     * @param tid
+     * @param written tid修改过的page
+     */
+    public synchronized void reserveCommit(TransactionId tid, Collection<PageId> written) {
+        validated.put(tid, written);
+    }
+
+    /**
+     * 乐观事务验证时检查与已经通过验证但还没有发布提交的事务之间的冲突：
+     * 如果pages中的某个page将被这样的事务提交，tid读到的就是旧内容，必须回滚
+     *
+     * @param tid
+     * @param pages tid的读写集合
+     * @return 是否存在冲突
+     */
+    public synchronized boolean conflictsWithValidated(TransactionId tid, Iterable<PageId> pages) {
+        for (Map.Entry<TransactionId, Collection<PageId>> e : validated.entrySet()) {
+            if (e.getKey().equals(tid)) {
+                continue;
+            }
+            for (PageId pid : pages) {
+                if (e.getValue().contains(pid)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 回收所有快照事务都不再需要的旧版本：
+     * 对每条版本链，保留对最老的快照可见的那个版本以及比它新的版本
+     */
+    private void collectGarbage() {
+        if (snapshots.isEmpty()) {
+            versionChains.clear();
+            lastCommitTs.clear();
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (long ts : snapshots.values()) {
+            oldest = Math.min(oldest, ts);
+        }
+        Iterator<Map.Entry<PageId, LinkedList<PageVersion>>> it = versionChains.entrySet().iterator();
+        while (it.hasNext()) {
+            LinkedList<PageVersion> chain = it.next().getValue();
+            int keep = 0;
+            for (PageVersion v : chain) {
+                keep++;
+                if (v.commitTs <= oldest) {
+                    break;
+                }
+            }
+            while (chain.size() > keep) {
+                chain.removeLast();
+            }
+            //只剩一个对所有快照都可见的版本，说明之后没有提交过，它就是最近提交的内容，不需要再保留
+            if (chain.size() == 1 && chain.getFirst().commitTs <= oldest) {
+                it.remove();
+            }
+        }
+        Iterator<Map.Entry<PageId, Long>> tsIt = lastCommitTs.entrySet().iterator();
+        while (tsIt.hasNext()) {
+            if (tsIt.next().getValue() <= oldest) {
+                tsIt.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CatalogTest extends SimpleDbTestBase {
+
+    // the values of c0 in the rows whose c1 is v
+    private static List<Integer> withC1(List<ArrayList<Integer>> tuples, int v) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(1) == v) {
+                values.add(tuple.get(0));
+            }
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    // the values of c0 an index scan for c1 = v returns
+    private static List<Integer> scanC1(SecondaryIndex index, int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        IndexScan scan = new IndexScan(t.getId(), index, "t",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(v)), new ArrayList<Predicate>(), true);
+        List<Integer> values = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext()) {
+            values.add(((IntField) scan.next().getField(0)).getValue());
+        }
+        scan.close();
+        t.commit();
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * A secondary index declared in the schema file is built from its table
+     * the first time, and read back from its own file when the schema is
+     * loaded again.
+     */
+    @Test public void loadSchemaWithIndex() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        String table = "t" + SystemTestUtil.getUUID().replace("-", "");
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File data = SystemTestUtil.createRandomHeapFileUnopened(3, 2000, 100, null, tuples);
+        File tableFile = new File(dir, table + ".dat");
+        assertTrue(data.renameTo(tableFile));
+        tableFile.deleteOnExit();
+        File indexFile = new File(dir, table + "_c1.dat");
+        indexFile.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(table + " (c0 int, c1 int, c2 int)\n");
+        w.write("index " + table + "_c1 on " + table + " (c1, c2) include (c0)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableid = Database.getCatalog().getTableId(table);
+        assertEquals(1, Database.getCatalog().getIndexes(tableid).size());
+        SecondaryIndex index = Database.getCatalog().getIndexes(tableid).get(0);
+        assertEquals(table + "_c1", index.getName());
+        assertArrayEquals(new int[]{1, 2}, index.getKeyFields());
+        assertEquals(0, index.getIncludeFields()[0]);
+        assertTrue(indexFile.length() > 0);
+        int v = tuples.get(0).get(1);
+        assertEquals(withC1(tuples, v), scanC1(index, v));
+
+        // the index file is opened as it is, not built a second time
+        long length = indexFile.length();
+        Database.getCatalog().clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        index = Database.getCatalog().getIndexes(Database.getCatalog().getTableId(table)).get(0);
+        assertEquals(length, indexFile.length());
+        assertEquals(withC1(tuples, v), scanC1(index, v));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CatalogTest.class);
+    }
+}
@@ -5,7 +5,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
   private PageId p0, p1, p2;
@@ -187,6 +189,80 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for lock escalation: once a transaction holds more page locks
+   * on a table than the threshold, they become a single table lock.
+   */
+  @Test public void escalateReadLocks() throws Exception {
+    bp.setLockEscalationThreshold(1);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    assertEquals(0, bp.getLockEscalationCount());
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(1, bp.getLockEscalationCount());
+
+    // the table lock covers pages tid1 never touched
+    assertTrue(bp.holdsLock(tid1, p2));
+    grabLock(tid2, p2, Permissions.READ_ONLY, true);
+    grabLock(tid2, p2, Permissions.READ_WRITE, false);
+
+    bp.transactionComplete(tid1);
+    assertFalse(bp.holdsLock(tid1, p2));
+    grabLock(tid2, p2, Permissions.READ_WRITE, true);
+  }
+
+  /**
+   * Escalation to a table write lock waits until other transactions no
+   * longer hold page locks on the table.
+   */
+  @Test public void escalationBlockedByOtherLocks() throws Exception {
+    bp.setLockEscalationThreshold(1);
+    bp.getPage(tid2, p2, Permissions.READ_ONLY);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid1, p1, Permissions.READ_WRITE);
+    assertEquals(0, bp.getLockEscalationCount());
+    assertFalse(bp.holdsLock(tid1, p2));
+    grabLock(tid2, p1, Permissions.READ_ONLY, false);
+  }
+
+  /**
+   * A transaction with a lock timeout aborts instead of waiting forever, and
+   * the wait shows up in the lock statistics.
+   */
+  @Test public void lockTimeout() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.setLockTimeout(tid2, 50);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    t.start();
+    Thread.sleep(TIMEOUT * 2);
+    assertFalse(t.acquired());
+    assertTrue(t.getError() instanceof TransactionAbortedException);
+
+    LockStats stats = bp.getLockStats();
+    assertEquals(1, stats.getTimeouts());
+    assertEquals(1, stats.getWaits());
+    assertEquals(1, stats.getGrants());
+  }
+
+  /**
+   * The lock table snapshot reports holders, waiters and the waits-for graph.
+   */
+  @Test public void lockTableSnapshot() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    assertEquals(1, bp.getLockStats().getUpgrades());
+
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    LockTableSnapshot snapshot = bp.getLockTableSnapshot();
+    t.stop();
+
+    assertEquals(2, snapshot.getPageLocks().get(p0).size());
+    assertEquals(p0, snapshot.getWaiting().get(tid2));
+    assertTrue(snapshot.getWaitsFor().get(tid2).contains(tid1));
+    assertFalse(snapshot.getWaitsFor().get(tid2).contains(tid2));
+  }
+
   /**
    * JUnit suite target
    */
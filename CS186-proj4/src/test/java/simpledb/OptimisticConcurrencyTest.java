@@ -0,0 +1,214 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OptimisticConcurrencyTest extends TestUtil.CreateHeapFile {
+  private static final int MAGIC = 9999;
+
+  private BufferPool bp;
+  private PageId p0;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    Transaction t = new Transaction();
+    t.start();
+    for (int i = 0; i < 10; ++i) {
+      bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+    t.commit();
+    p0 = new HeapPageId(empty.getId(), 0);
+  }
+
+  private int countMagic(Transaction t) throws Exception {
+    return countMagic(t, empty);
+  }
+
+  private int countMagic(Transaction t, HeapFile f) throws Exception {
+    SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      if (((IntField) scan.next().getField(0)).getValue() == MAGIC) {
+        count++;
+      }
+    }
+    scan.close();
+    return count;
+  }
+
+  private void insertMagic(Transaction t) throws Exception {
+    insertMagic(t, empty);
+  }
+
+  private void insertMagic(Transaction t, HeapFile f) throws Exception {
+    bp.insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(MAGIC, 2));
+  }
+
+  private void assertAbortsAtCommit(Transaction t) throws Exception {
+    try {
+      t.commit();
+      fail("expected validation failure");
+    } catch (TransactionAbortedException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Optimistic transactions take no locks before commit, so a
+   * two-phase-locking writer is never blocked by them.
+   */
+  @Test public void readsAndWritesTakeNoLocks() throws Exception {
+    Transaction t1 = new Transaction(ConcurrencyMode.OPTIMISTIC);
+    t1.start();
+    assertEquals(0, countMagic(t1));
+    insertMagic(t1);
+    assertFalse(bp.holdsLock(t1.getId(), p0));
+
+    TransactionId writer = new TransactionId();
+    TestUtil.LockGrabber g = new TestUtil.LockGrabber(writer, p0, Permissions.READ_WRITE);
+    g.start();
+    Thread.sleep(100);
+    assertTrue(g.acquired());
+    g.stop();
+    bp.transactionComplete(writer);
+    t1.commit();
+  }
+
+  /**
+   * Writes are buffered privately: the transaction sees them, others only
+   * after it commits.
+   */
+  @Test public void writesVisibleOnlyAfterCommit() throws Exception {
+    Transaction t1 = new Transaction(ConcurrencyMode.OPTIMISTIC);
+    t1.start();
+    insertMagic(t1);
+    assertEquals(1, countMagic(t1));
+
+    Transaction other = new Transaction();
+    other.start();
+    assertEquals(0, countMagic(other));
+    other.commit();
+
+    t1.commit();
+
+    Transaction check = new Transaction();
+    check.start();
+    assertEquals(1, countMagic(check));
+    check.commit();
+  }
+
+  /**
+   * A writer whose read set was overwritten by a later commit fails
+   * validation; a read-only transaction always commits from its snapshot.
+   */
+  @Test public void staleReadAbortsWriter() throws Exception {
+    Transaction reader = new Transaction(ConcurrencyMode.OPTIMISTIC);
+    reader.start();
+    Transaction t1 = new Transaction(ConcurrencyMode.OPTIMISTIC);
+    t1.start();
+    assertEquals(0, countMagic(reader));
+    assertEquals(0, countMagic(t1));
+
+    Transaction t2 = new Transaction();
+    t2.start();
+    insertMagic(t2);
+    t2.commit();
+
+    assertEquals(0, countMagic(reader));
+    reader.commit();
+
+    insertMagic(t1);
+    assertAbortsAtCommit(t1);
+
+    Transaction check = new Transaction();
+    check.start();
+    assertEquals(1, countMagic(check));
+    check.commit();
+  }
+
+  /**
+   * Validation fails if a two-phase-locking transaction still holds a lock
+   * on a page the optimistic transaction wants to install.
+   */
+  @Test public void lockedPageAbortsWriter() throws Exception {
+    Transaction t1 = new Transaction(ConcurrencyMode.OPTIMISTIC);
+    t1.start();
+    insertMagic(t1);
+
+    Transaction t2 = new Transaction();
+    t2.start();
+    bp.getPage(t2.getId(), p0, Permissions.READ_ONLY);
+    assertAbortsAtCommit(t1);
+    assertFalse(bp.holdsLock(t1.getId(), p0));
+    t2.commit();
+
+    Transaction check = new Transaction();
+    check.start();
+    assertEquals(0, countMagic(check));
+    check.commit();
+  }
+
+  /**
+   * Write skew: each transaction reads both tables and inserts into one of
+   * them. The second to validate must see the first one's writes even
+   * though the first has validated but not yet flushed its pages, or both
+   * commit having read nothing of the other.
+   */
+  @Test public void validationSeesUnpublishedCommit() throws Exception {
+    File otherFile = File.createTempFile("other", ".dat");
+    otherFile.deleteOnExit();
+    final HeapFile other = Utility.createEmptyHeapFile(otherFile.getAbsolutePath(), 2);
+
+    Transaction t1 = new Transaction(ConcurrencyMode.OPTIMISTIC);
+    t1.start();
+    final Transaction t2 = new Transaction(ConcurrencyMode.OPTIMISTIC);
+    t2.start();
+    assertEquals(0, countMagic(t1, empty) + countMagic(t1, other));
+    assertEquals(0, countMagic(t2, empty) + countMagic(t2, other));
+    insertMagic(t1, empty);
+    insertMagic(t2, other);
+
+    // t1 has validated; its pages are not flushed until transactionComplete
+    bp.validateCommit(t1.getId());
+    final boolean[] aborted = new boolean[1];
+    Thread committer = new Thread() {
+      public void run() {
+        try {
+          t2.commit();
+        } catch (TransactionAbortedException e) {
+          aborted[0] = true;
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    committer.start();
+    committer.join();
+    t1.transactionComplete(false);
+    assertTrue(aborted[0]);
+
+    Transaction check = new Transaction();
+    check.start();
+    assertEquals(1, countMagic(check, empty));
+    assertEquals(0, countMagic(check, other));
+    check.commit();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OptimisticConcurrencyTest.class);
+  }
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotIsolationTest extends TestUtil.CreateHeapFile {
+  /** Time to wait before checking the state of lock contention, in ms */
+  private static final int TIMEOUT = 100;
+
+  private static final int MAGIC = 9999;
+
+  private BufferPool bp;
+  private PageId p0;
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    Transaction t = new Transaction();
+    t.start();
+    for (int i = 0; i < 10; ++i) {
+      bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+    t.commit();
+    p0 = new HeapPageId(empty.getId(), 0);
+  }
+
+  private int countMagic(Transaction t) throws Exception {
+    SeqScan scan = new SeqScan(t.getId(), empty.getId(), "");
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      if (((IntField) scan.next().getField(0)).getValue() == MAGIC) {
+        count++;
+      }
+    }
+    scan.close();
+    return count;
+  }
+
+  private void insertMagic(Transaction t) throws Exception {
+    bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(MAGIC, 2));
+  }
+
+  /**
+   * A snapshot reader must not wait for the write lock of another transaction.
+   */
+  @Test public void readDoesNotBlockOnWriteLock() throws Exception {
+    TransactionId writer = new TransactionId();
+    bp.getPage(writer, p0, Permissions.READ_WRITE);
+
+    Transaction reader = new Transaction(ConcurrencyMode.SNAPSHOT_ISOLATION);
+    reader.start();
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(reader.getId(), p0, Permissions.READ_ONLY);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertTrue(t.acquired());
+    assertNull(t.getError());
+    t.stop();
+  }
+
+  /**
+   * A snapshot reader sees neither uncommitted changes nor changes committed
+   * after it started; a later snapshot sees the committed change.
+   */
+  @Test public void readsStartSnapshot() throws Exception {
+    Transaction reader = new Transaction(ConcurrencyMode.SNAPSHOT_ISOLATION);
+    reader.start();
+
+    Transaction writer = new Transaction();
+    writer.start();
+    insertMagic(writer);
+    assertEquals(0, countMagic(reader));
+    writer.commit();
+    assertEquals(0, countMagic(reader));
+    reader.commit();
+
+    Transaction later = new Transaction(ConcurrencyMode.SNAPSHOT_ISOLATION);
+    later.start();
+    assertEquals(1, countMagic(later));
+    later.commit();
+  }
+
+  /**
+   * A snapshot transaction that writes a page committed by another
+   * transaction after its snapshot was taken must abort at commit.
+   */
+  @Test public void writeWriteConflictAbortsAtCommit() throws Exception {
+    Transaction t1 = new Transaction(ConcurrencyMode.SNAPSHOT_ISOLATION);
+    t1.start();
+    assertEquals(0, countMagic(t1));
+
+    Transaction t2 = new Transaction();
+    t2.start();
+    insertMagic(t2);
+    t2.commit();
+
+    insertMagic(t1);
+    try {
+      t1.commit();
+      fail("expected write-write conflict");
+    } catch (TransactionAbortedException e) {
+      // expected
+    }
+
+    Transaction check = new Transaction();
+    check.start();
+    assertEquals(1, countMagic(check));
+    check.commit();
+  }
+
+  /**
+   * Snapshot transactions without conflicting writes commit normally.
+   */
+  @Test public void nonConflictingWriteCommits() throws Exception {
+    Transaction t1 = new Transaction(ConcurrencyMode.SNAPSHOT_ISOLATION);
+    t1.start();
+    insertMagic(t1);
+    assertEquals(1, countMagic(t1));
+    t1.commit();
+
+    Transaction check = new Transaction();
+    check.start();
+    assertEquals(1, countMagic(check));
+    check.commit();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SnapshotIsolationTest.class);
+  }
+}
@@ -40,6 +40,28 @@ public class TableStatsTest extends SimpleDbTestBase {
 		}
 		return ret;
 	}
+	/**
+	 * Verify the cost estimates of index scans on a B+ tree table: a selective
+	 * predicate on the key is cheaper than a scan, a wider range costs more, and
+	 * fields or operators the index cannot answer are never index scanned.
+	 */
+	@Test public void estimateIndexScanCostTest() throws IOException, DbException, TransactionAbortedException {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+		TableStats s = new TableStats(bf.getId(), IO_COST);
+		int max = BTreeUtility.MAX_RAND_VALUE;
+
+		double point = s.estimateIndexScanCost(0, Predicate.Op.EQUALS, new IntField(max / 2));
+		double narrow = s.estimateIndexScanCost(0, Predicate.Op.LESS_THAN, new IntField(max / 100));
+		double wide = s.estimateIndexScanCost(0, Predicate.Op.LESS_THAN, new IntField(max / 2));
+		Assert.assertTrue(point < s.estimateScanCost());
+		Assert.assertTrue(narrow < wide);
+		Assert.assertTrue(wide < s.estimateScanCost());
+
+		Assert.assertTrue(Double.isInfinite(s.estimateIndexScanCost(1, Predicate.Op.EQUALS, new IntField(max / 2))));
+		Assert.assertTrue(Double.isInfinite(s.estimateIndexScanCost(0, Predicate.Op.NOT_EQUALS, new IntField(max / 2))));
+		Assert.assertTrue(Double.isInfinite(new TableStats(this.tableId, IO_COST).estimateIndexScanCost(0, Predicate.Op.EQUALS, new IntField(1))));
+	}
+
 	/**
 	 * Verify the cost estimates of scanning various numbers of pages from a HeapFile
 	 * This test checks that the estimateScanCost is: 
@@ -225,8 +225,8 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
-        public Page deleteTuple(TransactionId tid, Tuple t)
-            throws DbException, TransactionAbortedException {
+        public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
         }
 
@@ -0,0 +1,905 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BTreeIndexTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+
+    // a table keyed on its first column c0, filled through the buffer pool
+    private BTreeFile createTable(ArrayList<ArrayList<Integer>> tuples)
+            throws IOException, DbException, TransactionAbortedException {
+        if (tuples == null) {
+            tuples = new ArrayList<ArrayList<Integer>>();
+        }
+        BTreeUtility.generateRandomTuples(2, ROWS, 10 * ROWS, null, tuples);
+        File file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        BTreeFile f = BTreeUtility.openBTreeFile(2, "c", file, 0);
+        Transaction t = new Transaction();
+        t.start();
+        for (ArrayList<Integer> tuple : tuples) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, tuple.get(0), tuple.get(1)));
+        }
+        t.commit();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return f;
+    }
+
+    private static Tuple tuple(BTreeFile f, int c0, int c1) {
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(c0));
+        t.setField(1, new IntField(c1));
+        return t;
+    }
+
+    private static List<Integer> keys(DbIterator it) throws DbException, TransactionAbortedException {
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        return keys;
+    }
+
+    /**
+     * Inserts and deletes go through the buffer pool against a BTreeFile,
+     * splitting and merging leaves, and an abort restores the tree.
+     */
+    @Test
+    public void testBufferPoolInsertDeleteAbort() throws Exception {
+        BTreeFile f = createTable(null);
+        int pagesBefore = f.numPages();
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 2 * BTreeUtility.getNumTuplesPerPage(2); i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, -1 - i, i));
+        }
+        assertEquals(ROWS + 2 * BTreeUtility.getNumTuplesPerPage(2), keys(new SeqScan(t.getId(), f.getId(), "t")).size());
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        assertEquals(ROWS, keys(new SeqScan(t.getId(), f.getId(), "t")).size());
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        List<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext() && victims.size() < ROWS / 2) {
+            victims.add(it.next());
+        }
+        it.close();
+        for (Tuple victim : victims) {
+            Database.getBufferPool().deleteTuple(t.getId(), victim);
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        assertEquals(ROWS - victims.size(), keys(new SeqScan(t.getId(), f.getId(), "t")).size());
+        t.commit();
+        assertTrue(f.numPages() >= pagesBefore);
+    }
+
+    /**
+     * Index lookups find exactly the matching keys, also after deletes have
+     * left empty slots between the tuples and entries of the pages searched.
+     */
+    @Test
+    public void testIndexLookups() throws Exception {
+        BTreeFile f = createTable(null);
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        List<Tuple> victims = new ArrayList<Tuple>();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple tuple = it.next();
+            if (i % 3 == 0) {
+                victims.add(tuple);
+            }
+        }
+        it.close();
+        for (Tuple victim : victims) {
+            Database.getBufferPool().deleteTuple(t.getId(), victim);
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        List<Integer> remaining = keys(new SeqScan(t.getId(), f.getId(), "t"));
+        Random r = new Random(42);
+        for (int n = 0; n < 100; n++) {
+            int key = n % 2 == 0 ? remaining.get(r.nextInt(remaining.size())) : r.nextInt(10 * ROWS);
+            for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+                    Predicate.Op.GREATER_THAN_OR_EQ}) {
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int k : remaining) {
+                    if (new IntField(k).compare(op, new IntField(key))) {
+                        expected.add(k);
+                    }
+                }
+                IndexPredicate ipred = new IndexPredicate(op, new IntField(key));
+                assertEquals(expected, keys(new IndexScan(t.getId(), f.getId(), "t", ipred)));
+            }
+        }
+        t.commit();
+    }
+
+    /**
+     * Range scans return exactly the keys between their bounds in either
+     * direction, and a descending scan that stops early never reaches the
+     * left-most leaf.
+     */
+    @Test
+    public void testRangeAndReverseScans() throws Exception {
+        BTreeFile f = createTable(null);
+        Transaction t = new Transaction();
+        t.start();
+        List<Integer> all = keys(new SeqScan(t.getId(), f.getId(), "t"));
+        // the first key of each leaf, which is also the key of an entry in its parent
+        List<Integer> firstKeys = new ArrayList<Integer>();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        PageId leftmost = null;
+        for (PageId pid = null; it.hasNext(); ) {
+            Tuple tuple = it.next();
+            if (!tuple.getRecordId().getPageId().equals(pid)) {
+                pid = tuple.getRecordId().getPageId();
+                firstKeys.add(((IntField) tuple.getField(0)).getValue());
+            }
+            if (leftmost == null) {
+                leftmost = pid;
+            }
+        }
+        it.close();
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        List<Integer> reversed = new ArrayList<Integer>(all);
+        Collections.reverse(reversed);
+        assertEquals(reversed, keys(new IndexScan(t.getId(), f.getId(), "t", null, null, true)));
+        Random r = new Random(7);
+        Predicate.Op[] lowerOps = {Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+        Predicate.Op[] upperOps = {Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ};
+        for (int n = 0; n < 100; n++) {
+            int low = n % 2 == 0 ? all.get(r.nextInt(all.size())) : r.nextInt(10 * ROWS);
+            int high = n % 3 == 0 ? all.get(r.nextInt(all.size())) : low + r.nextInt(2 * ROWS);
+            IndexPredicate lower = new IndexPredicate(lowerOps[n % 2], new IntField(low));
+            IndexPredicate upper = new IndexPredicate(upperOps[n / 2 % 2], new IntField(high));
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int k : all) {
+                if (new IntField(k).compare(lower.getOp(), lower.getField())
+                        && new IntField(k).compare(upper.getOp(), upper.getField())) {
+                    expected.add(k);
+                }
+            }
+            assertEquals(expected, keys(new IndexScan(t.getId(), f.getId(), "t", lower, upper, false)));
+            Collections.reverse(expected);
+            assertEquals(expected, keys(new IndexScan(t.getId(), f.getId(), "t", lower, upper, true)));
+
+            // only an upper bound: the descending scan starts right at it
+            expected.clear();
+            for (int k : reversed) {
+                if (new IntField(k).compare(upper.getOp(), upper.getField())) {
+                    expected.add(k);
+                }
+            }
+            assertEquals(expected, keys(new IndexScan(t.getId(), f.getId(), "t", null, upper, true)));
+        }
+        // the search for a key of an entry ends at the leaf left of it, and the scan must not
+        // return the tuples of the next leaf that equal a GREATER_THAN bound
+        for (int key : firstKeys) {
+            IndexPredicate lower = new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(key));
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int k : all) {
+                if (k > key) {
+                    expected.add(k);
+                }
+            }
+            assertEquals(expected, keys(new IndexScan(t.getId(), f.getId(), "t", lower)));
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        DbIterator desc = new IndexScan(t.getId(), f.getId(), "t", null, null, true);
+        desc.open();
+        for (int i = 0; i < 10; i++) {
+            assertEquals((int) reversed.get(i), ((IntField) desc.next().getField(0)).getValue());
+        }
+        desc.close();
+        assertFalse(Database.getBufferPool().holdsLock(t.getId(), leftmost));
+        t.commit();
+    }
+
+    /**
+     * Searches and inserts lock the root pointer and internal pages only while passing
+     * through them; the leaf they read or write stays locked until the transaction ends.
+     */
+    @Test
+    public void testTraversalReleasesInternalPages() throws Exception {
+        BTreeFile f = createTable(null);
+        assertTrue(f.height(new TransactionId()) > 1);
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(f.getId());
+
+        Transaction t = new Transaction();
+        t.start();
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(ROWS));
+        DbFileIterator it = f.indexIterator(t.getId(), ipred);
+        it.open();
+        it.close();
+        BufferPool bp = Database.getBufferPool();
+        Transaction other = new Transaction();
+        other.start();
+        BTreePageId rootId = ((BTreeRootPtrPage) bp.getPage(other.getId(), rootPtrId, Permissions.READ_ONLY)).getRootId();
+        other.commit();
+        assertFalse(bp.holdsLock(t.getId(), rootPtrId));
+        assertFalse(bp.holdsLock(t.getId(), rootId));
+        int leaves = 0;
+        for (int i = 1; i <= f.numPages(); i++) {
+            if (bp.holdsLock(t.getId(), new BTreePageId(f.getId(), i, BTreePageId.LEAF))) {
+                leaves++;
+            }
+        }
+        assertEquals(1, leaves);
+
+        bp.insertTuple(t.getId(), f.getId(), tuple(f, ROWS, 0));
+        assertFalse(bp.holdsLock(t.getId(), rootPtrId));
+        assertFalse(bp.holdsLock(t.getId(), rootId));
+        t.commit();
+    }
+
+    /**
+     * Transactions inserting into one tree from several threads all commit, possibly
+     * after retrying an abort, and leave a valid tree holding every tuple.
+     */
+    @Test
+    public void testConcurrentInserts() throws Exception {
+        final BTreeFile f = createTable(null);
+        final int threads = 4;
+        final int inserts = 300;
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int base = i * (10 * ROWS / threads);
+            workers[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(base);
+                    try {
+                        for (int n = 0; n < inserts; n++) {
+                            int key = base + r.nextInt(10 * ROWS / threads);
+                            while (true) {
+                                Transaction t = new Transaction();
+                                t.start();
+                                try {
+                                    Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, key, n));
+                                    t.commit();
+                                    break;
+                                } catch (TransactionAbortedException e) {
+                                    t.transactionComplete(true);
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        assertEquals(0, failures.get());
+
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(ROWS + threads * inserts, keys(new SeqScan(t.getId(), f.getId(), "t")).size());
+        BTreeChecker.checkRep(f, t.getId(), new HashMap<PageId, Page>(), true);
+        t.commit();
+    }
+
+    // empty the leaves below the median, which merges them and frees their pages
+    private static void deleteBelow(BTreeFile f, int median, boolean commit) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = f.indexIterator(t.getId(), new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(median)));
+        it.open();
+        List<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            victims.add(it.next());
+        }
+        it.close();
+        for (Tuple victim : victims) {
+            Database.getBufferPool().deleteTuple(t.getId(), victim);
+        }
+        t.transactionComplete(!commit);
+    }
+
+    // the pages of f that are neither reachable from its root pointer page nor free in its header pages
+    private static Set<Integer> unusedPages(BTreeFile f) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(t.getId(),
+                BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+        Set<Integer> unused = new HashSet<Integer>();
+        for (int i = 1; i <= f.numPages(); i++) {
+            unused.add(i);
+        }
+        List<BTreePageId> pending = new ArrayList<BTreePageId>();
+        pending.add(rootPtr.getRootId());
+        int headerPageCount = 0;
+        for (BTreePageId headerId = rootPtr.getHeaderId(); headerId != null; headerPageCount++) {
+            BTreeHeaderPage header = (BTreeHeaderPage) Database.getBufferPool().getPage(t.getId(),
+                    headerId, Permissions.READ_ONLY);
+            for (int i = 0; i < BTreeHeaderPage.getNumSlots(); i++) {
+                if (!header.isSlotUsed(i)) {
+                    unused.remove(headerPageCount * BTreeHeaderPage.getNumSlots() + i);
+                }
+            }
+            unused.remove(headerId.pageNumber());
+            headerId = header.getNextPageId();
+        }
+        while (!pending.isEmpty()) {
+            BTreePageId id = pending.remove(pending.size() - 1);
+            unused.remove(id.pageNumber());
+            if (id.pgcateg() == BTreePageId.INTERNAL) {
+                Iterator<BTreeEntry> it = ((BTreeInternalPage) Database.getBufferPool().getPage(t.getId(),
+                        id, Permissions.READ_ONLY)).iterator();
+                BTreeEntry e = it.next();
+                pending.add(e.getLeftChild());
+                while (true) {
+                    pending.add(e.getRightChild());
+                    if (!it.hasNext()) {
+                        break;
+                    }
+                    e = it.next();
+                }
+            }
+        }
+        t.commit();
+        return unused;
+    }
+
+    // whether the pages of f that are neither reachable nor free are the last pages of the file
+    private static boolean unusedAtEnd(BTreeFile f) throws Exception {
+        Set<Integer> unused = unusedPages(f);
+        return unused.isEmpty() || Collections.min(unused) == f.numPages() - unused.size() + 1;
+    }
+
+    // the number of pages marked free in the header pages of f
+    private static int freePages(BTreeFile f) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        t.setLockTimeout(1000);
+        int free = 0;
+        BTreePageId headerId = ((BTreeRootPtrPage) Database.getBufferPool().getPage(t.getId(),
+                BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY)).getHeaderId();
+        while (headerId != null) {
+            BTreeHeaderPage header = (BTreeHeaderPage) Database.getBufferPool().getPage(t.getId(),
+                    headerId, Permissions.READ_ONLY);
+            for (int i = 0; i < BTreeHeaderPage.getNumSlots(); i++) {
+                if (!header.isSlotUsed(i)) {
+                    free++;
+                }
+            }
+            headerId = header.getNextPageId();
+        }
+        t.commit();
+        return free;
+    }
+
+    /**
+     * Pages freed by merges are handed out again once the transaction that
+     * freed them commits, but not if it aborts. The committed round comes
+     * first so that the header pages survive the aborted one.
+     */
+    @Test
+    public void testFreePagesReused() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = createTable(tuples);
+        List<Integer> sorted = new ArrayList<Integer>();
+        for (ArrayList<Integer> tuple : tuples) {
+            sorted.add(tuple.get(0));
+        }
+        Collections.sort(sorted);
+        int median = sorted.get(ROWS / 2);
+
+        for (boolean commit : new boolean[]{true, false}) {
+            int before = freePages(f);
+            deleteBelow(f, median, commit);
+            if (commit) {
+                int first = 0;
+                while (sorted.get(first) < median) {
+                    first++;
+                }
+                sorted = sorted.subList(first, sorted.size());
+            }
+            int free = freePages(f);
+            assertEquals(commit, free > before);
+
+            // refill them; the pages freed by the aborted transaction are still in use
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < ROWS / 2; i++) {
+                Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, median - 1 - i, i));
+            }
+            t.commit();
+            sorted = new ArrayList<Integer>(sorted);
+            for (int i = 0; i < ROWS / 2; i++) {
+                sorted.add(median - 1 - i);
+            }
+            Collections.sort(sorted);
+            if (commit) {
+                assertTrue(freePages(f) < free);
+            }
+
+            t = new Transaction();
+            t.start();
+            assertEquals(sorted, keys(new SeqScan(t.getId(), f.getId(), "t")));
+            BTreeChecker.checkRep(f, t.getId(), new HashMap<PageId, Page>(), true);
+            t.commit();
+        }
+    }
+
+    /**
+     * The pages a B+ tree file had reserved but never used when it was closed are left alone
+     * when it is reopened, and reclaimed by reclaimUnusedPages: those at its end are truncated
+     * and the others are handed out before new pages are appended, so that the unused pages
+     * are all at the end again.
+     */
+    @Test
+    public void testReopenReclaimsPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = createTable(tuples);
+        List<Integer> sorted = new ArrayList<Integer>();
+        for (ArrayList<Integer> tuple : tuples) {
+            sorted.add(tuple.get(0));
+        }
+        Collections.sort(sorted);
+        // empty three quarters of the leaves, so that at least three pages are freed
+        int bound = sorted.get(3 * ROWS / 4);
+        deleteBelow(f, bound, true);
+        // split a leaf, which claims all the freed pages but uses only the first of them
+        int leaf = BTreeUtility.getNumTuplesPerPage(2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < leaf; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, bound - 1 - i, i));
+        }
+        t.commit();
+        assertEquals(0, freePages(f));
+        assertFalse(unusedAtEnd(f));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+        int numPages = f.numPages();
+        // until then, a split in the reopened file appends pages instead of taking unused ones
+        Transaction split = new Transaction();
+        split.start();
+        for (int i = leaf; i < 2 * leaf; i++) {
+            Database.getBufferPool().insertTuple(split.getId(), f.getId(), tuple(f, bound - 1 - i, i));
+        }
+        split.transactionComplete(true);
+        assertTrue(f.numPages() > numPages);
+        assertFalse(unusedAtEnd(f));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f = BTreeUtility.openBTreeFile(2, "c", f.getFile(), 0);
+        f.reclaimUnusedPages();
+        assertTrue(f.numPages() <= numPages);
+
+        // refill the emptied leaves, with more pages than the reopened file has reserved
+        t = new Transaction();
+        t.start();
+        for (int i = leaf; i < 3 * ROWS / 2; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, bound - 1 - i, i));
+        }
+        t.commit();
+        assertTrue(unusedAtEnd(f));
+        sorted = new ArrayList<Integer>(sorted.subList(sorted.indexOf(bound), sorted.size()));
+        for (int i = 0; i < 3 * ROWS / 2; i++) {
+            sorted.add(bound - 1 - i);
+        }
+        Collections.sort(sorted);
+
+        t = new Transaction();
+        t.start();
+        assertEquals(sorted, keys(new SeqScan(t.getId(), f.getId(), "t")));
+        BTreeChecker.checkRep(f, t.getId(), new HashMap<PageId, Page>(), true);
+        t.commit();
+    }
+
+    /**
+     * The pages an aborted transaction took for new leaves are handed out again, so
+     * repeating its inserts in a transaction that commits does not grow the file.
+     */
+    @Test
+    public void testAbortedAllocationsReused() throws Exception {
+        BTreeFile f = createTable(null);
+        int pages = f.numPages();
+        for (boolean commit : new boolean[]{false, true}) {
+            // ascending keys past all others, which split the last leaf over and over
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < 3 * ROWS; i++) {
+                Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, 10 * ROWS + i, i));
+            }
+            t.transactionComplete(!commit);
+            if (commit) {
+                assertEquals(pages, f.numPages());
+            } else {
+                assertTrue(f.numPages() > pages);
+                pages = f.numPages();
+            }
+        }
+
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(4 * ROWS, keys(new SeqScan(t.getId(), f.getId(), "t")).size());
+        BTreeChecker.checkRep(f, t.getId(), new HashMap<PageId, Page>(), true);
+        t.commit();
+    }
+
+    /**
+     * A transaction that takes freed pages for new leaves does not keep the header pages
+     * locked, so other transactions can read them before it finishes.
+     */
+    @Test
+    public void testReuseLeavesHeaderUnlocked() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = createTable(tuples);
+        List<Integer> sorted = new ArrayList<Integer>();
+        for (ArrayList<Integer> tuple : tuples) {
+            sorted.add(tuple.get(0));
+        }
+        Collections.sort(sorted);
+        int median = sorted.get(ROWS / 2);
+        deleteBelow(f, median, true);
+        int free = freePages(f);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS / 2; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, median - 1 - i, i));
+        }
+        // freePages() reads the header pages in a transaction of its own, with a lock timeout
+        assertTrue(freePages(f) < free);
+        t.commit();
+    }
+
+    /**
+     * A bulk load of sorted tuples builds a valid tree holding exactly those tuples,
+     * from a single leaf up to several internal levels and at any fill factor, and
+     * the tree takes inserts and deletes afterwards.
+     */
+    @Test
+    public void testBulkLoad() throws Exception {
+        // wide tuples, so that a few thousand of them fill more than one internal page
+        int columns = 20;
+        int perLeaf = BTreeUtility.getNumTuplesPerPage(columns);
+        int[] sizes = {0, 1, perLeaf, perLeaf + 1, 2 * perLeaf + 1, 30000};
+        for (double fillFactor : new double[]{1.0, 0.5}) {
+            for (int size : sizes) {
+                ArrayList<Tuple> tuples = BTreeUtility.generateRandomTuples(columns, size, 0, size / 3 + 1);
+                Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(0));
+                File file = File.createTempFile("btree", ".dat");
+                file.deleteOnExit();
+                BTreeFile f = BTreeUtility.openBTreeFile(columns, file, 0);
+                BTreeBulkLoader.load(f, new TupleIterator(f.getTupleDesc(), tuples), fillFactor);
+
+                Transaction t = new Transaction();
+                t.start();
+                BTreeChecker.checkRep(f, t.getId(), new HashMap<PageId, Page>(), true);
+                List<Integer> expected = new ArrayList<Integer>();
+                for (Tuple tuple : tuples) {
+                    expected.add(((IntField) tuple.getField(0)).getValue());
+                }
+                assertEquals(expected, keys(new SeqScan(t.getId(), f.getId(), "t")));
+                if (size == 30000) {
+                    assertEquals(3, f.height(t.getId()));
+                }
+
+                Tuple extra = BTreeUtility.getBTreeTuple(size / 6, columns);
+                Database.getBufferPool().insertTuple(t.getId(), f.getId(), extra);
+                Database.getBufferPool().deleteTuple(t.getId(), extra);
+                BTreeChecker.checkRep(f, t.getId(), new HashMap<PageId, Page>(), false);
+                assertEquals(expected, keys(new SeqScan(t.getId(), f.getId(), "t")));
+                t.commit();
+            }
+        }
+
+        File file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        BTreeBulkLoader loader = new BTreeBulkLoader(BTreeUtility.openBTreeFile(2, file, 0), 1.0);
+        loader.add(BTreeUtility.getBTreeTuple(2, 2));
+        try {
+            loader.add(BTreeUtility.getBTreeTuple(1, 2));
+            fail("tuples out of key order should be refused");
+        } catch (DbException e) {
+            // expected
+        }
+        loader.finish();
+    }
+
+    /**
+     * A B+ tree on a string key stores its keys compressed: five thousand keys, most of them
+     * URLs with a long common prefix, fit in a tree of two levels, where the fixed-width
+     * layout would hold only 30 keys per page and need three. Splits, steals and
+     * merges through the buffer pool keep the tree valid and half full, and bulk
+     * loading builds the same shape.
+     */
+    @Test
+    public void testStringKeys() throws Exception {
+        int rows = 5000;
+        Random r = new Random(7);
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            String key;
+            if (i % 5 != 0) {
+                key = "http://www.example.com/products/" + String.format("%06d", r.nextInt(1000000));
+            } else {
+                // keys of all lengths and no common prefix, some of them equal
+                StringBuilder sb = new StringBuilder();
+                for (int n = r.nextInt(Type.STRING_LEN + 1); n > 0; n--) {
+                    sb.append((char) ('a' + r.nextInt(3)));
+                }
+                key = sb.toString();
+            }
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(key, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+
+        File file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        BTreeFile f = new BTreeFile(file, 0, td);
+        Database.getCatalog().addTable(f, "strings");
+        Transaction t = null;
+        for (int i = 0; i < rows; i++) {
+            if (i % 500 == 0) {
+                if (t != null) {
+                    t.commit();
+                }
+                t = new Transaction();
+                t.start();
+            }
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuples.get(i));
+        }
+        BTreeChecker.checkRep(f, t.getId(), new HashMap<PageId, Page>(), true);
+        assertEquals(2, f.height(t.getId()));
+        t.commit();
+
+        Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(0));
+        List<String> expected = new ArrayList<String>();
+        for (Tuple tuple : tuples) {
+            expected.add(tuple.getField(0).toString());
+        }
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertEquals(expected, stringKeys(new SeqScan(t.getId(), f.getId(), "t")));
+        for (int n = 0; n < 50; n++) {
+            Field key = tuples.get(r.nextInt(rows)).getField(0);
+            List<String> matches = stringKeys(new IndexScan(t.getId(), f.getId(), "t",
+                    new IndexPredicate(Predicate.Op.EQUALS, key)));
+            assertEquals(Collections.frequency(expected, key.toString()), matches.size());
+        }
+        t.commit();
+
+        // delete nine in ten tuples, in random order
+        List<Tuple> victims = new ArrayList<Tuple>();
+        t = new Transaction();
+        t.start();
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        List<String> remaining = new ArrayList<String>();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple tuple = it.next();
+            if (i % 10 != 0) {
+                victims.add(tuple);
+            } else {
+                remaining.add(tuple.getField(0).toString());
+            }
+        }
+        it.close();
+        t.commit();
+        Collections.shuffle(victims, r);
+        for (int i = 0; i < victims.size(); i++) {
+            if (i % 500 == 0) {
+                t.commit();
+                t = new Transaction();
+                t.start();
+            }
+            Database.getBufferPool().deleteTuple(t.getId(), victims.get(i));
+        }
+        BTreeChecker.checkRep(f, t.getId(), new HashMap<PageId, Page>(), true);
+        assertEquals(remaining, stringKeys(new SeqScan(t.getId(), f.getId(), "t")));
+        t.commit();
+
+        for (double fillFactor : new double[]{1.0, 0.5}) {
+            file = File.createTempFile("btree", ".dat");
+            file.deleteOnExit();
+            BTreeFile loaded = new BTreeFile(file, 0, td);
+            Database.getCatalog().addTable(loaded, "loaded" + fillFactor);
+            BTreeBulkLoader.load(loaded, new TupleIterator(td, tuples), fillFactor);
+            t = new Transaction();
+            t.start();
+            BTreeChecker.checkRep(loaded, t.getId(), new HashMap<PageId, Page>(), true);
+            assertEquals(2, loaded.height(t.getId()));
+            assertEquals(expected, stringKeys(new SeqScan(t.getId(), loaded.getId(), "t")));
+            t.commit();
+        }
+    }
+
+    private static List<String> stringKeys(DbIterator it) throws DbException, TransactionAbortedException {
+        List<String> keys = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            keys.add(it.next().getField(0).toString());
+        }
+        it.close();
+        return keys;
+    }
+
+    /**
+     * A selective filter on the key of a B+ tree table is answered by an
+     * IndexScan, and every filter on the key returns the same tuples as a
+     * Filter over the table would.
+     */
+    @Test
+    public void testPlannerUsesIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = createTable(tuples);
+        String name = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+        List<Integer> sorted = new ArrayList<Integer>();
+        for (ArrayList<Integer> tuple : tuples) {
+            sorted.add(tuple.get(0));
+        }
+        Collections.sort(sorted);
+
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+        int[] bounds = {sorted.get(ROWS / 3), sorted.get(ROWS / 20), sorted.get(ROWS / 20)};
+        boolean[] selective = {true, true, false};
+        for (int i = 0; i < ops.length; i++) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(f.getId(), "t");
+            lp.addFilter("t.c0", ops[i], Integer.toString(bounds[i]));
+            lp.addProjectField("*", null);
+            Transaction t = new Transaction();
+            t.start();
+            DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+            if (selective[i]) {
+                assertTrue(((Operator) plan).getChildren()[0] instanceof IndexScan);
+            }
+
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int key : sorted) {
+                if (new IntField(key).compare(ops[i], new IntField(bounds[i]))) {
+                    expected.add(key);
+                }
+            }
+            List<Integer> actual = keys(plan);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+            t.commit();
+        }
+    }
+
+    /**
+     * ORDER BY the key of a B+ tree table reads the leaves in that order
+     * instead of sorting, and a lower and an upper bound on the key are both
+     * answered by one scan between them.
+     */
+    @Test
+    public void testPlannerOrderByKey() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = createTable(tuples);
+        String name = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+        List<Integer> sorted = new ArrayList<Integer>();
+        for (ArrayList<Integer> tuple : tuples) {
+            sorted.add(tuple.get(0));
+        }
+        Collections.sort(sorted);
+        int low = sorted.get(ROWS / 2);
+        int high = sorted.get(ROWS / 2 + ROWS / 20);
+
+        for (boolean asc : new boolean[]{true, false}) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(f.getId(), "t");
+            lp.addFilter("t.c0", Predicate.Op.GREATER_THAN_OR_EQ, Integer.toString(low));
+            lp.addFilter("t.c0", Predicate.Op.LESS_THAN, Integer.toString(high));
+            lp.addProjectField("*", null);
+            lp.addOrderBy("t.c0", asc);
+            Transaction t = new Transaction();
+            t.start();
+            DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+            DbIterator scan = ((Operator) plan).getChildren()[0];
+            assertTrue(scan instanceof IndexScan);
+            assertNotNull(((IndexScan) scan).getUpperBound());
+            assertEquals(!asc, ((IndexScan) scan).isDescending());
+
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int key : sorted) {
+                if (key >= low && key < high) {
+                    expected.add(key);
+                }
+            }
+            if (!asc) {
+                Collections.reverse(expected);
+            }
+            assertEquals(expected, keys(plan));
+            t.commit();
+        }
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addProjectField("*", null);
+        lp.addOrderBy("t.c0", false);
+        Transaction t = new Transaction();
+        t.start();
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof OrderBy);
+        List<Integer> expected = new ArrayList<Integer>(sorted);
+        Collections.reverse(expected);
+        assertEquals(expected, keys(plan));
+        t.commit();
+    }
+
+    /**
+     * Filters that the index cannot answer still scan the whole table.
+     */
+    @Test
+    public void testPlannerKeepsSeqScan() throws Exception {
+        BTreeFile f = createTable(null);
+        String name = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "5");
+        lp.addFilter("t.c0", Predicate.Op.NOT_EQUALS, "5");
+        lp.addProjectField("*", null);
+        Transaction t = new Transaction();
+        t.start();
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        DbIterator scan = ((Operator) plan).getChildren()[0];
+        while (scan instanceof Filter) {
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        assertTrue(scan instanceof SeqScan);
+        assertFalse(scan instanceof IndexScan);
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeIndexTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares two-phase locking with optimistic concurrency control on short
+ * read-mostly transactions. Each transaction reads a few random pages and,
+ * with the given probability, updates one tuple on another random page.
+ * Reports committed transactions per second and the number of aborts for
+ * each write ratio, so the point where OCC stops paying off is visible.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ * java simpledb.systemtest.ConcurrencyModeBenchmark [threads] [txnsPerThread] [pages]
+ * </pre>
+ */
+public class ConcurrencyModeBenchmark {
+    private static final double[] WRITE_RATIOS = {0.0, 0.01, 0.05, 0.1, 0.25, 0.5};
+    private static final int READS_PER_TXN = 4;
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private final int threads;
+    private final int txnsPerThread;
+    private final int pages;
+
+    private int tableId;
+    private final AtomicInteger commits = new AtomicInteger();
+    private final AtomicInteger aborts = new AtomicInteger();
+
+    public ConcurrencyModeBenchmark(int threads, int txnsPerThread, int pages) {
+        this.threads = threads;
+        this.txnsPerThread = txnsPerThread;
+        this.pages = pages;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int txns = args.length > 1 ? Integer.parseInt(args[1]) : 25;
+        int pages = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        ConcurrencyModeBenchmark bench = new ConcurrencyModeBenchmark(threads, txns, pages);
+
+        // warm up the JIT so the first configuration is not penalised
+        bench.run(ConcurrencyMode.TWO_PHASE_LOCKING, 0.0);
+        bench.run(ConcurrencyMode.OPTIMISTIC, 0.0);
+
+        System.out.printf("%-8s %-20s %12s %8s%n", "writes", "mode", "txn/s", "aborts");
+        for (double ratio : WRITE_RATIOS) {
+            for (ConcurrencyMode mode : new ConcurrencyMode[]{
+                    ConcurrencyMode.TWO_PHASE_LOCKING, ConcurrencyMode.OPTIMISTIC}) {
+                double tps = bench.run(mode, ratio);
+                System.out.printf("%-8.2f %-20s %12.1f %8d%n", ratio, mode, tps, bench.aborts.get());
+            }
+        }
+    }
+
+    /**
+     * Runs one configuration on a freshly generated table.
+     *
+     * @return committed transactions per second
+     */
+    public double run(final ConcurrencyMode mode, final double writeRatio) throws Exception {
+        Database.reset();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, pages * TUPLES_PER_PAGE, null, null);
+        tableId = table.getId();
+        commits.set(0);
+        aborts.set(0);
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    for (int n = 0; n < txnsPerThread; n++) {
+                        runUntilCommitted(mode, writeRatio, r);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return commits.get() / seconds;
+    }
+
+    private void runUntilCommitted(ConcurrencyMode mode, double writeRatio, Random r) {
+        boolean write = r.nextDouble() < writeRatio;
+        while (true) {
+            Transaction t = new Transaction(mode);
+            t.start();
+            try {
+                runTransaction(t.getId(), write, r);
+                t.commit();
+                commits.incrementAndGet();
+                return;
+            } catch (TransactionAbortedException e) {
+                // deadlock under 2PL, or failed validation under OCC
+                aborts.incrementAndGet();
+                try {
+                    t.abort();
+                } catch (Exception e2) {
+                    throw new RuntimeException(e2);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void runTransaction(TransactionId tid, boolean write, Random r) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < READS_PER_TXN; i++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, randomPage(r), Permissions.READ_ONLY);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                it.next();
+            }
+        }
+        if (write) {
+            HeapPage page = (HeapPage) bp.getPage(tid, randomPage(r), Permissions.READ_WRITE);
+            Iterator<Tuple> it = page.iterator();
+            if (it.hasNext()) {
+                Tuple old = it.next();
+                Tuple updated = new Tuple(old.getTupleDesc());
+                updated.setField(0, new IntField(r.nextInt()));
+                updated.setField(1, old.getField(1));
+                page.deleteTuple(old);
+                page.insertTuple(updated);
+                page.markDirty(true, tid);
+            }
+        }
+    }
+
+    private PageId randomPage(Random r) {
+        return new HeapPageId(tableId, r.nextInt(pages));
+    }
+}
@@ -0,0 +1,244 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HashFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 4000;
+
+    // pages read from disk by the table created last
+    private final AtomicInteger reads = new AtomicInteger();
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+
+    // a table hashed on its first column c0, filled through the buffer pool
+    private HashFile createTable() throws IOException, DbException, TransactionAbortedException {
+        BTreeUtility.generateRandomTuples(2, ROWS, 10 * ROWS, null, tuples);
+        File file = File.createTempFile("hash", ".dat");
+        file.deleteOnExit();
+        HashFile f = new HashFile(file, 0, Utility.getTupleDesc(2, "c")) {
+            @Override
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(f, UUID.randomUUID().toString());
+        Transaction t = new Transaction();
+        t.start();
+        for (ArrayList<Integer> tuple : tuples) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, tuple.get(0), tuple.get(1)));
+        }
+        t.commit();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return f;
+    }
+
+    private static Tuple tuple(HashFile f, int c0, int c1) {
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(c0));
+        t.setField(1, new IntField(c1));
+        return t;
+    }
+
+    // the c1 values of the tuples with key c0, in order
+    private static List<Integer> lookup(HashFile f, TransactionId tid, int c0)
+            throws DbException, TransactionAbortedException {
+        List<Integer> values = new ArrayList<Integer>();
+        IndexScan scan = new IndexScan(tid, f.getId(), "t", new IndexPredicate(Predicate.Op.EQUALS, new IntField(c0)));
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(c0, ((IntField) t.getField(0)).getValue());
+            values.add(((IntField) t.getField(1)).getValue());
+        }
+        scan.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    private List<Integer> expected(int c0) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(0) == c0) {
+                values.add(tuple.get(1));
+            }
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * Lookups return exactly the tuples with the key, both after the buckets
+     * have been split by inserts and after half of the tuples are deleted.
+     */
+    @Test
+    public void testInsertLookupDelete() throws Exception {
+        HashFile f = createTable();
+        assertTrue(f.numPages() > 3);
+
+        Transaction t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(f, t.getId(), tuples);
+        for (int i = 0; i < ROWS; i += 20) {
+            int key = tuples.get(i).get(0);
+            assertEquals(expected(key), lookup(f, t.getId(), key));
+        }
+        assertEquals(expected(-1), lookup(f, t.getId(), -1));
+
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        List<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple victim = it.next();
+            if (victims.size() < ROWS / 2) {
+                victims.add(victim);
+            }
+        }
+        it.close();
+        for (Tuple victim : victims) {
+            Database.getBufferPool().deleteTuple(t.getId(), victim);
+            tuples.remove(SystemTestUtil.tupleToList(victim));
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(f, t.getId(), tuples);
+        for (Tuple victim : victims) {
+            int key = ((IntField) victim.getField(0)).getValue();
+            assertEquals(expected(key), lookup(f, t.getId(), key));
+        }
+        t.commit();
+    }
+
+    /**
+     * A lookup reads the directory and the bucket of the key and nothing else.
+     */
+    @Test
+    public void testLookupReadsTwoPages() throws Exception {
+        HashFile f = createTable();
+        for (int i = 0; i < 10; i++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            reads.set(0);
+            Transaction t = new Transaction();
+            t.start();
+            int key = tuples.get(i * 37).get(0);
+            assertEquals(expected(key), lookup(f, t.getId(), key));
+            t.commit();
+            assertEquals(2, reads.get());
+        }
+    }
+
+    /**
+     * Many tuples with the same key cannot be told apart by splitting, so once
+     * their bucket holds nothing else or cannot be split any more, they go to
+     * overflow pages of the bucket: the file grows by at most one page per bit
+     * the bucket is split on, plus the overflow pages.
+     */
+    @Test
+    public void testDuplicateKeys() throws Exception {
+        HashFile f = createTable();
+        int pages = f.numPages();
+        int duplicates = 3 * (BufferPool.PAGE_SIZE * 8 / (f.getTupleDesc().getSize() * 8 + 1));
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < duplicates; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, 7, i));
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(7);
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        assertEquals(expected(7), lookup(f, t.getId(), 7));
+        for (int i = 0; i < ROWS; i += 100) {
+            int key = tuples.get(i).get(0);
+            assertEquals(expected(key), lookup(f, t.getId(), key));
+        }
+        t.commit();
+        assertTrue(f.numPages() <= pages + HashDirectoryPage.getMaxDepth() + 4);
+    }
+
+    /**
+     * An abort undoes the splits of the transaction along with its tuples.
+     */
+    @Test
+    public void testAbort() throws Exception {
+        HashFile f = createTable();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS / 2; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple(f, -1 - i, i));
+        }
+        assertEquals(Collections.singletonList(5), lookup(f, t.getId(), -6));
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        SystemTestUtil.matchTuples(f, t.getId(), tuples);
+        for (int i = 0; i < ROWS; i += 40) {
+            int key = tuples.get(i).get(0);
+            assertEquals(expected(key), lookup(f, t.getId(), key));
+            assertEquals(expected(-1 - i), lookup(f, t.getId(), -1 - i));
+        }
+        t.commit();
+    }
+
+    /**
+     * The planner reads the bucket for an equality filter on the key, but
+     * cannot use the hash for a range.
+     */
+    @Test
+    public void testPlanner() throws Exception {
+        HashFile f = createTable();
+        String name = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+        int key = tuples.get(ROWS / 2).get(0);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, Integer.toString(key));
+        lp.addProjectField("*", null);
+        Transaction t = new Transaction();
+        t.start();
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexScan);
+        t.commit();
+
+        lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, Integer.toString(key));
+        lp.addProjectField("*", null);
+        t = new Transaction();
+        t.start();
+        plan = lp.physicalPlan(t.getId(), stats, false);
+        DbIterator scan = ((Operator) plan).getChildren()[0];
+        while (scan instanceof Filter) {
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        assertFalse(scan instanceof IndexScan);
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashFileTest.class);
+    }
+}
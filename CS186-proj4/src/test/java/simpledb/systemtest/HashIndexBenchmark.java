@@ -0,0 +1,155 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares point lookups on a HashFile with the same lookups on a BTreeFile
+ * holding the same tuples. For each file it reports the pages a lookup reads
+ * when nothing is cached (the directory and bucket against the root pointer,
+ * internal pages and leaf), and then the lookups per second and pages read
+ * from disk per lookup with a small buffer pool that keeps the pages used most.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ * java simpledb.systemtest.HashIndexBenchmark [rows] [lookups] [bufferPages]
+ * </pre>
+ */
+public class HashIndexBenchmark {
+    private static final int BATCH = 1000;
+    private static final int COLD_LOOKUPS = 200;
+
+    private final int rows;
+    private final int lookups;
+    private final int bufferPages;
+    private final ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+
+    // pages read from disk by the file being measured
+    private final AtomicInteger reads = new AtomicInteger();
+
+    public HashIndexBenchmark(int rows, int lookups, int bufferPages) {
+        this.rows = rows;
+        this.lookups = lookups;
+        this.bufferPages = bufferPages;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int bufferPages = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        HashIndexBenchmark bench = new HashIndexBenchmark(rows, lookups, bufferPages);
+        BTreeUtility.generateRandomTuples(2, rows, 4 * rows, null, bench.tuples);
+
+        Database.reset();
+        DbFile tree = bench.load(false);
+        DbFile hash = bench.load(true);
+
+        System.out.printf("%-10s %8s %16s %12s %16s%n", "file", "pages", "pages/lookup", "lookup/s", "disk reads/lookup");
+        for (DbFile f : new DbFile[]{tree, hash}) {
+            // warm up the JIT so the first file is not penalised
+            bench.run(f, bench.lookups / 10);
+            double cold = bench.cold(f);
+            double[] warm = bench.run(f, bench.lookups);
+            System.out.printf("%-10s %8d %16.2f %12.1f %16.2f%n",
+                    f.getClass().getSuperclass().getSimpleName(), f.numPages(), cold, warm[0], warm[1]);
+        }
+    }
+
+    /**
+     * Creates an empty file of either kind, keyed on the first column, and
+     * inserts the tuples through the buffer pool.
+     */
+    private DbFile load(boolean hashed) throws Exception {
+        File file = File.createTempFile(hashed ? "hash" : "btree", ".dat");
+        file.deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2, "c");
+        DbFile f;
+        if (hashed) {
+            f = new HashFile(file, 0, td) {
+                @Override
+                public Page readPage(PageId pid) {
+                    reads.incrementAndGet();
+                    return super.readPage(pid);
+                }
+            };
+        } else {
+            f = new BTreeFile(file, 0, td) {
+                @Override
+                public Page readPage(PageId pid) {
+                    reads.incrementAndGet();
+                    return super.readPage(pid);
+                }
+            };
+        }
+        Database.getCatalog().addTable(f, UUID.randomUUID().toString());
+        // every tuple of a batch may dirty a different page
+        Database.resetBufferPool(2 * BATCH);
+        for (int i = 0; i < tuples.size(); i += BATCH) {
+            Transaction t = new Transaction();
+            t.start();
+            for (ArrayList<Integer> values : tuples.subList(i, Math.min(i + BATCH, tuples.size()))) {
+                Tuple tuple = new Tuple(td);
+                tuple.setField(0, new IntField(values.get(0)));
+                tuple.setField(1, new IntField(values.get(1)));
+                Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple);
+            }
+            t.commit();
+        }
+        return f;
+    }
+
+    /**
+     * @return the average number of pages a lookup reads with nothing cached
+     */
+    private double cold(DbFile f) throws Exception {
+        Random r = new Random(1);
+        int total = 0;
+        for (int i = 0; i < COLD_LOOKUPS; i++) {
+            Database.resetBufferPool(bufferPages);
+            reads.set(0);
+            lookup(f, tuples.get(r.nextInt(tuples.size())).get(0));
+            total += reads.get();
+        }
+        return (double) total / COLD_LOOKUPS;
+    }
+
+    /**
+     * Looks up n keys, half of them present in the file, in a buffer pool of
+     * bufferPages pages.
+     *
+     * @return lookups per second and pages read from disk per lookup
+     */
+    public double[] run(DbFile f, int n) throws Exception {
+        Database.resetBufferPool(bufferPages);
+        reads.set(0);
+        Random r = new Random(2);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            int key = i % 2 == 0 ? tuples.get(r.nextInt(tuples.size())).get(0) : r.nextInt(4 * rows);
+            lookup(f, key);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new double[]{n / seconds, (double) reads.get() / n};
+    }
+
+    private static int lookup(DbFile f, int key) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        IndexScan scan = new IndexScan(t.getId(), f.getId(), "t",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+        int found = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            found++;
+        }
+        scan.close();
+        t.commit();
+        return found;
+    }
+}
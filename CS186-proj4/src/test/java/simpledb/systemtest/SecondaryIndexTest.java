@@ -0,0 +1,423 @@
+package simpledb.systemtest;
+
+import org.junit.Test;
+import simpledb.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int COLUMNS = 6;
+    private static final int[] ALL = {0, 1, 2, 3, 4, 5};
+
+    // a heap table with columns c0 to c5, and an index keyed on c1 and then c0
+    private HeapFile table;
+    private SecondaryIndex index;
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+
+    private void createTable() throws IOException, DbException, TransactionAbortedException {
+        table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 10 * ROWS, null, tuples, "c");
+        File file = File.createTempFile("index", ".dat");
+        file.deleteOnExit();
+        index = new SecondaryIndex(file, "t_c1_c0", table.getId(), new int[]{1, 0}, new int[0]);
+        Database.getCatalog().addIndex(index);
+        Transaction t = new Transaction();
+        t.start();
+        index.build(t.getId(), 1.0);
+        t.commit();
+    }
+
+    private static List<List<Integer>> rows(DbIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<List<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            List<Integer> row = new ArrayList<Integer>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                row.add(((IntField) t.getField(i)).getValue());
+            }
+            rows.add(row);
+        }
+        it.close();
+        Collections.sort(rows, ROW_ORDER);
+        return rows;
+    }
+
+    private static final Comparator<List<Integer>> ROW_ORDER = new Comparator<List<Integer>>() {
+        @Override
+        public int compare(List<Integer> a, List<Integer> b) {
+            for (int i = 0; i < a.size(); i++) {
+                int c = a.get(i).compareTo(b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    };
+
+    // the rows of the table that pass c1 op v1 and c0 op0 v0, reduced to the given columns
+    private List<List<Integer>> expected(Predicate.Op op, int v1, Predicate.Op op0, int v0, int... columns) {
+        List<List<Integer>> rows = new ArrayList<List<Integer>>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (new IntField(tuple.get(1)).compare(op, new IntField(v1))
+                    && (op0 == null || new IntField(tuple.get(0)).compare(op0, new IntField(v0)))) {
+                List<Integer> row = new ArrayList<Integer>();
+                for (int column : columns) {
+                    row.add(tuple.get(column));
+                }
+                rows.add(row);
+            }
+        }
+        Collections.sort(rows, ROW_ORDER);
+        return rows;
+    }
+
+    /**
+     * Scans through the index return the tuples of the table that match, both
+     * when fetching them from the table and when only reading the columns the
+     * index stores, and check predicates on the second key column in the index.
+     */
+    @Test
+    public void testScans() throws Exception {
+        createTable();
+        int v1 = tuples.get(ROWS / 2).get(1);
+        int v0 = tuples.get(ROWS / 2).get(0);
+        Transaction t = new Transaction();
+        t.start();
+        List<Predicate> none = new ArrayList<Predicate>();
+        assertEquals(expected(Predicate.Op.EQUALS, v1, null, 0, ALL),
+                rows(new IndexScan(t.getId(), index, "t", new IndexPredicate(Predicate.Op.EQUALS, new IntField(v1)), none, false)));
+        assertEquals(expected(Predicate.Op.LESS_THAN, v1, null, 0, ALL),
+                rows(new IndexScan(t.getId(), index, "t", new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(v1)), none, false)));
+
+        List<Predicate> onC0 = new ArrayList<Predicate>();
+        onC0.add(new Predicate(index.indexOf(0), Predicate.Op.GREATER_THAN_OR_EQ, new IntField(v0)));
+        assertEquals(expected(Predicate.Op.GREATER_THAN, v1 / 2, Predicate.Op.GREATER_THAN_OR_EQ, v0, ALL),
+                rows(new IndexScan(t.getId(), index, "t", new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(v1 / 2)), onC0, false)));
+
+        IndexScan indexOnly = new IndexScan(t.getId(), index, "t", new IndexPredicate(Predicate.Op.LESS_THAN_OR_EQ, new IntField(v1)), onC0, true);
+        assertEquals(2, indexOnly.getTupleDesc().numFields());
+        assertEquals("t.c0", indexOnly.getTupleDesc().getFieldName(0));
+        assertEquals("t.c1", indexOnly.getTupleDesc().getFieldName(1));
+        assertEquals(expected(Predicate.Op.LESS_THAN_OR_EQ, v1, Predicate.Op.GREATER_THAN_OR_EQ, v0, 0, 1), rows(indexOnly));
+        t.commit();
+    }
+
+    // predicates on the first key columns of the index, for IndexScan
+    private static List<IndexPredicate> keyPreds(Predicate.Op op1, int v1, Predicate.Op op0, int v0) {
+        List<IndexPredicate> preds = new ArrayList<IndexPredicate>();
+        preds.add(new IndexPredicate(op1, new IntField(v1)));
+        if (op0 != null) {
+            preds.add(new IndexPredicate(op0, new IntField(v0)));
+        }
+        return preds;
+    }
+
+    /**
+     * Predicates on both key columns seek to the entries of one value of c1
+     * and a range of c0, with both strict and inclusive bounds, and predicates
+     * that are not an equality followed by a range are refused.
+     */
+    @Test
+    public void testPrefixSeek() throws Exception {
+        createTable();
+        int v1 = tuples.get(ROWS / 2).get(1);
+        int v0 = tuples.get(ROWS / 2).get(0);
+        Transaction t = new Transaction();
+        t.start();
+        List<Predicate> none = new ArrayList<Predicate>();
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+        for (Predicate.Op op : ops) {
+            assertEquals(expected(Predicate.Op.EQUALS, v1, op, v0, ALL),
+                    rows(new IndexScan(t.getId(), index, "t", keyPreds(Predicate.Op.EQUALS, v1, op, v0), none, false)));
+        }
+        assertEquals(expected(Predicate.Op.EQUALS, v1, Predicate.Op.LESS_THAN, v0, 0, 1),
+                rows(new IndexScan(t.getId(), index, "t",
+                        keyPreds(Predicate.Op.EQUALS, v1, Predicate.Op.LESS_THAN, v0), none, true)));
+        assertEquals(expected(Predicate.Op.EQUALS, Integer.MIN_VALUE, null, 0, ALL),
+                rows(new IndexScan(t.getId(), index, "t",
+                        keyPreds(Predicate.Op.EQUALS, Integer.MIN_VALUE, Predicate.Op.GREATER_THAN, -1), none, false)));
+        try {
+            new IndexScan(t.getId(), index, "t", keyPreds(Predicate.Op.LESS_THAN, v1, Predicate.Op.EQUALS, v0), none, false);
+            fail("expected a range on c1 followed by a predicate on c0 to be refused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        t.commit();
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool keep the index in step with
+     * the table, and an abort rolls back both.
+     */
+    @Test
+    public void testMaintainedByBufferPool() throws Exception {
+        createTable();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS / 2; i++) {
+            Tuple tuple = new Tuple(table.getTupleDesc());
+            ArrayList<Integer> values = new ArrayList<Integer>();
+            for (int j = 0; j < COLUMNS; j++) {
+                values.add(i * 7 % 1000 + j);
+                tuple.setField(j, new IntField(values.get(j)));
+            }
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), tuple);
+            tuples.add(values);
+        }
+        t.commit();
+
+        // deleting a third of the rows dirties every page of the table and most
+        // leaves of the index, more than the pool can hold until a commit under
+        // NO STEAL, so the rows on each half of the table go in their own transaction
+        List<Tuple> victims = victims();
+        for (int half = 0; half < 2; half++) {
+            t = new Transaction();
+            t.start();
+            for (Tuple victim : victims) {
+                if ((victim.getRecordId().getPageId().pageNumber() < table.numPages() / 2) == (half == 0)) {
+                    Database.getBufferPool().deleteTuple(t.getId(), victim);
+                    ArrayList<Integer> values = new ArrayList<Integer>();
+                    for (int j = 0; j < COLUMNS; j++) {
+                        values.add(((IntField) victim.getField(j)).getValue());
+                    }
+                    tuples.remove(values);
+                }
+            }
+            t.commit();
+        }
+
+        List<List<Integer>> all = expected(Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE, null, 0, ALL);
+        t = new Transaction();
+        t.start();
+        assertEquals(all, rows(new SeqScan(t.getId(), table.getId(), "t")));
+        assertEquals(all, rows(new IndexScan(t.getId(), index, "t", new ArrayList<IndexPredicate>(), new ArrayList<Predicate>(), false)));
+        BTreeChecker.checkRep(index.getFile(), t.getId(), new HashMap<PageId, Page>(), true);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        Tuple tuple = new Tuple(table.getTupleDesc());
+        for (int j = 0; j < COLUMNS; j++) {
+            tuple.setField(j, new IntField(-1));
+        }
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(), tuple);
+        t.transactionComplete(true);
+
+        t = new Transaction();
+        t.start();
+        assertEquals(all, rows(new IndexScan(t.getId(), index, "t", new ArrayList<IndexPredicate>(), new ArrayList<Predicate>(), false)));
+        t.commit();
+    }
+
+    // every third tuple of the table
+    private List<Tuple> victims() throws IOException, DbException, TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        List<Tuple> victims = new ArrayList<Tuple>();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple tuple = it.next();
+            if (i % 3 == 0) {
+                victims.add(tuple);
+            }
+        }
+        it.close();
+        t.commit();
+        return victims;
+    }
+
+    /**
+     * A transaction that dirties more pages than the buffer pool holds fails,
+     * even half way through changing the index, and aborting it rolls back
+     * the table and the index together.
+     */
+    @Test
+    public void testPoolFullOfDirtyPages() throws Exception {
+        createTable();
+        List<List<Integer>> all = expected(Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE, null, 0, ALL);
+        List<Tuple> victims = victims();
+        Database.resetBufferPool(10);
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            for (Tuple victim : victims) {
+                Database.getBufferPool().deleteTuple(t.getId(), victim);
+            }
+            fail("expected the buffer pool to run out of pages");
+        } catch (DbException e) {
+            t.transactionComplete(true);
+        }
+
+        t = new Transaction();
+        t.start();
+        assertEquals(all, rows(new SeqScan(t.getId(), table.getId(), "t")));
+        assertEquals(all, rows(new IndexScan(t.getId(), index, "t", new ArrayList<IndexPredicate>(), new ArrayList<Predicate>(), false)));
+        BTreeChecker.checkRep(index.getFile(), t.getId(), new HashMap<PageId, Page>(), true);
+        t.commit();
+    }
+
+    /**
+     * The planner answers a query from the index alone when the index stores
+     * every column it reads, fetches from the table when the query needs more
+     * and the filter is selective, and keeps the sequential scan for filters
+     * the index cannot help with.
+     */
+    @Test
+    public void testPlanner() throws Exception {
+        createTable();
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        int v1 = tuples.get(ROWS / 3).get(1);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.LESS_THAN, Integer.toString(v1));
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        Transaction t = new Transaction();
+        t.start();
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        DbIterator scan = ((Operator) plan).getChildren()[0];
+        assertTrue(scan instanceof IndexScan);
+        assertTrue(((IndexScan) scan).isIndexOnly());
+        assertEquals(expected(Predicate.Op.LESS_THAN, v1, null, 0, 0, 1), rows(plan));
+        t.commit();
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, Integer.toString(v1));
+        lp.addProjectField("*", null);
+        t = new Transaction();
+        t.start();
+        plan = lp.physicalPlan(t.getId(), stats, false);
+        scan = ((Operator) plan).getChildren()[0];
+        assertTrue(scan instanceof IndexScan);
+        assertFalse(((IndexScan) scan).isIndexOnly());
+        assertEquals(expected(Predicate.Op.EQUALS, v1, null, 0, ALL), rows(plan));
+        t.commit();
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c2", Predicate.Op.EQUALS, Integer.toString(v1));
+        lp.addProjectField("*", null);
+        t = new Transaction();
+        t.start();
+        plan = lp.physicalPlan(t.getId(), stats, false);
+        scan = ((Operator) plan).getChildren()[0];
+        while (scan instanceof Filter) {
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        assertFalse(scan instanceof IndexScan);
+        t.commit();
+    }
+
+    /**
+     * With an equality on c1 and a range on c0, the planner seeks on both key
+     * columns of the index.
+     */
+    @Test
+    public void testPlannerSeeksOnKeyPrefix() throws Exception {
+        createTable();
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        int v1 = tuples.get(ROWS / 3).get(1);
+        int v0 = tuples.get(ROWS / 3).get(0);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN_OR_EQ, Integer.toString(v0));
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, Integer.toString(v1));
+        lp.addProjectField("*", null);
+        Transaction t = new Transaction();
+        t.start();
+        DbIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        DbIterator scan = ((Operator) plan).getChildren()[0];
+        assertTrue(scan instanceof IndexScan);
+        List<IndexPredicate> seek = ((IndexScan) scan).getKeyPredicates();
+        assertEquals(2, seek.size());
+        assertEquals(Predicate.Op.EQUALS, seek.get(0).getOp());
+        assertEquals(Predicate.Op.GREATER_THAN_OR_EQ, seek.get(1).getOp());
+        assertEquals(expected(Predicate.Op.EQUALS, v1, Predicate.Op.GREATER_THAN_OR_EQ, v0, ALL), rows(plan));
+        t.commit();
+    }
+
+    /**
+     * A composite key with a string column finds the tuples whose strings
+     * only differ after the part of them the key holds, and orders negative
+     * integers before positive ones.
+     */
+    @Test
+    public void testStringKeyColumn() throws Exception {
+        File tableFile = File.createTempFile("table", ".dat");
+        tableFile.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, new String[]{"s", "n"});
+        HeapFile strings = new HeapFile(tableFile, td);
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+        File file = File.createTempFile("index", ".dat");
+        file.deleteOnExit();
+        SecondaryIndex byString = new SecondaryIndex(file, "t_s_n", strings.getId(), new int[]{0, 1}, new int[0]);
+        Database.getCatalog().addIndex(byString);
+
+        // the key keeps 123 characters of s, so the last two values share their key
+        String longer = new String(new char[125]).replace('\0', 'x');
+        String[] values = {"a", "ab", "b", longer + "1", longer + "2"};
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 100; i++) {
+            Tuple tuple = new Tuple(td);
+            tuple.setField(0, new StringField(values[i % values.length], Type.STRING_LEN));
+            tuple.setField(1, new IntField(i - 50));
+            Database.getBufferPool().insertTuple(t.getId(), strings.getId(), tuple);
+        }
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        for (String value : values) {
+            for (int bound : new int[]{-20, 0, 20}) {
+                List<IndexPredicate> preds = new ArrayList<IndexPredicate>();
+                preds.add(new IndexPredicate(Predicate.Op.EQUALS, new StringField(value, Type.STRING_LEN)));
+                preds.add(new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(bound)));
+                List<Integer> found = new ArrayList<Integer>();
+                IndexScan scan = new IndexScan(t.getId(), byString, "t", preds, new ArrayList<Predicate>(), false);
+                scan.open();
+                while (scan.hasNext()) {
+                    Tuple tuple = scan.next();
+                    assertEquals(value, ((StringField) tuple.getField(0)).getValue());
+                    found.add(((IntField) tuple.getField(1)).getValue());
+                }
+                scan.close();
+                Collections.sort(found);
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int i = 0; i < 100; i++) {
+                    if (values[i % values.length].equals(value) && i - 50 > bound) {
+                        expected.add(i - 50);
+                    }
+                }
+                assertEquals(expected, found);
+            }
+        }
+        t.commit();
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
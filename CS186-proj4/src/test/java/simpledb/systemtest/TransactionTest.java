@@ -12,6 +12,7 @@ import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -226,6 +227,84 @@ public class TransactionTest extends SimpleDbTestBase {
         validateTransactions(10);
     }
 
+    /**
+     * A transaction that waits for the page locks of an aborting one must
+     * only get the pages after they are rolled back. Otherwise it modifies
+     * a page that is about to be reverted, and either its own deletes are
+     * lost or the aborted deletes are committed with its pages.
+     */
+    @Test public void testAbortRevertsPagesBeforeReleasingLocks()
+            throws Exception {
+        final int pages = 20;
+        for (int round = 0; round < 10; round++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+            final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+            // the first tuple of every page for t1, the second one for t2
+            final Tuple[] first = new Tuple[pages];
+            final Tuple[] second = new Tuple[pages];
+            Transaction t = new Transaction();
+            t.start();
+            DbFileIterator it = f.iterator(t.getId());
+            it.open();
+            while (it.hasNext()) {
+                Tuple tup = it.next();
+                int pageNo = tup.getRecordId().getPageId().pageNumber();
+                if (first[pageNo] == null) {
+                    first[pageNo] = tup;
+                } else if (second[pageNo] == null) {
+                    second[pageNo] = tup;
+                }
+            }
+            it.close();
+            t.commit();
+
+            Transaction t1 = new Transaction();
+            t1.start();
+            for (Tuple tup : first) {
+                bp.deleteTuple(t1.getId(), tup);
+            }
+
+            final Exception[] error = new Exception[1];
+            Thread waiter = new Thread() {
+                public void run() {
+                    try {
+                        Transaction t2 = new Transaction();
+                        t2.start();
+                        for (Tuple tup : second) {
+                            bp.deleteTuple(t2.getId(), tup);
+                        }
+                        t2.commit();
+                    } catch (Exception e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            waiter.start();
+            // let t2 block on the first page
+            Thread.sleep(50);
+            t1.transactionComplete(true);
+            waiter.join(TIMEOUT_MILLIS);
+            if (error[0] != null) {
+                throw new RuntimeException("Child thread threw an exception.", error[0]);
+            }
+
+            // only t2's deletes are left
+            t = new Transaction();
+            t.start();
+            it = f.iterator(t.getId());
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            t.commit();
+            assertEquals(504 * pages - pages, count);
+        }
+    }
+
     @Test public void testAllDirtyFails()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
@@ -247,6 +326,55 @@ public class TransactionTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    /**
+     * Concurrent commits share log forces (group commit), and each one still
+     * returns only after its commit record is on disk.
+     */
+    @Test public void testGroupCommit() throws Exception {
+        final int threads = 4;
+        // a long window: the first committer forces once all of them wait
+        Database.getLogFile().setGroupCommit(500 * 1000, threads);
+        final HeapFile[] tables = new HeapFile[threads];
+        for (int i = 0; i < threads; i++) {
+            // one table per thread, so the transactions never wait for each other's locks
+            tables[i] = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        }
+        final Exception[] errors = new Exception[threads];
+        Thread[] committers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            committers[i] = new Thread() {
+                public void run() {
+                    try {
+                        Transaction t = new Transaction();
+                        t.start();
+                        EvictionTest.insertRow(tables[n], t);
+                        t.commit();
+                    } catch (Exception e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+            committers[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            committers[i].join();
+            if (errors[i] != null) {
+                throw errors[i];
+            }
+        }
+        assertEquals(threads, Database.getLogFile().getGroupCommittedCount());
+        long forces = Database.getLogFile().getCommitForceCount();
+        assertTrue(forces >= 1 && forces < threads);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (HeapFile table : tables) {
+            assertTrue(EvictionTest.findMagicTuple(table, t));
+        }
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(TransactionTest.class);
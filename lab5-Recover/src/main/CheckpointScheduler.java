@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.io.IOException;
+
+//在后台线程中定期做checkPoint并截断日志，见LogFile.startCheckpointScheduler()
+//自上次checkPoint以来写入的日志超过maxLogBytes，或者距上次checkPoint超过intervalMillis时触发
+//LogFile在追加记录时调用logGrew()，不会等待checkPoint完成，所以前台事务不会因为checkPoint阻塞
+//锁的顺序是先LogFile后this，本线程调用LogFile时不持有this的锁
+//设置了LogArchiver时，每次checkPoint之后归档日志段，见LogArchiver.checkpointTaken()
+class CheckpointScheduler extends Thread {
+    private final LogFile log;
+    private final long maxLogBytes;
+    private final long intervalMillis;
+
+    //以下字段都受this的锁保护
+    private boolean requested = false;
+    private boolean stopped = false;
+    private long checkpoints = 0;
+
+    CheckpointScheduler(LogFile log, long maxLogBytes, long intervalMillis) {
+        super("checkpoint-scheduler");
+        if (maxLogBytes < 0 || intervalMillis < 0) {
+            throw new IllegalArgumentException("bad checkpoint threshold " + maxLogBytes + " bytes or " + intervalMillis + " ms");
+        }
+        this.log = log;
+        this.maxLogBytes = maxLogBytes;
+        this.intervalMillis = intervalMillis;
+        setDaemon(true);
+    }
+
+    /**
+     * 追加日志记录时调用
+     *
+     * @param bytesSinceCheckpoint 自上次checkPoint以来写入的日志的字节数
+     */
+    synchronized void logGrew(long bytesSinceCheckpoint) {
+        if (maxLogBytes > 0 && bytesSinceCheckpoint >= maxLogBytes && !requested) {
+            requested = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 让线程在当前的checkPoint完成后退出，不等待它退出
+     */
+    synchronized void shutdown() {
+        stopped = true;
+        notifyAll();
+    }
+
+    synchronized long getCheckpointCount() {
+        return checkpoints;
+    }
+
+    @Override
+    public void run() {
+        while (awaitNextCheckpoint()) {
+            try {
+                log.logCheckpoint();
+                //先归档再截断，logTruncate()不会删除还没有归档的段
+                LogArchiver archiver = log.getArchiver();
+                if (archiver != null) {
+                    archiver.checkpointTaken();
+                }
+                log.logTruncate();
+            } catch (IOException e) {
+                //下一次checkPoint再试
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                checkpoints++;
+            }
+        }
+    }
+
+    //等到该做checkPoint的时候，返回false表示已经停止
+    private synchronized boolean awaitNextCheckpoint() {
+        long deadline = intervalMillis > 0 ? System.currentTimeMillis() + intervalMillis : Long.MAX_VALUE;
+        while (!stopped && !requested) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                wait(intervalMillis > 0 ? remaining : 0);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        requested = false;
+        return !stopped;
+    }
+}
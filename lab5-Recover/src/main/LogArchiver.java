@@ -0,0 +1,302 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+//日志归档和按时间点恢复(point-in-time restore)
+//归档目录中有两种内容：
+//  segment-<起始LSN>：写满的日志段的副本，段写满之后内容不再改变
+//  base-<checkPoint的LSN>/：表文件的基础快照，manifest记录快照的checkPoint、结束LSN、时间以及每个表文件的原路径
+//快照是fuzzy的：先做checkPoint再复制表文件，复制期间其他事务可以继续写页，
+//恢复时从这个checkPoint开始像崩溃恢复一样重做和撤销，所以复制出的文件不需要对应某个时刻，
+//但只能恢复到快照结束之后的位置，因为复制到的页可能包含快照结束前写入的任何更新
+//设置为LogFile的归档器后，LogFile.logTruncate()不会删除还没有归档的段
+//锁的顺序是先this后LogFile
+public class LogArchiver {
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SNAPSHOT_PREFIX = "base-";
+    static final String MANIFEST = "manifest";
+
+    private final LogFile log;
+    private final File dir;
+    //每做多少次checkPoint做一次快照，0表示不自动做快照
+    private int snapshotInterval = 0;
+    private int checkpointsSinceSnapshot = 0;
+    //这个LSN之前的段都已经归档，logTruncate()在持有LogFile的锁时读取，所以不用this的锁保护
+    private volatile long archivedLSN = 0;
+
+    /**
+     * @param log 要归档的日志
+     * @param dir 归档目录，不存在时创建
+     */
+    public LogArchiver(LogFile log, File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create log archive " + dir);
+        }
+        this.log = log;
+        this.dir = dir;
+    }
+
+    /**
+     * 设置CheckpointScheduler每做多少次checkPoint做一次快照
+     *
+     * @param checkpoints 0表示不自动做快照
+     */
+    public synchronized void setSnapshotInterval(int checkpoints) {
+        if (checkpoints < 0) {
+            throw new IllegalArgumentException("bad snapshot interval " + checkpoints);
+        }
+        snapshotInterval = checkpoints;
+    }
+
+    long getArchivedLSN() {
+        return archivedLSN;
+    }
+
+    //CheckpointScheduler在每次checkPoint之后、截断日志之前调用
+    synchronized void checkpointTaken() throws IOException {
+        archive();
+        if (snapshotInterval > 0 && ++checkpointsSinceSnapshot >= snapshotInterval) {
+            checkpointsSinceSnapshot = 0;
+            snapshot();
+        }
+    }
+
+    /**
+     * 复制所有写满的、还没有归档的段，最后一个段还在写，不复制
+     *
+     * @return 复制的段数
+     */
+    public synchronized int archive() throws IOException {
+        //写满的段不会再改变，也不会在归档之前被删除，所以不需要持有LogFile的锁复制
+        SortedMap<Long, File> files = log.getSegmentFiles();
+        List<Long> starts = new ArrayList<>(files.keySet());
+        int copied = 0;
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            long start = starts.get(i);
+            File target = segmentFile(start);
+            if (!target.exists()) {
+                copyAtomically(files.get(start), target);
+                copied++;
+            }
+            archivedLSN = starts.get(i + 1);
+        }
+        return copied;
+    }
+
+    /**
+     * 做一次checkPoint，然后把目录中的每个表文件复制到新的快照中
+     *
+     * @return 快照的checkPoint的LSN
+     */
+    public synchronized long snapshot() throws IOException {
+        log.logCheckpoint();
+        long checkpoint = log.getLastCheckpoint();
+        File snapshotDir = new File(dir, SNAPSHOT_PREFIX + String.format("%016x", checkpoint));
+        File tmp = new File(dir, snapshotDir.getName() + ".tmp");
+        deleteRecursively(tmp);
+        if (!tmp.mkdirs()) {
+            throw new IOException("cannot create " + tmp);
+        }
+        Properties manifest = new Properties();
+        int n = 0;
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            File table = tableFile(Database.getCatalog().getDatabaseFile(it.next()));
+            String copy = n + "-" + table.getName();
+            Files.copy(table.toPath(), new File(tmp, copy).toPath());
+            manifest.setProperty("file." + n + ".copy", copy);
+            manifest.setProperty("file." + n + ".path", table.getAbsolutePath());
+            n++;
+        }
+        manifest.setProperty("files", Integer.toString(n));
+        manifest.setProperty("checkpoint", Long.toString(checkpoint));
+        //先取结束LSN再取时间：结束LSN之前提交的事务的提交时间都不晚于快照的时间
+        manifest.setProperty("end", Long.toString(log.getCurrentLSN()));
+        manifest.setProperty("time", Long.toString(System.currentTimeMillis()));
+        try (OutputStream out = new FileOutputStream(new File(tmp, MANIFEST))) {
+            manifest.store(out, "SimpleDB base snapshot");
+        }
+        //重命名之后快照才可见，复制到一半崩溃只会留下.tmp目录
+        Files.move(tmp.toPath(), snapshotDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return checkpoint;
+    }
+
+    private static File tableFile(DbFile f) throws IOException {
+        if (f instanceof HeapFile) {
+            return ((HeapFile) f).getFile();
+        }
+        if (f instanceof BTreeFile) {
+            return ((BTreeFile) f).getFile();
+        }
+        throw new IOException("cannot snapshot table file " + f.getClass().getName());
+    }
+
+    /**
+     * 从归档中恢复数据库，重放lsn之前的日志，之后的事务全部丢掉，
+     * 恢复后的日志从lsn之前最后一条记录之后继续
+     * 代替LogFile.recover()，在数据库启动后、目录加载完、运行任何事务之前调用
+     *
+     * @param lsn
+     * @return 恢复后日志的结束位置
+     */
+    public long restore(long lsn) throws IOException {
+        return restore(lsn, Long.MAX_VALUE);
+    }
+
+    /**
+     * 从归档中恢复数据库到timeMillis时的状态：提交时间晚于timeMillis的第一个事务及之后的日志都被丢掉
+     * 和restore(long)一样代替LogFile.recover()
+     *
+     * @param timeMillis 和System.currentTimeMillis()相同的时间
+     * @return 恢复后日志的结束位置
+     */
+    public long restoreToTime(long timeMillis) throws IOException {
+        return restore(Long.MAX_VALUE, timeMillis);
+    }
+
+    private synchronized long restore(long lsn, long timeMillis) throws IOException {
+        //选择在目标之前结束的最晚的快照
+        Properties base = null;
+        for (Properties snapshot : snapshots().values()) {
+            if (Long.parseLong(snapshot.getProperty("end")) <= lsn
+                    && Long.parseLong(snapshot.getProperty("time")) <= timeMillis) {
+                base = snapshot;
+            }
+        }
+        if (base == null) {
+            throw new IOException("no base snapshot in " + dir + " ends before the restore target");
+        }
+        File snapshotDir = new File(dir, SNAPSHOT_PREFIX + String.format("%016x", Long.parseLong(base.getProperty("checkpoint"))));
+        int n = Integer.parseInt(base.getProperty("files"));
+        for (int i = 0; i < n; i++) {
+            overwrite(new File(snapshotDir, base.getProperty("file." + i + ".copy")),
+                    new File(base.getProperty("file." + i + ".path")));
+        }
+        long end = log.restore(segments(), Long.parseLong(base.getProperty("checkpoint")), lsn, timeMillis);
+        abandonAfter(end);
+        return end;
+    }
+
+    //覆盖表文件的内容，而不是替换文件，已经打开这个文件的HeapFile仍然有效
+    private static void overwrite(File from, File to) throws IOException {
+        try (FileChannel in = new FileInputStream(from).getChannel();
+             RandomAccessFile raf = new RandomAccessFile(to, "rw")) {
+            FileChannel out = raf.getChannel();
+            out.truncate(0);
+            for (long pos = 0, size = in.size(); pos < size; ) {
+                pos += out.transferFrom(in, pos, size - pos);
+            }
+        }
+    }
+
+    //恢复之后日志从end开始是新的历史，把归档中描述旧历史的段和快照移到abandoned-<end>目录，
+    //否则旧的段会占用新历史中相同起始LSN的段的名字
+    private void abandonAfter(long end) throws IOException {
+        File abandoned = new File(dir, "abandoned-" + String.format("%016x", end));
+        List<File> moved = new ArrayList<>();
+        SortedMap<Long, File> segments = segments();
+        for (Map.Entry<Long, File> e : segments.entrySet()) {
+            if (e.getKey() + e.getValue().length() > end) {
+                moved.add(e.getValue());
+            }
+        }
+        for (Map.Entry<Long, Properties> e : snapshots().entrySet()) {
+            if (Long.parseLong(e.getValue().getProperty("end")) > end) {
+                moved.add(new File(dir, SNAPSHOT_PREFIX + String.format("%016x", e.getKey())));
+            }
+        }
+        if (moved.isEmpty()) {
+            return;
+        }
+        if (!abandoned.isDirectory() && !abandoned.mkdirs()) {
+            throw new IOException("cannot create " + abandoned);
+        }
+        for (File f : moved) {
+            Files.move(f.toPath(), new File(abandoned, f.getName()).toPath());
+        }
+    }
+
+    //起始LSN到归档的段文件
+    private SortedMap<Long, File> segments() {
+        SortedMap<Long, File> segments = new TreeMap<>();
+        for (File f : list()) {
+            Long start = parseLSN(f.getName(), SEGMENT_PREFIX);
+            if (start != null && f.isFile()) {
+                segments.put(start, f);
+            }
+        }
+        return segments;
+    }
+
+    //checkPoint的LSN到完整的快照的manifest
+    private SortedMap<Long, Properties> snapshots() throws IOException {
+        SortedMap<Long, Properties> snapshots = new TreeMap<>();
+        for (File f : list()) {
+            Long checkpoint = parseLSN(f.getName(), SNAPSHOT_PREFIX);
+            File manifest = new File(f, MANIFEST);
+            if (checkpoint != null && manifest.isFile()) {
+                Properties p = new Properties();
+                try (InputStream in = new FileInputStream(manifest)) {
+                    p.load(in);
+                }
+                snapshots.put(checkpoint, p);
+            }
+        }
+        return snapshots;
+    }
+
+    private File[] list() {
+        File[] files = dir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private static Long parseLSN(String name, String prefix) {
+        if (!name.startsWith(prefix) || name.length() != prefix.length() + 16) {
+            return null;
+        }
+        try {
+            return Long.parseUnsignedLong(name.substring(prefix.length()), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private File segmentFile(long start) {
+        return new File(dir, SEGMENT_PREFIX + String.format("%016x", start));
+    }
+
+    //先复制到临时文件再重命名，归档中不会出现复制到一半的段
+    private static void copyAtomically(File from, File to) throws IOException {
+        File tmp = new File(to.getPath() + ".tmp");
+        Files.copy(from.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteRecursively(File f) throws IOException {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        if (!f.delete() && f.exists()) {
+            throw new IOException("cannot delete " + f);
+        }
+    }
+}
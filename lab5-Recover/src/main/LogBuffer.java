@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+//日志的内存缓冲区：日志记录先序列化到缓冲区中，缓冲区满了或者需要刷盘时再一次写入日志的段文件
+//LSN(log sequence number)就是日志中的字节位置，缓冲区中的记录虽然还没写入文件，也已经有了确定的LSN
+//除了flushedLSN，所有方法都需要调用者持有LogFile的锁
+class LogBuffer {
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    //可以直接访问内部数组的ByteArrayOutputStream，避免写文件时复制
+    private static class Bytes extends ByteArrayOutputStream {
+        Bytes(int size) {
+            super(size);
+        }
+
+        ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private final int capacity;
+    private final Bytes pending;
+    //记录序列化到这里
+    final DataOutputStream out;
+
+    private LogSegments segments;
+    //已经写入文件（不一定已经刷盘）的日志的结束位置
+    private long writtenLSN;
+    //已经刷盘的日志的结束位置，读取时不需要持有锁
+    private volatile long flushedLSN;
+
+    LogBuffer(int capacity) {
+        this.capacity = capacity;
+        pending = new Bytes(capacity);
+        out = new DataOutputStream(pending);
+    }
+
+    /**
+     * 从endOfLog开始向segments追加日志，之前的内容都视为已经刷盘
+     * 打开日志或者丢掉日志末尾的内容后调用
+     *
+     * @param segments
+     * @param endOfLog
+     */
+    void reset(LogSegments segments, long endOfLog) {
+        this.segments = segments;
+        pending.reset();
+        writtenLSN = endOfLog;
+        flushedLSN = endOfLog;
+    }
+
+    /**
+     * @return 下一条日志记录的LSN
+     */
+    long endLSN() {
+        return writtenLSN + pending.size();
+    }
+
+    /**
+     * @return 已经写入文件的日志的结束位置，读取这之前的日志不需要先调用write()
+     */
+    long getWrittenLSN() {
+        return writtenLSN;
+    }
+
+    long getFlushedLSN() {
+        return flushedLSN;
+    }
+
+    /**
+     * 一条记录序列化完成后调用，缓冲区满了就写入文件
+     */
+    void recordAppended() throws IOException {
+        if (pending.size() >= capacity) {
+            write();
+        }
+    }
+
+    /**
+     * 将缓冲区中的日志写入文件（不刷盘），读取日志文件之前需要调用
+     *
+     * @return 已经写入文件的日志的结束位置
+     */
+    long write() throws IOException {
+        if (pending.size() > 0) {
+            ByteBuffer bb = pending.wrap();
+            segments.write(bb, writtenLSN);
+            writtenLSN += bb.limit();
+            pending.reset();
+        }
+        return writtenLSN;
+    }
+
+    /**
+     * 保证lsn之前的日志都已经刷盘，只写入和刷新需要的部分
+     *
+     * @param lsn
+     */
+    void force(long lsn) throws IOException {
+        if (flushedLSN >= lsn) {
+            return;
+        }
+        long target = write();
+        segments.force(flushedLSN, target);
+        markFlushed(target);
+    }
+
+    /**
+     * 在锁外刷盘完成后调用，见GroupCommit
+     *
+     * @param lsn 刷盘之前已经写入文件的日志的结束位置
+     */
+    void markFlushed(long lsn) {
+        if (lsn > flushedLSN) {
+            flushedLSN = lsn;
+        }
+    }
+}
@@ -2,8 +2,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
-import java.lang.reflect.*;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -39,33 +40,63 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
+<li> The log file itself only holds a long integer: the offset of the
 last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records are kept in segment files next to it, named after
+the log file plus the offset (LSN) of their first byte in 16 hex
+digits.  Offsets run on across segments and never change; truncating
+the log deletes whole segments (see LogSegments).  Log records are
+variable length, and one may continue from one segment into the next.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record begins with an integer type, a long integer
+transaction id, and a long integer prevLSN: the offset of the previous
+record of the same transaction, or -1 for its first record.  Rollback
+follows these pointers backwards instead of scanning the log.
 
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, DELTA, and COMPENSATION
 
-<li> ABORT, COMMIT, and BEGIN records contain no additional data
+<li> ABORT and BEGIN records contain no additional data.  COMMIT
+records hold the commit time as a long integer (milliseconds, as
+System.currentTimeMillis()), which LogArchiver.restoreToTime() uses to
+find where to stop.
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  Pages and page ids are
+written with a one-byte type tag instead of their class names; see
+PageCodecs.
+
+<li>DELTA RECORDS replace UPDATE records for pages whose size and
+class do not change.  They hold the page id and only the byte ranges
+that differ from the image the page had at the transaction's previous
+update record (or from the before image), each with its old and new
+bytes; see PageDelta.  Redo and undo set whole ranges, so they can be
+repeated safely.
+
+<li>COMPENSATION RECORDS (CLRs) are written by rollback, one for each
+update it undoes.  They hold a long integer undoNextLSN, the prevLSN of
+the record that was undone, then a boolean that is true if a page
+delta follows (the undone delta, inverted) and false if a page follows
+(the before image of the undone UPDATE record).  CLRs are redone but
+never undone; a rollback that meets one continues at its undoNextLSN,
+so work undone before a crash or an earlier abort attempt is not undone
+again.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+as a long integer transaction id, a long integer first record offset and
+a long integer last record offset for each active transaction.  They are followed by the dirty page
+table: an integer count of pages, and for each page its id (see
+PageCodecs) and a long integer recLSN, the offset of the first update
+record that may not be reflected in the page on disk yet.  Checkpoints
+are fuzzy: pages are not flushed when one is taken.
 
 </ul>
 
@@ -74,7 +105,9 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
+    // holds the checkpoint pointer; the records live in segments
     private RandomAccessFile raf;
+    private final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,7 +115,10 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int COMPENSATION_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
+    static final long NO_PREV_LSN = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
@@ -92,6 +128,50 @@ public class LogFile {
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    // offset of each live transaction's last record, the head of its
+    // prevLSN chain
+    HashMap<Long,Long> tidToLastLogRecord = new HashMap<Long,Long>();
+
+    // records are serialized into this buffer and appended to the file
+    // in large writes; an LSN is the byte offset of a record in the log
+    private final LogBuffer buffer = new LogBuffer(LogBuffer.DEFAULT_CAPACITY);
+
+    // LSN of the last update record or CLR logged for each page (its
+    // pageLSN).  Page and BufferPool belong to the rest of the tree, so
+    // the table lives here; a page may be written to disk once
+    // force(getPageLSN(pid)) has returned.  An entry is dropped once the
+    // page has been written and its record is on disk (see
+    // forgetDurablePageLSN)
+    HashMap<PageId,Long> pageLSNs = new HashMap<PageId,Long>();
+
+    // dirty page table: for each page with update records that may not
+    // be on disk yet, the LSN of the first of them (its recLSN).  Under
+    // FORCE a transaction's pages are written before logCommit(), and
+    // rollback writes pages directly, so entries go away when the
+    // transaction that logged them ends, or earlier via pageFlushed()
+    HashMap<PageId,Long> recLSNs = new HashMap<PageId,Long>();
+
+    // page data as of the last update record of a live transaction;
+    // the next delta record for the page is taken against it, so that
+    // replaying a transaction's deltas in order reproduces the page
+    HashMap<PageId,byte[]> loggedImages = new HashMap<PageId,byte[]>();
+    HashMap<Long,List<PageId>> tidToLoggedPages = new HashMap<Long,List<PageId>>();
+
+    // offset of the last checkpoint record, or NO_CHECKPOINT_ID
+    private long lastCheckpoint = NO_CHECKPOINT_ID;
+    // takes checkpoints in the background, see startCheckpointScheduler()
+    private CheckpointScheduler scheduler;
+    // copies segments away before logTruncate() deletes them, see setArchiver()
+    private LogArchiver archiver;
+
+    // threads used by the redo pass of recover()
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    // commits arriving together share one log force, see setGroupCommit()
+    static final long DEFAULT_GROUP_COMMIT_WINDOW_MICROS = 0;
+    static final int DEFAULT_GROUP_COMMIT_BATCH = 64;
+    private final GroupCommit groupCommit = new GroupCommit(this,
+            DEFAULT_GROUP_COMMIT_WINDOW_MICROS * 1000, DEFAULT_GROUP_COMMIT_BATCH);
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -107,6 +187,8 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	    this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, LogSegments.DEFAULT_SEGMENT_SIZE);
+        buffer.reset(segments, segments.getEndLSN());
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -127,11 +209,14 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.clear();
+            buffer.reset(segments, 0);
+            writeCheckpointPointer(NO_CHECKPOINT_ID);
+            currentOffset = buffer.endLSN();
+        }
+        if (scheduler != null) {
+            long since = lastCheckpoint == NO_CHECKPOINT_ID ? segments.getStartLSN() : lastCheckpoint;
+            scheduler.logGrew(currentOffset - since);
         }
     }
 
@@ -157,141 +242,215 @@ public class LogFile {
                 // must do this here, since rollback only works for
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                DataOutputStream out = buffer.out;
+                writeHeader(out, ABORT_RECORD, tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = buffer.endLSN();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLastLogRecord.remove(tid.getId());
+                forgetLoggedImages(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  Commits that arrive at about the
+        same time share a single force (group commit); this call
+        returns once the force covering its record has completed.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long commitEnd;
+        List<PageId> pids;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            DataOutputStream out = buffer.out;
+            writeHeader(out, COMMIT_RECORD, tid.getId());
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(currentOffset);
+            currentOffset = buffer.endLSN();
+            buffer.recordAppended();
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToLastLogRecord.remove(tid.getId());
+            pids = forgetLoggedImages(tid.getId());
+            commitEnd = currentOffset;
+        }
+        //must not hold the log lock here, or no other commit could join the batch
+        groupCommit.awaitDurable(commitEnd);
+        //the transaction's pages were written before logCommit() and its
+        //records are now on disk, so their pageLSNs are no longer needed
+        synchronized (this) {
+            for (PageId pid : pids) {
+                forgetDurablePageLSN(pid);
+            }
+        }
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Configure group commit.  The first committer to find its
+        record not yet on disk waits up to windowMicros for other
+        commits (or until maxBatch commits are waiting) and then
+        forces the log once for all of them.  A window of 0 forces
+        immediately; commits that arrive during that force are still
+        batched into the next one.
+
+        @param windowMicros how long a commit may wait for others, in microseconds
+        @param maxBatch force as soon as this many commits are waiting
+    */
+    public void setGroupCommit(long windowMicros, int maxBatch) {
+        groupCommit.configure(windowMicros * 1000, maxBatch);
+    }
+
+    /** @return the number of log forces issued by group commit */
+    public long getCommitForceCount() {
+        return groupCommit.getForceCount();
+    }
+
+    /** @return the number of commits made durable by group commit */
+    public long getGroupCommittedCount() {
+        return groupCommit.getCommitCount();
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+
+    /** Write an update record to disk for the specified tid and page
+        (with provided         before and after images.)  Usually this
+        is a DELTA record holding only the bytes that changed since the
+        transaction last logged the page (or since the before image);
+        a full UPDATE record is written if the page changed size or class.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the record, which becomes the page's pageLSN
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
         /* update record conists of
 
            record type
            transaction id
+           prevLSN
            before page data (see writePageData)
            after page data
            start offset
+
+           delta record conists of
+
+           record type
+           transaction id
+           prevLSN
+           page delta (see PageDelta.write)
+           start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        DataOutputStream out = buffer.out;
+        long lsn = currentOffset;
+        PageId pid = after.getId();
+        byte[] afterData = after.getPageData();
+        byte[] base = loggedImages.get(pid);
+        if (base == null) {
+            base = before.getPageData();
+        }
+        if (before.getClass() == after.getClass() && base.length == afterData.length) {
+            writeHeader(out, DELTA_RECORD, tid.getId());
+            PageDelta.diff(pid, base, afterData).write(out);
+        } else {
+            writeHeader(out, UPDATE_RECORD, tid.getId());
+
+            writePageData(out,before);
+            writePageData(out,after);
+        }
+        out.writeLong(currentOffset);
+        currentOffset = buffer.endLSN();
+        buffer.recordAppended();
+        pageLSNs.put(pid, lsn);
+        if (!recLSNs.containsKey(pid)) {
+            recLSNs.put(pid, lsn);
+        }
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        if (loggedImages.put(pid, afterData) == null) {
+            List<PageId> pids = tidToLoggedPages.get(tid.getId());
+            if (pids == null) {
+                pids = new ArrayList<PageId>();
+                tidToLoggedPages.put(tid.getId(), pids);
+            }
+            pids.add(pid);
+        }
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+    // the transaction is over; its next delta records start from the
+    // before image again, and its pages are on disk.  Returns the pages
+    // the transaction logged
+    private List<PageId> forgetLoggedImages(long tid) {
+        List<PageId> pids = tidToLoggedPages.remove(tid);
+        if (pids == null) {
+            return Collections.emptyList();
+        }
+        for (PageId pid : pids) {
+            loggedImages.remove(pid);
+            recLSNs.remove(pid);
+            forgetDurablePageLSN(pid);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        return pids;
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    // drop the pageLSN of a page that has been written to disk, unless
+    // its record is not on disk yet: the page may then be updated and
+    // written again before the log is forced.  The record at lsn is on
+    // disk once the flushed log ends past it
+    private void forgetDurablePageLSN(PageId pid) {
+        Long lsn = pageLSNs.get(pid);
+        if (lsn != null && lsn < getFlushedLSN()) {
+            pageLSNs.remove(pid);
+        }
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    // write the type, tid and prevLSN every record starts with; the
+    // record being written becomes the transaction's last one
+    private void writeHeader(DataOutputStream out, int type, long tid) throws IOException {
+        Long prev = tidToLastLogRecord.put(tid, currentOffset);
+        out.writeInt(type);
+        out.writeLong(tid);
+        out.writeLong(prev == null ? NO_PREV_LSN : prev);
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    /** Tell the log that the current version of a page has been
+        written to its file, so recovery need not redo the page's
+        earlier updates.  A background page writer should call this
+        after writing a page; pages are otherwise taken to be clean
+        once the transaction that logged them ends.  The BufferPool
+        (which is not part of this directory) must call
+        force(getPageLSN(pid)) before writing the page and this
+        method after.
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        @param pid the page that was written
+    */
+    public synchronized void pageFlushed(PageId pid) {
+        recLSNs.remove(pid);
+        forgetDurablePageLSN(pid);
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
+    void writePageData(DataOutput raf, Page p) throws IOException{
+        //page data is:
+        // page type tag (see PageCodecs)
+        // page id
+        // page class bytes
+        // page class data
+        PageCodecs.writePage(raf, p);
+    }
 
+    Page readPageData(DataInput raf) throws IOException {
+        return PageCodecs.readPage(raf);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -306,150 +465,158 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        DataOutputStream out = buffer.out;
+        writeHeader(out, BEGIN_RECORD, tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = buffer.endLSN();
+        buffer.recordAppended();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
-    public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+    /** Checkpoint the log and write a checkpoint record.  The
+        checkpoint is fuzzy: it records the active transactions and the
+        dirty page table without flushing any pages, and holds only the
+        log's own lock while it does so.  It does not truncate the log;
+        see logTruncate() and startCheckpointScheduler().
+    */
+    public synchronized void logCheckpoint() throws IOException {
+        //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+        preAppend();
+        long startCpOffset = currentOffset;
+        DataOutputStream out = buffer.out;
+        out.writeInt(CHECKPOINT_RECORD);
+        out.writeLong(-1); //no tid , but leave space for convenience
+        out.writeLong(NO_PREV_LSN);
+
+        //write list of outstanding transactions
+        out.writeInt(tidToFirstLogRecord.size());
+        for (Map.Entry<Long,Long> e : tidToFirstLogRecord.entrySet()) {
+            Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue());
+            out.writeLong(tidToLastLogRecord.get(e.getKey()));
+        }
+        //write the dirty page table
+        out.writeInt(recLSNs.size());
+        for (Map.Entry<PageId,Long> e : recLSNs.entrySet()) {
+            PageCodecs.writePageId(out, e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeLong(startCpOffset);
+        currentOffset = buffer.endLSN();
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
-            }
+        //once the CP is on disk, make sure the CP location in the
+        // log file is updated
+        force();
+        writeCheckpointPointer(startCpOffset);
+        raf.getChannel().force(true);
+        lastCheckpoint = startCpOffset;
+        //Debug.log("CP OFFSET = " + currentOffset);
+    }
+
+    /** Take checkpoints in a background thread whenever maxLogBytes
+        of log have been written since the last checkpoint, or every
+        intervalMillis, whichever comes first, truncating the log after
+        each one.  Replaces any scheduler already running.
+
+        @param maxLogBytes log growth that triggers a checkpoint, or 0 for none
+        @param intervalMillis time between checkpoints, or 0 for no limit
+    */
+    public synchronized void startCheckpointScheduler(long maxLogBytes, long intervalMillis) {
+        stopCheckpointScheduler();
+        scheduler = new CheckpointScheduler(this, maxLogBytes, intervalMillis);
+        scheduler.start();
+    }
+
+    /** Stop the checkpoint scheduler, if one is running.  A checkpoint
+        in progress is allowed to finish. */
+    public synchronized void stopCheckpointScheduler() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
         }
+    }
 
-        logTruncate();
+    /** @return the number of checkpoints the scheduler has taken */
+    public synchronized long getScheduledCheckpointCount() {
+        return scheduler == null ? 0 : scheduler.getCheckpointCount();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
+        consumption.  Everything before the last checkpoint, the first
+        record of each transaction active at that checkpoint, and the
+        smallest recLSN in its dirty page table can go; the segments
+        that end before that point are deleted.  With an archiver set,
+        segments it has not archived yet are kept.
+
+        @return the number of segments deleted
+    */
+    public synchronized int logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        long cpLoc = readCheckpointPointer();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return 0;
+        }
 
         long minLogRecord = cpLoc;
+        LogRecord cp = LogRecord.readNext(readLog(cpLoc));
+        if (!(cp instanceof CheckPointRecord)) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
+        for (long firstLogRecord : ((CheckPointRecord) cp).getTidToFirstLogRecord().values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
+        }
+        for (long recLSN : ((CheckPointRecord) cp).getDirtyPages().values()) {
+            minLogRecord = Math.min(minLogRecord, recLSN);
+        }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        if (archiver != null) {
+            minLogRecord = Math.min(minLogRecord, archiver.getArchivedLSN());
         }
 
         // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
+        int deleted = segments.deleteBefore(minLogRecord);
+        Debug.log("TRUNCATING LOG; NEW START : " + segments.getStartLSN() + ", DELETED " + deleted + " SEGMENTS");
+        return deleted;
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    /** Set the size at which the log moves on to a new segment file.
+        It applies to the segment being written too, unless that one
+        is already larger.
+        @param bytes the segment size
+    */
+    public synchronized void setSegmentSize(long bytes) throws IOException {
+        segments.setSegmentSize(bytes);
+    }
 
-            } catch (EOFException e) {
-                break;
-            }
-        }
+    /** @return the number of segment files the log currently has */
+    public synchronized int getSegmentCount() {
+        return segments.getSegmentCount();
+    }
+
+    /** Keep the log's segments until archiver has copied them, and let
+        the checkpoint scheduler archive them (and take base snapshots)
+        after each checkpoint.
+        @param archiver the archiver, or null to stop archiving
+    */
+    public synchronized void setArchiver(LogArchiver archiver) {
+        this.archiver = archiver;
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+    synchronized LogArchiver getArchiver() {
+        return archiver;
+    }
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+    // start LSN to file of each segment; all but the last are complete
+    synchronized SortedMap<Long, File> getSegmentFiles() throws IOException {
+        buffer.write();
+        return segments.getFiles();
+    }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+    synchronized long getLastCheckpoint() {
+        return lastCheckpoint;
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -463,97 +630,93 @@ public class LogFile {
     //可以不用LogRecord实现，参照LogTruncate
     //用LogRecord更加简洁
     //2-3补充：本来undo的时候应该逆序重做，但由于update的实现是直接储存整页，因此可以直接取第一次更新前的页
+    //delta记录只保存改变的字节，每条记录都要撤销，所以和recover一样逆序undo
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
-                preAppend();
-                long offset = tidToFirstLogRecord.get(tid.getId());
-                raf.seek(offset);
-                //Stack<Long> stack = new Stack<>();
-                while(raf.getFilePointer() < raf.length())
-                {
-                    LogRecord record = LogRecord.readNext(raf);
-                    if(record == null) //|| record instanceof AbortRecord && tid.getId() == record.getTid())
-                        break;
-                    //获取第一次更新前的页
-                    if(record instanceof UpdateRecord && tid.getId() == record.getTid()) {
-                        //stack.push(record.getOffset());
-                        Page page = ((UpdateRecord) record).getBefore();
-                        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                        Database.getBufferPool().discardPage(page.getId());
-                        tidToFirstLogRecord.remove(tid.getId());
-                        break;
-                    }
-                }
-                raf.seek(currentOffset);
-                //逆序撤销所做的更新
-                /*while(!stack.empty())
-                {
-                    raf.seek(stack.pop());
-                    LogRecord record = LogRecord.readNext(raf);
-                    Page page = ((UpdateRecord) record).getBefore();
-                    //将更新前的页写入磁盘
-                    //因为在abort前可能进行了checkPoint，使得脏页被写入磁盘
-                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                    //丢掉缓存中的页
-                    Database.getBufferPool().discardPage(page.getId());
-                }*/
-
+                rollback(tid.getId());
+                tidToFirstLogRecord.remove(tid.getId());
+                tidToLastLogRecord.remove(tid.getId());
             }
         }
     }
 
-    //用于recover的undo，相比上面的rollback，采用了逆序undo的方法
+    //用于logAbort和recover的undo：从事务的最后一条记录开始沿prevLSN逆序撤销更新，
+    //只读取这个事务自己的记录，而不是扫描事务开始之后的全部日志
+    //每撤销一条更新写一条CLR，遇到CLR时跳到它的undoNextLSN，
+    //所以回滚期间崩溃后再次回滚，已经撤销的更新不会再撤销一次
     public void rollback(Long tid)
             throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                long offset = tidToFirstLogRecord.get(tid);
-                raf.seek(offset);
-                Stack<Long> stack = new Stack<>();
-                while(raf.getFilePointer() < raf.length())
+                Long last = tidToLastLogRecord.get(tid);
+                if(last == null)
+                    throw new NoSuchElementException("no live transaction " + tid + " to roll back");
+                for(long lsn = last; lsn != NO_PREV_LSN; )
                 {
-                    //获取每一条log记录，不同的记录对应不同的record
-                    LogRecord record = LogRecord.readNext(raf);
-                    if(record == null) //|| record instanceof AbortRecord && tid.getId() == record.getTid())
-                        break;
-                    //储存对应事务的更新记录
-                    if(record instanceof UpdateRecord && tid == record.getTid()) {
-                        stack.push(record.getOffset());
-                        /*raf.seek(record.getOffset());
-                        LogRecord newrecord = LogRecord.readNext(raf);
-                        Page page = ((UpdateRecord) newrecord).getBefore();
-                        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                        Database.getBufferPool().discardPage(page.getId());
-                        break;*/
+                    LogRecord record = readRecordAt(lsn);
+                    if(record instanceof CompensationRecord)
+                    {
+                        lsn = ((CompensationRecord) record).getUndoNextLSN();
+                        continue;
                     }
-                }
-                //逆序撤销所做的更新
-                while(!stack.empty())
-                {
-                    raf.seek(stack.pop());
-                    LogRecord record = LogRecord.readNext(raf);
-                    Page page = ((UpdateRecord) record).getBefore();
-                    //将更新前的页写入磁盘
-                    //因为在abort前可能进行了checkPoint，使得脏页被写入磁盘
-                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
-                    //丢掉缓存中的页
-                    Database.getBufferPool().discardPage(page.getId());
+                    if(isUpdate(record))
+                    {
+                        logCompensation(record);
+                        undo(record);
+                    }
+                    lsn = record.getPrevLSN();
                 }
             }
         }
     }
 
+    //为撤销一条UPDATE或DELTA记录写CLR：delta记录写入反向的差量，整页记录写入更新前的页
+    //CLR同样修改了页，成为页的pageLSN
+    private void logCompensation(LogRecord record) throws IOException {
+        long lsn = currentOffset;
+        DataOutputStream out = buffer.out;
+        writeHeader(out, COMPENSATION_RECORD, record.getTid());
+        out.writeLong(record.getPrevLSN());
+        if (record instanceof DeltaRecord) {
+            out.writeBoolean(true);
+            ((DeltaRecord) record).getDelta().inverse().write(out);
+        } else {
+            out.writeBoolean(false);
+            writePageData(out, ((UpdateRecord) record).getBefore());
+        }
+        out.writeLong(currentOffset);
+        currentOffset = buffer.endLSN();
+        buffer.recordAppended();
+        pageLSNs.put(updatedPage(record), lsn);
+    }
+
+    //撤销一条更新记录：整页记录将更新前的页写入磁盘，delta记录把改变的字节恢复为旧值
+    //因为在abort前可能进行了checkPoint，使得脏页被写入磁盘，所以直接修改磁盘上的页，并丢掉缓存中的页
+    //写页之前先把页的pageLSN（即刚写的CLR）刷盘(write-ahead logging)
+    private void undo(LogRecord record) throws IOException {
+        force(getPageLSN(updatedPage(record)));
+        if (record instanceof DeltaRecord) {
+            ((DeltaRecord) record).getDelta().applyToDisk(false);
+        } else {
+            Page page = ((UpdateRecord) record).getBefore();
+            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+            Database.getBufferPool().discardPage(page.getId());
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
     public synchronized void shutdown() {
         try {
+            stopCheckpointScheduler();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -563,118 +726,332 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        Recovery follows ARIES: an analysis pass from the last
+        checkpoint builds the table of unfinished transactions and a
+        dirty page table, a redo pass repeats history from the
+        smallest recLSN with the pages partitioned across
+        setRecoveryThreads() threads, and an undo pass rolls back the
+        unfinished transactions.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
-                // Done
-                // 1.ANALYSIS PHASE
-                // 找到所有avtive的事务，获取最小的offset
-                // 可能存在没有checkPoint的情况
-                print();
-                raf.seek(0);
-                HashMap<Long, Long> tid2Offset = new HashMap<>();
-                long startOffset = raf.readLong();
-                HashMap<Long, List<PageId>> pageIds = new HashMap<>();
-                HashMap<PageId, Page> pages = new HashMap<>();
-                if(startOffset != -1L)
-                {
-                    raf.seek(startOffset);
-                    LogRecord recordForTid = LogRecord.readNext(raf);
-                    if (recordForTid instanceof CheckPointRecord)//&& recordForTid.getOffset() == startOffset)
-                    {
-                        tid2Offset = ((CheckPointRecord) recordForTid).getTidToFirstLogRecord();
-                    } else
-                        throw new IOException("CheckPoint pointer points wrong place!");
-                }
+                recover(readCheckpointPointer(), Long.MAX_VALUE, false);
+            }
+        }
+    }
 
-                Set<Long> Tid = tid2Offset.keySet();
-                //将Tid和offset放入tidToFirstLogRecord，因为这些事务都在checkPoint之前开始
-                for(Long tid: Tid)
-                {
-                    tidToFirstLogRecord.put(tid, tid2Offset.get(tid));
-                    if(!pageIds.containsKey(tid))
-                        pageIds.put(tid, new ArrayList<>());
+    /** Rebuild the database from archived log segments, see
+        LogArchiver.restore().  The tables must already hold a base
+        snapshot taken after checkpoint, and nothing may have used the
+        log yet.
+
+        @param archived start LSN to file of each archived segment;
+        segments the log still has are not copied
+        @param checkpoint the checkpoint the base snapshot was taken at
+        @param stopLSN replay the records that start before this LSN
+        @param stopTime stop at the first commit later than this time
+        @return the end of the replayed log
+    */
+    long restore(SortedMap<Long, File> archived, long checkpoint, long stopLSN, long stopTime)
+            throws IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized (this) {
+                if (!recoveryUndecided) {
+                    throw new IOException("restore must run before the log is used");
                 }
-
-                //2.REDO PHASE
-                //从checkPoint开始redo所有record
-                while(raf.getFilePointer() < raf.length())
-                {
-                    LogRecord newRecord = LogRecord.readNext(raf);
-                    if(newRecord == null)
-                        break;
-                    //update时先暂存页，就像在bufferPool一样
-                    if(newRecord instanceof UpdateRecord)
-                    {
-                        Page page = ((UpdateRecord) newRecord).getAfter();
-                        pages.put(page.getId(), page);
-                        pageIds.get(newRecord.getTid()).add(page.getId());
-                    }
-                    //begin时加入tidToFirstLogRecord
-                    if(newRecord instanceof BeginRecord)
-                    {
-                        tidToFirstLogRecord.put(newRecord.getTid(), newRecord.getOffset());
-                        pageIds.put(newRecord.getTid(), new ArrayList<>());
-                    }
-                    //abort时删除对应页和tid
-                    if(newRecord instanceof AbortRecord)
-                    {
-                        long tid = newRecord.getTid();
-                        tidToFirstLogRecord.remove(tid);
-                        ArrayList<PageId> list = (ArrayList<PageId>) pageIds.get(tid);
-                        pageIds.remove(tid);
-                        for(PageId id: list)
-                        {
-                            pages.remove(id);
-                        }
-                    }
-                    //commit时将对应事务的页写入磁盘
-                    if(newRecord instanceof CommitRecord)
-                    {
-                        long tid = newRecord.getTid();
-                        tidToFirstLogRecord.remove(tid);
-                        ArrayList<PageId> list = (ArrayList<PageId>) pageIds.get(tid);
-                        pageIds.remove(tid);
-                        for(PageId id: list)
-                        {
-                            Database.getCatalog().getDatabaseFile(id.getTableId()).writePage(pages.get(id));
-                            pages.get(id).setBeforeImage();
-                        }
-                    }
+                for (Map.Entry<Long, File> e : archived.entrySet()) {
+                    segments.addSegment(e.getKey(), e.getValue());
+                }
+                buffer.reset(segments, segments.getEndLSN());
+                if (stopTime != Long.MAX_VALUE) {
+                    stopLSN = Math.min(stopLSN, firstCommitAfter(checkpoint, stopTime));
                 }
+                writeCheckpointPointer(checkpoint);
+                return recover(checkpoint, stopLSN, true);
+            }
+        }
+    }
 
-                // undo Phase
-                // 添加ABORT_RECORD，rollback对应事务
-                currentOffset = raf.getFilePointer();
-                for(Long tid:tidToFirstLogRecord.keySet())
+    // the LSN of the first COMMIT record at or after from whose commit
+    // time is later than timeMillis, or Long.MAX_VALUE if there is none
+    private long firstCommitAfter(long from, long timeMillis) throws IOException {
+        DataInputStream in = readLog(from);
+        for (LogRecord record; (record = readRecord(in)) != null; ) {
+            if (record instanceof CommitRecord && ((CommitRecord) record).getTime() > timeMillis) {
+                return record.getOffset();
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    // recovery from the checkpoint at startOffset (or the start of the
+    // log), ignoring and then truncating the records from stopLSN on;
+    // restoring means the tables hold a snapshot taken at the checkpoint
+    // rather than what was on disk at the crash; returns where the
+    // replayed log ends
+    private long recover(long startOffset, long stopLSN, boolean restoring) throws IOException {
+        recoveryUndecided = false;
+        // 1.ANALYSIS PHASE
+        // 找到所有active的事务(transaction table)，
+        // 以及脏页表(dirty page table)：每个页第一条可能还没有写入磁盘的更新记录的位置(recLSN)，
+        // recLSN之前的更新不需要重做
+        // checkPoint是fuzzy的，记录了当时的事务表和脏页表，从checkPoint和其中最小的recLSN开始扫描
+        // 可能存在没有checkPoint的情况
+        long scanStart = segments.getStartLSN();
+        HashMap<PageId, Long> dirtyPages = new HashMap<>();
+        if(startOffset != NO_CHECKPOINT_ID)
+        {
+            LogSegments.Reader cpIn = segments.open(startOffset);
+            LogRecord recordForTid = LogRecord.readNext(new DataInputStream(cpIn));
+            if (!(recordForTid instanceof CheckPointRecord))
+                throw new IOException("CheckPoint pointer points wrong place!");
+            //将Tid和offset放入tidToFirstLogRecord，因为这些事务都在checkPoint之前开始
+            tidToFirstLogRecord.putAll(((CheckPointRecord) recordForTid).getTidToFirstLogRecord());
+            tidToLastLogRecord.putAll(((CheckPointRecord) recordForTid).getTidToLastLogRecord());
+            dirtyPages.putAll(((CheckPointRecord) recordForTid).getDirtyPages());
+            scanStart = cpIn.position();
+            for(long recLSN: dirtyPages.values())
+                scanStart = Math.min(scanStart, recLSN);
+        }
+        lastCheckpoint = startOffset;
+
+        //日志末尾可能有崩溃时没有写完的记录，从最后一条完整的记录之后继续写
+        //按时间点恢复时，stopLSN及之后的记录不属于要恢复的历史，和没有写完的记录一样丢掉
+        long logEnd = scanStart;
+        //每个事务更新过的页，事务结束时从脏页表中删除
+        HashMap<Long, Set<PageId>> tidToPages = new HashMap<>();
+        buffer.write();
+        LogSegments.Reader scan = segments.open(scanStart);
+        DataInputStream in = new DataInputStream(scan);
+        for(LogRecord record; (record = readRecord(in)) != null; )
+        {
+            if(record.getOffset() >= stopLSN)
+                break;
+            logEnd = scan.position();
+            //checkPoint之前的更新只在checkPoint的脏页表中的页需要重做
+            if(isUpdate(record) && record.getOffset() > startOffset
+                    && !dirtyPages.containsKey(updatedPage(record)))
+                dirtyPages.put(updatedPage(record), record.getOffset());
+            if(isUpdate(record))
+            {
+                Set<PageId> pages = tidToPages.get(record.getTid());
+                if(pages == null)
                 {
-                    raf.seek(currentOffset);
-                    raf.writeInt(ABORT_RECORD);
-                    raf.writeLong(tid);
-                    raf.writeLong(currentOffset);
-                    force();
-                    rollback(tid);
-                    currentOffset = raf.getFilePointer();
+                    pages = new HashSet<>();
+                    tidToPages.put(record.getTid(), pages);
                 }
-                //全部事务都被提交或回滚
-                tidToFirstLogRecord.clear();
+                pages.add(updatedPage(record));
+            }
+            //记录每个事务的最后一条记录，作为undo时prevLSN链的起点
+            //checkPoint之前的记录不会比checkPoint中的更晚
+            if(!(record instanceof CheckPointRecord))
+            {
+                Long last = tidToLastLogRecord.get(record.getTid());
+                if(last == null || last < record.getOffset())
+                    tidToLastLogRecord.put(record.getTid(), record.getOffset());
             }
-         }
+            //begin时加入tidToFirstLogRecord
+            if(record instanceof BeginRecord)
+                tidToFirstLogRecord.put(record.getTid(), record.getOffset());
+            //commit和abort时删除对应tid
+            if(record instanceof CommitRecord || record instanceof AbortRecord)
+            {
+                tidToFirstLogRecord.remove(record.getTid());
+                tidToLastLogRecord.remove(record.getTid());
+                //事务结束时它更新过的页已经写入磁盘(提交前flushPages()，rollback直接改写磁盘上的页)，
+                //和运行时一样(见forgetLoggedImages())移出脏页表：delta是相对于事务开始时的页的变化，
+                //从更早的delta开始重做会覆盖之后写入磁盘的字节
+                //checkPoint之前结束的事务已经反映在checkPoint的脏页表中
+                //从快照恢复时，快照中没有checkPoint之后提交的修改，仍然需要重做
+                Set<PageId> pages = tidToPages.remove(record.getTid());
+                if(pages != null && record.getOffset() > startOffset && !restoring)
+                    dirtyPages.keySet().removeAll(pages);
+            }
+        }
+        segments.truncateAfter(logEnd);
+        buffer.reset(segments, logEnd);
+        currentOffset = buffer.endLSN();
+
+        // 2.REDO PHASE
+        // 从最小的recLSN开始重复历史(repeating history)：所有事务的更新和CLR都按日志顺序重做，
+        // abort的事务的更新会被它的CLR撤销，未结束的事务在undo阶段再撤销
+        // 磁盘上的页没有保存pageLSN，无法知道页是否已经包含某条更新，所以不跳过任何recLSN之后的记录，
+        // 但重做只是把页或字节区间设为日志中的值，重复执行不会出错
+        if(!dirtyPages.isEmpty())
+        {
+            ParallelRedo redo = new ParallelRedo(recoveryThreads);
+            in = readLog(Collections.min(dirtyPages.values()));
+            for(LogRecord record; (record = readRecord(in)) != null; )
+            {
+                if(isUpdate(record) && needsRedo(dirtyPages, updatedPage(record), record))
+                    redo.submit(record);
+            }
+            for(PageId pid: redo.finish())
+                Database.getBufferPool().discardPage(pid);
+        }
+
+        // 3.UNDO PHASE
+        // 沿prevLSN链rollback对应事务，完成后添加ABORT_RECORD
+        // 如果在rollback期间崩溃，下次恢复时它们仍然是未结束的事务，
+        // 重做已经写入的CLR后从最后一条CLR的undoNextLSN继续rollback
+        for(Long tid:tidToFirstLogRecord.keySet())
+        {
+            rollback(tid);
+            DataOutputStream out = buffer.out;
+            writeHeader(out, ABORT_RECORD, tid);
+            out.writeLong(currentOffset);
+            currentOffset = buffer.endLSN();
+        }
+        force();
+        //全部事务都被提交或回滚
+        tidToFirstLogRecord.clear();
+        tidToLastLogRecord.clear();
+        return logEnd;
+    }
+
+    /** Set the number of threads the redo pass of recover() uses.
+        @param threads the number of redo threads, at least 1
+    */
+    public synchronized void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("recovery needs at least one thread, not " + threads);
+        }
+        recoveryThreads = threads;
+    }
+
+    // buffered sequential reader over the log starting at offset
+    private DataInputStream readLog(long offset) throws IOException {
+        buffer.write();
+        return new DataInputStream(segments.open(offset));
+    }
+
+    // the next record, or null at the end of the log (including a
+    // record left incomplete by a crash)
+    private static LogRecord readRecord(DataInputStream in) throws IOException {
+        try {
+            return LogRecord.readNext(in);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // the record at lsn, read through a small buffer
+    private LogRecord readRecordAt(long lsn) throws IOException {
+        if (lsn >= buffer.getWrittenLSN()) {
+            buffer.write();
+        }
+        return LogRecord.readNext(new DataInputStream(segments.openRecord(lsn)));
+    }
+
+    // whether the record changes a page: UPDATE, DELTA or COMPENSATION
+    static boolean isUpdate(LogRecord record) {
+        return record instanceof UpdateRecord || record instanceof DeltaRecord
+                || record instanceof CompensationRecord;
+    }
+
+    static PageId updatedPage(LogRecord record) {
+        if (record instanceof DeltaRecord) {
+            return ((DeltaRecord) record).getDelta().getPageId();
+        }
+        if (record instanceof CompensationRecord) {
+            return ((CompensationRecord) record).getPageId();
+        }
+        return ((UpdateRecord) record).getAfter().getId();
+    }
+
+    // pages outside the dirty page table, and updates before a page's
+    // recLSN, are already on disk.  ARIES also skips a record when the
+    // page on disk already has it (record LSN <= pageLSN); that test is
+    // not done, since pages do not store a pageLSN on disk, so every
+    // record from the page's recLSN on is redone
+    private static boolean needsRedo(Map<PageId, Long> dirtyPages, PageId pid, LogRecord record) {
+        Long recLSN = dirtyPages.get(pid);
+        return recLSN != null && record.getOffset() >= recLSN;
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        raf.seek(0);
-        while(raf.getFilePointer() < raf.length())
+    public synchronized void print() throws IOException {
+        DataInputStream in = readLog(segments.getStartLSN());
+        for(LogRecord record; (record = readRecord(in)) != null; )
         {
-            System.out.println(LogRecord.readNext(raf));
+            System.out.println(record);
         }
     }
 
+    /** Force the whole log, including buffered records, to disk. */
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        buffer.force(buffer.endLSN());
+    }
+
+    /** Force the log to disk up to (at least) the specified LSN; the
+        part of the log after it may stay buffered.  Call with a
+        page's pageLSN before writing the page (write-ahead logging).
+
+        @param lsn the LSN that must be durable on return
+    */
+    public synchronized void force(long lsn) throws IOException {
+        // records are only ever written out whole, so having any byte
+        // past lsn on disk means the record at lsn is complete
+        buffer.force(Math.min(lsn + 1, currentOffset));
+    }
+
+    /** @return the LSN up to which the log is known to be on disk */
+    public long getFlushedLSN() {
+        return buffer.getFlushedLSN();
+    }
+
+    /** @return the LSN of the next record to be written */
+    public synchronized long getCurrentLSN() {
+        return currentOffset;
+    }
+
+    /** @return the LSN of the last update logged for pid, or -1 if
+        the log holds nothing that must precede writing pid */
+    public synchronized long getPageLSN(PageId pid) {
+        Long lsn = pageLSNs.get(pid);
+        return lsn == null ? -1 : lsn;
+    }
+
+    // the offset of the last checkpoint record, or NO_CHECKPOINT_ID
+    private long readCheckpointPointer() throws IOException {
+        if (raf.length() < LONG_SIZE) {
+            return NO_CHECKPOINT_ID;
+        }
+        raf.seek(0);
+        return raf.readLong();
+    }
+
+    // write the offset of the last checkpoint record into the log header
+    private void writeCheckpointPointer(long cpOffset) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(LONG_SIZE);
+        bb.putLong(cpOffset);
+        bb.flip();
+        while (bb.hasRemaining()) {
+            raf.getChannel().write(bb, bb.position());
+        }
+    }
+
+    // used by group commit: write out buffered records without forcing
+    // and return the LSN they end at
+    synchronized long writeBuffered() throws IOException {
+        return buffer.write();
+    }
+
+    // the channels holding the log in [from, to), for group commit to
+    // force outside the lock
+    synchronized List<FileChannel> getChannels(long from, long to) {
+        return segments.getChannels(from, to);
+    }
+
+    // the LSN up to which the log is on disk, the position group
+    // commit waits for
+    long getDurablePosition() {
+        return buffer.getFlushedLSN();
+    }
+
+    synchronized void markDurable(long lsn) {
+        buffer.markFlushed(lsn);
     }
 
 }
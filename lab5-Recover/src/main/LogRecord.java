@@ -1,17 +1,24 @@
 package simpledb;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.DataInput;
 import java.util.HashMap;
 
 //用于读取每条log记录
 //根据不同的record，读取不同的raf长度
 public class LogRecord {
     protected long tid;
+    //同一个事务的上一条记录的位置，事务的第一条记录为LogFile.NO_PREV_LSN
+    protected long prevLSN;
     protected long offset;
 
-    public LogRecord(RandomAccessFile raf) throws IOException {
+    public LogRecord(DataInput raf) throws IOException {
         tid = raf.readLong();
+        prevLSN = raf.readLong();
+    }
+
+    //不对应日志中的记录，见ParallelRedo
+    LogRecord() {
     }
 
     public long getTid()
@@ -19,12 +26,17 @@ public class LogRecord {
         return tid;
     }
 
+    public long getPrevLSN()
+    {
+        return prevLSN;
+    }
+
     public long getOffset()
     {
         return offset;
     }
 
-    public static LogRecord readNext(RandomAccessFile raf) throws IOException
+    public static LogRecord readNext(DataInput raf) throws IOException
     {
         int record = raf.readInt();
         switch(record)
@@ -39,6 +51,10 @@ public class LogRecord {
                 return new BeginRecord(raf);
             case LogFile.CHECKPOINT_RECORD:
                 return new CheckPointRecord(raf);
+            case LogFile.DELTA_RECORD:
+                return new DeltaRecord(raf);
+            case LogFile.COMPENSATION_RECORD:
+                return new CompensationRecord(raf);
             default:
                 return null;
         }
@@ -55,7 +71,7 @@ public class LogRecord {
 
 class AbortRecord extends LogRecord{
 
-    public AbortRecord(RandomAccessFile raf) throws IOException {
+    public AbortRecord(DataInput raf) throws IOException {
         super(raf);
         offset = raf.readLong();
     }
@@ -70,15 +86,25 @@ class AbortRecord extends LogRecord{
 }
 
 class CommitRecord extends LogRecord{
-    public CommitRecord(RandomAccessFile raf) throws IOException {
+    //提交时间，用于按时间点恢复
+    private long time;
+
+    public CommitRecord(DataInput raf) throws IOException {
         super(raf);
+        time = raf.readLong();
         offset = raf.readLong();
     }
 
+    public long getTime()
+    {
+        return time;
+    }
+
     @Override
     public String toString() {
         return "CommitRecord{" +
                 "tid=" + tid +
+                ", time=" + time +
                 ", offset=" + offset +
                 '}';
     }
@@ -86,7 +112,7 @@ class CommitRecord extends LogRecord{
 
 class BeginRecord extends LogRecord{
 
-    public BeginRecord(RandomAccessFile raf) throws IOException {
+    public BeginRecord(DataInput raf) throws IOException {
         super(raf);
         offset = raf.readLong();
     }
@@ -105,7 +131,7 @@ class UpdateRecord extends LogRecord{
     private final Page before;
     private final Page after;
 
-    public UpdateRecord(RandomAccessFile raf) throws IOException {
+    public UpdateRecord(DataInput raf) throws IOException {
         super(raf);
         before = Database.getLogFile().readPageData(raf);
         after = Database.getLogFile().readPageData(raf);
@@ -131,17 +157,111 @@ class UpdateRecord extends LogRecord{
     }
 }
 
+//只记录改变的字节的更新记录，见PageDelta
+class DeltaRecord extends LogRecord{
+
+    private final PageDelta delta;
+
+    public DeltaRecord(DataInput raf) throws IOException {
+        super(raf);
+        delta = PageDelta.read(raf);
+        offset = raf.readLong();
+    }
+
+    public PageDelta getDelta()
+    {
+        return delta;
+    }
+
+    @Override
+    public String toString() {
+        return "DeltaRecord{" +
+                "tid=" + tid +
+                ", offset=" + offset +
+                ", " + delta +
+                '}';
+    }
+}
+
+//补偿日志记录(CLR)：回滚每撤销一条更新记录就写一条，保存撤销后的字节区间或整页，只重做、不撤销
+//undoNextLSN是被撤销的记录的prevLSN，回滚遇到CLR时直接跳到这里，所以撤销过的更新不会被再次撤销
+class CompensationRecord extends LogRecord{
+
+    private final long undoNextLSN;
+    //二者只有一个不为null
+    private final PageDelta delta;
+    private final Page page;
+
+    public CompensationRecord(DataInput raf) throws IOException {
+        super(raf);
+        undoNextLSN = raf.readLong();
+        if(raf.readBoolean())
+        {
+            delta = PageDelta.read(raf);
+            page = null;
+        }
+        else
+        {
+            delta = null;
+            page = Database.getLogFile().readPageData(raf);
+        }
+        offset = raf.readLong();
+    }
+
+    public long getUndoNextLSN()
+    {
+        return undoNextLSN;
+    }
+
+    public PageDelta getDelta()
+    {
+        return delta;
+    }
+
+    public Page getPage()
+    {
+        return page;
+    }
+
+    public PageId getPageId()
+    {
+        return delta != null ? delta.getPageId() : page.getId();
+    }
+
+    @Override
+    public String toString() {
+        return "CompensationRecord{" +
+                "tid=" + tid +
+                ", offset=" + offset +
+                ", undoNextLSN=" + undoNextLSN +
+                '}';
+    }
+}
+
 class CheckPointRecord extends LogRecord{
 
     private final HashMap<Long, Long> tidToFirstLogRecord;
+    private final HashMap<Long, Long> tidToLastLogRecord;
+    //脏页表，见LogFile.recLSNs
+    private final HashMap<PageId, Long> dirtyPages;
 
-    public CheckPointRecord(RandomAccessFile raf) throws IOException {
+    public CheckPointRecord(DataInput raf) throws IOException {
         super(raf);
         int keySize = raf.readInt();
         tidToFirstLogRecord = new HashMap<>();
+        tidToLastLogRecord = new HashMap<>();
         for(int i=0; i<keySize; ++i)
         {
-            tidToFirstLogRecord.put(raf.readLong(), raf.readLong());
+            long t = raf.readLong();
+            tidToFirstLogRecord.put(t, raf.readLong());
+            tidToLastLogRecord.put(t, raf.readLong());
+        }
+        int pageCount = raf.readInt();
+        dirtyPages = new HashMap<>();
+        for(int i=0; i<pageCount; ++i)
+        {
+            PageId pid = PageCodecs.readPageId(raf);
+            dirtyPages.put(pid, raf.readLong());
         }
         offset = raf.readLong();
     }
@@ -151,6 +271,16 @@ class CheckPointRecord extends LogRecord{
         return tidToFirstLogRecord;
     }
 
+    public HashMap<Long, Long> getTidToLastLogRecord()
+    {
+        return tidToLastLogRecord;
+    }
+
+    public HashMap<PageId, Long> getDirtyPages()
+    {
+        return dirtyPages;
+    }
+
     @Override
     public String toString()
     {
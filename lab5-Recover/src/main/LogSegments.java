@@ -0,0 +1,360 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+//日志的段文件：日志按LSN切分成固定大小的段，每个段是一个文件，文件名为日志文件名加上段的起始LSN（16位十六进制）
+//LSN在所有段中连续编号，截断日志只需要删除整个在最小恢复LSN之前的段，LSN不会改变
+//一条记录可以跨越两个段
+//除了getChannels()返回的channel可以在锁外刷盘，所有方法都需要调用者持有LogFile的锁
+class LogSegments {
+    static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    //顺序扫描和读取单条记录时的读缓冲区大小
+    static final int SEQUENTIAL_READ_BUFFER = 64 * 1024;
+    static final int RECORD_READ_BUFFER = 4 * 1024;
+
+    private static class Segment {
+        final long start;
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        //段最多容纳的字节数，最后一个段的大小可以通过setSegmentSize()修改
+        long capacity;
+
+        Segment(long start, File file, long capacity) throws IOException {
+            this.start = start;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            this.capacity = Math.max(capacity, raf.length());
+        }
+    }
+
+    private final File dir;
+    private final String prefix;
+    private long segmentSize;
+    //起始LSN到段的映射
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /**
+     * 打开logFile已有的段
+     *
+     * @param logFile
+     * @param segmentSize 新建的段的大小
+     */
+    LogSegments(File logFile, long segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("bad log segment size " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        File abs = logFile.getAbsoluteFile();
+        this.dir = abs.getParentFile();
+        this.prefix = abs.getName() + ".";
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                Long start = parseStart(f.getName());
+                if (start != null) {
+                    segments.put(start, new Segment(start, f, segmentSize));
+                }
+            }
+        }
+    }
+
+    private Long parseStart(String name) {
+        if (!name.startsWith(prefix) || name.length() != prefix.length() + 16) {
+            return null;
+        }
+        try {
+            return Long.parseUnsignedLong(name.substring(prefix.length()), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 修改段的大小，对最后一个段也生效，但不会截断它已有的内容
+     *
+     * @param segmentSize
+     */
+    void setSegmentSize(long segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("bad log segment size " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            last.capacity = Math.max(segmentSize, last.channel.size());
+        }
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return 日志中第一个字节的LSN
+     */
+    long getStartLSN() {
+        return segments.isEmpty() ? 0 : segments.firstKey();
+    }
+
+    /**
+     * @return 文件中日志的结束位置
+     */
+    long getEndLSN() throws IOException {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Segment last = segments.lastEntry().getValue();
+        return last.start + last.channel.size();
+    }
+
+    /**
+     * 从lsn开始写入bb中的全部数据，需要时创建新的段
+     *
+     * @param bb
+     * @param lsn
+     */
+    void write(ByteBuffer bb, long lsn) throws IOException {
+        while (bb.hasRemaining()) {
+            Segment seg = segmentForWrite(lsn);
+            int n = (int) Math.min(bb.remaining(), seg.start + seg.capacity - lsn);
+            ByteBuffer part = bb.duplicate();
+            part.limit(part.position() + n);
+            while (part.hasRemaining()) {
+                lsn += seg.channel.write(part, lsn - seg.start);
+            }
+            bb.position(bb.position() + n);
+        }
+    }
+
+    private Segment segmentForWrite(long lsn) throws IOException {
+        Map.Entry<Long, Segment> e = segments.floorEntry(lsn);
+        if (e != null && lsn < e.getValue().start + e.getValue().capacity) {
+            return e.getValue();
+        }
+        Segment seg = new Segment(lsn, fileFor(lsn), segmentSize);
+        segments.put(lsn, seg);
+        return seg;
+    }
+
+    private File fileFor(long start) {
+        return new File(dir, prefix + String.format("%016x", start));
+    }
+
+    /**
+     * @return 起始LSN到段文件的映射，除了最后一个段，段的内容都不会再改变
+     */
+    SortedMap<Long, File> getFiles() {
+        SortedMap<Long, File> files = new TreeMap<>();
+        for (Segment seg : segments.values()) {
+            files.put(seg.start, seg.file);
+        }
+        return files;
+    }
+
+    /**
+     * 把归档的段复制回日志中，已经有这个段时不做任何事
+     *
+     * @param start 段的起始LSN
+     * @param archived 归档的段文件
+     */
+    void addSegment(long start, File archived) throws IOException {
+        if (segments.containsKey(start)) {
+            return;
+        }
+        File file = fileFor(start);
+        Files.copy(archived.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        segments.put(start, new Segment(start, file, segmentSize));
+    }
+
+    /**
+     * 从lsn开始读取，读到段的末尾为止
+     *
+     * @return 读到的字节数，在日志末尾时返回-1
+     */
+    int read(ByteBuffer dst, long lsn) throws IOException {
+        Map.Entry<Long, Segment> e = segments.floorEntry(lsn);
+        if (e == null) {
+            if (segments.isEmpty() || lsn >= getEndLSN()) {
+                return -1;
+            }
+            throw new IOException("log before LSN " + lsn + " has been truncated");
+        }
+        Segment seg = e.getValue();
+        long offset = lsn - seg.start;
+        if (offset >= seg.channel.size()) {
+            Long next = segments.higherKey(seg.start);
+            if (next == null) {
+                return -1;
+            }
+            //段之间有空缺时报错，而不是跳过缺少的日志，例如从归档恢复时缺少某个段
+            long end = seg.start + seg.channel.size();
+            if (next != end) {
+                throw new IOException("log is missing LSNs " + end + " to " + next);
+            }
+            return read(dst, next);
+        }
+        return seg.channel.read(dst, offset);
+    }
+
+    /**
+     * @return 包含[from, to)中的日志的段的channel，可以在锁外刷盘；
+     * 刷盘时可能因为段已经被删除而抛出ClosedChannelException，这些段中的日志已经不再需要
+     */
+    List<FileChannel> getChannels(long from, long to) {
+        List<FileChannel> channels = new ArrayList<>();
+        Long first = segments.floorKey(from);
+        for (Segment seg : segments.tailMap(first == null ? Long.MIN_VALUE : first).values()) {
+            if (seg.start >= to) {
+                break;
+            }
+            channels.add(seg.channel);
+        }
+        return channels;
+    }
+
+    void force(long from, long to) throws IOException {
+        for (FileChannel channel : getChannels(from, to)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 删除所有在lsn之前结束的段，但总是保留最后一个段
+     *
+     * @return 删除的段数
+     */
+    int deleteBefore(long lsn) throws IOException {
+        int deleted = 0;
+        while (segments.size() > 1) {
+            Map.Entry<Long, Segment> first = segments.firstEntry();
+            long end = segments.higherKey(first.getKey());
+            if (end > lsn) {
+                break;
+            }
+            segments.remove(first.getKey());
+            delete(first.getValue());
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * 丢掉lsn之后的日志，用于去掉崩溃时没有写完的记录
+     *
+     * @param lsn
+     */
+    void truncateAfter(long lsn) throws IOException {
+        while (!segments.isEmpty() && segments.lastKey() > lsn) {
+            delete(segments.remove(segments.lastKey()));
+        }
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            last.channel.truncate(lsn - last.start);
+        }
+    }
+
+    /**
+     * 删除全部的段，之后的LSN从0开始
+     */
+    void clear() throws IOException {
+        while (!segments.isEmpty()) {
+            delete(segments.remove(segments.firstKey()));
+        }
+    }
+
+    void close() throws IOException {
+        for (Segment seg : segments.values()) {
+            seg.raf.close();
+        }
+    }
+
+    private static void delete(Segment seg) throws IOException {
+        seg.raf.close();
+        if (!seg.file.delete() && seg.file.exists()) {
+            throw new IOException("cannot delete log segment " + seg.file);
+        }
+    }
+
+    /**
+     * 从lsn开始顺序读取日志，可以跨越段
+     *
+     * @param lsn
+     * @return
+     */
+    Reader open(long lsn) {
+        return new Reader(lsn, SEQUENTIAL_READ_BUFFER);
+    }
+
+    /**
+     * 读取lsn处的一条记录，缓冲区较小，用于按prevLSN向前跳转的随机读
+     *
+     * @param lsn
+     * @return
+     */
+    Reader openRecord(long lsn) {
+        return new Reader(lsn, RECORD_READ_BUFFER);
+    }
+
+    //带缓冲的顺序读取，position()是下一个要读的字节的LSN
+    class Reader extends InputStream {
+        private final ByteBuffer buf;
+        //buf中数据之后的LSN
+        private long next;
+
+        Reader(long lsn, int bufferSize) {
+            buf = ByteBuffer.allocate(bufferSize);
+            next = lsn;
+            buf.flip();
+        }
+
+        long position() {
+            return next - buf.remaining();
+        }
+
+        private boolean fill() throws IOException {
+            if (buf.hasRemaining()) {
+                return true;
+            }
+            buf.clear();
+            int n = LogSegments.this.read(buf, next);
+            buf.flip();
+            if (n <= 0) {
+                return false;
+            }
+            next += n;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+}
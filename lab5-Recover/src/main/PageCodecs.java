@@ -0,0 +1,186 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//日志中页和PageId的二进制编码
+//原来每条记录都写入页和PageId的类名，读取时用Class.forName和反射构造，恢复和回滚的大部分时间都花在反射上
+//现在每种页和PageId注册一个一字节的类型标记和编解码方法，读取时按标记查表直接构造
+//没有注册的类型仍然写入类名（标记为REFLECTIVE），用反射构造，构造方法会被缓存
+class PageCodecs {
+    static final int REFLECTIVE = 0;
+
+    interface IdCodec {
+        void write(DataOutput out, PageId pid) throws IOException;
+
+        PageId read(DataInput in) throws IOException;
+    }
+
+    interface PageCodec {
+        Page decode(PageId pid, byte[] data) throws IOException;
+    }
+
+    //下标为类型标记，只在类加载时注册，之后只读
+    private static final IdCodec[] idCodecs = new IdCodec[256];
+    private static final PageCodec[] pageCodecs = new PageCodec[256];
+    private static final Map<Class<?>, Integer> idTags = new HashMap<>();
+    private static final Map<Class<?>, Integer> pageTags = new HashMap<>();
+
+    //REFLECTIVE编码的类名到构造方法的缓存
+    private static final Map<String, Constructor<?>> constructors = new ConcurrentHashMap<>();
+
+    static {
+        registerId(1, HeapPageId.class, new IdCodec() {
+            public void write(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.getPageNumber());
+            }
+
+            public PageId read(DataInput in) throws IOException {
+                return new HeapPageId(in.readInt(), in.readInt());
+            }
+        });
+        registerId(2, BTreePageId.class, new IdCodec() {
+            public void write(DataOutput out, PageId pid) throws IOException {
+                out.writeInt(pid.getTableId());
+                out.writeInt(pid.getPageNumber());
+                out.writeByte(((BTreePageId) pid).pgcateg());
+            }
+
+            public PageId read(DataInput in) throws IOException {
+                return new BTreePageId(in.readInt(), in.readInt(), in.readByte());
+            }
+        });
+
+        registerPage(1, HeapPage.class, (pid, data) -> new HeapPage((HeapPageId) pid, data));
+        registerPage(2, BTreeLeafPage.class, (pid, data) -> new BTreeLeafPage((BTreePageId) pid, data, keyField(pid)));
+        registerPage(3, BTreeInternalPage.class, (pid, data) -> new BTreeInternalPage((BTreePageId) pid, data, keyField(pid)));
+        registerPage(4, BTreeHeaderPage.class, (pid, data) -> new BTreeHeaderPage((BTreePageId) pid, data));
+        registerPage(5, BTreeRootPtrPage.class, (pid, data) -> new BTreeRootPtrPage((BTreePageId) pid, data));
+    }
+
+    //BTree的leaf和internal页需要知道索引的是哪一列才能解析
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    private static void registerId(int tag, Class<? extends PageId> cls, IdCodec codec) {
+        checkTag(tag, idCodecs);
+        idCodecs[tag] = codec;
+        idTags.put(cls, tag);
+    }
+
+    private static void registerPage(int tag, Class<? extends Page> cls, PageCodec codec) {
+        checkTag(tag, pageCodecs);
+        pageCodecs[tag] = codec;
+        pageTags.put(cls, tag);
+    }
+
+    private static void checkTag(int tag, Object[] codecs) {
+        if (tag <= REFLECTIVE || tag >= codecs.length || codecs[tag] != null) {
+            throw new IllegalArgumentException("bad or duplicate codec tag " + tag);
+        }
+    }
+
+    /**
+     * 格式：一字节类型标记，然后是PageId的数据；
+     * REFLECTIVE时数据为类名、serialize()的长度和内容
+     *
+     * @param out
+     * @param pid
+     */
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        Integer tag = idTags.get(pid.getClass());
+        if (tag != null) {
+            out.writeByte(tag);
+            idCodecs[tag].write(out, pid);
+            return;
+        }
+        int[] pageInfo = pid.serialize();
+        out.writeByte(REFLECTIVE);
+        out.writeUTF(pid.getClass().getName());
+        out.writeInt(pageInfo.length);
+        for (int i : pageInfo) {
+            out.writeInt(i);
+        }
+    }
+
+    static PageId readPageId(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag != REFLECTIVE) {
+            return codec(idCodecs, tag).read(in);
+        }
+        Constructor<?> c = constructor(in.readUTF());
+        Object[] args = new Object[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readInt();
+        }
+        return (PageId) newInstance(c, args);
+    }
+
+    /**
+     * 格式：一字节类型标记（REFLECTIVE时后跟类名）、PageId、页数据的长度和内容
+     *
+     * @param out
+     * @param p
+     */
+    static void writePage(DataOutput out, Page p) throws IOException {
+        Integer tag = pageTags.get(p.getClass());
+        if (tag != null) {
+            out.writeByte(tag);
+        } else {
+            out.writeByte(REFLECTIVE);
+            out.writeUTF(p.getClass().getName());
+        }
+        writePageId(out, p.getId());
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
+
+    static Page readPage(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        Constructor<?> c = tag == REFLECTIVE ? constructor(in.readUTF()) : null;
+        PageId pid = readPageId(in);
+        byte[] pageData = new byte[in.readInt()];
+        in.readFully(pageData);
+        if (c != null) {
+            return (Page) newInstance(c, pid, pageData);
+        }
+        return codec(pageCodecs, tag).decode(pid, pageData);
+    }
+
+    private static <T> T codec(T[] codecs, int tag) throws IOException {
+        T codec = codecs[tag];
+        if (codec == null) {
+            throw new IOException("unknown codec tag " + tag + " in log");
+        }
+        return codec;
+    }
+
+    private static Constructor<?> constructor(String className) throws IOException {
+        Constructor<?> c = constructors.get(className);
+        if (c == null) {
+            try {
+                c = Class.forName(className).getDeclaredConstructors()[0];
+            } catch (ClassNotFoundException e) {
+                throw new IOException("unknown class " + className + " in log", e);
+            }
+            constructors.put(className, c);
+        }
+        return c;
+    }
+
+    private static Object newInstance(Constructor<?> c, Object... args) throws IOException {
+        try {
+            return c.newInstance(args);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("cannot construct " + c.getDeclaringClass().getName() + " from log", e);
+        }
+    }
+}
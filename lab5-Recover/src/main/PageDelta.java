@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+//页的差量：只记录一次更新前后页数据中不同的字节区间，用来代替UPDATE记录中的整页before/after image
+//HeapPage插入或删除一个tuple只会改变header中的一个字节和一个slot，所以差量通常只有两个很小的区间
+//每个区间记录起始位置、旧字节和新字节：redo把区间设为新字节，undo设为旧字节，
+//设置的都是确定的值，所以对同一个页重复执行不会改变结果
+class PageDelta {
+    //两个区间之间相同的字节少于这个数时合并为一个区间，避免为了几个字节多写一个区间头
+    static final int MERGE_GAP = 8;
+
+    private final PageId pid;
+    private final int pageSize;
+    private final int[] offsets;
+    private final byte[][] oldBytes;
+    private final byte[][] newBytes;
+
+    private PageDelta(PageId pid, int pageSize, int[] offsets, byte[][] oldBytes, byte[][] newBytes) {
+        this.pid = pid;
+        this.pageSize = pageSize;
+        this.offsets = offsets;
+        this.oldBytes = oldBytes;
+        this.newBytes = newBytes;
+    }
+
+    /**
+     * 比较同一个页的两份数据，得到从before到after的差量
+     *
+     * @param pid
+     * @param before 更新前的页数据
+     * @param after  更新后的页数据，长度必须和before相同
+     * @return
+     */
+    static PageDelta diff(PageId pid, byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            throw new IllegalArgumentException("page size changed from " + before.length + " to " + after.length);
+        }
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < after.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;//不同区间的结束位置（不包含）
+            //向后扫描，遇到足够长的相同字节才结束区间
+            for (int j = end; j < after.length && j - end < MERGE_GAP; j++) {
+                if (before[j] != after[j]) {
+                    end = j + 1;
+                }
+            }
+            ranges.add(new int[]{start, end});
+            i = end;
+        }
+
+        int[] offsets = new int[ranges.size()];
+        byte[][] oldBytes = new byte[ranges.size()][];
+        byte[][] newBytes = new byte[ranges.size()][];
+        for (int r = 0; r < ranges.size(); r++) {
+            int start = ranges.get(r)[0], len = ranges.get(r)[1] - start;
+            offsets[r] = start;
+            oldBytes[r] = new byte[len];
+            newBytes[r] = new byte[len];
+            System.arraycopy(before, start, oldBytes[r], 0, len);
+            System.arraycopy(after, start, newBytes[r], 0, len);
+        }
+        return new PageDelta(pid, after.length, offsets, oldBytes, newBytes);
+    }
+
+    /**
+     * 格式：page id（见PageCodecs.writePageId）、页大小、区间数，然后每个区间的起始位置、长度、旧字节和新字节
+     *
+     * @param out
+     */
+    void write(DataOutput out) throws IOException {
+        PageCodecs.writePageId(out, pid);
+        out.writeInt(pageSize);
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(oldBytes[r].length);
+            out.write(oldBytes[r]);
+            out.write(newBytes[r]);
+        }
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        PageId pid = PageCodecs.readPageId(in);
+        int pageSize = in.readInt();
+        int count = in.readInt();
+        int[] offsets = new int[count];
+        byte[][] oldBytes = new byte[count][];
+        byte[][] newBytes = new byte[count][];
+        for (int r = 0; r < count; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            oldBytes[r] = new byte[len];
+            newBytes[r] = new byte[len];
+            in.readFully(oldBytes[r]);
+            in.readFully(newBytes[r]);
+        }
+        return new PageDelta(pid, pageSize, offsets, oldBytes, newBytes);
+    }
+
+    /**
+     * @return 从after到before的差量，撤销这个差量时写入CLR
+     */
+    PageDelta inverse() {
+        return new PageDelta(pid, pageSize, offsets, newBytes, oldBytes);
+    }
+
+    PageId getPageId() {
+        return pid;
+    }
+
+    int getRangeCount() {
+        return offsets.length;
+    }
+
+    /**
+     * @return 差量中改变的字节数
+     */
+    int getChangedBytes() {
+        int n = 0;
+        for (byte[] b : newBytes) {
+            n += b.length;
+        }
+        return n;
+    }
+
+    /**
+     * 在页数据上原地应用差量
+     *
+     * @param data
+     * @param redo true设为新字节，false设为旧字节
+     */
+    void apply(byte[] data, boolean redo) {
+        if (data.length != pageSize) {
+            throw new IllegalArgumentException("delta for a " + pageSize + " byte page applied to " + data.length + " bytes");
+        }
+        byte[][] bytes = redo ? newBytes : oldBytes;
+        for (int r = 0; r < offsets.length; r++) {
+            System.arraycopy(bytes[r], 0, data, offsets[r], bytes[r].length);
+        }
+    }
+
+    /**
+     * 读取磁盘上的页，应用差量后写回，并丢掉BufferPool中缓存的页
+     * 调用者需要持有BufferPool的锁
+     *
+     * @param redo
+     */
+    void applyToDisk(boolean redo) throws IOException {
+        byte[] data = readFromDisk(pid);
+        apply(data, redo);
+        writeToDisk(pid, data);
+        Database.getBufferPool().discardPage(pid);
+    }
+
+    /**
+     * @param pid
+     * @return 磁盘上的页数据
+     */
+    static byte[] readFromDisk(PageId pid) throws IOException {
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid).getPageData();
+    }
+
+    /**
+     * 把页数据写回磁盘，不经过BufferPool
+     *
+     * @param pid
+     * @param data
+     */
+    static void writeToDisk(PageId pid, byte[] data) throws IOException {
+        //BTree的页需要key field才能构造，而写回磁盘只需要页数据，所以不构造具体的页
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(new PatchedPage(pid, data));
+    }
+
+    //只用于把应用差量后的数据写回磁盘
+    private static class PatchedPage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        PatchedPage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PageDelta{" +
+                "table=" + pid.getTableId() +
+                ", page=" + pid.getPageNumber() +
+                ", ranges=" + offsets.length +
+                ", bytes=" + getChangedBytes() +
+                '}';
+    }
+}
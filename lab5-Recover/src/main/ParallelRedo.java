@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//recover()的redo阶段：按PageId把更新记录分给多个线程
+//同一个页的记录总是由同一个线程按日志顺序重做，所以不同线程之间不需要同步
+//每个线程在内存中保存自己负责的页，第一次遇到一个页时从磁盘读入，之后的记录都在内存中应用，
+//全部记录提交后每个页只写回磁盘一次
+class ParallelRedo {
+    //每个线程的记录队列长度，读日志比重做快时阻塞读日志的线程，限制内存占用
+    private static final int QUEUE_CAPACITY = 1024;
+    //通知线程没有更多记录
+    private static final LogRecord END = new LogRecord();
+
+    private final Worker[] workers;
+
+    ParallelRedo(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("redo needs at least one thread, not " + threads);
+        }
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 把一条UPDATE、DELTA或CLR记录交给负责它的页的线程
+     *
+     * @param record
+     */
+    void submit(LogRecord record) throws IOException {
+        PageId pid = LogFile.updatedPage(record);
+        workers[Math.floorMod(pid.hashCode(), workers.length)].put(record);
+    }
+
+    /**
+     * 等待所有线程重做完并把页写回磁盘
+     *
+     * @return 重做过的页
+     */
+    List<PageId> finish() throws IOException {
+        for (Worker w : workers) {
+            w.put(END);
+        }
+        List<PageId> pages = new ArrayList<>();
+        IOException failure = null;
+        for (Worker w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for redo", e);
+            }
+            if (w.failure != null && failure == null) {
+                failure = new IOException("redo failed", w.failure);
+            }
+            pages.addAll(w.pages.keySet());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return pages;
+    }
+
+    private static class Worker extends Thread {
+        private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Map<PageId, byte[]> pages = new HashMap<>();
+        private volatile Throwable failure;
+
+        Worker(int n) {
+            super("redo-" + n);
+            setDaemon(true);
+        }
+
+        //出错的线程仍然会取走记录，错误在finish()中报告
+        void put(LogRecord record) throws IOException {
+            try {
+                queue.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while queueing redo", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    LogRecord record = queue.take();
+                    if (record == END) {
+                        break;
+                    }
+                    if (failure == null) {
+                        redo(record);
+                    }
+                }
+                if (failure == null) {
+                    for (Map.Entry<PageId, byte[]> e : pages.entrySet()) {
+                        PageDelta.writeToDisk(e.getKey(), e.getValue());
+                    }
+                }
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        private void redo(LogRecord record) {
+            try {
+                if (record instanceof DeltaRecord) {
+                    apply(((DeltaRecord) record).getDelta());
+                } else if (record instanceof CompensationRecord) {
+                    //CLR保存的是撤销后的值，和普通的更新一样重做
+                    CompensationRecord clr = (CompensationRecord) record;
+                    if (clr.getDelta() != null) {
+                        apply(clr.getDelta());
+                    } else {
+                        pages.put(clr.getPageId(), clr.getPage().getPageData());
+                    }
+                } else {
+                    Page after = ((UpdateRecord) record).getAfter();
+                    pages.put(after.getId(), after.getPageData());
+                }
+            } catch (Throwable t) {
+                //继续取出队列中的记录，让读日志的线程不会阻塞，直到收到END
+                failure = t;
+            }
+        }
+
+        private void apply(PageDelta delta) throws IOException {
+            byte[] data = pages.get(delta.getPageId());
+            if (data == null) {
+                data = PageDelta.readFromDisk(delta.getPageId());
+                pages.put(delta.getPageId(), data);
+            }
+            delta.apply(data, true);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the throughput and latency of the log's hot paths across
+ * thread counts and record sizes:
+ * <ul>
+ * <li>write: logWrite() of a page with the given number of tuples changed
+ * since its last record, 100 writes per transaction
+ * <li>commit: BEGIN, one such write and logCommit(), which forces the log
+ * (group commit batches forces across threads)
+ * <li>checkpoint: logCheckpoint() on its own thread while the other threads
+ * run the commit loop
+ * </ul>
+ * Each row reports operations per second, log bytes per operation (for
+ * checkpoints, everything the threads logged per checkpoint) and the
+ * median and 99th percentile latency.  Run it before and after a logging
+ * change and compare the rows.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ * java simpledb.systemtest.LogBenchmark [maxThreads] [millisPerRun]
+ * </pre>
+ */
+public class LogBenchmark {
+    // tuples changed per logged page: one tuple, a few, and a full page
+    private static final int[] RECORD_TUPLES = {1, 16, 504};
+    private static final int WRITES_PER_TXN = 100;
+
+    private final int maxThreads;
+    private final long millisPerRun;
+
+    private HeapFile table;
+
+    public LogBenchmark(int maxThreads, long millisPerRun) {
+        this.maxThreads = maxThreads;
+        this.millisPerRun = millisPerRun;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+        LogBenchmark bench = new LogBenchmark(threads, millis);
+
+        // warm up the JIT so the first configuration is not penalised
+        bench.run(Op.WRITE, 1, 16);
+        bench.run(Op.COMMIT, 1, 1);
+
+        System.out.printf("%-11s %7s %7s %12s %10s %10s %10s%n",
+                "op", "threads", "tuples", "ops/s", "bytes/op", "p50 us", "p99 us");
+        for (Op op : Op.values()) {
+            for (int t = 1; t <= bench.maxThreads; t *= 2) {
+                for (int tuples : op == Op.CHECKPOINT ? new int[]{1} : RECORD_TUPLES) {
+                    Result r = bench.run(op, t, tuples);
+                    System.out.printf("%-11s %7d %7d %12.1f %10.1f %10.1f %10.1f%n",
+                            op.name().toLowerCase(), t, tuples, r.opsPerSecond, r.bytesPerOp,
+                            r.percentile(0.5) / 1e3, r.percentile(0.99) / 1e3);
+                }
+            }
+        }
+    }
+
+    enum Op { WRITE, COMMIT, CHECKPOINT }
+
+    static class Result {
+        double opsPerSecond;
+        double bytesPerOp;
+        long[] latencies;
+
+        double percentile(double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            return latencies[Math.min(latencies.length - 1, (int) (p * latencies.length))];
+        }
+    }
+
+    /**
+     * Runs one configuration against a fresh log for millisPerRun.
+     */
+    public Result run(final Op op, int threads, final int tuples) throws Exception {
+        Database.reset();
+        File f = new File("logbench.db");
+        f.delete();
+        table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        final LogFile log = Database.getLogFile();
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final List<List<Long>> latencies = new ArrayList<List<Long>>();
+        // the checkpoint run times checkpoints only; its threads keep the log busy
+        Thread[] workers = new Thread[threads + (op == Op.CHECKPOINT ? 1 : 0)];
+        for (int i = 0; i < workers.length; i++) {
+            final List<Long> mine = new ArrayList<Long>();
+            final boolean checkpointer = op == Op.CHECKPOINT && i == threads;
+            if (op != Op.CHECKPOINT || checkpointer) {
+                latencies.add(mine);
+            }
+            final Page[] pages = pages(i, tuples);
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        if (checkpointer) {
+                            checkpoints(log, stop, mine);
+                        } else if (op == Op.WRITE) {
+                            writes(log, pages, stop, mine);
+                        } else {
+                            commits(log, pages, stop, op == Op.COMMIT ? mine : null);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long startLSN = log.getCurrentLSN();
+        long start = System.nanoTime();
+        for (Thread t : workers) {
+            t.start();
+        }
+        Thread.sleep(millisPerRun);
+        stop.set(true);
+        for (Thread t : workers) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        List<Long> all = new ArrayList<Long>();
+        for (List<Long> l : latencies) {
+            all.addAll(l);
+        }
+        Result r = new Result();
+        r.latencies = new long[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            r.latencies[i] = all.get(i);
+        }
+        Arrays.sort(r.latencies);
+        r.opsPerSecond = all.size() / seconds;
+        r.bytesPerOp = all.isEmpty() ? 0 : (double) (log.getCurrentLSN() - startLSN) / all.size();
+        return r;
+    }
+
+    // an empty page, then two pages differing from each other in the
+    // given number of tuples, so consecutive writes always log a change
+    private Page[] pages(int n, int tuples) throws Exception {
+        HeapPageId pid = new HeapPageId(table.getId(), n);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage a = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage b = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < tuples; i++) {
+            a.insertTuple(Utility.getHeapTuple(new int[]{i, 0}));
+            b.insertTuple(Utility.getHeapTuple(new int[]{i, 1}));
+        }
+        return new Page[]{empty, a, b};
+    }
+
+    private static void writes(LogFile log, Page[] pages, AtomicBoolean stop, List<Long> latencies)
+            throws Exception {
+        while (!stop.get()) {
+            Transaction t = new Transaction();
+            log.logXactionBegin(t.getId());
+            for (int i = 0; i < WRITES_PER_TXN && !stop.get(); i++) {
+                long start = System.nanoTime();
+                log.logWrite(t.getId(), pages[0], pages[1 + i % 2]);
+                latencies.add(System.nanoTime() - start);
+            }
+            log.logCommit(t.getId());
+        }
+    }
+
+    private static void commits(LogFile log, Page[] pages, AtomicBoolean stop, List<Long> latencies)
+            throws Exception {
+        while (!stop.get()) {
+            long start = System.nanoTime();
+            Transaction t = new Transaction();
+            log.logXactionBegin(t.getId());
+            log.logWrite(t.getId(), pages[0], pages[1]);
+            log.logCommit(t.getId());
+            if (latencies != null) {
+                latencies.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void checkpoints(LogFile log, AtomicBoolean stop, List<Long> latencies)
+            throws Exception {
+        while (!stop.get()) {
+            long start = System.nanoTime();
+            log.logCheckpoint();
+            latencies.add(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Crash-injection test for the log.  Each round starts a child JVM
+ * running a TransactionTest-like workload: several threads insert
+ * unique values, sometimes flush their dirty pages before finishing
+ * (so the table holds uncommitted data) and sometimes abort, while the
+ * checkpoint scheduler checkpoints and truncates the log.  After a
+ * random delay the child is killed, a second child runs recover(), and
+ * the table is checked against the workload's journal: every value
+ * whose commit returned must be present, every value whose abort
+ * returned must not be, and no value may be there twice.  Recovery
+ * time is reported for each round.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ * java simpledb.systemtest.LogCrashHarness [rounds] [threads] [maxRunMillis]
+ * </pre>
+ */
+public class LogCrashHarness {
+    private static final String TABLE = "crash.db";
+    private static final String JOURNAL = "journal";
+    private static final double FLUSH_RATIO = 0.3;
+    private static final double ABORT_RATIO = 0.1;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("workload")) {
+            workload(Integer.parseInt(args[1]), Long.parseLong(args[2]));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("recover")) {
+            recover();
+            return;
+        }
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long maxRunMillis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+
+        Random r = new Random();
+        int failures = 0;
+        long totalMillis = 0;
+        long maxMillis = 0;
+        for (int round = 0; round < rounds; round++) {
+            File dir = new File("crash-round-" + round);
+            deleteRecursively(dir);
+            dir.mkdirs();
+
+            Process workload = start(dir, "workload", Integer.toString(threads), Long.toString(r.nextLong()));
+            Thread.sleep(100 + (long) (r.nextDouble() * maxRunMillis));
+            workload.destroyForcibly().waitFor();
+
+            Process recovery = start(dir, "recover");
+            List<String> out = new ArrayList<String>();
+            BufferedReader in = new BufferedReader(new InputStreamReader(recovery.getInputStream()));
+            for (String line; (line = in.readLine()) != null; ) {
+                out.add(line);
+            }
+            recovery.waitFor();
+            String result = out.isEmpty() ? "FAIL no output" : out.get(out.size() - 1);
+            System.out.println("round " + round + ": " + result);
+            if (!result.startsWith("OK")) {
+                failures++;
+                for (String line : out) {
+                    System.out.println("    " + line);
+                }
+                continue;
+            }
+            long millis = Long.parseLong(result.split(" ")[1]);
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            deleteRecursively(dir);
+        }
+        int ok = rounds - failures;
+        System.out.printf("%d rounds, %d failed, recovery mean %.1f ms, max %d ms%n",
+                rounds, failures, ok == 0 ? 0.0 : (double) totalMillis / ok, maxMillis);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // a child JVM with the same classpath, working in dir so that the
+    // log, the table and the journal are all there
+    private static Process start(File dir, String... args) throws IOException {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(LogCrashHarness.class.getName());
+        for (String a : args) {
+            cmd.add(a);
+        }
+        return new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true).start();
+    }
+
+    // runs until killed; the journal is written after each commit or
+    // abort returns, so a line there means the outcome is final
+    private static void workload(int threads, long seed) throws Exception {
+        final HeapFile hf = Utility.createEmptyHeapFile(new File(TABLE).getAbsolutePath(), 2);
+        final PrintWriter journal = new PrintWriter(new FileWriter(JOURNAL), true);
+        Database.getLogFile().startCheckpointScheduler(64 * 1024, 100);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int base = i * 1000000;
+            final Random r = new Random(seed + i);
+            workers[i] = new Thread() {
+                public void run() {
+                    for (int n = 0; ; n++) {
+                        try {
+                            insert(hf, base + n, r, journal);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+    }
+
+    private static void insert(HeapFile hf, int value, Random r, PrintWriter journal) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[]{value, 0}));
+            if (r.nextDouble() < FLUSH_RATIO) {
+                Database.getBufferPool().flushAllPages();
+            }
+            if (r.nextDouble() < ABORT_RATIO) {
+                t.transactionComplete(true);
+                journal.println("abort " + value);
+            } else {
+                t.commit();
+                journal.println("commit " + value);
+            }
+        } catch (TransactionAbortedException e) {
+            // deadlock
+            t.transactionComplete(true);
+            journal.println("abort " + value);
+        }
+    }
+
+    private static void recover() throws Exception {
+        HeapFile hf = Utility.openHeapFile(2, new File(TABLE));
+        long start = System.nanoTime();
+        Database.getLogFile().recover();
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        Set<Integer> committed = new HashSet<Integer>();
+        Set<Integer> aborted = new HashSet<Integer>();
+        BufferedReader in = new BufferedReader(new FileReader(JOURNAL));
+        for (String line; (line = in.readLine()) != null; ) {
+            String[] parts = line.split(" ");
+            // the last line may be cut short by the kill
+            if (parts.length != 2 || parts[1].isEmpty()) {
+                continue;
+            }
+            (parts[0].equals("commit") ? committed : aborted).add(Integer.parseInt(parts[1]));
+        }
+        in.close();
+
+        Set<Integer> present = new HashSet<Integer>();
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            int v = ((IntField) scan.next().getField(0)).getValue();
+            if (!present.add(v)) {
+                System.out.println("FAIL value " + v + " present twice");
+                return;
+            }
+        }
+        scan.close();
+        t.commit();
+
+        for (int v : committed) {
+            if (!present.contains(v)) {
+                System.out.println("FAIL committed value " + v + " missing");
+                return;
+            }
+        }
+        for (int v : aborted) {
+            if (present.contains(v)) {
+                System.out.println("FAIL aborted value " + v + " present");
+                return;
+            }
+        }
+        // values neither committed nor aborted in the journal were in
+        // flight at the crash; only their commit record decides
+        System.out.println("OK " + millis + " ms, " + committed.size() + " committed, "
+                + aborted.size() + " aborted, " + present.size() + " present");
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        f.delete();
+    }
+}
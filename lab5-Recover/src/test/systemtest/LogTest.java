@@ -427,6 +427,263 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestGroupCommitCrash()
+            throws Exception {
+        setup();
+
+        // *** Test:
+        // concurrent commits share log forces, and are all durable
+
+        // one writer per table, so the transactions never wait for each other's locks
+        Database.getLogFile().setGroupCommit(2000, 2);
+        Thread[] threads = new Thread[2];
+        final Exception[] errors = new Exception[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        Transaction t = new Transaction();
+                        t.start();
+                        insertRow(n % 2 == 0 ? hf1 : hf2, t, 40 + n, 0);
+                        t.commit();
+                    } catch (Exception e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (errors[i] != null)
+                throw errors[i];
+        }
+        long forces = Database.getLogFile().getCommitForceCount();
+        assertEquals(threads.length, Database.getLogFile().getGroupCommittedCount());
+        assertTrue(forces >= 1 && forces <= threads.length);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < threads.length; i++)
+            look(i % 2 == 0 ? hf1 : hf2, t, 40 + i, true);
+        t.commit();
+    }
+
+    @Test public void TestDeltaRecordsCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // update records only hold the bytes that changed, so
+        // logging a few inserts takes far less than one page image;
+        // the deltas still redo and undo correctly
+
+        doInsert(hf1, 1, 2);
+        assertTrue(Database.getLogFile().getCurrentLSN() < BufferPool.getPageSize());
+
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 3, 0);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+        insertRow(hf1, t, 4, 0);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, false);
+        t.commit();
+    }
+
+    @Test public void TestParallelRedoCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 inserts and aborts after its page reached disk
+        // T2 inserts into the same page and commits
+        // T3 inserts into both tables but does not commit
+        // crash, recover with several redo threads
+        // T1 and T3 data should not be there
+
+        dontInsert(hf1, 50, -1);
+        doInsert(hf1, 51, -1);
+        doInsert(hf2, 52, 53);
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insertRow(hf1, t3, 54, 0);
+        insertRow(hf2, t3, 55, 0);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        Database.getLogFile().setRecoveryThreads(3);
+        Database.getLogFile().recover();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 50, false);
+        look(hf1, t, 51, true);
+        look(hf2, t, 52, true);
+        look(hf2, t, 53, true);
+        look(hf1, t, 54, false);
+        look(hf2, t, 55, false);
+        t.commit();
+    }
+
+    @Test public void TestCheckpointSchedulerCrash()
+            throws Exception {
+        setup();
+
+        // *** Test:
+        // the scheduler takes fuzzy checkpoints in the background while
+        // T1 stays open across them and T2 commits
+        // crash
+        // only T2 data should be there
+
+        Database.getLogFile().startCheckpointScheduler(1, 0);
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 60, 0);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+        doInsert(hf2, 61, 62);
+        for (int i = 0; i < 50 && Database.getLogFile().getScheduledCheckpointCount() == 0; i++)
+            Thread.sleep(100);
+        assertTrue(Database.getLogFile().getScheduledCheckpointCount() > 0);
+        Database.getLogFile().stopCheckpointScheduler();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 60, false);
+        look(hf2, t, 61, true);
+        look(hf2, t, 62, true);
+        t.commit();
+    }
+
+    @Test public void TestSegmentTruncateCrash()
+            throws Exception {
+        setup();
+
+        // *** Test:
+        // small log segments, T1 T2 T3 commit
+        // checkpoint, truncate deletes the old segments
+        // T4 start, update, crash
+        // T1 T2 T3 data should be there, T4 data not
+
+        Database.getLogFile().setSegmentSize(64);
+        doInsert(hf1, 70, 71);
+        doInsert(hf2, 72, 73);
+        doInsert(hf1, 74, -1);
+        int segments = Database.getLogFile().getSegmentCount();
+        assertTrue(segments > 1);
+
+        Database.getLogFile().logCheckpoint();
+        assertTrue(Database.getLogFile().logTruncate() > 0);
+        assertTrue(Database.getLogFile().getSegmentCount() < segments);
+
+        Transaction t4 = new Transaction();
+        t4.start();
+        insertRow(hf2, t4, 75, 0);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 70, true);
+        look(hf1, t, 71, true);
+        look(hf2, t, 72, true);
+        look(hf2, t, 73, true);
+        look(hf1, t, 74, true);
+        look(hf2, t, 75, false);
+        t.commit();
+    }
+
+    @Test public void TestRecoverTwiceCrash()
+            throws Exception {
+        setup();
+
+        // *** Test:
+        // T1 start, update, T2 start and commit, T3 start, update, abort
+        // crash, recovery undoes T1 and logs compensation records
+        // crash again before anything else happens
+        // T2 data should be there, T1 and T3 data not
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 80, 0);
+        Database.getBufferPool().flushAllPages(); // XXX something to UNDO
+        insertRow(hf1, t1, 81, 0);
+        Database.getBufferPool().flushAllPages();
+
+        doInsert(hf2, 82, -1);
+        dontInsert(hf2, 83, 84);
+
+        crash();
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 80, false);
+        look(hf1, t, 81, false);
+        look(hf2, t, 82, true);
+        look(hf2, t, 83, false);
+        look(hf2, t, 84, false);
+        t.commit();
+    }
+
+    @Test public void TestArchiveRestore()
+            throws Exception {
+        setup();
+
+        // *** Test:
+        // archive the log, T1 commits, base snapshot, T2 commits
+        // T3 commits after the restore target
+        // lose the tables, restore from the archive up to the target
+        // T1 T2 data should be there, T3 data not
+
+        File archiveDir = java.nio.file.Files.createTempDirectory("simpledb-archive").toFile();
+        LogArchiver archiver = new LogArchiver(Database.getLogFile(), archiveDir);
+        Database.getLogFile().setArchiver(archiver);
+        Database.getLogFile().setSegmentSize(64);
+
+        doInsert(hf1, 90, 91);
+        archiver.snapshot();
+        doInsert(hf2, 92, -1);
+        long target = Database.getLogFile().getCurrentLSN();
+        doInsert(hf1, 93, -1);
+        assertTrue(archiver.archive() > 0);
+
+        Database.reset();
+        file1.delete();
+        file2.delete();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        assertEquals(target, new LogArchiver(Database.getLogFile(), archiveDir).restore(target));
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 90, true);
+        look(hf1, t, 91, true);
+        look(hf2, t, 92, true);
+        look(hf1, t, 93, false);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);